@@ -0,0 +1,71 @@
+package org.openlcb;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * EventID hashing and lookup, as done for every event report by the event tables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventIDBenchmark {
+    static final int EVENTS = 1024;
+
+    EventID[] events = new EventID[EVENTS];
+    /// Equal to events, but different objects, like the ones decoded from the bus.
+    EventID[] probes = new EventID[EVENTS];
+    HashMap<EventID, Integer> hashMap = new HashMap<>();
+    LongHashMap<Integer> longMap = new LongHashMap<>();
+    int next = 0;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < EVENTS; i++) {
+            long v = 0x0501010101000000L + i * 2L;
+            events[i] = new EventID(v);
+            probes[i] = new EventID(v);
+            hashMap.put(events[i], i);
+            longMap.put(v, i);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (EVENTS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public int hash() {
+        return probes[nextIndex()].hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsOther() {
+        int i = nextIndex();
+        return probes[i].equals(events[i]);
+    }
+
+    @Benchmark
+    public Integer hashMapLookup() {
+        return hashMap.get(probes[nextIndex()]);
+    }
+
+    @Benchmark
+    public Integer longHashMapLookup() {
+        return longMap.get(probes[nextIndex()].toLong());
+    }
+
+    @Benchmark
+    public EventID decodeFromLong() {
+        return new EventID(0x0501010101000000L + nextIndex());
+    }
+}
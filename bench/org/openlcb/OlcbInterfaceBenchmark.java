@@ -0,0 +1,70 @@
+package org.openlcb;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Dispatch of incoming messages to the listeners registered on an interface.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OlcbInterfaceBenchmark {
+    /// Listeners registered in addition to the interface's own components.
+    @Param({"0", "20"})
+    int listeners;
+
+    OlcbInterface iface;
+    Connection input;
+    Message eventReport;
+    Message verifiedNodeId;
+    int count = 0;
+
+    @Setup
+    public void setup() {
+        NodeID local = new NodeID(new byte[]{2, 1, 0x12, 0, 0, 1});
+        NodeID remote = new NodeID(new byte[]{5, 1, 1, 1, 0x22, 1});
+        iface = new OlcbInterface(local, new AbstractConnection() {
+            @Override
+            public void put(Message msg, Connection sender) {
+            }
+        }, OlcbExecutors.newThreadPool(), new TimerService("bench-timer"));
+        for (int i = 0; i < listeners; i++) {
+            iface.registerMessageListener(new MessageDecoder() {
+                @Override
+                public void handleProducerConsumerEventReport(ProducerConsumerEventReportMessage
+                        msg, Connection sender) {
+                    ++count;
+                }
+            });
+        }
+        input = iface.getInputConnection();
+        eventReport = new ProducerConsumerEventReportMessage(remote, new EventID(
+                0x0501010101220001L));
+        verifiedNodeId = new VerifiedNodeIDNumberMessage(remote);
+    }
+
+    @TearDown
+    public void tearDown() {
+        iface.dispose();
+    }
+
+    @Benchmark
+    public void dispatchEventReport() {
+        input.put(eventReport, null);
+    }
+
+    @Benchmark
+    public void dispatchVerifiedNodeId() {
+        input.put(verifiedNodeId, null);
+    }
+}
@@ -0,0 +1,67 @@
+package org.openlcb.can;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openlcb.NodeID;
+
+/**
+ * Alias lookups in both directions, and the per-frame update check.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AliasMapBenchmark {
+    /// Number of nodes on the bus.
+    @Param({"10", "500"})
+    int nodes;
+
+    AliasMap map;
+    NodeID[] ids;
+    int[] aliases;
+    int next = 0;
+    OpenLcbCanFrame eventFrame;
+
+    @Setup
+    public void setup() {
+        map = new AliasMap();
+        ids = new NodeID[nodes];
+        aliases = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            ids[i] = new NodeID(0x050101010000L + i * 7919L);
+            aliases[i] = 1 + i * 7 % 4095;
+            map.insert(aliases[i], ids[i]);
+        }
+        eventFrame = new OpenLcbCanFrame(aliases[0]);
+        eventFrame.setHeader(0x195B4000 | aliases[0]);
+        eventFrame.setData(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+    private int nextIndex() {
+        if (++next >= nodes) next = 0;
+        return next;
+    }
+
+    @Benchmark
+    public NodeID getNodeID() {
+        return map.getNodeID(aliases[nextIndex()]);
+    }
+
+    @Benchmark
+    public int getAlias() {
+        return map.getAlias(ids[nextIndex()]);
+    }
+
+    /// A frame that does not change the map, which is nearly all of them.
+    @Benchmark
+    public void processEventFrame() {
+        map.processFrame(eventFrame);
+    }
+}
@@ -0,0 +1,66 @@
+package org.openlcb.can;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * GridConnect rendering and parsing. The parser benchmark feeds a chunk of bytes the way
+ * GridConnectInput does after each read from the socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GridConnectBenchmark {
+    /// Frames per parsed chunk.
+    static final int CHUNK_FRAMES = 16;
+
+    OpenLcbCanFrame frame;
+    byte[] encodeBuffer = new byte[GridConnect.MAX_FRAME_LENGTH];
+    byte[] chunk;
+    GridConnect.Input input;
+    Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        blackhole = bh;
+        frame = new OpenLcbCanFrame(0x123);
+        frame.setHeader(0x195B4123);
+        frame.setData(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < CHUNK_FRAMES; i++) {
+            sb.append(GridConnect.format(frame)).append('\n');
+        }
+        chunk = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        input = new GridConnect.Input() {
+            @Override
+            public void onFrame(CanFrame f) {
+                blackhole.consume(f);
+            }
+        };
+    }
+
+    @Benchmark
+    public String format() {
+        return GridConnect.format(frame);
+    }
+
+    @Benchmark
+    public int encode() {
+        return GridConnect.encode(frame, encodeBuffer, 0);
+    }
+
+    /// Cost of parsing CHUNK_FRAMES frames.
+    @Benchmark
+    public void parseChunk() {
+        input.send(chunk, 0, chunk.length);
+    }
+}
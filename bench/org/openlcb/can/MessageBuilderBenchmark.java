@@ -0,0 +1,82 @@
+package org.openlcb.can;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openlcb.DatagramMessage;
+import org.openlcb.EventID;
+import org.openlcb.Message;
+import org.openlcb.NodeID;
+import org.openlcb.ProducerConsumerEventReportMessage;
+
+/**
+ * Frame to message and message to frame conversion.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageBuilderBenchmark {
+    NodeID source = new NodeID(new byte[]{1, 2, 3, 4, 5, 6});
+    NodeID destination = new NodeID(new byte[]{2, 3, 4, 5, 6, 7});
+    MessageBuilder builder;
+    OpenLcbCanFrame eventFrame;
+    OpenLcbCanFrame datagramFirst;
+    OpenLcbCanFrame datagramLast;
+    Message eventMessage;
+    Message datagramMessage;
+
+    @Setup
+    public void setup() {
+        AliasMap map = new AliasMap();
+        map.insert(0x123, source);
+        map.insert(0x321, destination);
+        builder = new MessageBuilder(map);
+        eventFrame = new OpenLcbCanFrame(0x123);
+        eventFrame.setHeader(0x195B4123);
+        eventFrame.setData(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        datagramFirst = new OpenLcbCanFrame(0x123);
+        datagramFirst.setHeader(0x1B321123);
+        datagramFirst.setData(new byte[]{0x20, 0x41, 0, 0, 0, 0, 0x40});
+        datagramLast = new OpenLcbCanFrame(0x123);
+        datagramLast.setHeader(0x1D321123);
+        datagramLast.setData(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        eventMessage = new ProducerConsumerEventReportMessage(source, new EventID(new byte[]{1,
+                2, 3, 4, 5, 6, 7, 8}));
+        datagramMessage = new DatagramMessage(source, destination, new int[]{0x20, 0x41, 0, 0,
+                0, 0, 0x40, 1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+    @Benchmark
+    public Message decodeEventReport() {
+        return builder.decodeFrame(eventFrame);
+    }
+
+    @Benchmark
+    public List<Message> processFrameEventReport() {
+        return builder.processFrame(eventFrame);
+    }
+
+    /// Two-frame datagram through the reassembler.
+    @Benchmark
+    public Message decodeDatagram() {
+        builder.decodeFrame(datagramFirst);
+        return builder.decodeFrame(datagramLast);
+    }
+
+    @Benchmark
+    public List<OpenLcbCanFrame> renderEventReport() {
+        return builder.processMessage(eventMessage);
+    }
+
+    @Benchmark
+    public List<OpenLcbCanFrame> renderDatagram() {
+        return builder.processMessage(datagramMessage);
+    }
+}
@@ -0,0 +1,74 @@
+package org.openlcb.implementations;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openlcb.AbstractConnection;
+import org.openlcb.Connection;
+import org.openlcb.DatagramAcknowledgedMessage;
+import org.openlcb.DatagramMessage;
+import org.openlcb.Message;
+import org.openlcb.NodeID;
+import org.openlcb.OlcbExecutors;
+import org.openlcb.TimerService;
+
+/**
+ * Datagram throughput of the metering buffer: each operation sends one datagram per
+ * destination and then delivers the acknowledgements, so all destinations are in flight at the
+ * same time. The network is replaced by a no-op connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DatagramMeteringBufferBenchmark {
+    @Param({"1", "16"})
+    int destinations;
+
+    DatagramMeteringBuffer dmb;
+    Connection replies;
+    DatagramMessage[] datagrams;
+    DatagramAcknowledgedMessage[] acks;
+
+    @Setup
+    public void setup() {
+        dmb = new DatagramMeteringBuffer(new AbstractConnection() {
+            @Override
+            public void put(Message msg, Connection sender) {
+            }
+        }, OlcbExecutors.newThreadPool(), TimerService.createVirtual());
+        dmb.setMaxInFlight(destinations);
+        replies = dmb.connectionForRepliesFromDownstream();
+        NodeID local = new NodeID(new byte[]{2, 1, 0x12, 0, 0, 1});
+        datagrams = new DatagramMessage[destinations];
+        acks = new DatagramAcknowledgedMessage[destinations];
+        for (int i = 0; i < destinations; i++) {
+            NodeID remote = new NodeID(0x050101012200L + i);
+            datagrams[i] = new DatagramMessage(local, remote, new int[]{0x20, 0x41, 0, 0, 0, 0,
+                    0x40});
+            acks[i] = new DatagramAcknowledgedMessage(remote, local);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dmb.dispose();
+    }
+
+    @Benchmark
+    public void sendAndAcknowledge() {
+        for (int i = 0; i < destinations; i++) {
+            dmb.put(datagrams[i], null);
+        }
+        for (int i = 0; i < destinations; i++) {
+            replies.put(acks[i], null);
+        }
+    }
+}
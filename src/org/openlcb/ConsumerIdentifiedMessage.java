@@ -52,5 +52,8 @@ public class ConsumerIdentifiedMessage extends EventMessage {
         return super.toString() + " Consumer Identified " + eventState.toString() + " for "+eventID.toString();
     }
 
+    @Override
+    public MessageTypeIdentifier getEMTI() { return eventState.getConsumerIdentifierMti(); }
+
     public int getMTI() { return MTI_CONSUMER_IDENTIFIED; }
 }
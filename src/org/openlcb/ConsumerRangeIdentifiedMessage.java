@@ -35,5 +35,8 @@ public class ConsumerRangeIdentifiedMessage extends EventMessage {
                 +" Consumer Range Identified with " + eventID.toString();
     }
     
-    public int getMTI() { return MTI_PRODUCER_RANGE_IDENTIFIED; }
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.ConsumerRangeIdentified; }
+
+    public int getMTI() { return MTI_CONSUMER_RANGE_IDENTIFIED; }
 }
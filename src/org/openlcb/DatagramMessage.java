@@ -81,6 +81,9 @@ public class DatagramMessage extends AddressedMessage {
         return data;
     }
     
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.Datagram; }
+
     @Override
     public int getMTI() { return MTI_DATAGRAM; }
 
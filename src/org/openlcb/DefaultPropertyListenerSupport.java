@@ -4,21 +4,28 @@ package org.openlcb;
  * Created by bracz on 4/9/16.
  */
 public class DefaultPropertyListenerSupport implements PropertyListenerSupport {
-    final java.beans.PropertyChangeSupport pcs;
+    /// Created with the first listener; most objects (e.g. the CDI entries of a node) never get
+    /// one.
+    private volatile java.beans.PropertyChangeSupport pcs = null;
 
     public DefaultPropertyListenerSupport() {
-        pcs = new java.beans.PropertyChangeSupport(this);
     }
 
     public synchronized void addPropertyChangeListener(java.beans.PropertyChangeListener l) {
+        if (pcs == null) {
+            pcs = new java.beans.PropertyChangeSupport(this);
+        }
         pcs.addPropertyChangeListener(l);
     }
 
     public synchronized void removePropertyChangeListener(java.beans.PropertyChangeListener l) {
+        if (pcs == null) return;
         pcs.removePropertyChangeListener(l);
     }
 
     protected void firePropertyChange(String p, Object old, Object n) {
-        pcs.firePropertyChange(p, old, n);
+        java.beans.PropertyChangeSupport s = pcs;
+        if (s == null) return;
+        s.firePropertyChange(p, old, n);
     }
 }
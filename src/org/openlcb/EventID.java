@@ -25,6 +25,7 @@ public class EventID {
             
         this.contents[6] = (byte)b7;
         this.contents[7] = (byte)b8;
+        this.value = computeLong(this.contents);
     }
     
     @CheckReturnValue
@@ -35,6 +36,7 @@ public class EventID {
             throw new java.lang.IllegalArgumentException("Wrong EventID length: "+contents.length);
         this.contents = new byte[BYTECOUNT];
         System.arraycopy(contents, 0, this.contents, 0, BYTECOUNT);
+        this.value = computeLong(this.contents);
     }
     
     @CheckReturnValue
@@ -46,9 +48,31 @@ public class EventID {
             throw new java.lang.IllegalArgumentException("Wrong EventID length: "+data.length);
         this.contents = new byte[BYTECOUNT];
         System.arraycopy(data, 0, this.contents, 0, BYTECOUNT);
+        this.value = computeLong(this.contents);
+    }
+
+    @CheckReturnValue
+    public EventID(long value) {
+        this.contents = new byte[BYTECOUNT];
+        for (int i = BYTECOUNT - 1; i >= 0; i--) {
+            this.contents[i] = (byte) value;
+            value >>>= 8;
+        }
+        this.value = computeLong(this.contents);
     }
     
     byte[] contents;
+    /// The event ID as a 64-bit number; used for hashing and comparison.
+    private final long value;
+
+    private static long computeLong(byte[] contents) {
+        long ret = 0;
+        for (int i = 0; i < BYTECOUNT; ++i) {
+            ret <<= 8;
+            ret |= (contents[i] & 0xff);
+        }
+        return ret;
+    }
     
     @CheckReturnValue
     @NonNull
@@ -62,15 +86,8 @@ public class EventID {
     @CheckReturnValue
     @Override
     public boolean equals(Object o){
-        // try to cast, else not equal
-        try {
-            EventID other = (EventID) o;
-            for (int i = 0; i<BYTECOUNT; i++)
-                if (other.contents[i] != this.contents[i]) return false;
-            return true;
-        } catch (Exception e) {
-            return false;
-        }
+        if (!(o instanceof EventID)) return false;
+        return ((EventID) o).value == value;
     }  
 
     /// Checks whether a given Event ID comes from a given Node ID's space.
@@ -84,14 +101,7 @@ public class EventID {
     @CheckReturnValue
     @Override
     public int hashCode() {
-        return (contents[0]<<21)
-            +(contents[1]<<18)
-            +(contents[2]<<15)
-            +(contents[3]<<12)
-            +(contents[4]<<9)
-            +(contents[5]<<6)
-            +(contents[6]<<3)
-            +(contents[7]);
+        return LongHashMap.hash(value);
     } 
 
     @CheckReturnValue
@@ -110,12 +120,6 @@ public class EventID {
     }
 
     public long toLong() {
-        long ret = 0;
-        for (int i = 0; i < 8; ++i) {
-            ret <<= 8;
-            int e = contents[i];
-            ret |= (e & 0xff);
-        }
-        return ret;
+        return value;
     }
 }
@@ -35,5 +35,8 @@ public class IdentifyConsumersMessage extends EventMessage {
                 +" Identify Consumers with "+eventID.toString();     
     }
 
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.IdentifyConsumer; }
+
     public int getMTI() { return MTI_IDENTIFY_CONSUMERS; }
 }
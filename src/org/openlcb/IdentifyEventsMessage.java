@@ -34,5 +34,11 @@ public class IdentifyEventsMessage extends AddressedMessage {
                 +" Identify Events ";   
     }
 
+    @Override
+    public MessageTypeIdentifier getEMTI() {
+        return getDestNodeID() != null ? MessageTypeIdentifier.IdentifyEventsAddressed :
+                MessageTypeIdentifier.IdentifyEventsGlobal;
+    }
+
     public int getMTI() { return MTI_IDENTIFY_EVENTS; }
 }
@@ -34,5 +34,8 @@ public class IdentifyProducersMessage extends EventMessage {
                 +" Identify Producers with "+eventID.toString();     
     }
 
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.IdentifyProducer; }
+
     public int getMTI() { return MTI_IDENTIFY_PRODUCERS; }
 }
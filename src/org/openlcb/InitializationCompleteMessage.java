@@ -34,5 +34,8 @@ public class InitializationCompleteMessage extends Message {
                 +" Initialization Complete";    
     }
 
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.InitializationComplete; }
+
     public int getMTI() { return MTI_INITIALIZATION_COMPLETE; }
 }
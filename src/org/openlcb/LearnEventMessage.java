@@ -34,5 +34,8 @@ public class LearnEventMessage extends EventMessage {
                 +" LearnEvent "+eventID.toString();     
     }
      
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.LearnEvent; }
+
     public int getMTI() { return MTI_LEARN_EVENT; }
 }
@@ -1,7 +1,5 @@
 package org.openlcb;
 
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.logging.Logger;
 import org.openlcb.implementations.DatagramService;
 import org.openlcb.implementations.MemoryConfigurationService;
@@ -51,12 +49,14 @@ public class LoaderClient extends MessageDecoder {
     }
 
     public LoaderClient( Connection _connection, MemoryConfigurationService _mcs, DatagramService _dcs ) {
+        this(_connection, _mcs, _dcs, TimerService.getDefault());
+    }
+
+    public LoaderClient( Connection _connection, MemoryConfigurationService _mcs, DatagramService _dcs, TimerService _timerService ) {
         connection = _connection;
         dcs = _dcs;
         mcs = _mcs;
-        if(timer == null) {
-           timer = new Timer("OpenLCB LoaderClient Timeout Timer");
-        }
+        timerService = _timerService;
     }
 
     /* Protocol:
@@ -117,22 +117,25 @@ public class LoaderClient extends MessageDecoder {
         startTimeout(FREEZE_REBOOT_TIMEOUT_MSEC);
     }
 
-    private static Timer timer;
-    private TimerTask task = null;
+    private final TimerService timerService;
+    private final TimerService.Task task = new TimerService.Task(){
+        public void run(){
+            timerExpired();
+        }
+    };
+    private boolean timeoutStarted = false;
+    private boolean disposed = false;
     private void startTimeout(int period_msec) {
-        task = new TimerTask(){
-            public void run(){
-                timerExpired();
-            }
-        };
-        timer.schedule(task, period_msec);
+        if (disposed) return;
+        timeoutStarted = true;
+        timerService.schedule(task, period_msec);
     }
     private void endTimeout() {
-        if (task != null) task.cancel();
+        if (timeoutStarted) task.cancel();
         else {
             state = State.FAIL;
         }
-        task = null;
+        timeoutStarted = false;
     }
     private void timerExpired() {
         failWith(1, "Timed out in state " + state.name());
@@ -365,9 +368,7 @@ public class LoaderClient extends MessageDecoder {
      * clean up local storage
      */
     public void dispose(){
-       if(timer!=null) {
-          timer.cancel();
-          timer = null;
-       }
+       disposed = true;
+       task.cancel();
     }
 }
@@ -0,0 +1,204 @@
+package org.openlcb;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash map from primitive long keys (such as {@link EventID#toLong()} or
+ * {@link NodeID#toLong()}) to objects.
+ * <p>
+ * Uses open addressing with linear probing in parallel arrays, so lookups do not allocate or
+ * box the key. Removal shifts the following entries back instead of leaving tombstones, so the
+ * table does not degrade under churn.
+ * <p>
+ * Not thread-safe; callers must synchronize externally.
+ *
+ * @param <V> value type. Null values are not allowed.
+ */
+public class LongHashMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Spreads the bits of a 64-bit value so that keys that differ only in a few bits (such as
+     * the events of one node) land in different slots. This is the finalizer of MurmurHash3.
+     *
+     * @param key value to hash
+     * @return well-distributed 64-bit hash
+     */
+    public static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * @param key value to hash
+     * @return a well-distributed 32-bit hash code of key, suitable for hashCode().
+     */
+    public static int hash(long key) {
+        long h = mix(key);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private long[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    public LongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of entries to size the table for.
+     */
+    public LongHashMap(int expectedSize) {
+        int c = MIN_CAPACITY;
+        while (c < expectedSize * 2) c *= 2;
+        keys = new long[c];
+        values = new Object[c];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int slot(long key) {
+        return (int) mix(key) & (keys.length - 1);
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (values[i] == null) return -1;
+            if (keys[i] == key) return i;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = find(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    public boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * @param key   key
+     * @param value value; must not be null
+     * @return the previous value for key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) throw new IllegalArgumentException("null value");
+        int mask = keys.length - 1;
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @param key key to remove
+     * @return the removed value, or null if the key was not present.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = find(key);
+        if (i < 0) return null;
+        V old = (V) values[i];
+        deleteSlot(i);
+        --size;
+        return old;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return the values in unspecified order. The returned object is a live view; the map
+     * must not be modified while iterating.
+     */
+    public Iterable<V> values() {
+        return new Iterable<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new Iterator<V>() {
+                    int next = advance(0);
+
+                    private int advance(int i) {
+                        while (i < values.length && values[i] == null) ++i;
+                        return i;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public V next() {
+                        if (next >= values.length) throw new NoSuchElementException();
+                        V v = (V) values[next];
+                        next = advance(next + 1);
+                        return v;
+                    }
+                };
+            }
+        };
+    }
+
+    /// Empties slot i and moves back any following entries that would become unreachable.
+    private void deleteSlot(int i) {
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) break;
+            int k = slot(keys[j]);
+            // Moves j to i if its home slot k is not cyclically within (i, j].
+            if ((j > i) ? (k <= i || k > j) : (k <= i && k > j)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        values[i] = null;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == null) continue;
+            int i = slot(oldKeys[j]);
+            while (values[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.openlcb;
+
+/**
+ * Set of primitive long values (such as {@link EventID#toLong()}).
+ * <p>
+ * Open addressing with linear probing, same as {@link LongHashMap}; membership tests do not
+ * allocate. Not thread-safe; callers must synchronize externally.
+ */
+public class LongHashSet {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private boolean[] used;
+    private int size = 0;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of entries to size the table for.
+     */
+    public LongHashSet(int expectedSize) {
+        int c = MIN_CAPACITY;
+        while (c < expectedSize * 2) c *= 2;
+        keys = new long[c];
+        used = new boolean[c];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int slot(long key) {
+        return (int) LongHashMap.mix(key) & (keys.length - 1);
+    }
+
+    public boolean contains(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key); used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param key value to add
+     * @return true if the value was not yet in the set.
+     */
+    public boolean add(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key);
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) return false;
+        }
+        keys[i] = key;
+        used[i] = true;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @param key value to remove
+     * @return true if the value was in the set.
+     */
+    public boolean remove(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key);
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) break;
+        }
+        if (!used[i]) return false;
+        // Empties slot i and moves back any following entries that would become unreachable.
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (!used[j]) break;
+            int k = slot(keys[j]);
+            if ((j > i) ? (k <= i || k > j) : (k <= i && k > j)) {
+                keys[i] = keys[j];
+                i = j;
+            }
+        }
+        used[i] = false;
+        --size;
+        return true;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (!oldUsed[j]) continue;
+            int i = slot(oldKeys[j]);
+            while (used[i]) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            used[i] = true;
+        }
+    }
+}
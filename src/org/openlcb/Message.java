@@ -68,4 +68,12 @@ abstract public class Message implements OpenLcb {
      }
 
      abstract public int getMTI();
+
+     /**
+      * @return the message type of this message, or null if the message type is not known by
+      * the dispatch mechanisms (e.g. test-only messages).
+      */
+     public MessageTypeIdentifier getEMTI() {
+        return null;
+     }
 }
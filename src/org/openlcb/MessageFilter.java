@@ -0,0 +1,69 @@
+package org.openlcb;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes which incoming messages a listener is interested in. Used with
+ * {@link OlcbInterface#registerMessageListener(Connection, MessageFilter)} so that the interface
+ * only calls the listener for matching messages, instead of every message on the bus.
+ * <p>
+ * A message matches if its type was added with {@link #addType}, or if it is an event message
+ * whose event ID was added with {@link #addEvent} or falls into a range added with
+ * {@link #addEventRange}. Producer/Consumer Range Identified messages match an event filter if
+ * the announced range contains any of the events or overlaps any of the ranges.
+ * <p>
+ * The filter is copied upon registration; later changes have no effect on the registered
+ * listener.
+ */
+public class MessageFilter {
+    final Set<MessageTypeIdentifier> types = EnumSet.noneOf(MessageTypeIdentifier.class);
+    final List<Long> events = new ArrayList<>();
+    /// Inclusive [first, last] pairs, compared unsigned.
+    final List<long[]> ranges = new ArrayList<>();
+
+    public MessageFilter addType(MessageTypeIdentifier... t) {
+        for (MessageTypeIdentifier mti : t) {
+            types.add(mti);
+        }
+        return this;
+    }
+
+    public MessageFilter addEvent(EventID... e) {
+        for (EventID id : e) {
+            events.add(id.toLong());
+        }
+        return this;
+    }
+
+    /**
+     * Adds a range of events.
+     * @param first lowest event ID in the range (inclusive)
+     * @param last  highest event ID in the range (inclusive)
+     * @return this for chaining
+     */
+    public MessageFilter addEventRange(EventID first, EventID last) {
+        long lo = first.toLong();
+        long hi = last.toLong();
+        if (Long.compareUnsigned(lo, hi) > 0) {
+            throw new IllegalArgumentException("Empty event range " + first + " - " + last);
+        }
+        ranges.add(new long[]{lo, hi});
+        return this;
+    }
+
+    /**
+     * Decodes the event range announced by a Producer/Consumer Range Identified message. The
+     * range is encoded in the event ID as the run of identical trailing bits.
+     *
+     * @param eventId event ID from a range identified message
+     * @return inclusive [first, last] event IDs of the range
+     */
+    public static long[] decodeRange(long eventId) {
+        long bits = ((eventId & 1) != 0) ? eventId : ~eventId;
+        long mask = (bits ^ (bits + 1)) >>> 1;
+        return new long[]{eventId & ~mask, eventId | mask};
+    }
+}
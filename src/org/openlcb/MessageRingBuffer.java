@@ -0,0 +1,366 @@
+package org.openlcb;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+/**
+ * Queue of outgoing messages between any number of producer threads and a single consumer.
+ * <p>
+ * Entries are stored in ring arrays, so queueing a message does not allocate except when the
+ * ring grows. The
+ * consumer takes all queued messages at once into its own arrays (see {@link #take}), which
+ * costs one lock acquisition per batch instead of one per message.
+ * <p>
+ * When the ring is full, the {@link OverflowPolicy} decides whether the ring grows or what
+ * happens to the producer.
+ * Messages put by the thread currently delivering a batch (e.g. a loopback handler that replies
+ * to a message) are never blocked or dropped, since the consumer would wait for itself; they
+ * are held in a small overflow list instead.
+ */
+public class MessageRingBuffer {
+    private final static Logger logger = Logger.getLogger(MessageRingBuffer.class.getName());
+
+    /**
+     * What to do with a new message when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /// The ring is enlarged; the buffer is unbounded and producers never wait.
+        GROW,
+        /// The producer waits until there is space.
+        BLOCK,
+        /// The oldest queued event report is dropped to make space. If no event reports are
+        /// queued, the producer waits.
+        DROP_OLDEST_EVENT_REPORT,
+        /// The producer gets an IllegalStateException.
+        FAIL_FAST
+    }
+
+    /// Ring arrays; replaced by larger ones when the policy is GROW.
+    private Message[] messages;
+    private Connection[] senders;
+    private int mask;
+    private int head = 0;
+    private int size = 0;
+    /// Messages put by the delivering thread while the ring was full.
+    private final ArrayList<Message> overflowMessages = new ArrayList<>();
+    private final ArrayList<Connection> overflowSenders = new ArrayList<>();
+    private volatile OverflowPolicy policy;
+    /// Thread currently delivering a batch, or null.
+    private volatile Thread deliveryThread = null;
+    /// True from the first put until the consumer finished a batch with the ring empty.
+    private boolean busy = false;
+    /// True once the consumer stopped for good; see {@link #abandon}.
+    private boolean abandoned = false;
+    /// Counts busy periods (0 or 1); used for waiting until the buffer is drained.
+    private final QuiescenceLatch idle = new QuiescenceLatch();
+
+    // Statistics. Guarded by this.
+    private int maxDepth = 0;
+    private long droppedCount = 0;
+    private long rejectedCount = 0;
+    private long blockedCount = 0;
+    private long blockedNanos = 0;
+
+    /**
+     * @param capacity number of messages the buffer holds; rounded up to a power of two. With
+     *                 the GROW policy this is the initial size only.
+     * @param policy   what to do when the buffer is full
+     */
+    public MessageRingBuffer(int capacity, OverflowPolicy policy) {
+        int c = 1;
+        while (c < capacity) c *= 2;
+        messages = new Message[c];
+        senders = new Connection[c];
+        mask = c - 1;
+        this.policy = policy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        this.policy = policy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the maximum number of messages the buffer currently holds.
+     */
+    public synchronized int getCapacity() {
+        return messages.length;
+    }
+
+    /**
+     * Adds a message to the end of the queue.
+     * @param msg    message
+     * @param sender connection to pass along with the message
+     * @throws IllegalStateException if the buffer is full and the policy is FAIL_FAST.
+     */
+    public void put(Message msg, Connection sender) {
+        synchronized (this) {
+            if (isFull()) {
+                if (policy == OverflowPolicy.GROW && overflowMessages.isEmpty()) {
+                    grow();
+                } else if (policy == OverflowPolicy.GROW ||
+                        Thread.currentThread() == deliveryThread || makeSpace()) {
+                    // Stays behind the messages already in the overflow list.
+                    overflowMessages.add(msg);
+                    overflowSenders.add(sender);
+                    return;
+                }
+            }
+            if (abandoned) return;
+            int i = (head + size) & mask;
+            messages[i] = msg;
+            senders[i] = sender;
+            if (++size > maxDepth) maxDepth = size;
+            if (!busy) {
+                busy = true;
+                idle.increment();
+            }
+            notifyAll();
+        }
+    }
+
+    private boolean isFull() {
+        return size == messages.length || !overflowMessages.isEmpty();
+    }
+
+    /// Doubles the ring. Must be called with the lock held.
+    private void grow() {
+        Message[] m = new Message[messages.length * 2];
+        Connection[] c = new Connection[m.length];
+        for (int k = 0; k < size; k++) {
+            m[k] = messages[(head + k) & mask];
+            c[k] = senders[(head + k) & mask];
+        }
+        messages = m;
+        senders = c;
+        mask = m.length - 1;
+        head = 0;
+    }
+
+    /**
+     * Must be called with the lock held and the ring full.
+     * @return true if the new message has to go to the end of the overflow list, because
+     * there are older messages in it.
+     */
+    private boolean makeSpace() {
+        long start = 0;
+        try {
+            while (isFull()) {
+                switch (policy) {
+                    case FAIL_FAST:
+                        ++rejectedCount;
+                        throw new IllegalStateException("Output queue full (" + size +
+                                " messages)");
+                    case DROP_OLDEST_EVENT_REPORT:
+                        if (size == messages.length && dropOldestEventReport()) {
+                            if (overflowMessages.isEmpty()) return false;
+                            // The freed slot belongs to the oldest overflow message.
+                            refillFromOverflow();
+                            return true;
+                        }
+                        // fall through
+                    case BLOCK:
+                    default:
+                        if (start == 0) {
+                            start = System.nanoTime();
+                            ++blockedCount;
+                        }
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("Interrupted while waiting for " +
+                                    "output queue");
+                        }
+                }
+            }
+            return false;
+        } finally {
+            if (start != 0) {
+                blockedNanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /// @return true if an event report was found and removed.
+    private boolean dropOldestEventReport() {
+        for (int k = 0; k < size; k++) {
+            int i = (head + k) & mask;
+            if (messages[i] instanceof ProducerConsumerEventReportMessage) {
+                logger.fine("Output queue full; dropping " + messages[i]);
+                // Closes the gap by moving the older entries forward by one.
+                for (int j = k; j > 0; j--) {
+                    int to = (head + j) & mask;
+                    int from = (head + j - 1) & mask;
+                    messages[to] = messages[from];
+                    senders[to] = senders[from];
+                }
+                messages[head] = null;
+                senders[head] = null;
+                head = (head + 1) & mask;
+                --size;
+                ++droppedCount;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes all queued messages, up to the length of the arrays. Called by the consumer thread.
+     * Blocks until there is at least one message.
+     * @param msgs    receives the messages
+     * @param sndrs   receives the connections, parallel to msgs
+     * @return the number of messages taken.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized int take(Message[] msgs, Connection[] sndrs) throws
+            InterruptedException {
+        while (size == 0) {
+            wait();
+        }
+        return poll(msgs, sndrs);
+    }
+
+    /**
+     * Takes all queued messages, up to the length of the arrays, without waiting.
+     * @param msgs    receives the messages
+     * @param sndrs   receives the connections, parallel to msgs
+     * @return the number of messages taken; 0 if the buffer is empty.
+     */
+    public synchronized int poll(Message[] msgs, Connection[] sndrs) {
+        int n = Math.min(size, msgs.length);
+        for (int k = 0; k < n; k++) {
+            msgs[k] = messages[head];
+            sndrs[k] = senders[head];
+            messages[head] = null;
+            senders[head] = null;
+            head = (head + 1) & mask;
+        }
+        size -= n;
+        refillFromOverflow();
+        // Producers waiting for space.
+        notifyAll();
+        return n;
+    }
+
+    /// Moves overflow messages into the free slots of the ring, in order. Must be called with
+    /// the lock held.
+    private void refillFromOverflow() {
+        if (overflowMessages.isEmpty()) return;
+        int k = 0;
+        for (; size < messages.length && k < overflowMessages.size(); k++) {
+            int i = (head + size) & mask;
+            messages[i] = overflowMessages.get(k);
+            senders[i] = overflowSenders.get(k);
+            ++size;
+        }
+        overflowMessages.subList(0, k).clear();
+        overflowSenders.subList(0, k).clear();
+    }
+
+    /**
+     * Marks the thread that delivers the messages of the current batch. Messages put from this
+     * thread are never blocked.
+     * @param t the delivering thread, or null when the batch is done.
+     */
+    public void setDeliveryThread(Thread t) {
+        deliveryThread = t;
+    }
+
+    /**
+     * Called by the consumer after a batch returned by take() or poll() was delivered.
+     */
+    public void batchDone() {
+        synchronized (this) {
+            if (size != 0 || !busy) return;
+            busy = false;
+        }
+        idle.decrement();
+    }
+
+    /**
+     * Called when the consumer stops for good, e.g. because the interface is shut down. Drops
+     * the queued messages and all messages put later, and marks the buffer idle so that
+     * {@link #awaitIdle} does not wait forever.
+     */
+    public void abandon() {
+        synchronized (this) {
+            abandoned = true;
+            for (int k = 0; k < size; k++) {
+                messages[(head + k) & mask] = null;
+                senders[(head + k) & mask] = null;
+            }
+            head = 0;
+            size = 0;
+            overflowMessages.clear();
+            overflowSenders.clear();
+            // Producers waiting for space.
+            notifyAll();
+            if (!busy) return;
+            busy = false;
+        }
+        idle.decrement();
+    }
+
+    /**
+     * Blocks until all messages put so far were taken and delivered.
+     * @throws InterruptedException if interrupted
+     */
+    public void awaitIdle() throws InterruptedException {
+        idle.await();
+    }
+
+    /**
+     * @return a future that completes when all messages put so far were taken and delivered.
+     */
+    public CompletableFuture<Void> whenIdle() {
+        return idle.whenIdle();
+    }
+
+    /**
+     * @return the number of messages currently queued.
+     */
+    public synchronized int getDepth() {
+        return size + overflowMessages.size();
+    }
+
+    /**
+     * @return the largest number of messages that were queued at the same time.
+     */
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return the number of event reports dropped by DROP_OLDEST_EVENT_REPORT.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the number of messages rejected by FAIL_FAST.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return how many times a producer had to wait for space.
+     */
+    public synchronized long getBlockedCount() {
+        return blockedCount;
+    }
+
+    /**
+     * @return the total time producers spent waiting for space, in nanoseconds.
+     */
+    public synchronized long getBlockedNanos() {
+        return blockedNanos;
+    }
+}
@@ -76,13 +76,17 @@ public enum MessageTypeIdentifier {
         StreamDataProceed           ( true,  false, false, 0, 2,   4, 0, "StreamDataProceed"),
         StreamDataComplete          ( true,  false, false, 0, 2,   5, 0, "StreamDataComplete");
        
-        private static java.util.Map<Integer, MessageTypeIdentifier> mapping;
-        private static  java.util.Map<Integer, MessageTypeIdentifier> getMap() {
-            if (mapping == null)
-                mapping = new java.util.HashMap<Integer, MessageTypeIdentifier>();
-            return mapping;
+        /// All defined MTIs are below this value.
+        static final int TABLE_SIZE = 0x2000;
+        /// MTI -> enum value, null for unknown MTIs. Filled once at class load.
+        private static final MessageTypeIdentifier[] table = new MessageTypeIdentifier[TABLE_SIZE];
+
+        static {
+            for (MessageTypeIdentifier v : values()) {
+                table[v.mti()] = v;
+            }
         }
-        
+
         MessageTypeIdentifier(boolean addressed, boolean hasEventID, boolean isSimpleModeMessage, 
                                 int upper, int priorityGroup, int typeNumber, int modifier, String name) {
             this.addressed = addressed;
@@ -93,8 +97,7 @@ public enum MessageTypeIdentifier {
             this.typeNumber = typeNumber;
             this.upper = upper;
             this.name = name;
-            
-            getMap().put(Integer.valueOf(mti()), this);
+            this.mti = computeMti();
         }
         
         boolean addressed;
@@ -106,12 +109,18 @@ public enum MessageTypeIdentifier {
         int     upper;
         
         String name;
+        /// Numeric value, computed once from the fields above.
+        private final int mti;
         
         public String toString() {
             return name;
         }
 
         public int mti() {
+            return mti;
+        }
+
+        private int computeMti() {
             int retval = 0x0000;
 
             retval = retval | (upper << 12);
@@ -132,7 +141,8 @@ public enum MessageTypeIdentifier {
          * @return the enum for that numeric value or null if that numeric value is not a known MTI.
          */
         public static MessageTypeIdentifier get(int mti) {
-            return mapping.get(Integer.valueOf(mti));
+            if (mti < 0 || mti >= TABLE_SIZE) return null;
+            return table[mti];
         }
         
 }
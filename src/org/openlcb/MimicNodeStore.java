@@ -2,12 +2,14 @@ package org.openlcb;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,6 +19,13 @@ import javax.annotation.Nullable;
  * Store containing mimic proxies for nodes on external connections
  * <p>
  * Provides a Connection for incoming Messages.
+ * <p>
+ * The store may be read from any thread while messages are arriving. The number of SNIP and PIP
+ * interactions that are in progress at the same time is limited across all nodes (see
+ * {@link #setMaxActiveInteractions}); further interactions wait for a slot. Property change
+ * notifications can be coalesced (see {@link #setNotificationDelay}), in which case they are
+ * delivered in batches on the timer thread, and repeated updates of the same node are
+ * delivered once.
  *
  * @author  Bob Jacobsen   Copyright 2011
  */
@@ -24,55 +33,166 @@ public class MimicNodeStore extends AbstractConnection {
     public static final String ADD_PROP_NODE = "AddNode";
     public static final String CLEAR_ALL_NODES = "ClearAllNodes";
     private final static Logger logger = Logger.getLogger(MimicNodeStore.class.getName());
+    /// Default limit on how many interactions may be in progress at the same time.
+    public static final int DEFAULT_MAX_ACTIVE_INTERACTIONS = 8;
+    private static final int UPDATE_SIMPLE_NODE_IDENT = 1;
+    private static final int UPDATE_PROTOCOL = 2;
     
-    private static class MimicNodeStoreTimer {
-        private Timer timer;
-        
-        private synchronized void init() {
-            if (timer == null) {
-                // only initialize timer if it is not initialized or has been canceled before
-                timer = new Timer("OpenLCB Mimic Node Store Timer");
-            }
-        }
-
-        private synchronized void schedule(final TimerTask t, final int delay) {
-            if (timer != null) {
-                // only schedule task if timer is initialized and not canceled
-                timer.schedule(t,delay);
-            }
-        }
-        
-        private synchronized void cancel() {
-            if (timer != null ) {
-                // only cancel time if it is initialized and not canceled
-                timer.cancel();
-                timer = null;
-            }
-        }
+    public MimicNodeStore(Connection connection, NodeID node) {
+        this(connection, node, TimerService.getDefault());
     }
 
-    public MimicNodeStore(Connection connection, NodeID node) {
+    /**
+     * @param connection   where to send requests to the network
+     * @param node         node ID of the local node
+     * @param timerService schedules the timeouts of the interactions with the remote nodes
+     */
+    public MimicNodeStore(Connection connection, NodeID node, TimerService timerService) {
         this.connection = connection;
         this.node = node;
-        
-        timer.init();
+        this.timerService = timerService;
     }
 
     public void dispose() {
-        // cancel the timer.
-        timer.cancel();
+        disposed = true;
+        for (NodeMemo memo : map.values()) {
+            memo.timeoutTask.cancel();
+            memo.startupDelayTask.cancel();
+        }
+        startWaitingTask.cancel();
+        flushNotificationsTask.cancel();
+    }
+
+    void scheduleTask(TimerService.Task t, int delay) {
+        if (disposed) return;
+        timerService.schedule(t, delay);
+    }
+
+    /**
+     * Sets how many SNIP/PIP interactions may be in progress at the same time, across all
+     * nodes. Interactions with one node are always executed one at a time.
+     * @param max limit; at least 1.
+     */
+    public void setMaxActiveInteractions(int max) {
+        synchronized (slotLock) {
+            maxActiveInteractions = Math.max(1, max);
+        }
+        scheduleTask(startWaitingTask, 0);
     }
 
-    void scheduleTask(TimerTask t, int delay) {
-        timer.schedule(t,delay);
+    /**
+     * Sets how long property change notifications are held back to be coalesced. With zero (the
+     * default) every notification is delivered synchronously on the thread that caused it.
+     * {@link #CLEAR_ALL_NODES} is always delivered synchronously.
+     * @param delayMsec maximum time to hold back a notification.
+     */
+    public void setNotificationDelay(int delayMsec) {
+        notificationDelayMsec = Math.max(0, delayMsec);
     }
     
     Connection connection;
     NodeID node;
-    private static MimicNodeStoreTimer timer = new MimicNodeStoreTimer();
+    private final TimerService timerService;
+    private volatile boolean disposed = false;
+
+    /// Protects the interaction slots.
+    private final Object slotLock = new Object();
+    /// Guarded by slotLock.
+    private int maxActiveInteractions = DEFAULT_MAX_ACTIVE_INTERACTIONS;
+    /// Number of interactions holding a slot. Guarded by slotLock.
+    private int activeInteractions = 0;
+    /// Nodes that have an interaction waiting for a slot, in FIFO order. Guarded by slotLock.
+    private final Deque<NodeMemo> waitingForSlot = new ArrayDeque<>();
+    private final TimerService.Task startWaitingTask = new TimerService.Task() {
+        @Override
+        public void run() {
+            startWaiting();
+        }
+    };
+
+    private volatile int notificationDelayMsec = 0;
+    /// Added nodes that were not yet announced to the listeners.
+    private final ConcurrentLinkedQueue<NodeMemo> pendingAdds = new ConcurrentLinkedQueue<>();
+    /// Nodes with update notifications that were not yet delivered.
+    private final ConcurrentLinkedQueue<NodeMemo> pendingUpdates = new ConcurrentLinkedQueue<>();
+    private final TimerService.Task flushNotificationsTask = new TimerService.Task() {
+        @Override
+        public void run() {
+            flushNotifications();
+        }
+    };
+
+    /**
+     * Takes an interaction slot.
+     * @param memo node that wants to start an interaction; queued if there is no free slot.
+     * @return true if the slot was taken, false if the node was queued.
+     */
+    private boolean acquireSlot(NodeMemo memo) {
+        synchronized (slotLock) {
+            if (activeInteractions < maxActiveInteractions && waitingForSlot.isEmpty()) {
+                ++activeInteractions;
+                return true;
+            }
+            waitingForSlot.add(memo);
+            return false;
+        }
+    }
+
+    private void releaseSlot() {
+        synchronized (slotLock) {
+            --activeInteractions;
+            if (waitingForSlot.isEmpty()) return;
+        }
+        // Starts the waiting nodes on the timer thread, outside of the lock of the node that
+        // released the slot.
+        scheduleTask(startWaitingTask, 0);
+    }
+
+    private void startWaiting() {
+        while (true) {
+            NodeMemo memo;
+            synchronized (slotLock) {
+                if (activeInteractions >= maxActiveInteractions || waitingForSlot.isEmpty()) {
+                    return;
+                }
+                memo = waitingForSlot.poll();
+                ++activeInteractions;
+            }
+            memo.startWithSlot();
+        }
+    }
+
+    private void fireAdd(NodeMemo memo) {
+        if (notificationDelayMsec == 0) {
+            pcs.firePropertyChange(ADD_PROP_NODE, null, memo);
+            return;
+        }
+        pendingAdds.add(memo);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (!flushNotificationsTask.isScheduled()) {
+            scheduleTask(flushNotificationsTask, notificationDelayMsec);
+        }
+    }
+
+    private void flushNotifications() {
+        NodeMemo memo;
+        while ((memo = pendingAdds.poll()) != null) {
+            pcs.firePropertyChange(ADD_PROP_NODE, null, memo);
+        }
+        while ((memo = pendingUpdates.poll()) != null) {
+            memo.flushUpdates();
+        }
+    }
     
+    /**
+     * @return the nodes currently known. The returned collection is a live view that may be
+     * iterated while the store is being updated.
+     */
     public Collection<NodeMemo> getNodeMemos() {
-        return map.values();
+        return Collections.unmodifiableCollection(map.values());
     } 
     
     @Override
@@ -87,6 +207,11 @@ public class MimicNodeStore extends AbstractConnection {
      */
     public void refresh() {
         map.clear();
+        pendingAdds.clear();
+        pendingUpdates.clear();
+        synchronized (slotLock) {
+            waitingForSlot.clear();
+        }
         pcs.firePropertyChange(CLEAR_ALL_NODES, null, null);
         connection.put(new VerifyNodeIDNumberMessage(node), this);
     }
@@ -94,9 +219,12 @@ public class MimicNodeStore extends AbstractConnection {
     public NodeMemo addNode(NodeID id) {
         NodeMemo memo = map.get(id);
         if (memo == null) {
-            memo = new NodeMemo(id);
-            map.put(id, memo);
-            pcs.firePropertyChange(ADD_PROP_NODE, null, memo);
+            NodeMemo newMemo = new NodeMemo(id);
+            memo = map.putIfAbsent(id, newMemo);
+            if (memo == null) {
+                memo = newMemo;
+                fireAdd(memo);
+            }
         }
         return memo;
     }
@@ -129,7 +257,7 @@ public class MimicNodeStore extends AbstractConnection {
         return (memo == null) ? null : memo.getProtocolIdentification();
     }
     
-    HashMap<NodeID, NodeMemo> map = new java.util.HashMap<NodeID, NodeMemo>();
+    final ConcurrentHashMap<NodeID, NodeMemo> map = new ConcurrentHashMap<>();
 
     PropertyChangeSupport pcs = new PropertyChangeSupport(this);
     
@@ -154,12 +282,49 @@ public class MimicNodeStore extends AbstractConnection {
             return id;
         }
 
-        Queue<Interaction> pendingInteractions = new ConcurrentLinkedDeque<>();
+        Deque<Interaction> pendingInteractions = new ConcurrentLinkedDeque<>();
         Interaction currentInteraction = null;
-        private TimerTask currentTask;
+        /// True while the next interaction is waiting for a slot.
+        private boolean waitingForSlot = false;
+        /// True while the node is given time to start up after Initialization Complete. No
+        /// interaction is started, and no slot is held, in the meantime.
+        private boolean inStartupDelay = false;
+        /// Ends the startup delay.
+        private final TimerService.Task startupDelayTask = new TimerService.Task() {
+            @Override
+            public void run() {
+                synchronized (NodeMemo.this) {
+                    inStartupDelay = false;
+                    if (currentInteraction != null || waitingForSlot) return;
+                    doStart(pendingInteractions.poll());
+                }
+            }
+        };
+        /// Bitmask of UPDATE_ notifications not yet delivered.
+        private final AtomicInteger pendingUpdateMask = new AtomicInteger();
+        /// When the current interaction times out, in TimerService time.
+        private long timeoutDeadline;
+        /// Runs the timeout of the current interaction. Allocated once and re-armed for each
+        /// interaction.
+        private final TimerService.Task timeoutTask = new TimerService.Task() {
+            @Override
+            public void run() {
+                Interaction request;
+                synchronized (NodeMemo.this) {
+                    request = currentInteraction;
+                    // The task may have been re-armed for a newer interaction while this run
+                    // was already due.
+                    if (request == null || timerService.currentTimeMillis() < timeoutDeadline) {
+                        return;
+                    }
+                }
+                request.onTimeout();
+                tryCompleteInteraction(request);
+            }
+        };
 
         public synchronized void startInteraction(final Interaction request) {
-            if (currentInteraction == null) {
+            if (currentInteraction == null && !waitingForSlot && !inStartupDelay) {
                 doStart(request);
             } else {
                 pendingInteractions.add(request);
@@ -167,20 +332,39 @@ public class MimicNodeStore extends AbstractConnection {
         }
 
         private synchronized void doStart(final Interaction request) {
-            if (request == null) {
+            if (request == null || disposed || map.get(id) != this) {
+                // The store was refreshed; this node is no longer queried.
+                return;
+            }
+            if (!acquireSlot(this)) {
+                waitingForSlot = true;
+                pendingInteractions.addFirst(request);
+                return;
+            }
+            sendWithSlot(request);
+        }
+
+        /// Called by the store when a slot was assigned to this node.
+        private synchronized void startWithSlot() {
+            waitingForSlot = false;
+            if (inStartupDelay) {
+                // The end of the startup delay starts the interaction.
+                releaseSlot();
                 return;
             }
-            
+            Interaction request = pendingInteractions.poll();
+            if (request == null || disposed || map.get(id) != this) {
+                releaseSlot();
+                return;
+            }
+            sendWithSlot(request);
+        }
+
+        private void sendWithSlot(Interaction request) {
             currentInteraction = request;
             request.sendRequest(connection);
-            currentTask = new TimerTask() {
-                @Override
-                public void run() {
-                    request.onTimeout();
-                    tryCompleteInteraction(request);
-                }
-            };
-            scheduleTask(currentTask, request.deadlineMsec);
+            timeoutDeadline = timerService.currentTimeMillis() + request.deadlineMsec;
+            scheduleTask(timeoutTask, request.deadlineMsec);
         }
 
         public synchronized void tryCompleteInteraction(@Nullable Interaction request) {
@@ -203,14 +387,13 @@ public class MimicNodeStore extends AbstractConnection {
             synchronized (request) {
                 request.isComplete = true;
             }
-            currentTask.cancel();
+            timeoutTask.cancel();
             currentInteraction = null;
-            currentTask = null;
-            if (pendingInteractions.isEmpty()) {
+            releaseSlot();
+            if (pendingInteractions.isEmpty() || inStartupDelay) {
                 return;
             }
-            currentInteraction = pendingInteractions.remove();
-            doStart(currentInteraction);
+            doStart(pendingInteractions.remove());
         }
 
         ProtocolIdentification pIdent = null;
@@ -220,7 +403,7 @@ public class MimicNodeStore extends AbstractConnection {
         public void handleProtocolIdentificationReply(ProtocolIdentificationReplyMessage msg, Connection sender){
             // accept assumes from mimic'd node
             pIdent = new ProtocolIdentification(node, msg);
-            pcs.firePropertyChange(UPDATE_PROP_PROTOCOL, null, pIdent);
+            fireUpdate(UPDATE_PROTOCOL);
             tryCompleteInteraction(pipInteraction);
             pipInteraction = null;
         }
@@ -233,6 +416,13 @@ public class MimicNodeStore extends AbstractConnection {
                 pIdent = new ProtocolIdentification(node, id);
                 pipInteraction = new Interaction() {
                     int numTriesLeft = 3;
+                    final Interaction request = this;
+                    final TimerService.Task retryTask = new TimerService.Task() {
+                        @Override
+                        public void run() {
+                            startInteraction(request);
+                        }
+                    };
 
                     @Override
                     void sendRequest(Connection downstream) {
@@ -251,14 +441,8 @@ public class MimicNodeStore extends AbstractConnection {
                                 return;
                             }
                         }
-                        final Interaction request = this;
                         if (--numTriesLeft > 0) {
-                            scheduleTask(new TimerTask() {
-                                @Override
-                                public void run() {
-                                    startInteraction(request);
-                                }
-                            }, 200);
+                            scheduleTask(retryTask, 200);
                         }
                     }
                 };
@@ -283,7 +467,7 @@ public class MimicNodeStore extends AbstractConnection {
                 tryCompleteInteraction(snipInteraction);
                 snipInteraction = null;
             }
-            pcs.firePropertyChange(UPDATE_PROP_SIMPLE_NODE_IDENT, null, pSimpleNode);
+            fireUpdate(UPDATE_SIMPLE_NODE_IDENT);
         }  
         
         public SimpleNodeIdent getSimpleNodeIdent() {
@@ -291,6 +475,13 @@ public class MimicNodeStore extends AbstractConnection {
                 pSimpleNode = new SimpleNodeIdent(node, id);
                 snipInteraction = new Interaction() {
                     int numTriesLeft = 3;
+                    final Interaction request = this;
+                    final TimerService.Task retryTask = new TimerService.Task() {
+                        @Override
+                        public void run() {
+                            startInteraction(request);
+                        }
+                    };
 
                     @Override
                     void sendRequest(Connection downstream) {
@@ -309,14 +500,8 @@ public class MimicNodeStore extends AbstractConnection {
                                 return;
                             }
                         }
-                        final Interaction request = this;
                         if (--numTriesLeft > 0) {
-                            scheduleTask(new TimerTask() {
-                                @Override
-                                public void run() {
-                                    startInteraction(request);
-                                }
-                            }, 200);
+                            scheduleTask(retryTask, 200);
                         }
                     }
                 };
@@ -369,25 +554,13 @@ public class MimicNodeStore extends AbstractConnection {
             if (!msg.getSourceNodeID().equals(id)) {
                 return;
             }
-            int timeoutMsec = (int) (100 + Math.random() * 200);
-            Interaction fakeInteraction = new Interaction() {
-                @Override
-                void sendRequest(Connection downstream) {
-                    // do nothing
-                }
-
-                @Override
-                NodeID dstNode() {
-                    return node;
-                }
-
-                @Override
-                void onTimeout() {
-                    // do nothing; let the next interaction begin
-                }
-            };
-            fakeInteraction.deadlineMsec = timeoutMsec;
-            startInteraction(fakeInteraction);
+            // Gives the node time to start up before it is queried again. This sends nothing,
+            // so it does not take an interaction slot.
+            int delayMsec = (int) (100 + Math.random() * 200);
+            synchronized (this) {
+                inStartupDelay = true;
+            }
+            scheduleTask(startupDelayTask, delayMsec);
             if (pSimpleNode != null) {
                 pSimpleNode = null;
                 getSimpleNodeIdent();
@@ -398,6 +571,35 @@ public class MimicNodeStore extends AbstractConnection {
             }
         }
 
+        private void fireUpdate(int bit) {
+            if (notificationDelayMsec == 0) {
+                fireUpdateNow(bit);
+                return;
+            }
+            int old;
+            do {
+                old = pendingUpdateMask.get();
+            } while (!pendingUpdateMask.compareAndSet(old, old | bit));
+            if (old == 0) {
+                pendingUpdates.add(this);
+                scheduleFlush();
+            }
+        }
+
+        private void flushUpdates() {
+            int mask = pendingUpdateMask.getAndSet(0);
+            if ((mask & UPDATE_PROTOCOL) != 0) fireUpdateNow(UPDATE_PROTOCOL);
+            if ((mask & UPDATE_SIMPLE_NODE_IDENT) != 0) fireUpdateNow(UPDATE_SIMPLE_NODE_IDENT);
+        }
+
+        private void fireUpdateNow(int bit) {
+            if (bit == UPDATE_PROTOCOL) {
+                pcs.firePropertyChange(UPDATE_PROP_PROTOCOL, null, pIdent);
+            } else {
+                pcs.firePropertyChange(UPDATE_PROP_SIMPLE_NODE_IDENT, null, pSimpleNode);
+            }
+        }
+
         PropertyChangeSupport pcs = new PropertyChangeSupport(this);
         
         public synchronized void addPropertyChangeListener(PropertyChangeListener l) {
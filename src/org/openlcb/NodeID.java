@@ -19,7 +19,8 @@ public class NodeID {
     
     @CheckReturnValue
     public NodeID(@NonNull NodeID node) {
-        this (node.contents);
+        this.contents = node.contents;
+        this.value = node.value;
     }
     
     @CheckReturnValue
@@ -36,6 +37,7 @@ public class NodeID {
         this.contents = new byte[BYTECOUNT];
         for (int i = 0; i < BYTECOUNT; i++)
             this.contents[i] = contents[i];
+        this.value = computeLong(this.contents);
     }
     
     @CheckReturnValue
@@ -48,42 +50,45 @@ public class NodeID {
         this.contents = new byte[BYTECOUNT];
         for (int i = 0; i < BYTECOUNT; i++)
             this.contents[i] = contents[i];
+        this.value = computeLong(this.contents);
+    }
+
+    @CheckReturnValue
+    public NodeID(long value) {
+        this.contents = new byte[BYTECOUNT];
+        for (int i = BYTECOUNT - 1; i >= 0; i--) {
+            this.contents[i] = (byte) value;
+            value >>>= 8;
+        }
+        this.value = computeLong(this.contents);
     }
 
     byte[] contents;
+    /// The node ID as a 48-bit number; used for hashing and comparison.
+    private final long value;
+
+    private static long computeLong(byte[] contents) {
+        long retval = 0;
+        for (int i = 0; i < BYTECOUNT; i++) {
+            retval <<= 8;
+            retval |= contents[i] & 0xff;
+        }
+        return retval;
+    }
 
     @CheckReturnValue
     public boolean equals(Object o){
-        // try to cast, else not equal
-        try {
-            NodeID other = (NodeID) o;
-            for (int i = 0; i<BYTECOUNT; i++)
-                if (other.contents[i] != this.contents[i]) return false;
-            return true;
-        } catch (Exception e) {
-            return false;
-        }
+        if (!(o instanceof NodeID)) return false;
+        return ((NodeID) o).value == value;
     }  
     
     @CheckReturnValue
     public int hashCode() {
-        return contents[0]
-            +contents[1]<<5
-            +contents[2]<<10
-            +contents[3]<<15
-            +contents[4]<<20
-            +contents[5]<<25;
+        return LongHashMap.hash(value);
     } 
 
     public long toLong() {
-        long retval = 0;
-        retval |= contents[0] & 0xff; retval <<= 8;
-        retval |= contents[1] & 0xff; retval <<= 8;
-        retval |= contents[2] & 0xff; retval <<= 8;
-        retval |= contents[3] & 0xff; retval <<= 8;
-        retval |= contents[4] & 0xff; retval <<= 8;
-        retval |= contents[5] & 0xff;
-        return retval;
+        return value;
     }
 
     @CheckReturnValue
@@ -0,0 +1,112 @@
+package org.openlcb;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Factory for the executors that can be handed to {@link OlcbInterface} and
+ * {@link org.openlcb.can.CanInterface}.
+ * <p>
+ * The interfaces never block an executor thread while waiting for the network; all waiting is
+ * done with {@link TimerService} tasks and callbacks. This makes it possible to run an interface
+ * on a virtual-thread-per-task executor or on a single event-loop thread, for example when many
+ * simulated interfaces share one JVM.
+ * <p>
+ * With a single event-loop executor, do not set a blocking overflow policy on the output queue
+ * of the interface: code running on the loop thread that fills the queue would wait for itself,
+ * because the messages are delivered by the same thread. See {@link
+ * OlcbInterface#getOutputQueue()}.
+ */
+public final class OlcbExecutors {
+    private final static Logger logger = Logger.getLogger(OlcbExecutors.class.getName());
+
+    final static int minThreads = 10;
+    final static int maxThreads = 100;
+    final static long threadTimeout = 10; // allowed idle time for threads, in seconds.
+
+    /// Executors.newVirtualThreadPerTaskExecutor() if the JVM has it (Java 21+), otherwise null.
+    private static final Method newVirtualThreadPerTaskExecutor = findVirtualThreadFactory();
+
+    private OlcbExecutors() {
+    }
+
+    private static Method findVirtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a thread pool of platform threads; this is what the interfaces use when no executor
+     * is given.
+     */
+    public static ThreadPoolExecutor newThreadPool() {
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(minThreads, maxThreads, threadTimeout,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new OlcbThreadFactory());
+        tpe.allowCoreThreadTimeOut(true);
+        return tpe;
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return newVirtualThreadPerTaskExecutor != null;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     * @return the executor.
+     * @throws UnsupportedOperationException if the JVM does not support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (newVirtualThreadPerTaskExecutor == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or newer");
+        }
+        try {
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Cannot create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * @return a virtual-thread-per-task executor if the JVM supports it, otherwise a thread pool
+     * as returned by {@link #newThreadPool()}.
+     */
+    public static ExecutorService newVirtualThreadOrPool() {
+        if (isVirtualThreadSupported()) {
+            try {
+                return newVirtualThreadPerTaskExecutor();
+            } catch (UnsupportedOperationException e) {
+                logger.log(Level.WARNING, "Falling back to a thread pool", e);
+            }
+        }
+        return newThreadPool();
+    }
+
+    /**
+     * Creates an executor that runs all tasks one after the other on a single thread.
+     * @param name name of the thread
+     * @return the executor.
+     */
+    public static ExecutorService newEventLoop(final String name) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+}
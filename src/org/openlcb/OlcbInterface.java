@@ -1,5 +1,6 @@
 package org.openlcb;
 
+import org.openlcb.cdi.impl.CdiCache;
 import org.openlcb.cdi.impl.ConfigRepresentation;
 import org.openlcb.implementations.DatagramMeteringBuffer;
 import org.openlcb.implementations.DatagramService;
@@ -8,16 +9,24 @@ import org.openlcb.implementations.MemoryConfigurationService;
 import org.openlcb.protocols.VerifyNodeIdHandler;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Timer;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -27,7 +36,17 @@ import java.util.logging.Logger;
  */
 public class OlcbInterface {
     private final static Logger log = Logger.getLogger(OlcbInterface.class.getName());
-    private final Timer timer = new Timer();
+    /// How long the node store holds back notifications to coalesce them.
+    static final int NODE_STORE_NOTIFICATION_DELAY_MSEC = 50;
+    /// Initial size of the outgoing message queue. The queue grows beyond this unless a bounded
+    /// overflow policy is set on it.
+    static final int OUTPUT_QUEUE_CAPACITY = 1024;
+    /// How many outgoing messages are delivered in one batch.
+    private static final int MAX_BATCH = 150;
+    /// Schedules the timeouts of all components of this interface.
+    private final TimerService timerService;
+    /// Created upon first call to the deprecated getTimer().
+    private Timer timer = null;
 
     /// Object for sending messages to the network.
     protected final Connection internalOutputConnection;
@@ -39,6 +58,8 @@ public class OlcbInterface {
     /// Object for taking incoming messages and forwarding them to the necessary handlers.
     private final MessageDispatcher inputConnection;
     private final NodeID nodeId;
+    /// Counters and histograms of this interface; collection is off by default.
+    private final OlcbMetrics metrics = new OlcbMetrics();
 
     // These are protocol support libraries for various OpenLCB protocols.
 
@@ -57,12 +78,15 @@ public class OlcbInterface {
 
     // CDIs for the nodes
     private final Map<NodeID, ConfigRepresentation> nodeConfigs = new HashMap<>();
+    // Downloaded CDI XML shared by the nodes of the same type. In memory unless replaced by a
+    // persistent cache.
+    private CdiCache cdiCache = new CdiCache();
     // Event Table is a helper for user interfaces to register and retrieve user names for
     // events. By default this is null, initialized lazily when needed only.
     private EventTable eventTable = null;
 
 
-    private ThreadPoolExecutor threadPool = null;
+    private ExecutorService threadPool = null;
     final static int minThreads = 10;
     final static int maxThreads = 100;
     final static long threadTimeout = 10; // allowed idle time for threads, in seconds.
@@ -101,7 +125,7 @@ public class OlcbInterface {
                                       TimeUnit.SECONDS,
                                       new LinkedBlockingQueue<Runnable>(),
                                       new OlcbThreadFactory()));
-          threadPool.allowCoreThreadTimeOut(true);
+          ((ThreadPoolExecutor) threadPool).allowCoreThreadTimeOut(true);
     }
 
     /**
@@ -114,7 +138,28 @@ public class OlcbInterface {
      * @param tpe ThreadPoolExecutor for the interface.
      */
     public OlcbInterface(NodeID nodeId_, Connection outputConnection_,ThreadPoolExecutor tpe) {
-        threadPool = tpe;
+        this(nodeId_, outputConnection_, (ExecutorService) tpe, new TimerService("OpenLCB-timer"));
+    }
+
+    /**
+     * Creates the message-level interface.
+     *
+     * @param nodeId_           is the node ID for the node on this interface. Will send out a node
+     *                          initialized ready with this node ID.
+     * @param outputConnection_ implements the hardware interface for sending messages to the
+     *                          network. Usually this is an internal object of the CanInterface.
+     * @param executor_         runs the work of the interface, such as delivering outgoing
+     *                          messages. Tasks never block waiting for the network, so this can
+     *                          be a thread pool, a virtual-thread-per-task executor or a single
+     *                          event-loop thread; see {@link OlcbExecutors}. Will be shut down
+     *                          together with the interface.
+     * @param timerService_     schedules the timeouts of all components of the interface. Will be
+     *                          disposed together with the interface.
+     */
+    public OlcbInterface(NodeID nodeId_, Connection outputConnection_, ExecutorService executor_,
+                         TimerService timerService_) {
+        threadPool = executor_;
+        timerService = timerService_;
         nodeId = nodeId_;
         this.internalOutputConnection = outputConnection_;
         this.wrappedOutputConnection = new OutputConnectionSniffer(internalOutputConnection);
@@ -122,13 +167,20 @@ public class OlcbInterface {
         this.outputConnection = this.queuedOutputConnection;
         inputConnection = new MessageDispatcher();
 
-        nodeStore = new MimicNodeStore(getOutputConnection(), nodeId);
-        dmb = new DatagramMeteringBuffer(getOutputConnection(),threadPool);
+        nodeStore = new MimicNodeStore(getOutputConnection(), nodeId, timerService);
+        nodeStore.setNotificationDelay(NODE_STORE_NOTIFICATION_DELAY_MSEC);
+        dmb = new DatagramMeteringBuffer(getOutputConnection(), threadPool, timerService);
+        dmb.setMetrics(metrics);
         dcs = new DatagramService(nodeId, dmb);
-        mcs = new MemoryConfigurationService(nodeId, dcs);
+        mcs = new MemoryConfigurationService(nodeId, dcs, timerService);
+        mcs.setMetrics(metrics);
         inputConnection.registerMessageListener(nodeStore);
         inputConnection.registerMessageListener(dmb.connectionForRepliesFromDownstream());
         inputConnection.registerMessageListener(dcs);
+        mcs.setStreamConnection(getOutputConnection());
+        inputConnection.registerMessageListener(mcs.getStreamInputConnection(), new
+                MessageFilter().addType(MessageTypeIdentifier.StreamInitiateRequest,
+                MessageTypeIdentifier.StreamDataSend, MessageTypeIdentifier.StreamDataComplete));
         new VerifyNodeIdHandler(nodeId, this); // will register itself.
 
         outputConnection.registerStartNotification(new Connection.ConnectionListener() {
@@ -138,12 +190,7 @@ public class OlcbInterface {
                 outputConnection.put(m, getInputConnection());
                 // Starts the output queue once we have the confirmation from the lower level that
                 // the connection is ready and we have enqueued the initialization complete message.
-                threadPool.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        queuedOutputConnection.run();
-                    }
-                });
+                queuedOutputConnection.start();
            }
         });
     }
@@ -167,10 +214,23 @@ public class OlcbInterface {
         threadPool.execute(r);
     }
 
+    /**
+     * @return the timer service to be used by all components in this interface. Tasks scheduled
+     * on this service are not allowed to block (as it's a shared timer thread).
+     */
+    public TimerService getTimerService() {
+        return timerService;
+    }
+
     /**
      * @return a shared Timer thread to be used by all components in this interface. Tasks scheduled on this timer are not allowed to block (as it's a shared timer thread).
+     * @deprecated use {@link #getTimerService()}, which does not need a separate thread.
      */
-    public Timer getTimer() {
+    @Deprecated
+    public synchronized Timer getTimer() {
+        if (timer == null) {
+            timer = new Timer("OpenLCB-legacy-timer", true);
+        }
         return timer;
     }
 
@@ -215,6 +275,15 @@ public class OlcbInterface {
     /// Useful for testing.
     public void injectMemoryConfigurationService(MemoryConfigurationService s) {
         mcs = s;
+        mcs.setMetrics(metrics);
+    }
+
+    /**
+     * @return the metrics registry of this interface. Collection is off until enabled with
+     * {@link OlcbMetrics#setEnabled(boolean)}.
+     */
+    public OlcbMetrics getMetrics() {
+        return metrics;
     }
 
     public synchronized EventTable getEventTable() {
@@ -223,6 +292,22 @@ public class OlcbInterface {
         }
         return eventTable;
     }
+    /**
+     * @return the cache the CDI representations load the CDI XML through.
+     */
+    public synchronized CdiCache getCdiCache() {
+        return cdiCache;
+    }
+
+    /**
+     * Replaces the CDI cache, e.g. with one persisted in a directory. Has effect on the CDI
+     * representations created after this call.
+     * @param cache the new cache
+     */
+    public synchronized void setCdiCache(CdiCache cache) {
+        cdiCache = cache;
+    }
+
     /**
      * Creates a new or returns a cached CDI representation for the given node.
      * @param remoteNode    target node (on the network)
@@ -237,6 +322,17 @@ public class OlcbInterface {
         return rep;
     }
 
+    /**
+     * @return the queue of outgoing messages, for configuring its overflow policy and reading its
+     * statistics. The queue is unbounded by default (GROW). A bounded policy such as BLOCK makes
+     * every thread sending a message wait while the queue is full, including the inbound
+     * dispatch thread, the timer thread and the threads of the executor; set it only if none of
+     * these send large numbers of messages.
+     */
+    public MessageRingBuffer getOutputQueue() {
+        return queuedOutputConnection.outputQueue;
+    }
+
     /**
      * Blocks the current thread until the outgoing messages are all sent out. Useful for testing.
      */
@@ -245,10 +341,30 @@ public class OlcbInterface {
         queuedOutputConnection.waitForSendQueue();
     }
 
+    /**
+     * Asynchronous version of {@link #flushSendQueue()}.
+     * @return a future that completes when all messages sent so far were handed to the
+     * network.
+     */
+    public CompletableFuture<Void> flushSendQueueAsync() {
+        return queuedOutputConnection.outputQueue.whenIdle();
+    }
+
     public void registerMessageListener(Connection c) {
         inputConnection.registerMessageListener(c);
     }
 
+    /**
+     * Registers a listener for a subset of the incoming messages. The listener will be called
+     * only for messages matching the filter, which is much cheaper than filtering in the
+     * listener when there are many listeners. Unregister with {@link #unRegisterMessageListener}.
+     * @param c      listener
+     * @param filter which messages to deliver to the listener
+     */
+    public void registerMessageListener(Connection c, MessageFilter filter) {
+        inputConnection.registerMessageListener(c, filter);
+    }
+
     public void unRegisterMessageListener(Connection c) {
         inputConnection.unRegisterMessageListener(c);
     }
@@ -260,37 +376,258 @@ public class OlcbInterface {
         return inputConnection.numListeners();
     }
 
+    /**
+     * Forwards every incoming message to the registered listeners, in the order of
+     * registration.
+     * <p>
+     * Listeners registered without a filter receive every message. Listeners registered with a
+     * {@link MessageFilter} are stored in indexes by message type and by event ID, so a message
+     * only visits the listeners that it matches. Each index entry is an immutable array that is
+     * replaced on every registration change, so dispatching a message takes no lock.
+     * Registration changes made while a message is being dispatched take effect with the next
+     * message.
+     */
     class MessageDispatcher extends AbstractConnection {
-        // This is not the ideal container for add/remove, but keeping the ordering of
-        // registrations is useful in ensuring that the system components receive the messages
-        // earlier as the later-registered user components.
-        private List<Connection> listeners = new ArrayList<>();
-        private List<Connection> pendingListeners = new ArrayList<>();
-        private List<Connection> unpendingListeners = new ArrayList<>();
-
-        public synchronized void registerMessageListener(Connection c) {
-            pendingListeners.add(c);
+        // Keeping the ordering of registrations is useful in ensuring that the system
+        // components receive the messages earlier as the later-registered user components.
+        // Every index below is sorted by registration sequence number.
+        private final Registration[] EMPTY = new Registration[0];
+        /// All registrations.
+        private volatile Registration[] all = EMPTY;
+        /// Registrations without a filter.
+        private volatile Registration[] global = EMPTY;
+        /// Registrations by message type, indexed by MessageTypeIdentifier ordinal.
+        private final AtomicReferenceArray<Registration[]> byType = new AtomicReferenceArray<>
+                (MessageTypeIdentifier.values().length);
+        /// Registrations by event ID.
+        private final Map<Long, Registration[]> byEvent = new ConcurrentHashMap<>();
+        /// Registrations having event ranges in their filter.
+        private volatile Registration[] byRange = EMPTY;
+        /// True if there is any event or event range filter registered.
+        private volatile boolean hasEventFilters = false;
+        private long nextSeq = 0;
+
+        public void registerMessageListener(Connection c) {
+            registerMessageListener(c, null);
+        }
+
+        public synchronized void registerMessageListener(Connection c, MessageFilter filter) {
+            Registration r = new Registration(c, nextSeq++, filter);
+            all = append(all, r);
+            if (filter == null) {
+                global = append(global, r);
+                return;
+            }
+            for (MessageTypeIdentifier t : r.types) {
+                byType.set(t.ordinal(), append(byType.get(t.ordinal()), r));
+            }
+            for (long e : r.events) {
+                byEvent.put(e, append(byEvent.get(e), r));
+            }
+            if (r.rangeLo.length > 0) {
+                byRange = append(byRange, r);
+            }
+            if (r.events.length > 0 || r.rangeLo.length > 0) {
+                hasEventFilters = true;
+            }
         }
 
         public synchronized void unRegisterMessageListener(Connection c) {
-            unpendingListeners.add(c);
+            metrics.removeListener(c);
+            for (Registration r : all) {
+                if (!r.connection.equals(c)) continue;
+                all = remove(all, r);
+                if (r.types == null) {
+                    global = remove(global, r);
+                    continue;
+                }
+                for (MessageTypeIdentifier t : r.types) {
+                    byType.set(t.ordinal(), removeFromIndex(byType.get(t.ordinal()), r));
+                }
+                for (long e : r.events) {
+                    Registration[] l = removeFromIndex(byEvent.get(e), r);
+                    if (l == null) {
+                        byEvent.remove(e);
+                    } else {
+                        byEvent.put(e, l);
+                    }
+                }
+                if (r.rangeLo.length > 0) {
+                    byRange = remove(byRange, r);
+                }
+            }
         }
 
-        public synchronized int numListeners() {
-            return listeners.size() + pendingListeners.size() - unpendingListeners.size();
+        public int numListeners() {
+            return all.length;
         }
 
         @Override
-        public synchronized void put(Message msg, Connection sender) {
-            if (!pendingListeners.isEmpty() || !unpendingListeners.isEmpty()) {
-                listeners.addAll(pendingListeners);
-                pendingListeners.clear();
-                listeners.removeAll(unpendingListeners);
-                unpendingListeners.clear();
+        public void put(Message msg, Connection sender) {
+            final boolean timed = metrics.isEnabled();
+            if (timed) metrics.messageReceived(msg);
+            Registration[] g = global;
+            MessageTypeIdentifier type = msg.getEMTI();
+            Registration[] t = type != null ? byType.get(type.ordinal()) : null;
+            Registration[] e = null;
+            Registration[] r = null;
+            long eventId = 0;
+            if (hasEventFilters && msg instanceof EventMessage) {
+                eventId = ((EventMessage) msg).getEventID().toLong();
+                if (type == MessageTypeIdentifier.ProducerRangeIdentified || type ==
+                        MessageTypeIdentifier.ConsumerRangeIdentified) {
+                    putRangeMessage(msg, sender, g, t, eventId, timed);
+                    return;
+                }
+                e = byEvent.get(eventId);
+                r = byRange;
+                if (r.length == 0) r = null;
+            }
+            if (t == null && e == null && r == null) {
+                for (Registration reg : g) {
+                    deliver(reg, msg, sender, timed);
+                }
+                return;
+            }
+            // Merges the lists by sequence number. A registration present in more than one
+            // list is at the head of each of those lists at the same time, and is delivered to
+            // only once.
+            int gi = 0, ti = 0, ei = 0, ri = 0;
+            while (true) {
+                if (r != null) {
+                    while (ri < r.length && !r[ri].inRange(eventId)) ri++;
+                }
+                Registration next = null;
+                if (gi < g.length) next = g[gi];
+                if (t != null && ti < t.length && (next == null || t[ti].seq < next.seq)) {
+                    next = t[ti];
+                }
+                if (e != null && ei < e.length && (next == null || e[ei].seq < next.seq)) {
+                    next = e[ei];
+                }
+                if (r != null && ri < r.length && (next == null || r[ri].seq < next.seq)) {
+                    next = r[ri];
+                }
+                if (next == null) return;
+                if (gi < g.length && g[gi] == next) gi++;
+                if (t != null && ti < t.length && t[ti] == next) ti++;
+                if (e != null && ei < e.length && e[ei] == next) ei++;
+                if (r != null && ri < r.length && r[ri] == next) ri++;
+                deliver(next, msg, sender, timed);
+            }
+        }
+
+        /// Calls one listener, measuring the time it takes if metrics are enabled.
+        private void deliver(Registration reg, Message msg, Connection sender, boolean timed) {
+            if (!timed) {
+                reg.connection.put(msg, sender);
+                return;
+            }
+            long start = System.nanoTime();
+            reg.connection.put(msg, sender);
+            metrics.getDispatchTime(reg.connection).record(System.nanoTime() - start);
+        }
+
+        /// Range identified messages are rare; we check every event filter against them.
+        private void putRangeMessage(Message msg, Connection sender, Registration[] g,
+                                     Registration[] t, long eventId, boolean timed) {
+            long[] range = MessageFilter.decodeRange(eventId);
+            List<Registration> l = new ArrayList<>(Arrays.asList(g));
+            if (t != null) l.addAll(Arrays.asList(t));
+            for (Registration reg : all) {
+                if (reg.types != null && reg.overlaps(range[0], range[1])) l.add(reg);
+            }
+            Collections.sort(l);
+            Registration last = null;
+            for (Registration reg : l) {
+                if (reg == last) continue;
+                last = reg;
+                deliver(reg, msg, sender, timed);
+            }
+        }
+
+        private Registration[] append(Registration[] l, Registration r) {
+            if (l == null) return new Registration[]{r};
+            Registration[] n = Arrays.copyOf(l, l.length + 1);
+            n[l.length] = r;
+            return n;
+        }
+
+        private Registration[] remove(Registration[] l, Registration r) {
+            List<Registration> n = new ArrayList<>(Arrays.asList(l));
+            n.remove(r);
+            return n.toArray(EMPTY);
+        }
+
+        /// Index entries are null instead of empty, to keep the dispatch fast path simple.
+        private Registration[] removeFromIndex(Registration[] l, Registration r) {
+            Registration[] n = remove(l, r);
+            return n.length == 0 ? null : n;
+        }
+    }
+
+    /**
+     * One listener registration in the MessageDispatcher, with an immutable copy of the filter.
+     */
+    private static class Registration implements Comparable<Registration> {
+        final Connection connection;
+        final long seq;
+        /// null if there is no filter.
+        final MessageTypeIdentifier[] types;
+        final long[] events;
+        final long[] rangeLo;
+        final long[] rangeHi;
+
+        Registration(Connection connection, long seq, MessageFilter filter) {
+            this.connection = connection;
+            this.seq = seq;
+            if (filter == null) {
+                types = null;
+                events = rangeLo = rangeHi = new long[0];
+                return;
+            }
+            types = filter.types.toArray(new MessageTypeIdentifier[0]);
+            events = new long[filter.events.size()];
+            for (int i = 0; i < events.length; i++) {
+                events[i] = filter.events.get(i);
+            }
+            rangeLo = new long[filter.ranges.size()];
+            rangeHi = new long[filter.ranges.size()];
+            for (int i = 0; i < rangeLo.length; i++) {
+                rangeLo[i] = filter.ranges.get(i)[0];
+                rangeHi[i] = filter.ranges.get(i)[1];
+            }
+        }
+
+        boolean inRange(long eventId) {
+            return overlaps(eventId, eventId, false);
+        }
+
+        /// @return true if any event or range of the filter overlaps [lo, hi].
+        boolean overlaps(long lo, long hi) {
+            return overlaps(lo, hi, true);
+        }
+
+        private boolean overlaps(long lo, long hi, boolean checkEvents) {
+            if (checkEvents) {
+                for (long e : events) {
+                    if (Long.compareUnsigned(lo, e) <= 0 && Long.compareUnsigned(e, hi) <= 0) {
+                        return true;
+                    }
+                }
             }
-            for (Connection c : listeners) {
-                c.put(msg, sender);
+            for (int i = 0; i < rangeLo.length; i++) {
+                if (Long.compareUnsigned(rangeLo[i], hi) <= 0 && Long.compareUnsigned(lo,
+                        rangeHi[i]) <= 0) {
+                    return true;
+                }
             }
+            return false;
+        }
+
+        @Override
+        public int compareTo(Registration o) {
+            return Long.compare(seq, o.seq);
         }
     }
 
@@ -352,7 +689,10 @@ public class OlcbInterface {
      */
     public void dispose(){
         // shut down shared timer's thread.
-        timer.cancel();
+        timerService.dispose();
+        synchronized (this) {
+            if (timer != null) timer.cancel();
+        }
         // shut down the thread pool
         if(threadPool != null && !(threadPool.isShutdown())) {
            // modified from the javadoc for ExecutorService 
@@ -380,15 +720,54 @@ public class OlcbInterface {
 
     /**
      * This class keeps an output connection operating using an internal queue. It keeps
-     * messages in an internal thread-safe queue and sends them on a separate thread.
+     * messages in an internal thread-safe queue and sends them from a task on the executor of
+     * the interface.
      * <p>
-     * The caller must donate a thread to this connection by calling the run() method.
+     * At most one drain task is scheduled at a time. It delivers one batch and re-schedules
+     * itself if there is more, so it does not hold on to an executor thread while the queue is
+     * empty or starve other tasks of a single-threaded executor.
      */
     private class QueuedOutputConnection implements Connection {
         private final Connection realOutput;
-        private final BlockingQueue<QEntry> outputQueue = new
-                LinkedBlockingQueue<>();
-        private int pendingCount = 0;
+        private final MessageRingBuffer outputQueue = new MessageRingBuffer(OUTPUT_QUEUE_CAPACITY,
+                MessageRingBuffer.OverflowPolicy.GROW);
+        /// True once the connection below is active; messages are only queued before that.
+        private volatile boolean started = false;
+        /// True while the drain task is scheduled or running.
+        private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+        /// Delivers one batch. Allocated once.
+        private final Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                drainOneBatch();
+            }
+        };
+        /// Current batch; only accessed by the drain task.
+        private final Message[] batchMessages = new Message[MAX_BATCH];
+        private final Connection[] batchSenders = new Connection[MAX_BATCH];
+        private int batchSize = 0;
+        /// Delivers the current batch. Allocated once.
+        private final Runnable deliverBatch = new Runnable() {
+            @Override
+            public void run() {
+                outputQueue.setDeliveryThread(Thread.currentThread());
+                try {
+                    for (int i = 0; i < batchSize; i++) {
+                        try {
+                            realOutput.put(batchMessages[i], batchSenders[i]);
+                        } catch (RejectedExecutionException ex) {
+                            throw ex; // re-throw so the outer try will handle these.
+                        } catch (Throwable e) {
+                            log.log(Level.WARNING, "Exception while sending message", e);
+                        }
+                        batchMessages[i] = null;
+                        batchSenders[i] = null;
+                    }
+                } finally {
+                    outputQueue.setDeliveryThread(null);
+                }
+            }
+        };
 
         QueuedOutputConnection(Connection realOutput) {
             this.realOutput = realOutput;
@@ -396,10 +775,30 @@ public class OlcbInterface {
 
         @Override
         public void put(Message msg, Connection sender) {
-            synchronized(this) {
-                pendingCount++;
+            outputQueue.put(msg, sender);
+            if (metrics.isEnabled()) {
+                metrics.messageQueued(msg, outputQueue.getDepth());
+            }
+            scheduleDrain();
+        }
+
+        private void start() {
+            started = true;
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (!started || !drainScheduled.compareAndSet(false, true)) return;
+            ExecutorService executor = threadPool;
+            try {
+                if (executor == null) throw new RejectedExecutionException("disposed");
+                executor.execute(drain);
+            } catch (RejectedExecutionException e) {
+                // The interface is shutting down. Leaves drainScheduled set so that we do not
+                // try again.
+                log.fine("Output queue stopped: " + e);
+                outputQueue.abandon();
             }
-            outputQueue.add(new QEntry(msg, sender));
         }
 
         @Override
@@ -408,60 +807,30 @@ public class OlcbInterface {
         }
 
         public void waitForSendQueue() {
-            while(true) {
-                synchronized (this) {
-                    if (pendingCount == 0) return;
-                }
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    return;
-                }
+            try {
+                outputQueue.awaitIdle();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
 
-        /**
-         * Never returns.
-         */
-        private void run() {
-            final ArrayList<QEntry> l = new ArrayList<>(150);
-            while (!Thread.currentThread().isInterrupted()) {
+        private void drainOneBatch() {
+            batchSize = outputQueue.poll(batchMessages, batchSenders);
+            if (batchSize > 0) {
                 try {
-                    QEntry m = outputQueue.take();
-                    l.clear();
-                    l.add(m);
-                    outputQueue.drainTo(l, 149);
-                    runCallbackOrAbandon(new Runnable() {
-                        @Override
-                        public void run() {
-                            for (QEntry m : l) {
-                                try {
-                                    realOutput.put(m.message, m.connection);
-                                } catch (RejectedExecutionException ex) {
-                                    throw ex; // re-throw so the outer try will handle these.
-                                } catch (Throwable e) {
-                                    log.warning("Exception while sending message: " + e.toString());
-                                    e.printStackTrace();
-                                }
-                                synchronized(QueuedOutputConnection.this) {
-                                    pendingCount--;
-                                }
-                            }
-                        }
-                    });
-                } catch (InterruptedException|RejectedExecutionException e) {
-                    // thread must exit when interrupted or rejected.
+                    runCallbackOrAbandon(deliverBatch);
+                } catch (RejectedExecutionException e) {
+                    // The output is shutting down; stops draining. Leaves drainScheduled set.
+                    outputQueue.abandon();
                     return;
+                } finally {
+                    outputQueue.batchDone();
                 }
             }
-        }
-
-        private class QEntry {
-            Message message;
-            Connection connection;
-            QEntry(Message m, Connection c) {
-                message = m;
-                connection = c;
+            drainScheduled.set(false);
+            // A put that raced with the poll above might have seen drainScheduled set.
+            if (outputQueue.getDepth() != 0) {
+                scheduleDrain();
             }
         }
     }
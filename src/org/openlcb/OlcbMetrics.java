@@ -0,0 +1,341 @@
+package org.openlcb;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of the hot paths of an {@link OlcbInterface} and the CAN interface
+ * below it, for diagnosing slow layouts.
+ * <p>
+ * Every interface has its own registry, see {@link OlcbInterface#getMetrics()}. Collection is
+ * off by default; while it is off, each recording call costs one volatile read and nothing is
+ * allocated. Turn it on with {@link #setEnabled(boolean)}, then read the values with the
+ * getters or log {@link #report()}.
+ * <p>
+ * Latencies are measured with System.nanoTime() and kept in {@link Histogram}s.
+ */
+public class OlcbMetrics {
+    /**
+     * Histogram of non-negative values with power-of-two buckets. Recording is lock-free.
+     * Percentiles are estimated as the upper bound of the bucket that contains them.
+     */
+    public static final class Histogram {
+        /// Bucket 0 counts zeros; bucket i counts values in [2^(i-1), 2^i).
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * @param value the value to add; negative values count as zero.
+         */
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            long m = max.get();
+            while (value > m && !max.compareAndSet(m, value)) {
+                m = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+         * @return an upper bound of the given percentile; 0 if there are no values.
+         */
+        public long getPercentile(double fraction) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(fraction * n);
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    long bound = i == 0 ? 0 : (i == 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.min(bound, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        public void reset() {
+            for (int i = 0; i < 64; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + " mean=" + Math.round(getMean()) + " p50=" +
+                    getPercentile(0.5) + " p99=" + getPercentile(0.99) + " max=" + getMax();
+        }
+    }
+
+    private volatile boolean enabled = false;
+
+    private final LongAdder framesIn = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder aliasConflicts = new LongAdder();
+    private final AtomicLongArray messagesIn = new AtomicLongArray(MessageTypeIdentifier
+            .values().length);
+    private final AtomicLongArray messagesOut = new AtomicLongArray(MessageTypeIdentifier
+            .values().length);
+    private final Histogram outputQueueDepth = new Histogram();
+    private final ConcurrentHashMap<Connection, Histogram> dispatchTimes = new
+            ConcurrentHashMap<>();
+    private final Histogram datagramRoundTrip = new Histogram();
+    private final LongAdder datagramRetries = new LongAdder();
+    private final LongAdder datagramTimeouts = new LongAdder();
+    private final Histogram memoryConfigLatency = new Histogram();
+    private final LongAdder memoryConfigRetries = new LongAdder();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns collection on or off. The values collected so far are kept.
+     * @param enabled true to collect
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the start time for a latency measurement, or 0 if collection is off. Pass the
+     * result to the matching recording method, which ignores 0.
+     */
+    public long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /// Ignores a measurement started while collection was off.
+    private void recordSince(Histogram h, long startNanos) {
+        if (startNanos == 0 || !enabled) return;
+        h.record(System.nanoTime() - startNanos);
+    }
+
+    private static void count(AtomicLongArray a, Message msg) {
+        MessageTypeIdentifier t = msg.getEMTI();
+        if (t != null) a.incrementAndGet(t.ordinal());
+    }
+
+    public void frameReceived() {
+        if (enabled) framesIn.increment();
+    }
+
+    public void frameSent() {
+        if (enabled) framesOut.increment();
+    }
+
+    /**
+     * Called when our alias reservation was interrupted by another node using the same alias.
+     */
+    public void aliasConflict() {
+        if (enabled) aliasConflicts.increment();
+    }
+
+    /**
+     * Called for every message dispatched to the listeners of the interface.
+     * @param msg the message
+     */
+    public void messageReceived(Message msg) {
+        if (enabled) count(messagesIn, msg);
+    }
+
+    /**
+     * Called for every message put into the output queue.
+     * @param msg   the message
+     * @param depth number of messages in the queue, including this one
+     */
+    public void messageQueued(Message msg, int depth) {
+        if (!enabled) return;
+        count(messagesOut, msg);
+        outputQueueDepth.record(depth);
+    }
+
+    /**
+     * @param listener a message listener of the interface
+     * @return the histogram of the time the listener takes to handle a message, in nsec.
+     */
+    public Histogram getDispatchTime(Connection listener) {
+        Histogram h = dispatchTimes.get(listener);
+        if (h != null) return h;
+        h = new Histogram();
+        Histogram old = dispatchTimes.putIfAbsent(listener, h);
+        return old != null ? old : h;
+    }
+
+    /// Called when a listener is unregistered from the interface.
+    void removeListener(Connection listener) {
+        dispatchTimes.remove(listener);
+    }
+
+    /**
+     * @param startNanos result of {@link #startTimer()} when the datagram was sent
+     */
+    public void datagramAcknowledged(long startNanos) {
+        recordSince(datagramRoundTrip, startNanos);
+    }
+
+    public void datagramRetried() {
+        if (enabled) datagramRetries.increment();
+    }
+
+    public void datagramTimedOut() {
+        if (enabled) datagramTimeouts.increment();
+    }
+
+    /**
+     * @param startNanos result of {@link #startTimer()} when the request was issued
+     */
+    public void memoryConfigRequestDone(long startNanos) {
+        recordSince(memoryConfigLatency, startNanos);
+    }
+
+    public void memoryConfigRetried() {
+        if (enabled) memoryConfigRetries.increment();
+    }
+
+    public long getFramesIn() {
+        return framesIn.sum();
+    }
+
+    public long getFramesOut() {
+        return framesOut.sum();
+    }
+
+    public long getAliasConflicts() {
+        return aliasConflicts.sum();
+    }
+
+    /**
+     * @param t message type
+     * @return how many messages of this type were dispatched to the listeners.
+     */
+    public long getMessagesIn(MessageTypeIdentifier t) {
+        return messagesIn.get(t.ordinal());
+    }
+
+    /**
+     * @param t message type
+     * @return how many messages of this type were queued for sending.
+     */
+    public long getMessagesOut(MessageTypeIdentifier t) {
+        return messagesOut.get(t.ordinal());
+    }
+
+    /**
+     * @return the depth of the output queue seen by each queued message.
+     */
+    public Histogram getOutputQueueDepth() {
+        return outputQueueDepth;
+    }
+
+    /**
+     * @return the dispatch time histograms by listener, for the listeners that received a
+     * message while collection was on.
+     */
+    public Map<Connection, Histogram> getDispatchTimes() {
+        return Collections.unmodifiableMap(dispatchTimes);
+    }
+
+    /**
+     * @return time from sending a datagram to receiving its acknowledgement, in nsec.
+     */
+    public Histogram getDatagramRoundTrip() {
+        return datagramRoundTrip;
+    }
+
+    public long getDatagramRetries() {
+        return datagramRetries.sum();
+    }
+
+    public long getDatagramTimeouts() {
+        return datagramTimeouts.sum();
+    }
+
+    /**
+     * @return time from issuing a memory configuration request to its completion (success or
+     * failure), in nsec.
+     */
+    public Histogram getMemoryConfigLatency() {
+        return memoryConfigLatency;
+    }
+
+    public long getMemoryConfigRetries() {
+        return memoryConfigRetries.sum();
+    }
+
+    /**
+     * Clears all collected values.
+     */
+    public void reset() {
+        framesIn.reset();
+        framesOut.reset();
+        aliasConflicts.reset();
+        for (int i = 0; i < messagesIn.length(); i++) {
+            messagesIn.set(i, 0);
+            messagesOut.set(i, 0);
+        }
+        outputQueueDepth.reset();
+        dispatchTimes.clear();
+        datagramRoundTrip.reset();
+        datagramRetries.reset();
+        datagramTimeouts.reset();
+        memoryConfigLatency.reset();
+        memoryConfigRetries.reset();
+    }
+
+    /**
+     * @return a multi-line human-readable summary of all values, for logging.
+     */
+    public String report() {
+        StringBuilder b = new StringBuilder();
+        b.append("frames in ").append(getFramesIn()).append(" out ").append(getFramesOut())
+                .append(", alias conflicts ").append(getAliasConflicts()).append('\n');
+        for (MessageTypeIdentifier t : MessageTypeIdentifier.values()) {
+            long in = getMessagesIn(t);
+            long out = getMessagesOut(t);
+            if (in == 0 && out == 0) continue;
+            b.append("  ").append(t).append(" in ").append(in).append(" out ").append(out)
+                    .append('\n');
+        }
+        b.append("output queue depth: ").append(outputQueueDepth).append('\n');
+        for (Map.Entry<Connection, Histogram> e : dispatchTimes.entrySet()) {
+            b.append("dispatch ns ").append(e.getKey().getClass().getName()).append(": ")
+                    .append(e.getValue()).append('\n');
+        }
+        b.append("datagram round trip ns: ").append(datagramRoundTrip).append(", retries ")
+                .append(getDatagramRetries()).append(", timeouts ").append(getDatagramTimeouts())
+                .append('\n');
+        b.append("memory config latency ns: ").append(memoryConfigLatency).append(", retries ")
+                .append(getMemoryConfigRetries()).append('\n');
+        return b.toString();
+    }
+}
@@ -34,5 +34,8 @@ public class ProducerConsumerEventReportMessage extends EventMessage {
                 +" Producer/Consumer Event Report with "+eventID.toString();     
     }
     
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.ProducerConsumerEventReport; }
+
     public int getMTI() { return MTI_PC_EVENT_REPORT; }
 }
@@ -45,5 +45,8 @@ public class ProducerIdentifiedMessage extends EventMessage {
         return super.toString() + " Producer Identified " + eventState.toString() + " for " + eventID.toString();
     }
 
+    @Override
+    public MessageTypeIdentifier getEMTI() { return eventState.getProducerIdentifierMti(); }
+
     public int getMTI() { return MTI_PRODUCER_IDENTIFIED; }
 }
@@ -35,5 +35,8 @@ public class ProducerRangeIdentifiedMessage extends EventMessage {
                 +" Producer Range Identified with " + eventID.toString();
     }
     
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.ProducerRangeIdentified; }
+
     public int getMTI() { return MTI_PRODUCER_RANGE_IDENTIFIED; }
 }
@@ -0,0 +1,99 @@
+package org.openlcb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts outstanding work items (e.g. messages in a send queue) and lets callers wait until
+ * there are none left.
+ * <p>
+ * Waiting is event-driven: blocked callers are woken up by the decrement that brings the count
+ * to zero, and {@link #whenIdle()} futures are completed by the same decrement, so there is no
+ * polling delay. Futures are completed on the thread calling {@link #decrement()}, outside of
+ * the internal lock.
+ */
+public class QuiescenceLatch {
+    private int count = 0;
+    /// Futures to complete when the count reaches zero. Guarded by this.
+    private List<CompletableFuture<Void>> waiters = null;
+
+    /**
+     * Registers a new outstanding work item.
+     */
+    public synchronized void increment() {
+        ++count;
+    }
+
+    /**
+     * Marks an outstanding work item as done.
+     */
+    public void decrement() {
+        List<CompletableFuture<Void>> l;
+        synchronized (this) {
+            if (count == 0) {
+                throw new IllegalStateException("decrement without increment");
+            }
+            if (--count != 0) return;
+            notifyAll();
+            l = waiters;
+            waiters = null;
+        }
+        if (l == null) return;
+        for (CompletableFuture<Void> f : l) {
+            f.complete(null);
+        }
+    }
+
+    /**
+     * @return the number of outstanding work items.
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Blocks until there are no outstanding work items.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void await() throws InterruptedException {
+        while (count != 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Blocks until there are no outstanding work items or the timeout elapses.
+     * @param timeout how long to wait at most
+     * @param unit    unit of timeout
+     * @return true if there are no outstanding work items, false if timed out.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (count != 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * @return a future that completes when there are no outstanding work items. Already
+     * completed if there are none now.
+     */
+    public CompletableFuture<Void> whenIdle() {
+        CompletableFuture<Void> f = new CompletableFuture<>();
+        synchronized (this) {
+            if (count != 0) {
+                if (waiters == null) waiters = new ArrayList<>();
+                waiters.add(f);
+                return f;
+            }
+        }
+        f.complete(null);
+        return f;
+    }
+}
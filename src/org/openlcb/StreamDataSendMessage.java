@@ -62,5 +62,8 @@ public class StreamDataSendMessage extends AddressedMessage {
         return new String(value);
     }
 
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.StreamDataSend; }
+
     public int getMTI() { return MTI_STREAM_DATA_SEND; }
 }
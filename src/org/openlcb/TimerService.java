@@ -0,0 +1,367 @@
+package org.openlcb;
+
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Schedules timeouts for the protocol implementations of an interface.
+ * <p>
+ * Implemented as a hashed timing wheel: time is divided into ticks, and every scheduled task is
+ * linked into the bucket of the tick it expires in. Scheduling and cancelling is constant
+ * time. Tasks are {@link Task} objects that carry their own list links, so a component can
+ * allocate its timeout task once and re-arm it any number of times without creating garbage.
+ * <p>
+ * A service created with {@link #TimerService(String)} runs its own daemon thread driven by
+ * the system clock. A service created with {@link #createVirtual()} has no thread; time only
+ * moves forward when {@link #advance(long)} is called, and the expired tasks run on the caller
+ * thread. This allows deterministic tests of timeout behavior.
+ * <p>
+ * Tasks scheduled with no delay skip the wheel and run as soon as the timer thread wakes up,
+ * without waiting for the next tick.
+ * <p>
+ * Tasks run on the timer thread and must not block, since that delays all other timeouts.
+ */
+public class TimerService {
+    private final static Logger logger = Logger.getLogger(TimerService.class.getName());
+    static final int WHEEL_SIZE = 512;
+    static final long DEFAULT_TICK_MILLIS = 10;
+    /// Deadline of tasks in the ready list.
+    private static final long READY = Long.MIN_VALUE;
+    /// Deadline of tasks that were taken off the wheel by processExpired but have not run yet.
+    private static final long EXPIRED = Long.MAX_VALUE;
+
+    private static TimerService defaultService;
+
+    /**
+     * @return a process-wide timer service for components that are not created by an
+     * {@link OlcbInterface}. Created upon first use.
+     */
+    public static synchronized TimerService getDefault() {
+        if (defaultService == null || defaultService.disposed) {
+            defaultService = new TimerService("OpenLCB-timer");
+        }
+        return defaultService;
+    }
+
+    /**
+     * @return a timer service with a virtual clock starting at zero, and a tick of 1 msec.
+     */
+    public static TimerService createVirtual() {
+        return new TimerService(null, 1);
+    }
+
+    /**
+     * A schedulable unit of work. A task may be scheduled on one service at a time; scheduling
+     * it again moves it to the new expiration time.
+     */
+    public abstract static class Task implements Runnable {
+        private Task prev;
+        private Task next;
+        private long deadlineTick;
+        private TimerService owner;
+
+        /**
+         * @return true if the task is waiting to be run.
+         */
+        public final boolean isScheduled() {
+            TimerService o = owner;
+            if (o == null) return false;
+            synchronized (o) {
+                return owner != null;
+            }
+        }
+
+        /**
+         * Cancels the task if it is scheduled.
+         * @return true if the task was scheduled, false if it already ran or was not scheduled.
+         */
+        public final boolean cancel() {
+            TimerService o = owner;
+            return o != null && o.cancel(this);
+        }
+    }
+
+    /// Adapter for one-off Runnables.
+    private static class RunnableTask extends Task {
+        private final Runnable r;
+
+        RunnableTask(Runnable r) {
+            this.r = r;
+        }
+
+        @Override
+        public void run() {
+            r.run();
+        }
+    }
+
+    private final long tickMillis;
+    /// Bucket heads, indexed by tick modulo WHEEL_SIZE.
+    private final Task[] wheel = new Task[WHEEL_SIZE];
+    /// Tasks scheduled with no delay, in FIFO order.
+    private Task readyHead = null;
+    private Task readyTail = null;
+    /// Base for the system clock, so that ticks start near zero.
+    private final long startNanos = System.nanoTime();
+    /// Virtual time in msec; only used when there is no thread.
+    private long virtualMillis = 0;
+    /// The last tick whose bucket was processed.
+    private long currentTick = 0;
+    private int size = 0;
+    private volatile boolean disposed = false;
+    private final Thread thread;
+
+    /**
+     * Creates a timer service driven by the system clock, with its own thread.
+     * @param name name of the timer thread
+     */
+    public TimerService(String name) {
+        this(name, DEFAULT_TICK_MILLIS);
+    }
+
+    private TimerService(String name, long tickMillis) {
+        this.tickMillis = tickMillis;
+        if (name == null) {
+            thread = null;
+            return;
+        }
+        thread = new Thread(name) {
+            @Override
+            public void run() {
+                threadBody();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the current time of this service's clock in msec. For services running on the
+     * system clock this is a monotonic time with an arbitrary origin.
+     */
+    public long currentTimeMillis() {
+        if (thread == null) {
+            synchronized (this) {
+                return virtualMillis;
+            }
+        }
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    /**
+     * Schedules a task to run after a delay. If the task is already scheduled, it is moved to
+     * the new expiration time.
+     * @param task  task to run
+     * @param delayMillis how long to wait before running it
+     */
+    public void schedule(Task task, long delayMillis) {
+        long now = currentTimeMillis();
+        synchronized (this) {
+            if (disposed) return;
+            if (task.owner != null) {
+                task.owner.cancel(task);
+            }
+            task.owner = this;
+            if (delayMillis <= 0) {
+                task.deadlineTick = READY;
+                task.next = null;
+                task.prev = readyTail;
+                if (readyTail != null) readyTail.next = task;
+                else readyHead = task;
+                readyTail = task;
+                ++size;
+                notifyAll();
+                return;
+            }
+            long tick = (now + Math.max(0, delayMillis) + tickMillis - 1) / tickMillis;
+            if (tick <= currentTick) {
+                tick = currentTick + 1;
+            }
+            task.deadlineTick = tick;
+            int b = (int) (tick & (WHEEL_SIZE - 1));
+            task.prev = null;
+            task.next = wheel[b];
+            if (task.next != null) task.next.prev = task;
+            wheel[b] = task;
+            if (++size == 1) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Schedules a one-off Runnable. Allocates a task; for timeouts that are re-armed
+     * repeatedly, prefer extending {@link Task}.
+     * @param r           code to run
+     * @param delayMillis how long to wait before running it
+     * @return the task, which can be used for cancelling.
+     */
+    public Task schedule(Runnable r, long delayMillis) {
+        Task t = new RunnableTask(r);
+        schedule(t, delayMillis);
+        return t;
+    }
+
+    /**
+     * Cancels a task.
+     * @param task task to cancel
+     * @return true if the task was scheduled on this service.
+     */
+    public synchronized boolean cancel(Task task) {
+        if (task.owner != this) return false;
+        if (task.deadlineTick == EXPIRED) {
+            // Not linked anywhere; processExpired will see it was cancelled and skip it.
+            task.owner = null;
+        } else {
+            unlink(task);
+        }
+        return true;
+    }
+
+    private void unlink(Task task) {
+        if (task.prev != null) {
+            task.prev.next = task.next;
+        } else if (task.deadlineTick == READY) {
+            readyHead = task.next;
+        } else {
+            wheel[(int) (task.deadlineTick & (WHEEL_SIZE - 1))] = task.next;
+        }
+        if (task.next != null) {
+            task.next.prev = task.prev;
+        } else if (task.deadlineTick == READY) {
+            readyTail = task.prev;
+        }
+        task.prev = null;
+        task.next = null;
+        task.owner = null;
+        --size;
+    }
+
+    /**
+     * Moves the virtual clock forward and runs all tasks that expire, on the caller thread.
+     * @param millis how much to move the clock
+     */
+    public void advance(long millis) {
+        if (thread != null) {
+            throw new IllegalStateException("advance() is only valid on a virtual timer service");
+        }
+        synchronized (this) {
+            virtualMillis += millis;
+        }
+        processExpired(currentTimeMillis() / tickMillis);
+    }
+
+    /**
+     * Waits until all tasks that are already expired have run. Used for testing.
+     * @throws InterruptedException if interrupted
+     */
+    public void waitForTimer() throws InterruptedException {
+        if (thread == null || Thread.currentThread() == thread) return;
+        final Semaphore s = new Semaphore(0);
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                s.release();
+            }
+        }, 0);
+        s.acquire();
+    }
+
+    /**
+     * Stops the timer thread. Scheduled tasks will not run.
+     */
+    public void dispose() {
+        synchronized (this) {
+            disposed = true;
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                while (wheel[i] != null) {
+                    unlink(wheel[i]);
+                }
+            }
+            while (readyHead != null) {
+                unlink(readyHead);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Runs the tasks that expire up to and including a given tick.
+     * @param nowTick current tick
+     */
+    private void processExpired(long nowTick) {
+        // Local, because advance() may run on several threads or from inside a task. Only
+        // allocated when something expired.
+        ArrayList<Task> expired = null;
+        synchronized (this) {
+            if (size == 0) {
+                currentTick = Math.max(currentTick, nowTick);
+                return;
+            }
+            long ticks = Math.min(nowTick - currentTick, WHEEL_SIZE);
+            for (long i = 1; i <= ticks; i++) {
+                int b = (int) ((currentTick + i) & (WHEEL_SIZE - 1));
+                Task t = wheel[b];
+                while (t != null) {
+                    Task n = t.next;
+                    if (t.deadlineTick <= nowTick) {
+                        if (expired == null) expired = new ArrayList<>();
+                        takeExpired(t, expired);
+                    }
+                    t = n;
+                }
+            }
+            currentTick = Math.max(currentTick, nowTick);
+            while (readyHead != null) {
+                if (expired == null) expired = new ArrayList<>();
+                takeExpired(readyHead, expired);
+            }
+        }
+        if (expired == null) return;
+        for (int i = 0; i < expired.size(); i++) {
+            Task t = expired.get(i);
+            synchronized (this) {
+                // An earlier task in this batch may have cancelled or re-armed this one.
+                if (t.owner != this || t.deadlineTick != EXPIRED) continue;
+                t.owner = null;
+            }
+            try {
+                t.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Exception in timer task", e);
+            }
+        }
+    }
+
+    /// Moves a task from the wheel or the ready list to the local expired list. The task stays
+    /// owned by this service, so that it can still be cancelled until it runs.
+    private void takeExpired(Task t, ArrayList<Task> expired) {
+        unlink(t);
+        t.owner = this;
+        t.deadlineTick = EXPIRED;
+        expired.add(t);
+    }
+
+    private void threadBody() {
+        while (!disposed) {
+            processExpired(currentTimeMillis() / tickMillis);
+            synchronized (this) {
+                if (disposed) return;
+                try {
+                    if (readyHead != null) {
+                        continue;
+                    } else if (size == 0) {
+                        wait();
+                    } else {
+                        long next = (currentTick + 1) * tickMillis - currentTimeMillis();
+                        if (next > 0) wait(next);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
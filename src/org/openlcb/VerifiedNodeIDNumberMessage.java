@@ -34,5 +34,8 @@ public class VerifiedNodeIDNumberMessage extends Message {
                 +" Verified Node ID Number";     
     }
 
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.VerifiedNodeId; }
+
     public int getMTI() { return MTI_VERIFIED_NID; }
 }
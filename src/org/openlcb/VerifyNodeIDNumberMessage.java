@@ -66,5 +66,8 @@ public class VerifyNodeIDNumberMessage extends Message {
                 + ((content != null) ? (content+" only") : ("all nodes"));    
     }
 
+    @Override
+    public MessageTypeIdentifier getEMTI() { return MessageTypeIdentifier.VerifyNodeIdGlobal; }
+
     public int getMTI() { return MTI_VERIFY_NID; }
 }
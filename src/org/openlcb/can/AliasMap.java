@@ -1,54 +1,255 @@
 package org.openlcb.can;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+import org.openlcb.LongHashMap;
+import org.openlcb.MessageTypeIdentifier;
 import org.openlcb.NodeID;
 
 /**
  * Maintains a 2-way map between nodes and CAN node ID aliases.
  *<p>
  * Input is CAN frames, looking for VerifyNodeID frames.
- * 
+ * <p>
+ * Alias to NodeID lookups are a single array access indexed by the 12-bit alias. NodeID to
+ * alias lookups use an open-addressing hash table of primitive longs. Lookups do not lock and
+ * do not allocate, and may be called from any thread; updates are serialized internally.
+ *
  * @author  Bob Jacobsen   Copyright 2010
  * @version $Revision$
  */
 public class AliasMap {
+    private final static Logger logger = Logger.getLogger(AliasMap.class.getName());
+    static final int ALIAS_COUNT = 4096;
+    /// Returned by getNodeID for aliases that are not known. Shared, never modified.
+    private static final NodeID UNKNOWN = new NodeID();
+
+    /// Table entry that was never used; terminates the probe sequence.
+    private static final long EMPTY = 0;
+    /// Table entry that was removed; does not terminate the probe sequence.
+    private static final long DELETED = -1;
+    /// Marks a used entry, so that NodeID 0 with alias 0 is distinguishable from EMPTY.
+    private static final long USED = 1L << 62;
+    private static final int MIN_TABLE_SIZE = 64;
+
+    private static final int MTI_INIT_COMPLETE = MessageTypeIdentifier.InitializationComplete.mti();
+    private static final int MTI_VERIFIED_NID = MessageTypeIdentifier.VerifiedNodeId.mti();
 
     public AliasMap() {
     }
-    java.util.HashMap<NodeID, Integer> iMap = new java.util.HashMap<NodeID, Integer>();
-    java.util.HashMap<Integer, NodeID> nMap = new java.util.HashMap<Integer, NodeID>();
-    
+
+    /// Alias -> NodeID.
+    private final AtomicReferenceArray<NodeID> nMap = new AtomicReferenceArray<>(ALIAS_COUNT);
+    /// When a frame was last seen from each alias (System.currentTimeMillis), 0 if never.
+    private final long[] lastSeen = new long[ALIAS_COUNT];
+    /// NodeID -> alias. Each entry packs USED | nodeID << 12 | alias. Replaced when resized.
+    private volatile AtomicLongArray iMap = new AtomicLongArray(MIN_TABLE_SIZE);
+    /// Number of entries in iMap that are neither EMPTY nor DELETED. Guarded by this.
+    private int size = 0;
+    /// Number of DELETED entries in iMap. Guarded by this.
+    private int deleted = 0;
+    private volatile int conflictCount = 0;
+
+    /**
+     * Updates the map from an incoming CAN frame.
+     * @param f incoming CAN frame
+     * @deprecated use {@link #processFrame(CanFrame)}; kept for binary compatibility.
+     */
+    @Deprecated
     public void processFrame(OpenLcbCanFrame f) {
-        // check type
-        if (f.isInitializationComplete() || f.isVerifiedNID() || f.isAliasMapDefinition()) {
-            Integer alias = Integer.valueOf(f.getSourceAlias());
-            NodeID nid = f.getNodeID();
-            insert(alias, nid);
-        } else if (f.isAliasMapReset()) {
-            Integer alias = Integer.valueOf(f.getSourceAlias());
+        processFrame((CanFrame) f);
+    }
+
+    /**
+     * Updates the map from an incoming CAN frame. Only frames that define or release an alias
+     * cause an update; this is called for every frame so it is cheap for all other frames.
+     * @param f incoming CAN frame
+     */
+    public void processFrame(CanFrame f) {
+        int header = f.getHeader();
+        int alias = header & OpenLcbCanFrame.MASK_SRC_ALIAS;
+        int var = (header & OpenLcbCanFrame.MASK_VARIABLE_FIELD) >> OpenLcbCanFrame
+                .SHIFT_VARIABLE_FIELD;
+        lastSeen[alias] = System.currentTimeMillis();
+        boolean define;
+        if ((header & OpenLcbCanFrame.MASK_FRAME_TYPE) != 0) {
+            if ((var & OpenLcbCanFrame.MASK_OPENLCB_FORMAT) != (OpenLcbCanFrame.FRAME_FORMAT_MTI
+                    << OpenLcbCanFrame.SHIFT_OPENLCB_FORMAT)) {
+                return;
+            }
+            int mti = var & ~OpenLcbCanFrame.MASK_OPENLCB_FORMAT;
+            if (mti != MTI_INIT_COMPLETE && mti != MTI_VERIFIED_NID) return;
+            define = true;
+        } else if (var == OpenLcbCanFrame.AMD_VAR_FIELD) {
+            define = true;
+        } else if (var == OpenLcbCanFrame.AMR_VAR_FIELD) {
+            define = false;
+        } else {
+            return;
+        }
+        if (define) {
+            if (f.getNumDataElements() < 6) return;
+            long nid = 0;
+            for (int i = 0; i < 6; i++) {
+                nid = (nid << 8) | f.getElement(i);
+            }
+            insert(alias, new NodeID(nid));
+        } else {
             remove(alias);
         }
     }
-    
-    public void insert(int alias, NodeID nid) {
-        nMap.put(alias, nid);
-        iMap.put(nid, alias);
+
+    public synchronized void insert(int alias, NodeID nid) {
+        alias &= ALIAS_COUNT - 1;
+        NodeID old = nMap.get(alias);
+        if (old != null && !old.equals(nid)) {
+            ++conflictCount;
+            logger.fine("Alias 0x" + Integer.toHexString(alias) + " reassigned from " + old +
+                    " to " + nid);
+            removeKey(old.toLong());
+        }
+        long key = nid.toLong();
+        int oldAlias = lookup(iMap, key);
+        if (oldAlias >= 0 && oldAlias != alias) {
+            nMap.set(oldAlias, null);
+        }
+        nMap.set(alias, nid);
+        put(key, alias);
+        lastSeen[alias] = System.currentTimeMillis();
     }
-    
-    public void remove(int alias) {
-        NodeID nid = getNodeID(alias);
+
+    public synchronized void remove(int alias) {
+        alias &= ALIAS_COUNT - 1;
+        NodeID nid = nMap.get(alias);
         if (nid == null) return;
-        nMap.remove(alias);
-        iMap.remove(nid);
+        nMap.set(alias, null);
+        removeKey(nid.toLong());
     }
-    
+
+    /**
+     * @param alias 12-bit CAN alias
+     * @return the node ID that the alias belongs to, or a NodeID of all zeros if the alias is
+     * not known.
+     */
     public NodeID getNodeID(int alias) {
-        NodeID retVal = nMap.get(Integer.valueOf(alias));
+        NodeID retVal = nMap.get(alias & (ALIAS_COUNT - 1));
         if (retVal != null) return retVal;
-        else return new NodeID();
+        else return UNKNOWN;
     }
+
+    /**
+     * @param nid node ID
+     * @return the alias of the node, or -1 if not known.
+     */
     public int getAlias(NodeID nid) {
-        Integer r = iMap.get(nid);
-        if (r == null) return -1;
-        else return r.intValue();
+        return lookup(iMap, nid.toLong());
+    }
+
+    /**
+     * @param alias 12-bit CAN alias
+     * @return System.currentTimeMillis() when a frame was last seen from or an alias mapping
+     * was last entered for this alias, or 0 if never.
+     */
+    public long getLastSeen(int alias) {
+        return lastSeen[alias & (ALIAS_COUNT - 1)];
+    }
+
+    /**
+     * @return how many times an alias was found to be mapped to a different node than
+     * previously recorded.
+     */
+    public int getConflictCount() {
+        return conflictCount;
+    }
+
+    /**
+     * @return the number of aliases currently mapped.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private static int slot(long key, int mask) {
+        return (int) LongHashMap.mix(key) & mask;
+    }
+
+    private static int lookup(AtomicLongArray table, long key) {
+        int mask = table.length() - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long e = table.get(i);
+            if (e == EMPTY) return -1;
+            if (e != DELETED && ((e >>> 12) & 0xFFFFFFFFFFFFL) == key) {
+                return (int) (e & (ALIAS_COUNT - 1));
+            }
+        }
+    }
+
+    /// Must be called with synchronized(this).
+    private void put(long key, int alias) {
+        AtomicLongArray table = iMap;
+        int mask = table.length() - 1;
+        int free = -1;
+        int i = slot(key, mask);
+        for (; ; i = (i + 1) & mask) {
+            long e = table.get(i);
+            if (e == EMPTY) break;
+            if (e == DELETED) {
+                if (free < 0) free = i;
+            } else if (((e >>> 12) & 0xFFFFFFFFFFFFL) == key) {
+                table.set(i, USED | (key << 12) | alias);
+                return;
+            }
+        }
+        if (free >= 0) {
+            --deleted;
+            i = free;
+        }
+        table.set(i, USED | (key << 12) | alias);
+        ++size;
+        if ((size + deleted) * 2 > table.length()) {
+            rehash();
+        }
+    }
+
+    /// Must be called with synchronized(this).
+    private void removeKey(long key) {
+        AtomicLongArray table = iMap;
+        int mask = table.length() - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long e = table.get(i);
+            if (e == EMPTY) return;
+            if (e != DELETED && ((e >>> 12) & 0xFFFFFFFFFFFFL) == key) {
+                table.set(i, DELETED);
+                --size;
+                ++deleted;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies the live entries into a new table, sized for at most 25% load. Readers keep using
+     * the old table until the new one is published.
+     */
+    private void rehash() {
+        AtomicLongArray old = iMap;
+        int length = MIN_TABLE_SIZE;
+        while (length < size * 4) {
+            length *= 2;
+        }
+        AtomicLongArray table = new AtomicLongArray(length);
+        int mask = length - 1;
+        for (int j = 0; j < old.length(); j++) {
+            long e = old.get(j);
+            if (e == EMPTY || e == DELETED) continue;
+            int i = slot((e >>> 12) & 0xFFFFFFFFFFFFL, mask);
+            while (table.get(i) != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            table.set(i, e);
+        }
+        deleted = 0;
+        iMap = table;
     }
  }
@@ -2,9 +2,9 @@ package org.openlcb.can;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.openlcb.Connection;
@@ -12,6 +12,8 @@ import org.openlcb.Connection.ConnectionListener;
 import org.openlcb.Message;
 import org.openlcb.NodeID;
 import org.openlcb.OlcbInterface;
+import org.openlcb.OlcbMetrics;
+import org.openlcb.TimerService;
 import java.util.logging.Logger;
 
 /**
@@ -28,22 +30,27 @@ public class CanInterface {
     private final AliasMap aliasMap;
     /// State machines for frame reassembly.
     private final MessageBuilder messageBuilder;
-    /// CAN adapter to send outgoing messages to.
+    /// CAN adapter to send outgoing messages to, wrapped to count the frames.
     private final CanFrameListener frameOutput;
     /// Converts incoming farmes to messages and forwards them to the olcbInterface.
     private final FrameParser frameInput;
     /// All high-level (i.e. mesage level and above) Olcb objects.
     private final OlcbInterface olcbInterface;
+    /// Metrics registry of olcbInterface.
+    private final OlcbMetrics metrics;
     /// Converts outgoing messages to frame sequences and sends to the network.
     private final FrameRenderer frameRenderer;
     /// Objects waiting for startup.
     private final List<ConnectionListener> listeners = new ArrayList<>();
     private final NodeID nodeId;
     private final NIDaAlgorithm aliasWatcher;
+    private final TimerService timerService;
+    /// How long to wait for replies to the AME and Verify Node ID frames, in msec.
+    static final int ALIAS_QUERY_DELAY_MSEC = 200;
 
     protected boolean initialized = false;
 
-    private ThreadPoolExecutor threadPool = null;
+    private volatile ExecutorService threadPool = null;
     final static int minThreads = 10;
     final static int maxThreads = 10;
     final static long threadTimeout = 10; // allowed idle time for threads, in seconds.
@@ -54,25 +61,41 @@ public class CanInterface {
                           threadTimeout,TimeUnit.SECONDS,
                           new LinkedBlockingQueue<Runnable>(),
                           new org.openlcb.OlcbThreadFactory()));
-        threadPool.allowCoreThreadTimeOut(true);
+        ((ThreadPoolExecutor) threadPool).allowCoreThreadTimeOut(true);
     }
 
     public CanInterface(NodeID interfaceId, CanFrameListener frameOutput, ThreadPoolExecutor tpe ) {
-        threadPool=tpe;
-        this.frameOutput = frameOutput;
+        this(interfaceId, frameOutput, (ExecutorService) tpe, new TimerService("OpenLCB-timer"));
+    }
+
+    /**
+     * @param interfaceId  node ID of the local node
+     * @param frameOutput  where to send the outgoing CAN frames
+     * @param executor     runs the work of the interface; can be a thread pool, a
+     *                     virtual-thread-per-task executor or a single event-loop thread (see
+     *                     {@link org.openlcb.OlcbExecutors})
+     * @param timerService schedules all timeouts of the interface, including alias allocation
+     */
+    public CanInterface(NodeID interfaceId, CanFrameListener frameOutput, ExecutorService executor,
+                        TimerService timerService) {
+        threadPool = executor;
+        this.timerService = timerService;
+        this.frameOutput = new FrameCounter(frameOutput);
         this.frameRenderer = new FrameRenderer();
         this.nodeId = interfaceId;
 
         // Creates high-level OpenLCB interface.
-        olcbInterface = new OlcbInterface(nodeId, frameRenderer,threadPool);
+        olcbInterface = new OlcbInterface(nodeId, frameRenderer, threadPool, timerService);
+        metrics = olcbInterface.getMetrics();
 
         // Creates CAN-level OpenLCB objects.
         aliasMap = new AliasMap();
         messageBuilder = new MessageBuilder(aliasMap);
-        aliasWatcher = new NIDaAlgorithm(interfaceId, frameOutput);
+        aliasWatcher = new NIDaAlgorithm(interfaceId, this.frameOutput, timerService);
+        aliasWatcher.setMetrics(metrics);
 
         this.frameInput = new FrameParser();
-        threadPool.execute(new Runnable() {
+        runOnExecutor(new Runnable() {
             @Override
             public void run() {
                 initialize();
@@ -93,24 +116,27 @@ public class CanInterface {
         l.connectionActive(frameRenderer);
     }
 
+    /**
+     * Starts the alias allocation. Does not block: the remaining steps run as continuations on
+     * the executor once the alias is reserved and after the alias query delay, then the start
+     * listeners are notified.
+     */
     public void initialize() {
-        // Do initialization tasks here.
-        final Semaphore sema = new Semaphore(1, true);
-        sema.acquireUninterruptibly();
-
         aliasWatcher.start(new Runnable() {
             @Override
             public void run() {
-                sema.release();
+                runOnExecutor(new Runnable() {
+                    @Override
+                    public void run() {
+                        queryAliases();
+                    }
+                });
             }
         });
-        // Waits for alias allocation to complete.
-        try {
-            sema.acquire();
-        } catch (InterruptedException e) {
-            // if the thread was interrupted, we are trying to terminate.
-            return;
-        }
+    }
+
+    /// Called when our alias is reserved.
+    private void queryAliases() {
         // Acquires everybody else's alias.
         OpenLcbCanFrame ameFrame = new OpenLcbCanFrame(0);
         ameFrame.setAME(aliasWatcher.getNIDa(), null);
@@ -118,12 +144,21 @@ public class CanInterface {
         OpenLcbCanFrame gReqFrame = new OpenLcbCanFrame(aliasWatcher.getNIDa());
         gReqFrame.setVerifyNID(null);
         frameOutput.send(gReqFrame);
-        try {
-            Thread.sleep(200);
-        } catch(InterruptedException e) {
-            // if the thread was interrupted, we are trying to terminate.
-            return;
-        }
+        timerService.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runOnExecutor(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishInitialize();
+                    }
+                });
+            }
+        }, ALIAS_QUERY_DELAY_MSEC);
+    }
+
+    /// Called when the replies to the alias queries had time to arrive.
+    private void finishInitialize() {
         // Stores local node alias.
         aliasMap.insert(aliasWatcher.getNIDa(), nodeId);
         /// TODO(balazs.racz): If the alias changes, we need to update the local alias map.
@@ -140,18 +175,52 @@ public class CanInterface {
         }
     }
 
+    /// Runs an initialization step on the executor, unless the interface was disposed.
+    private void runOnExecutor(Runnable r) {
+        ExecutorService executor = threadPool;
+        if (executor == null) return;
+        try {
+            executor.execute(r);
+        } catch (RejectedExecutionException e) {
+            // We are trying to terminate.
+        }
+    }
+
     public OlcbInterface getInterface() {
         return olcbInterface;
     }
 
+    /**
+     * @return the metrics registry, shared with the OlcbInterface. The CAN layer records the
+     * frames in and out and the alias conflicts.
+     */
+    public OlcbMetrics getMetrics() {
+        return metrics;
+    }
+
+    /// Counts the outgoing frames, including the ones of the alias allocation.
+    private class FrameCounter implements CanFrameListener {
+        private final CanFrameListener output;
+
+        FrameCounter(CanFrameListener output) {
+            this.output = output;
+        }
+
+        @Override
+        public void send(CanFrame frame) {
+            metrics.frameSent();
+            output.send(frame);
+        }
+    }
+
     class FrameParser implements CanFrameListener {
         @Override
         public void send(CanFrame frame) {
+            metrics.frameReceived();
             aliasWatcher.send(frame);
-            aliasMap.processFrame(new OpenLcbCanFrame(frame));
-            List<Message> l = messageBuilder.processFrame(frame);
-            if (l == null) return;
-            for (Message m : l) {
+            aliasMap.processFrame(frame);
+            Message m = messageBuilder.decodeFrame(frame);
+            if (m != null) {
                 olcbInterface.getInputConnection().put(m, null);
             }
         }
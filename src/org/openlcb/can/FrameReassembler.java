@@ -0,0 +1,237 @@
+package org.openlcb.can;
+
+import java.util.ArrayDeque;
+import java.util.logging.Logger;
+
+/**
+ * Collects the payload of multi-frame messages (addressed messages and datagrams) while they
+ * arrive from the CAN bus.
+ * <p>
+ * Each partial message is identified by a primitive key built from the kind of transfer, the
+ * source and destination aliases and a kind-specific discriminator (e.g. the MTI). The
+ * payload is appended to a growable byte buffer; buffers are recycled through a pool once the
+ * message is complete, so steady-state reassembly does not allocate.
+ * <p>
+ * The number of concurrent reassemblies is bounded. Partial messages that did not progress
+ * for longer than the timeout are dropped when the table is searched; if the table is still
+ * full, the oldest partial message is dropped to make room.
+ * <p>
+ * Not thread-safe: owned by the inbound side of a {@link MessageBuilder}.
+ */
+class FrameReassembler {
+    private final static Logger logger = Logger.getLogger(FrameReassembler.class.getName());
+    static final int DEFAULT_MAX_ACTIVE = 64;
+    static final long DEFAULT_TIMEOUT_MILLIS = 3000;
+    static final int INITIAL_CAPACITY = 128;
+
+    static final int KIND_ADDRESSED = 1;
+    static final int KIND_DATAGRAM = 2;
+
+    /**
+     * Computes the reassembly key.
+     * @param kind   one of the KIND_ constants
+     * @param extra  12-bit discriminator within the kind, e.g. the MTI
+     * @param source source alias
+     * @param dest   destination alias
+     * @return the key
+     */
+    static long key(int kind, int extra, int source, int dest) {
+        return ((long) kind << 36) | ((long) (extra & 0xFFF) << 24) | ((source & 0xFFF) << 12)
+                | (dest & 0xFFF);
+    }
+
+    /**
+     * Payload of a partial message.
+     */
+    static final class Buffer {
+        long key;
+        byte[] data = new byte[INITIAL_CAPACITY];
+        int length;
+        /// When the last frame was appended (milliseconds).
+        long lastUpdate;
+        /// Set when the message got too long. The rest of its frames are ignored, and the buffer
+        /// is kept until the last frame so that the tail is not taken as a new message.
+        boolean discarding;
+
+        /// Drops the data collected so far and ignores the rest of the message.
+        void discard() {
+            length = 0;
+            discarding = true;
+        }
+
+        /**
+         * Appends data bytes of a frame.
+         * @param f    frame to copy from
+         * @param from index of the first data byte to copy
+         */
+        void append(CanFrame f, int from) {
+            int n = f.getNumDataElements() - from;
+            if (n <= 0) return;
+            ensureCapacity(length + n);
+            for (int i = 0; i < n; i++) {
+                data[length++] = (byte) f.getElement(from + i);
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= data.length) return;
+            int c = data.length * 2;
+            while (c < capacity) c *= 2;
+            byte[] d = new byte[c];
+            System.arraycopy(data, 0, d, 0, length);
+            data = d;
+        }
+
+        /**
+         * Removes bytes from the front of the buffer.
+         * @param count number of bytes to remove
+         */
+        void consume(int count) {
+            System.arraycopy(data, count, data, 0, length - count);
+            length -= count;
+        }
+
+        byte[] toByteArray(int from, int count) {
+            byte[] r = new byte[count];
+            System.arraycopy(data, from, r, 0, count);
+            return r;
+        }
+
+        int[] toIntArray(int count) {
+            int[] r = new int[count];
+            for (int i = 0; i < count; i++) {
+                r[i] = data[i] & 0xFF;
+            }
+            return r;
+        }
+    }
+
+    private final int maxActive;
+    private final long timeoutMillis;
+    /// Partial messages in progress; the number of them is small and bounded, so a linear
+    /// scan is the cheapest lookup.
+    private final Buffer[] active;
+    private int activeCount = 0;
+    private final ArrayDeque<Buffer> pool = new ArrayDeque<>();
+    /// Number of partial messages that were dropped due to timeout or table overflow.
+    private int evictionCount = 0;
+
+    FrameReassembler() {
+        this(DEFAULT_MAX_ACTIVE, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    FrameReassembler(int maxActive, long timeoutMillis) {
+        this.maxActive = maxActive;
+        this.timeoutMillis = timeoutMillis;
+        this.active = new Buffer[maxActive];
+    }
+
+    /**
+     * Looks up a partial message.
+     * @param key reassembly key
+     * @param now current time in milliseconds
+     * @return the buffer of the partial message, or null if there is none (or it timed out).
+     */
+    Buffer get(long key, long now) {
+        for (int i = 0; i < activeCount; i++) {
+            Buffer b = active[i];
+            if (b.key == key) {
+                if (now - b.lastUpdate > timeoutMillis) {
+                    logger.fine("Dropping stale partial message " + Long.toHexString(key));
+                    ++evictionCount;
+                    removeAt(i);
+                    return null;
+                }
+                b.lastUpdate = now;
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts a new partial message. Any previous partial message with the same key is
+     * discarded.
+     * @param key reassembly key
+     * @param now current time in milliseconds
+     * @return an empty buffer registered under the key
+     */
+    Buffer start(long key, long now) {
+        for (int i = 0; i < activeCount; i++) {
+            if (active[i].key == key) {
+                Buffer b = active[i];
+                b.length = 0;
+                b.discarding = false;
+                b.lastUpdate = now;
+                return b;
+            }
+        }
+        if (activeCount == maxActive) {
+            expire(now);
+        }
+        if (activeCount == maxActive) {
+            int oldest = 0;
+            for (int i = 1; i < activeCount; i++) {
+                if (active[i].lastUpdate < active[oldest].lastUpdate) oldest = i;
+            }
+            logger.warning("Too many partial messages; dropping " + Long.toHexString(active[oldest]
+                    .key));
+            ++evictionCount;
+            removeAt(oldest);
+        }
+        Buffer b = pool.poll();
+        if (b == null) {
+            b = new Buffer();
+        }
+        b.key = key;
+        b.length = 0;
+        b.discarding = false;
+        b.lastUpdate = now;
+        active[activeCount++] = b;
+        return b;
+    }
+
+    /**
+     * Finishes a partial message and returns its buffer to the pool. The buffer must not be
+     * used by the caller afterwards.
+     * @param b buffer returned by get or start
+     */
+    void release(Buffer b) {
+        for (int i = 0; i < activeCount; i++) {
+            if (active[i] == b) {
+                removeAt(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops all partial messages that did not progress within the timeout.
+     * @param now current time in milliseconds
+     */
+    void expire(long now) {
+        for (int i = activeCount - 1; i >= 0; i--) {
+            if (now - active[i].lastUpdate > timeoutMillis) {
+                ++evictionCount;
+                removeAt(i);
+            }
+        }
+    }
+
+    int getActiveCount() {
+        return activeCount;
+    }
+
+    int getEvictionCount() {
+        return evictionCount;
+    }
+
+    private void removeAt(int i) {
+        Buffer b = active[i];
+        active[i] = active[--activeCount];
+        active[activeCount] = null;
+        if (pool.size() < maxActive) {
+            pool.add(b);
+        }
+    }
+}
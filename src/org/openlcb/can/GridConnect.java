@@ -1,5 +1,8 @@
 package org.openlcb.can;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
@@ -11,27 +14,63 @@ import org.openlcb.implementations.DatagramUtils;
 public class GridConnect {
     private final static Logger logger = Logger.getLogger(GridConnect.class.getName());
 
+    /// Upper bound on the length of a formatted frame with at most 8 data bytes, excluding
+    /// any line terminator.
+    public static final int MAX_FRAME_LENGTH = 28;
+
+    private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+            'A', 'B', 'C', 'D', 'E', 'F'};
+
     public static String format(CanFrame frame) {
-        StringBuilder b = new StringBuilder();
+        byte[] b = new byte[formattedLength(frame)];
+        int len = encode(frame, b, 0);
+        return new String(b, 0, len, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @param frame CAN frame
+     * @return the number of bytes {@link #encode} will write for this frame.
+     */
+    public static int formattedLength(CanFrame frame) {
+        return (frame.isExtended() ? 10 : 5) + 2 + 2 * frame.getNumDataElements();
+    }
+
+    /**
+     * Renders a CAN frame in GridConnect format as ASCII bytes without allocating memory.
+     *
+     * @param frame  CAN frame to render
+     * @param buf    destination array; must have at least {@link #formattedLength} bytes
+     *               available from offset.
+     * @param offset where to start writing in buf.
+     * @return the number of bytes written.
+     */
+    public static int encode(CanFrame frame, byte[] buf, int offset) {
+        int p = offset;
+        buf[p++] = ':';
+        int header = frame.getHeader();
         if (frame.isExtended()) {
-            b.append(String.format(":X%08X", frame.getHeader()));
-        } else {
-            b.append(String.format(":S%03X", frame.getHeader()));
-        }
-        if (frame.isRtr()) {
-            b.append('R');
+            buf[p++] = 'X';
+            for (int shift = 28; shift >= 0; shift -= 4) {
+                buf[p++] = HEX_DIGITS[(header >>> shift) & 0xf];
+            }
         } else {
-            b.append('N');
+            buf[p++] = 'S';
+            for (int shift = 8; shift >= 0; shift -= 4) {
+                buf[p++] = HEX_DIGITS[(header >>> shift) & 0xf];
+            }
         }
-        if (frame.getNumDataElements() > 8) {
-            logger.warning("Output frame with too many data elements: " + Integer.toString(frame
-                    .getNumDataElements()));
+        buf[p++] = frame.isRtr() ? (byte) 'R' : (byte) 'N';
+        int n = frame.getNumDataElements();
+        if (n > 8) {
+            logger.warning("Output frame with too many data elements: " + Integer.toString(n));
         }
-        for (int i = 0; i < frame.getNumDataElements(); ++i) {
-            b.append(String.format("%02X", frame.getElement(i) & 0xff));
+        for (int i = 0; i < n; ++i) {
+            int d = frame.getElement(i);
+            buf[p++] = HEX_DIGITS[(d >> 4) & 0xf];
+            buf[p++] = HEX_DIGITS[d & 0xf];
         }
-        b.append(';');
-        return b.toString();
+        buf[p++] = ';';
+        return p - offset;
     }
 
     public static List<CanFrame> parse(String data) {
@@ -55,14 +94,35 @@ public class GridConnect {
         BODYLO
     }
 
+    /// Maps ASCII characters to their hexadecimal digit value, or -1 if not a hex digit.
+    private static final byte[] HEX_VALUES = new byte[128];
+    static {
+        java.util.Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; ++i) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toLowerCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
+    private static int hexValue(char c) {
+        return c < 128 ? HEX_VALUES[c] : -1;
+    }
+
+    /**
+     * Incremental GridConnect decoder. Accepts input in arbitrary chunks (single characters,
+     * strings, arrays or byte buffers) and calls {@link #onFrame} for every complete frame. The
+     * payload is collected in a fixed buffer; the only allocation is the frame object handed to
+     * onFrame.
+     */
     public static abstract class Input {
         private boolean isExtended;
         private int header;
         private boolean isRtr;
         private InputState state = InputState.NOPACKET;
-        private ArrayList<Byte> data = new ArrayList<>(8);
+        private final byte[] data = new byte[8];
+        private int dataLen;
 
-        private byte currData;
+        private int currData;
 
         public void send(String data) {
             for (int i = 0; i < data.length(); ++i) {
@@ -70,6 +130,43 @@ public class GridConnect {
             }
         }
 
+        public void send(char[] buf, int offset, int len) {
+            for (int i = offset; i < offset + len; ++i) {
+                send(buf[i]);
+            }
+        }
+
+        /**
+         * Parses ASCII input.
+         *
+         * @param buf    input bytes
+         * @param offset where to start in buf
+         * @param len    number of bytes to parse
+         */
+        public void send(byte[] buf, int offset, int len) {
+            for (int i = offset; i < offset + len; ++i) {
+                send((char) (buf[i] & 0xff));
+            }
+        }
+
+        /**
+         * Parses all remaining ASCII input in a buffer, and advances the buffer's position to its
+         * limit.
+         *
+         * @param buf input bytes
+         */
+        public void send(ByteBuffer buf) {
+            if (buf.hasArray()) {
+                send(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+                // Through Buffer to stay binary compatible with Java 8.
+                ((Buffer) buf).position(buf.limit());
+            } else {
+                while (buf.hasRemaining()) {
+                    send((char) (buf.get() & 0xff));
+                }
+            }
+        }
+
         public void send(char c) {
             while (true) {
                 switch (state) {
@@ -95,7 +192,7 @@ public class GridConnect {
                         return;
                     }
                     case HEADER: {
-                        int dvalue = Character.digit(c, 16);
+                        int dvalue = hexValue(c);
                         if (dvalue >= 0) {
                             header <<= 4;
                             header |= dvalue;
@@ -117,35 +214,39 @@ public class GridConnect {
                             continue;
                         }
                         state = InputState.BODYHI_OR_END;
-                        data.clear();
+                        dataLen = 0;
                         return;
                     }
                     case BODYHI_OR_END: {
                         if (c == ';') {
                             // End of frame.
-                            onFrame(new RawCanFrame(isExtended, header, isRtr, data));
                             state = InputState.NOPACKET;
+                            onFrame(new RawCanFrame(isExtended, header, isRtr, data, dataLen));
                             return;
                         }
-                        int dvalue = Character.digit(c, 16);
+                        int dvalue = hexValue(c);
                         if (dvalue < 0) {
                             logger.fine("Unknown gridconnect data character: " + c);
                             state = InputState.NOPACKET;
                             continue;
                         }
-                        currData = (byte) (dvalue << 4);
+                        if (dataLen >= data.length) {
+                            logger.fine("Too many data bytes in gridconnect frame");
+                            state = InputState.NOPACKET;
+                            continue;
+                        }
+                        currData = dvalue << 4;
                         state = InputState.BODYLO;
                         return;
                     }
                     case BODYLO: {
-                        int dvalue = Character.digit(c, 16);
+                        int dvalue = hexValue(c);
                         if (dvalue < 0) {
                             logger.fine("Unknown gridconnect data character: " + c);
                             state = InputState.NOPACKET;
                             continue;
                         }
-                        currData |= (dvalue & 0xf);
-                        data.add(currData);
+                        data[dataLen++] = (byte) (currData | dvalue);
                         state = InputState.BODYHI_OR_END;
                         return;
                     }
@@ -164,15 +265,30 @@ public class GridConnect {
         private int len;
         private byte[] data;
 
-        public RawCanFrame(boolean isExtended, int header, boolean isRtr, ArrayList<Byte> data) {
+        public RawCanFrame(boolean isExtended, int header, boolean isRtr, byte[] data, int len) {
             this.isExtended = isExtended;
             this.header = header;
             this.isRtr = isRtr;
-            this.len = data.size();
-            this.data = new byte[this.len];
-            for (int i = 0; i < len; ++i) {
-                this.data[i] = data.get(i);
+            this.len = len;
+            this.data = new byte[len];
+            System.arraycopy(data, 0, this.data, 0, len);
+        }
+
+        /**
+         * @deprecated use {@link #RawCanFrame(boolean, int, boolean, byte[], int)}; kept for
+         * binary compatibility.
+         */
+        @Deprecated
+        public RawCanFrame(boolean isExtended, int header, boolean isRtr, ArrayList<Byte> data) {
+            this(isExtended, header, isRtr, toBytes(data), data.size());
+        }
+
+        private static byte[] toBytes(ArrayList<Byte> data) {
+            byte[] b = new byte[data.size()];
+            for (int i = 0; i < b.length; ++i) {
+                b[i] = data.get(i);
             }
+            return b;
         }
 
         @Override
@@ -1,7 +1,5 @@
 package org.openlcb.can;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,11 +48,35 @@ public class MessageBuilder {
      * @return messages decoded from the arriving frame and internal state
      */
     public List<Message> processFrame(CanFrame f) {
+        Message m = decodeFrame(f);
+        if (m != null) {
+            List<Message> retlist = new java.util.ArrayList<Message>(1);
+            retlist.add(m);
+            return retlist;
+        }
+        if (frameAbsorbed) {
+            return new java.util.ArrayList<Message>();
+        }
+        return null;
+    }
+
+    /**
+     * Accept a frame, and convert to a standard OpenLCB Message object without allocating a
+     * list. A frame never completes more than one message. This is the per-frame path used by
+     * the CanInterface.
+     *
+     * @param f    frame that came
+     * @return the message completed by this frame, or null if the frame did not complete a
+     * message (e.g. it was not an OpenLCB frame or was part of a multi-frame message).
+     */
+    public Message decodeFrame(CanFrame f) {
+        frameAbsorbed = false;
+        int header = f.getHeader();
         // check for special cases first
-        if ( (f.getHeader() & 0x08000000) != 0x08000000 ) return null;  // not OpenLCB frame
+        if ( (header & 0x08000000) != 0x08000000 ) return null;  // not OpenLCB frame
         
         // break into types
-        int format = ( f.getHeader() & 0x07000000 ) >> 24;
+        int format = ( header & 0x07000000 ) >> 24;
 
         switch (format) {
             case 0:
@@ -78,336 +100,329 @@ public class MessageBuilder {
         }
     }
     
-    HashMap<NodeID, List<Integer>> datagramData = new HashMap<NodeID, List<Integer>>();
-    // dph
-    HashMap<NodeID, List<Integer>> streamData = new HashMap<NodeID, List<Integer>>();
+    /// Longest datagram payload accepted; longer ones are dropped.
+    static final int MAX_DATAGRAM_LENGTH = 72;
+    /// Longest multi-frame addressed message payload accepted; longer ones are dropped.
+    static final int MAX_ADDRESSED_LENGTH = 1024;
+    /// Partial addressed messages and datagrams.
+    final FrameReassembler reassembler = new FrameReassembler();
+    /// Set by decodeFrame when an MTI frame was consumed without completing a message; for
+    /// this case processFrame returns an empty list instead of null.
+    private boolean frameAbsorbed = false;
     
     int getSourceID(CanFrame f) { return f.getHeader()&0x00000FFF; }
     int getMTI(CanFrame f) { return ( f.getHeader() & 0x00FFF000 ) >> 12; }
-    EventID getEventID(CanFrame f) { return new EventID(f.getData()); }
-    
-    List<Message> processFormat0(CanFrame f) {
-        // reserved
-        return null;
+    /// Destination alias of datagram and stream frames.
+    int getDestID(CanFrame f) { return ( f.getHeader() & 0x00FFF000 ) >> 12; }
+    static EventID getEventID(CanFrame f) {
+        if (f.getNumDataElements() != 8) {
+            // Throws for the wrong length.
+            return new EventID(f.getData());
+        }
+        return new EventID(elementsAsLong(f, 0, 8));
     }
 
-    class AccumulationMemo {
-        long header;
-        NodeID source;
-        NodeID dest;
-        byte[] data;
-        
-        public AccumulationMemo(long header, NodeID source, NodeID dest, byte[] data) {
-            this.header = header;
-            this.source = source;
-            this.dest = dest;
-            this.data = data;
-        }
-        
-        public boolean equals(Object obj) {
-            if (! (obj instanceof AccumulationMemo) )
-                    return false;
-            
-            AccumulationMemo other = (AccumulationMemo)obj;
-            if (header != other.header) return false;
-            if ( ! source.equals(other.source)) return false;
-            if ( ! dest.equals(other.dest)) return false;
-            return true;
-        }
-        
-        // data varies in length, not considered.
-        public int hashCode() {
-            return (int)(header+dest.hashCode()+source.hashCode());
+    /// @return frame payload bytes [from, to) as a big-endian number, without copying.
+    static long elementsAsLong(CanFrame f, int from, int to) {
+        long retval = 0;
+        for (int i = from; i < to; i++) {
+            retval = retval << 8 | f.getElement(i);
         }
+        return retval;
     }
     
-    HashMap<Integer, AccumulationMemo> accumulations = new HashMap<Integer, AccumulationMemo>();
-    
-    List<Message> processFormat1(CanFrame f) {
+    Message processFormat0(CanFrame f) {
+        // reserved
+        return null;
+    }
+
+    Message processFormat1(CanFrame f) {
         // MTI
-        List<Message> retlist = new java.util.ArrayList<Message>();
         NodeID source = map.getNodeID(getSourceID(f));
         NodeID dest = null;
         int mti = getMTI(f);
-        byte[] data = f.getData();
+        int length = f.getNumDataElements();
 
         byte[] content = null;
 
-        if ( ((mti&0x008) != 0) && (f.getNumDataElements() >= 2) ) {
+        if ( ((mti&0x008) != 0) && (length >= 2) ) {
             // addressed message 
-            dest = map.getNodeID( ( (f.getElement(0) << 8) + (f.getElement(1) & 0xff) ) & 0xFFF );
-            AccumulationMemo mnew = new AccumulationMemo(f.getHeader(), source, dest, data);
-            // is header already in map?
-            AccumulationMemo mold = accumulations.get(f.getHeader());
-            if (mold == null) {
-                // no - start accumulation
-                accumulations.put(f.getHeader(),mnew);
-                mold = mnew;
+            int destAlias = ( (f.getElement(0) << 8) + (f.getElement(1) & 0xff) ) & 0xFFF;
+            dest = map.getNodeID(destAlias);
+            int framing = f.getElement(0) & 0x30;
+            if (framing == 0) {
+                // only frame
+                content = new byte[length-2];
+                for (int i = 0; i < content.length; i++) {
+                    content[i] = (byte) f.getElement(i + 2);
+                }
             } else {
-                // combine data into old one
-                byte[] newdata = new byte[mold.data.length+mnew.data.length-2];  // skip address
-                System.arraycopy(mold.data, 0, newdata, 0, mold.data.length);
-                System.arraycopy(mnew.data, 2, newdata, mold.data.length, mnew.data.length-2);
-                mold.data = newdata;
+                long key = FrameReassembler.key(FrameReassembler.KIND_ADDRESSED, mti,
+                        getSourceID(f), destAlias);
+                long now = System.currentTimeMillis();
+                FrameReassembler.Buffer b;
+                if (framing == 0x10) {
+                    // first frame; drops any previous unfinished message.
+                    b = reassembler.start(key, now);
+                } else {
+                    b = reassembler.get(key, now);
+                    if (b == null) {
+                        // beginning missed; collect what we have.
+                        b = reassembler.start(key, now);
+                    }
+                }
+                if (!b.discarding) {
+                    b.append(f, 2);
+                    if (b.length > MAX_ADDRESSED_LENGTH) {
+                        logger.log(Level.WARNING, "Dropping too long message from {0} MTI 0x{1}",
+                                new Object[]{source, Integer.toHexString(mti)});
+                        b.discard();
+                    }
+                }
+                // see if final bit active
+                if ((framing & 0x10) != 0) {
+                    // no, accumulate
+                    frameAbsorbed = true;
+                    return null;
+                }
+                if (b.discarding) {
+                    reassembler.release(b);
+                    frameAbsorbed = true;
+                    return null;
+                }
+                // we're going to continue processing with the accumulated data
+                content = b.toByteArray(0, b.length);
+                reassembler.release(b);
             }
-            // see if final bit active
-            if ( (f.getElement(0) & 0x10 ) != 0) {
-                // no, accumulate
-                return retlist; // which is null right now
-            } 
-            // we're going to continue processing with the accumulated data
-            data = mold.data;
-            accumulations.remove(f.getHeader());
-
-            content = new byte[data.length-2];
-            System.arraycopy(data, 2, content, 0, content.length);
         }
         
+        Decoder decoder = decoders[mti];
+        if (decoder != null) {
+            return decoder.decode(f, source, dest, content);
+        }
         MessageTypeIdentifier value = MessageTypeIdentifier.get(mti);
         if (value == null) {
             // something bad happened
             String mtiString = "000"+Integer.toHexString(mti).toUpperCase();
             mtiString = mtiString.substring(mtiString.length()-3);
             logger.log(Level.SEVERE, " failed to parse MTI 0x{0}", mtiString);
-            return retlist;  // nothing in it from this
+            frameAbsorbed = true;
+            return null;  // nothing from this
         }
-        
-        switch (value) {
-            case InitializationComplete: 
-                retlist.add(new InitializationCompleteMessage(source));
-                return retlist;
-            case VerifyNodeIdGlobal:
-                // check for content
-                if (data.length >= 6) {
-                    NodeID node = new NodeID(data);
-                    retlist.add(new VerifyNodeIDNumberMessage(source, node));
-                } else {
-                    retlist.add(new VerifyNodeIDNumberMessage(source));
-                }
-                return retlist;
-            case VerifiedNodeId: 
-                retlist.add(new VerifiedNodeIDNumberMessage(source));
-                return retlist;
+        logger.warning(String.format(" received unhandled MTI 0x%03X: %s", mti, value.toString()));
+        return null;
+    }
 
-            case OptionalInteractionRejected: {
-                    int d2 = data.length >= 3 ? f.getElement(2) : 0;
-                    int d3 = data.length >= 4 ? f.getElement(3) : 0;
-                    int d4 = data.length >= 5 ? f.getElement(4) : 0;
-                    int d5 = data.length >= 6 ? f.getElement(5) : 0;
-                    int retmti = ((d2&0xff)<<8) | (d3&0xff);
-                    int code = ((d4&0xff)<<8) | (d5&0xff);;
-                    retlist.add(new OptionalIntRejectedMessage(source, dest,retmti,code));
-                    return retlist;
-                }
-            case ProtocolSupportInquiry: 
-                retlist.add(new ProtocolIdentificationRequestMessage(source, dest));
-                return retlist;
-            case ProtocolSupportReply: 
-                retlist.add(new ProtocolIdentificationReplyMessage(source, dest, f.dataAsLong()));
-                return retlist;
-            case TractionControlRequest:
-                retlist.add(new TractionControlRequestMessage(source, dest, content));
-                return retlist;
-            case TractionControlReply:
-                retlist.add(new TractionControlReplyMessage(source, dest, content));
-                return retlist;
-            case TractionProxyRequest:
-                retlist.add(new TractionProxyRequestMessage(source, dest, content));
-                return retlist;
-            case TractionProxyReply:
-                retlist.add(new TractionProxyReplyMessage(source, dest, content));
-                return retlist;
-            case IdentifyConsumer:
-                retlist.add(new IdentifyConsumersMessage(source, getEventID(f)));
-                return retlist;
-            case ConsumerRangeIdentified:
-                retlist.add(new ConsumerRangeIdentifiedMessage(source, getEventID(f)));
-                return retlist;
-            case ConsumerIdentifiedUnknown:
-                retlist.add(new ConsumerIdentifiedMessage(source, getEventID(f), EventState.Unknown));
-                return retlist;
-            case ConsumerIdentifiedValid:
-                retlist.add(new ConsumerIdentifiedMessage(source, getEventID(f), EventState.Valid));
-                return retlist;
-            case ConsumerIdentifiedInvalid:
-                retlist.add(new ConsumerIdentifiedMessage(source, getEventID(f), EventState.Invalid));
-                return retlist;
-            case IdentifyProducer: 
-                retlist.add(new IdentifyProducersMessage(source, getEventID(f)));
-                return retlist;
-            case ProducerRangeIdentified:
-                retlist.add(new ProducerRangeIdentifiedMessage(source, getEventID(f)));
-                return retlist;
-            case ProducerIdentifiedUnknown:
-                retlist.add(new ProducerIdentifiedMessage(source, getEventID(f), EventState.Unknown));
-                return retlist;
-            case ProducerIdentifiedValid:
-                retlist.add(new ProducerIdentifiedMessage(source, getEventID(f), EventState.Valid));
-                return retlist;
-            case ProducerIdentifiedInvalid:
-                retlist.add(new ProducerIdentifiedMessage(source, getEventID(f), EventState.Invalid));
-                return retlist;
-            case ProducerConsumerEventReport: 
-                retlist.add(new ProducerConsumerEventReportMessage(source, getEventID(f)));
-                return retlist;
-            case IdentifyEventsAddressed:
-                retlist.add(new IdentifyEventsMessage(source, dest));
-                return retlist;
-            case LearnEvent: 
-                retlist.add(new LearnEventMessage(source, getEventID(f)));
-                return retlist;
+    /// Builds the message for one MTI from a complete format 1 frame.
+    private interface Decoder {
+        /**
+         * @param f       the (last) frame of the message
+         * @param source  source node
+         * @param dest    destination node for addressed messages, otherwise null
+         * @param content payload of addressed messages without the destination alias, otherwise
+         *                null
+         * @return the decoded message.
+         */
+        Message decode(CanFrame f, NodeID source, NodeID dest, byte[] content);
+    }
 
-            case SimpleNodeIdentInfoRequest: 
-                retlist.add(new SimpleNodeIdentInfoRequestMessage(source, dest));
-                return retlist;
-            case SimpleNodeIdentInfoReply:
-                retlist.add(new SimpleNodeIdentInfoReplyMessage(source, dest, content));
-                return retlist;
-            case DatagramReceivedOK:
-                if (content != null && content.length > 0) {
-                    retlist.add(new DatagramAcknowledgedMessage(source, dest, DatagramUtils
-                            .byteToInt(content[0])));
-                } else {
-                    retlist.add(new DatagramAcknowledgedMessage(source, dest));
-                }
-                return retlist;
-            case DatagramRejected: 
-                retlist.add(new DatagramRejectedMessage(source,dest,(int)f.dataAsLong()));
-                return retlist;
-         // dph: add all stream messages reply and proceed.
-            case StreamInitiateRequest:
-                retlist.add(new StreamInitiateRequestMessage(source,dest,Utilities.NetworkToHostUint16(content, 2),content[4],
+    /// 12-bit MTI of format 1 frames -> decoder; null for MTIs we do not decode.
+    private static final Decoder[] decoders = new Decoder[4096];
+
+    private static void addDecoder(MessageTypeIdentifier t, Decoder d) {
+        decoders[t.mti()] = d;
+    }
+
+    static {
+        addDecoder(MessageTypeIdentifier.InitializationComplete,
+                (f, source, dest, content) -> new InitializationCompleteMessage(source));
+        addDecoder(MessageTypeIdentifier.VerifyNodeIdGlobal, (f, source, dest, content) -> {
+            // check for content
+            if (f.getNumDataElements() >= 6) {
+                NodeID node = new NodeID(elementsAsLong(f, 0, 6));
+                return new VerifyNodeIDNumberMessage(source, node);
+            } else {
+                return new VerifyNodeIDNumberMessage(source);
+            }
+        });
+        addDecoder(MessageTypeIdentifier.VerifiedNodeId,
+                (f, source, dest, content) -> new VerifiedNodeIDNumberMessage(source));
+        addDecoder(MessageTypeIdentifier.OptionalInteractionRejected,
+                (f, source, dest, content) -> {
+            int length = f.getNumDataElements();
+            int d2 = length >= 3 ? f.getElement(2) : 0;
+            int d3 = length >= 4 ? f.getElement(3) : 0;
+            int d4 = length >= 5 ? f.getElement(4) : 0;
+            int d5 = length >= 6 ? f.getElement(5) : 0;
+            int retmti = ((d2&0xff)<<8) | (d3&0xff);
+            int code = ((d4&0xff)<<8) | (d5&0xff);
+            return new OptionalIntRejectedMessage(source, dest,retmti,code);
+        });
+        addDecoder(MessageTypeIdentifier.ProtocolSupportInquiry,
+                (f, source, dest, content) -> new ProtocolIdentificationRequestMessage(source,
+                        dest));
+        addDecoder(MessageTypeIdentifier.ProtocolSupportReply,
+                (f, source, dest, content) -> new ProtocolIdentificationReplyMessage(source, dest,
+                        f.dataAsLong()));
+        addDecoder(MessageTypeIdentifier.TractionControlRequest,
+                (f, source, dest, content) -> new TractionControlRequestMessage(source, dest,
+                        content));
+        addDecoder(MessageTypeIdentifier.TractionControlReply,
+                (f, source, dest, content) -> new TractionControlReplyMessage(source, dest,
+                        content));
+        addDecoder(MessageTypeIdentifier.TractionProxyRequest,
+                (f, source, dest, content) -> new TractionProxyRequestMessage(source, dest,
+                        content));
+        addDecoder(MessageTypeIdentifier.TractionProxyReply,
+                (f, source, dest, content) -> new TractionProxyReplyMessage(source, dest,
+                        content));
+        addDecoder(MessageTypeIdentifier.IdentifyConsumer,
+                (f, source, dest, content) -> new IdentifyConsumersMessage(source,
+                        getEventID(f)));
+        addDecoder(MessageTypeIdentifier.ConsumerRangeIdentified,
+                (f, source, dest, content) -> new ConsumerRangeIdentifiedMessage(source,
+                        getEventID(f)));
+        addDecoder(MessageTypeIdentifier.ConsumerIdentifiedUnknown,
+                (f, source, dest, content) -> new ConsumerIdentifiedMessage(source,
+                        getEventID(f), EventState.Unknown));
+        addDecoder(MessageTypeIdentifier.ConsumerIdentifiedValid,
+                (f, source, dest, content) -> new ConsumerIdentifiedMessage(source,
+                        getEventID(f), EventState.Valid));
+        addDecoder(MessageTypeIdentifier.ConsumerIdentifiedInvalid,
+                (f, source, dest, content) -> new ConsumerIdentifiedMessage(source,
+                        getEventID(f), EventState.Invalid));
+        addDecoder(MessageTypeIdentifier.IdentifyProducer,
+                (f, source, dest, content) -> new IdentifyProducersMessage(source,
+                        getEventID(f)));
+        addDecoder(MessageTypeIdentifier.ProducerRangeIdentified,
+                (f, source, dest, content) -> new ProducerRangeIdentifiedMessage(source,
+                        getEventID(f)));
+        addDecoder(MessageTypeIdentifier.ProducerIdentifiedUnknown,
+                (f, source, dest, content) -> new ProducerIdentifiedMessage(source,
+                        getEventID(f), EventState.Unknown));
+        addDecoder(MessageTypeIdentifier.ProducerIdentifiedValid,
+                (f, source, dest, content) -> new ProducerIdentifiedMessage(source,
+                        getEventID(f), EventState.Valid));
+        addDecoder(MessageTypeIdentifier.ProducerIdentifiedInvalid,
+                (f, source, dest, content) -> new ProducerIdentifiedMessage(source,
+                        getEventID(f), EventState.Invalid));
+        addDecoder(MessageTypeIdentifier.ProducerConsumerEventReport,
+                (f, source, dest, content) -> new ProducerConsumerEventReportMessage(source,
+                        getEventID(f)));
+        addDecoder(MessageTypeIdentifier.IdentifyEventsAddressed,
+                (f, source, dest, content) -> new IdentifyEventsMessage(source, dest));
+        addDecoder(MessageTypeIdentifier.LearnEvent,
+                (f, source, dest, content) -> new LearnEventMessage(source, getEventID(f)));
+        addDecoder(MessageTypeIdentifier.SimpleNodeIdentInfoRequest,
+                (f, source, dest, content) -> new SimpleNodeIdentInfoRequestMessage(source, dest));
+        addDecoder(MessageTypeIdentifier.SimpleNodeIdentInfoReply,
+                (f, source, dest, content) -> new SimpleNodeIdentInfoReplyMessage(source, dest,
+                        content));
+        addDecoder(MessageTypeIdentifier.DatagramReceivedOK, (f, source, dest, content) -> {
+            if (content != null && content.length > 0) {
+                return new DatagramAcknowledgedMessage(source, dest, DatagramUtils
+                        .byteToInt(content[0]));
+            } else {
+                return new DatagramAcknowledgedMessage(source, dest);
+            }
+        });
+        addDecoder(MessageTypeIdentifier.DatagramRejected,
+                (f, source, dest, content) -> new DatagramRejectedMessage(source, dest,
+                        (int) f.dataAsLong()));
+        // dph: add all stream messages reply and proceed.
+        addDecoder(MessageTypeIdentifier.StreamInitiateRequest,
+                (f, source, dest, content) -> new StreamInitiateRequestMessage(source, dest,
+                        Utilities.NetworkToHostUint16(content, 0), content[4],
                         (content.length > 5 ? content[5] : -1)));
-                return retlist;
-            case StreamInitiateReply:
-                retlist.add(new StreamInitiateReplyMessage(source,dest,Utilities.NetworkToHostUint16(content, 0),content[4], content[5]));
-                return retlist;
-            // case StreamData is Format 7
-            case StreamDataProceed:
-                retlist.add(new StreamDataProceedMessage(source,dest,content[2], content[3]));
-                return retlist;
-            case StreamDataComplete:
-                retlist.add(new StreamDataCompleteMessage(source,dest,content.length > 2 ?
-                        content[2] : -1, content.length > 3 ? content[3] : -1));
-                return retlist;
-                
-            default:
-                logger.warning(String.format(" received unhandled MTI 0x%03X: %s", mti, value.toString()));
-                return null;
-        }
+        addDecoder(MessageTypeIdentifier.StreamInitiateReply,
+                (f, source, dest, content) -> new StreamInitiateReplyMessage(source, dest,
+                        Utilities.NetworkToHostUint16(content, 0), content[4], content[5]));
+        // StreamData is Format 7
+        addDecoder(MessageTypeIdentifier.StreamDataProceed,
+                (f, source, dest, content) -> new StreamDataProceedMessage(source, dest,
+                        content[0], content[1]));
+        addDecoder(MessageTypeIdentifier.StreamDataComplete,
+                (f, source, dest, content) -> new StreamDataCompleteMessage(source, dest,
+                        content.length > 0 ? content[0] : -1,
+                        content.length > 1 ? content[1] : -1));
     }
-    List<Message> processFormat2(CanFrame f) {
+    Message processFormat2(CanFrame f) {
         // datagram only-segment
         NodeID source = map.getNodeID(getSourceID(f));
-        List<Integer> list = datagramData.get(source);
-        if (list == null) {
-            list = new ArrayList<Integer>();
-            // don't need to put it back, as we're doing just one
-        } else {
-            // this is actually an error, datagram already in process for only-segment
-        }
-        for (int i = 0; i < f.getNumDataElements(); i++) {
-            list.add(f.getElement(i));
+        int[] data = new int[f.getNumDataElements()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = f.getElement(i);
         }
-        
-        // done, forward
-        
-        int[] data = new int[list.size()];
-        for (int i=0; i<list.size(); i++) {
-            data[i] = list.get(i);
-        }
-        List<Message> retlist = new java.util.ArrayList<Message>();
-        NodeID dest = map.getNodeID( (f.getHeader() & 0x00FFF000) >> 12);
-        retlist.add(new DatagramMessage(source, dest, data));
-        return retlist;
+        NodeID dest = map.getNodeID(getDestID(f));
+        return new DatagramMessage(source, dest, data);
     }
-    List<Message> processFormat3(CanFrame f) {
-        // datagram first-segment
-        NodeID source = map.getNodeID(getSourceID(f));
-        List<Integer> list = datagramData.get(source);
-        if (list == null) {
-            list = new ArrayList<Integer>();
-            datagramData.put(source, list);
-        } else {
-            // this is actually an error, datagram already in process for only-segment
-        }
-        for (int i = 0; i < f.getNumDataElements(); i++) {
-            list.add(f.getElement(i));
-        }
+    Message processFormat3(CanFrame f) {
+        // datagram first-segment; drops any previous unfinished datagram.
+        long key = FrameReassembler.key(FrameReassembler.KIND_DATAGRAM, 0, getSourceID(f),
+                getDestID(f));
+        reassembler.start(key, System.currentTimeMillis()).append(f, 0);
         return null;
     }
-    List<Message> processFormat4(CanFrame f) {
+    Message processFormat4(CanFrame f) {
         // datagram middle-segment
-        NodeID source = map.getNodeID(getSourceID(f));
-        List<Integer> list = datagramData.get(source);
-        if (list == null) {
+        long key = FrameReassembler.key(FrameReassembler.KIND_DATAGRAM, 0, getSourceID(f),
+                getDestID(f));
+        long now = System.currentTimeMillis();
+        FrameReassembler.Buffer b = reassembler.get(key, now);
+        if (b == null) {
             // this is actually an error, should be already started
-            list = new ArrayList<Integer>();
-            datagramData.put(source, list);
+            b = reassembler.start(key, now);
         }
-        for (int i = 0; i < f.getNumDataElements(); i++) {
-            list.add(f.getElement(i));
+        if (b.discarding) return null;
+        b.append(f, 0);
+        if (b.length > MAX_DATAGRAM_LENGTH) {
+            logger.log(Level.WARNING, "Dropping too long datagram from {0}", map.getNodeID
+                    (getSourceID(f)));
+            b.discard();
         }
         return null;
     }
-    List<Message> processFormat5(CanFrame f) {
+    Message processFormat5(CanFrame f) {
         // datagram last
-        NodeID source = map.getNodeID(getSourceID(f));
-        List<Integer> list = datagramData.get(source);
-        if (list == null) {
-            list = new ArrayList<Integer>();
+        long key = FrameReassembler.key(FrameReassembler.KIND_DATAGRAM, 0, getSourceID(f),
+                getDestID(f));
+        FrameReassembler.Buffer b = reassembler.get(key, System.currentTimeMillis());
+        if (b == null) {
+            return processFormat2(f);
+        }
+        if (b.discarding) {
+            reassembler.release(b);
+            return null;
         }
-        for (int i = 0; i < f.getNumDataElements(); i++) {
-            list.add(f.getElement(i));
+        b.append(f, 0);
+        if (b.length > MAX_DATAGRAM_LENGTH) {
+            logger.log(Level.WARNING, "Dropping too long datagram from {0}", map.getNodeID
+                    (getSourceID(f)));
+            reassembler.release(b);
+            return null;
         }
+        int[] data = b.toIntArray(b.length);
+        reassembler.release(b);
         
-        datagramData.put(source, null); // not accumulating any more
-        
-        int[] data = new int[list.size()];
-        for (int i=0; i<list.size(); i++) {
-            data[i] = list.get(i);
-        }
-        List<Message> retlist = new java.util.ArrayList<Message>();
-        NodeID dest = map.getNodeID( (f.getHeader() & 0x00FFF000) >> 12);
-        retlist.add(new DatagramMessage(source, dest, data));
-        return retlist;
+        NodeID source = map.getNodeID(getSourceID(f));
+        NodeID dest = map.getNodeID(getDestID(f));
+        return new DatagramMessage(source, dest, data);
     }
-    List<Message> processFormat6(CanFrame f) {
+    Message processFormat6(CanFrame f) {
         // reserved
         return null;
     }
-    List<Message> processFormat7(CanFrame f) {
-        // stream data
-        NodeID source = map.getNodeID(getSourceID(f));
-        // @todo need to define this  !!!!!!!!!!!!!!!!!!!!!!!!!!
-        int bufSize = 64;
-        int destID = f.getElement(0);
-        // @todo support more than one stream per destination, use destID as key.
-        List<Integer> list = streamData.get(source);
-        if (list == null) {
-            list = new ArrayList<Integer>();
-        }
-        int n = Math.min(bufSize, f.getNumDataElements());
-        if(n < bufSize) {
-            // won't fill buffer, so add all
-            for (int i = 1; i < f.getNumDataElements(); i++) list.add(f.getElement(i));
-            return null;
-        } else {
-            // got a full buffer, fill it and send it on
-            for (int i = 1; i < n; i++) list.add(f.getElement(i));
-            int[] data = new int[list.size()];
-            for(int i=0; i<bufSize; i++) data[i] = list.get(i);
-            List<Message> retlist = new java.util.ArrayList<Message>();
-            NodeID dest = map.getNodeID( (f.getHeader() & 0x00FFF000) >> 12);
-            //retlist.add(new DatagramMessage(source, dest, data));
-            retlist.add(new StreamDataSendMessage(source, dest, (byte)destID, data));
-            // make a new List and fill it with the rest of received data
-            list = new ArrayList<Integer>();
-            for (int i=n; i<f.getNumDataElements(); i++) list.add(f.getElement(i));
-            return retlist;
+    Message processFormat7(CanFrame f) {
+        // stream data; forwarded frame by frame, because neither the end of a window nor the
+        // end of the stream is visible in the frames.
+        if (f.getNumDataElements() < 1) return null;
+        int[] data = new int[f.getNumDataElements() - 1];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = f.getElement(i + 1);
         }
-        // @todo the list variable needs to be saved into the streamData map, otherwise we lose
-        // the accumulated bytes.
+        NodeID source = map.getNodeID(getSourceID(f));
+        NodeID dest = map.getNodeID(getDestID(f));
+        return new StreamDataSendMessage(source, dest, (byte) f.getElement(0), data);
     }
         
 
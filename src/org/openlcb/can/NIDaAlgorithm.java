@@ -1,10 +1,10 @@
 package org.openlcb.can;
 
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.logging.Logger;
 
 import org.openlcb.NodeID;
+import org.openlcb.OlcbMetrics;
+import org.openlcb.TimerService;
 
 /**
  * Implementation of Node ID Alias assignment computation.
@@ -18,23 +18,27 @@ public class NIDaAlgorithm implements CanFrameListener {
     /// Callback to invoke when the alias was successfully reserved.
     private Runnable done;
     private CanFrameListener sendInterface;
-    private static Timer timer;
-    private TimerTask task;
+    /// Null if the algorithm is driven manually (e.g. from a unit test).
+    private TimerService timerService;
+    private final TimerService.Task task = new TimerService.Task() {
+        @Override
+        public void run() {
+            timerExpired();
+        }
+    };
+    /// True once the timer was scheduled for the first time.
+    private boolean timerStarted = false;
+    private volatile boolean disposed = false;
+    /// Counts the alias conflicts; null if not measured.
+    private OlcbMetrics metrics = null;
     private final static Logger logger = Logger.getLogger(NIDaAlgorithm.class.getName());
 
     private synchronized void scheduleTimer(long delay) {
-        task = new TimerTask() {
-            @Override
-            public void run() {
-                timerExpired();
-            }
-        };
-
-        try {
-           timer.schedule(task, delay);
-        } catch (IllegalStateException | NullPointerException ise){
-           // the timer was canceled, dispose occurred before the task was scheduled.
+        if (timerService == null || disposed) {
+            return;
         }
+        timerStarted = true;
+        timerService.schedule(task, delay);
     }
 
     public NIDaAlgorithm(NodeID n) {
@@ -43,15 +47,22 @@ public class NIDaAlgorithm implements CanFrameListener {
     }
 
     public NIDaAlgorithm(NodeID n, CanFrameListener sendInterface) {
+        this(n, sendInterface, TimerService.getDefault());
+    }
+
+    /**
+     * @param n             node ID to allocate an alias for
+     * @param sendInterface where to send the alias allocation frames
+     * @param timerService  runs the wait periods of the alias allocation
+     */
+    public NIDaAlgorithm(NodeID n, CanFrameListener sendInterface, TimerService timerService) {
         this(n);
-        
         this.sendInterface = sendInterface;
-        
-        synchronized(NIDaAlgorithm.class) {
-            if (timer == null ) {
-                timer = new Timer("OpenLCB NIDaAlgorithm Timer");
-            }
-        }
+        this.timerService = timerService;
+    }
+
+    void setMetrics(OlcbMetrics metrics) {
+        this.metrics = metrics;
     }
 
     public void start(Runnable done) {
@@ -100,6 +111,7 @@ public class NIDaAlgorithm implements CanFrameListener {
             cancelTimer();
         } else {
             // other frame with our alias: reset and start over
+            if (metrics != null) metrics.aliasConflict();
             index = 0;
             complete = false;
             nida.nextAlias();
@@ -112,10 +124,10 @@ public class NIDaAlgorithm implements CanFrameListener {
     }
 
     protected void cancelTimer() {
-        if (timer == null) {
+        if (timerService == null) {
             return; // Probably running from a unit test.
         }
-        if (task == null || task.cancel()) {
+        if (!timerStarted || task.cancel()) {
             // Task was not yet run.
             scheduleTimer(0);
         }
@@ -143,17 +155,16 @@ public class NIDaAlgorithm implements CanFrameListener {
 
     @Override
     public void send(CanFrame frame) {
+        // Called for every incoming frame; only frames with our alias need a closer look.
+        if ((frame.getHeader() & OpenLcbCanFrame.MASK_SRC_ALIAS) != nida.getNIDa()) {
+            return;
+        }
         processFrame(new OpenLcbCanFrame(frame));
     }
 
     public void dispose(){
-       cancelTimer();  // dispose of the timer task
-       
-       synchronized(NIDaAlgorithm.class) {
-           timer.cancel();
-           timer = null;
-       }
-       
+       disposed = true;
+       task.cancel();
        done = null;
        complete = true;
     }
@@ -2,38 +2,64 @@ package org.openlcb.can.impl;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.Reader;
 import java.util.logging.Logger;
 import org.openlcb.can.CanFrame;
 import org.openlcb.can.CanFrameListener;
-import org.openlcb.implementations.DatagramUtils;
+import org.openlcb.can.GridConnect;
 
 /**
  * Parses an input stream according to the GridConnect protocol and forwards a set of CAN frames.
  * <p>
+ * The input is read in bulk chunks and fed to a {@link GridConnect.Input} decoder.
+ * <p>
  * Created by bracz on 12/23/15.
  */
 public class GridConnectInput {
     private final static Logger logger = Logger.getLogger(GridConnectInput.class.getName());
-    private boolean isExtended;
-    private int header;
-    private boolean isRtr;
-    private ArrayList<Byte> data = new ArrayList<>();
-    private BufferedReader input;
-    private CanFrameListener listener;
+    final static int BUFFER_SIZE = 1024;
+    private final Reader reader;
+    private final InputStream stream;
     private final Runnable onError;
+    private final GridConnect.Input decoder;
 
     /**
      * Creates the gridconnect input parser. Starts the parsing thread.
      *
      * @param input the (buffered) socklet to read from
      * @param listener the parsed CAN frames will be forwarded to this listener
-     * @param onError will be called when an IO error happens on the input thread. May be null.
+     * @param onError will be called when an IO error happens on the input thread, or the input
+     *                ends. May be null.
      */
     public GridConnectInput(BufferedReader input, CanFrameListener listener, Runnable onError) {
-        this.input = input;
-        this.listener = listener;
+        this(input, null, listener, onError);
+    }
+
+    /**
+     * Creates the gridconnect input parser reading raw bytes. Starts the parsing thread. This
+     * avoids the character decoding and should be preferred for sockets.
+     *
+     * @param input the (raw) socket stream to read from
+     * @param listener the parsed CAN frames will be forwarded to this listener
+     * @param onError will be called when an IO error happens on the input thread, or the input
+     *                ends. May be null.
+     */
+    public GridConnectInput(InputStream input, CanFrameListener listener, Runnable onError) {
+        this(null, input, listener, onError);
+    }
+
+    private GridConnectInput(Reader reader, InputStream stream, final CanFrameListener listener,
+                             Runnable onError) {
+        this.reader = reader;
+        this.stream = stream;
         this.onError = onError;
+        this.decoder = new GridConnect.Input() {
+            @Override
+            public void onFrame(CanFrame f) {
+                listener.send(f);
+            }
+        };
         new Thread("openlcb-gc-input") {
             public void run() {
                 threadBody();
@@ -43,150 +69,34 @@ public class GridConnectInput {
 
     private void threadBody() {
         try {
-            while (true) {
-                // assumption: we are at the end of a frame now.
-                while (input.read() != ':') {
+            if (stream != null) {
+                byte[] buf = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = stream.read(buf)) >= 0) {
+                    decoder.send(buf, 0, len);
                 }
-                int typeChar = input.read();
-                if (typeChar == 'X') {
-                    isExtended = true;
-                } else if (typeChar == 'S') {
-                    isExtended = false;
-                } else {
-                    // Unknown message type character.
-                    logger.fine("Unknown gridconnect type character: " + typeChar);
-                }
-                header = 0;
-                int c;
-                while (true) {
-                    input.mark(2);
-                    c = input.read();
-                    int dvalue = Character.digit(c, 16);
-                    if (dvalue >= 0) {
-                        header <<= 4;
-                        header |= dvalue;
-                    } else {
-                        break;
-                    }
-                }
-                if (c == 'N') {
-                    isRtr = false;
-                } else if (c == 'R') {
-                    isRtr = true;
-                } else {
-                    // Unknown message format.
-                    logger.fine("Unknown gridconnect remote character: " + c);
-                    input.reset();
-                    continue;
-                }
-                data.clear();
-                while (true) {
-                    input.mark(2);
-                    byte value = 0;
-                    c = input.read();
-                    int dvalue = Character.digit(c, 16);
-                    if (dvalue < 0) {
-                        break;
-                    }
-                    value = (byte) (dvalue << 4);
-                    input.mark(2);
-                    c = input.read();
-                    dvalue = Character.digit(c, 16);
-                    if (dvalue < 0) {
-                        break;
-                    }
-                    value |= (dvalue & 0xf);
-                    data.add(value);
-                }
-                if (c == ';') {
-                    CanFrame f = new RawCanFrame(isExtended, header, isRtr, data);
-                    listener.send(f);
-                } else {
-                    logger.fine("unexpected gridconnect payload character: " + c);
-                    input.reset();
-                    continue;
+            } else {
+                char[] buf = new char[BUFFER_SIZE];
+                int len;
+                while ((len = reader.read(buf)) >= 0) {
+                    decoder.send(buf, 0, len);
                 }
             }
+            logger.info("End of gridconnect input stream");
         } catch (IOException e) {
             logger.info("Error reading from gridconnect port " + e.toString());
-            try {
-                input.close();
-            } catch (IOException e1) {
-                logger.fine("Error closing from gridconnect port " + e1.toString());
-            }
-            if (onError != null) {
-                onError.run();
-            }
-        }
-    }
-
-    class RawCanFrame implements CanFrame {
-
-        private boolean isExtended;
-        private boolean isRtr;
-        private int header;
-        private int len;
-        private byte[] data;
-
-        public RawCanFrame(boolean isExtended, int header, boolean isRtr, ArrayList<Byte> data) {
-            this.isExtended = isExtended;
-            this.header = header;
-            this.isRtr = isRtr;
-            this.len = data.size();
-            this.data = new byte[this.len];
-            for (int i = 0; i < len; ++i) {
-                this.data[i] = data.get(i);
-            }
-        }
-
-        @Override
-        public int getHeader() {
-            return header;
         }
-
-        @Override
-        public boolean isExtended() {
-            return this.isExtended;
-        }
-
-        @Override
-        public boolean isRtr() {
-            return this.isRtr;
-        }
-
-        @Override
-        public int getNumDataElements() {
-            return len;
-        }
-
-        @Override
-        public int getElement(int n) {
-            return DatagramUtils.byteToInt(data[n]);
-        }
-
-        @Override
-        public long bodyAsLong() {
-            long retval = 0;
-            for (int i = 0; i < data.length; i++) {
-                retval = retval << 8 | (data[i] & 0xFF);
-            }
-            return retval;
-        }
-
-        @Override
-        public long dataAsLong() {
-            long retval = 0;
-            for (int i = 2; i < data.length; i++) {
-                retval = retval << 8 | (data[i] & 0xFF);
+        try {
+            if (stream != null) {
+                stream.close();
+            } else {
+                reader.close();
             }
-            return retval;
+        } catch (IOException e1) {
+            logger.fine("Error closing from gridconnect port " + e1.toString());
         }
-
-        @Override
-        public byte[] getData() {
-            byte[] b = new byte[len];
-            System.arraycopy(data, 0, b, 0, len);
-            return b;
+        if (onError != null) {
+            onError.run();
         }
     }
 }
@@ -3,9 +3,13 @@ package org.openlcb.can.impl;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import org.openlcb.can.CanFrame;
 import org.openlcb.can.CanFrameListener;
+import org.openlcb.can.GridConnect;
 
 /**
  * Converts the sent CAN framesto gridconnect protocol and writes them ot an output stream.
@@ -18,6 +22,14 @@ public class GridConnectOutput implements CanFrameListener {
 
     private BufferedOutputStream output;
     private final Runnable onError;
+    /// True if the output is flushed only when no more frames are waiting to be written.
+    private final boolean flushWhenIdle;
+    /// Frames waiting to be written in flushWhenIdle mode.
+    private final Queue<CanFrame> pendingFrames = new ConcurrentLinkedQueue<>();
+    /// Number of frames sent but not yet written in flushWhenIdle mode.
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    /// Reusable rendering buffer. Guarded by this.
+    private byte[] buffer = new byte[GridConnect.MAX_FRAME_LENGTH + 1];
 
     /**
      * Creates the object ussed for rendering CAN frames to GridConnect format.
@@ -25,49 +37,80 @@ public class GridConnectOutput implements CanFrameListener {
      * @param onError will be called when the output experiences an IO error. May be null.
      */
     public GridConnectOutput(OutputStream output, Runnable onError) {
+        this(output, onError, false);
+    }
+
+    /**
+     * Creates the object ussed for rendering CAN frames to GridConnect format.
+     * @param output the (raw) output socket to send the gridconnect data to.
+     * @param onError will be called when the output experiences an IO error. May be null.
+     * @param flushWhenIdle if true, the output is flushed only when there are no more frames
+     *                      waiting to be written instead of after every frame. This reduces the
+     *                      number of socket writes when many threads are sending or frames come
+     *                      in bursts.
+     */
+    public GridConnectOutput(OutputStream output, Runnable onError, boolean flushWhenIdle) {
         this.output = new BufferedOutputStream(output);
         this.onError = onError;
+        this.flushWhenIdle = flushWhenIdle;
     }
 
     public static String format(CanFrame frame) {
-        StringBuilder b = new StringBuilder();
-        if (frame.isExtended()) {
-            b.append(String.format(":X%08X", frame.getHeader()));
-        } else {
-            b.append(String.format(":S%03X", frame.getHeader()));
+        return GridConnect.format(frame);
+    }
+
+    @Override
+    public void send(CanFrame frame) {
+        if (!flushWhenIdle) {
+            synchronized (this) {
+                try {
+                    write(frame);
+                    output.flush();
+                } catch (IOException e) {
+                    handleError(e);
+                }
+            }
+            return;
         }
-        if (frame.isRtr()) {
-            b.append('R');
-        } else {
-            b.append('N');
+        pendingFrames.add(frame);
+        if (pendingCount.getAndIncrement() != 0) {
+            // Another thread is writing and will pick up this frame before flushing.
+            return;
         }
-        if (frame.getNumDataElements() > 8) {
-            logger.warning("Output frame with too many data elements: " + Integer.toString(frame
-                    .getNumDataElements()));
+        synchronized (this) {
+            try {
+                do {
+                    write(pendingFrames.poll());
+                } while (pendingCount.decrementAndGet() != 0);
+                output.flush();
+            } catch (IOException e) {
+                pendingFrames.clear();
+                pendingCount.set(0);
+                handleError(e);
+            }
         }
-        for (int i = 0; i < frame.getNumDataElements(); ++i) {
-            b.append(String.format("%02X", frame.getElement(i) & 0xff));
+    }
+
+    /// Renders a frame into the output buffer. Must be called with the lock held.
+    private void write(CanFrame frame) throws IOException {
+        int len = GridConnect.formattedLength(frame) + 1;
+        if (buffer.length < len) {
+            buffer = new byte[len];
         }
-        b.append(';');
-        return b.toString();
+        int pos = GridConnect.encode(frame, buffer, 0);
+        buffer[pos++] = '\n';
+        output.write(buffer, 0, pos);
     }
 
-    @Override
-    public synchronized void send(CanFrame frame) {
+    private void handleError(IOException e) {
+        logger.warning("Error writing to gridconnect output: " + e.toString());
         try {
-            output.write(format(frame).getBytes("ISO-8859-1"));
-            output.write('\n');
-            output.flush();
-        } catch (IOException e) {
-            logger.warning("Error writing to gridconnect output: " + e.toString());
-            try {
-                output.close();
-            } catch (IOException e1) {
-                logger.fine("Error closing gridconnect output: " + e1.toString());
-            }
-            if (onError != null) {
-                onError.run();
-            }
+            output.close();
+        } catch (IOException e1) {
+            logger.fine("Error closing gridconnect output: " + e1.toString());
+        }
+        if (onError != null) {
+            onError.run();
         }
     }
 
@@ -1,9 +1,8 @@
 package org.openlcb.can.impl;
 
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.util.ArrayList;
@@ -74,20 +73,19 @@ public class OlcbConnection {
         this.outputHub = new CanFrameHub();
         listenerProxy.onConnectionPending();
         listenerProxy.onStatusChange("Connecting...");
-        BufferedReader reader;
+        InputStream inputStream;
         OutputStream outputStream;
         try {
             socket = new Socket(hostName, portNumber);
             socket.setTcpNoDelay(true);
-            reader = new BufferedReader(
-                    new InputStreamReader(socket.getInputStream(),"ISO-8859-1"));
+            inputStream = socket.getInputStream();
             outputStream = socket.getOutputStream();
         } catch (IOException e) {
             listenerProxy.onStatusChange("Connection failed: " + e.toString());
             listenerProxy.onDisconnect();
             return;
         }
-        input = new GridConnectInput(reader, inputHub, mOnError);
+        input = new GridConnectInput(inputStream, inputHub, mOnError);
         output = new GridConnectOutput(outputStream, mOnError);
         outputHub.addEntry(output);
 
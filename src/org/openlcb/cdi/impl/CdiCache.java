@@ -0,0 +1,349 @@
+package org.openlcb.cdi.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import org.openlcb.NodeID;
+import org.openlcb.OlcbInterface;
+import org.openlcb.SimpleNodeIdent;
+import org.openlcb.cdi.jdom.CdiMemConfigReader;
+import org.openlcb.cdi.jdom.JdomCdiReader;
+import org.openlcb.cdi.jdom.XmlHelper;
+import org.openlcb.implementations.MemoryConfigurationService;
+
+/**
+ * Cache of the CDI XML of the nodes, keyed by the manufacturer, model, hardware and software
+ * version from the Simple Node Ident Info. The CDI only changes with the firmware, so nodes of
+ * the same type and version share one download.
+ * <p>
+ * The contents are stored by their SHA-256 hash, so identical CDIs are stored once even under
+ * different keys. Before a cached CDI is used for a node, the first 64 bytes of its CDI are read
+ * and compared with the cached copy; on a mismatch the entry is dropped and the CDI is
+ * downloaded. Loads for the same key that arrive while the CDI is being downloaded wait for that
+ * download instead of starting their own. Identical CDIs are also parsed only once; see {@link
+ * #getLayout}.
+ * <p>
+ * With a directory the cache persists across sessions: each CDI is a file named by its hash, and
+ * {@value #INDEX_FILE} maps the keys to the hashes. Without a directory the cache lives in
+ * memory only.
+ */
+public class CdiCache {
+    private static final Logger logger = Logger.getLogger(CdiCache.class.getName());
+    /// Name of the file mapping the node keys to the content hashes.
+    public static final String INDEX_FILE = "index.properties";
+    /// Number of bytes compared with the node before a cached CDI is used.
+    static final int VERIFY_LENGTH = 64;
+
+    @Nullable
+    private final File directory;
+    /// Content hash by node key. Must be synchronized(this) for all accesses.
+    private final Properties index = new Properties();
+    /// CDI contents by hash. Must be synchronized(this) for all accesses.
+    private final Map<String, String> contents = new HashMap<>();
+    /// Loads waiting for a download in progress, by node key. Must be synchronized(this) for
+    /// all accesses.
+    private final Map<String, List<Waiter>> downloads = new HashMap<>();
+    /// Parsed CDIs by content hash. Must be synchronized(this) for all accesses.
+    private final Map<String, CdiLayout> layouts = new HashMap<>();
+    private long downloadCount = 0;
+
+    /// A load waiting for a download in progress.
+    private static class Waiter {
+        final NodeID node;
+        final CdiMemConfigReader.ReaderAccess access;
+
+        Waiter(NodeID node, CdiMemConfigReader.ReaderAccess access) {
+            this.node = node;
+            this.access = access;
+        }
+    }
+
+    /**
+     * Creates a cache in memory only.
+     */
+    public CdiCache() {
+        this.directory = null;
+    }
+
+    /**
+     * Creates a cache persisted in a directory, and loads its index.
+     *
+     * @param directory where the CDI files are stored; created if it does not exist.
+     */
+    public CdiCache(File directory) {
+        this.directory = directory;
+        File f = new File(directory, INDEX_FILE);
+        if (!f.exists()) return;
+        try (InputStream is = new FileInputStream(f)) {
+            index.load(is);
+        } catch (IOException e) {
+            logger.warning("Failed to load the CDI cache index " + f + ": " + e);
+        }
+    }
+
+    /**
+     * @param ident the simple node ident info of a node
+     * @return the cache key of the node, or null if the node cannot be cached because it did
+     * not report its manufacturer and model.
+     */
+    @Nullable
+    public static String getKey(@Nullable SimpleNodeIdent ident) {
+        if (ident == null || !ident.contentComplete()) return null;
+        if (ident.getMfgName().isEmpty() || ident.getModelName().isEmpty()) return null;
+        return ident.getMfgName() + '\t' + ident.getModelName() + '\t' + ident
+                .getHardwareVersion() + '\t' + ident.getSoftwareVersion();
+    }
+
+    /**
+     * @return the number of CDIs downloaded from the nodes through this cache.
+     */
+    public synchronized long getDownloadCount() {
+        return downloadCount;
+    }
+
+    /**
+     * @param key node key from {@link #getKey}
+     * @return the cached CDI for this key, or null if not cached.
+     */
+    @Nullable
+    public synchronized String get(String key) {
+        String hash = index.getProperty(key);
+        if (hash == null) return null;
+        String xml = contents.get(hash);
+        if (xml == null && directory != null) {
+            try {
+                xml = fromBytes(Files.readAllBytes(new File(directory, hash + ".xml").toPath()));
+                contents.put(hash, xml);
+            } catch (IOException e) {
+                logger.warning("Failed to read cached CDI " + hash + ": " + e);
+                index.remove(key);
+                return null;
+            }
+        }
+        return xml;
+    }
+
+    /**
+     * Adds or replaces the CDI for a key.
+     *
+     * @param key node key from {@link #getKey}
+     * @param xml the CDI XML
+     */
+    public synchronized void put(String key, String xml) {
+        byte[] bytes = toBytes(xml);
+        String hash = hash(bytes);
+        String old = contents.get(hash);
+        // Identical CDIs share one copy.
+        contents.put(hash, old != null ? old : xml);
+        if (hash.equals(index.getProperty(key))) return;
+        index.setProperty(key, hash);
+        if (directory == null) return;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("cannot create directory");
+            }
+            File f = new File(directory, hash + ".xml");
+            if (!f.exists()) {
+                Files.write(f.toPath(), bytes);
+            }
+            try (OutputStream os = new FileOutputStream(new File(directory, INDEX_FILE))) {
+                index.store(os, "CDI cache index");
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to store CDI in " + directory + ": " + e);
+        }
+    }
+
+    /**
+     * Removes the CDI for a key. The contents stay if other keys use them.
+     *
+     * @param key node key from {@link #getKey}
+     */
+    public synchronized void remove(String key) {
+        index.remove(key);
+    }
+
+    /**
+     * Provides the CDI of a node, from the cache if possible, otherwise by downloading it.
+     *
+     * @param iface  the interface to reach the node with
+     * @param node   the node to get the CDI of
+     * @param access receives the CDI, as from {@link CdiMemConfigReader#startLoadReader}
+     */
+    public void load(OlcbInterface iface, NodeID node, CdiMemConfigReader.ReaderAccess access) {
+        String key = getKey(iface.getNodeStore().getSimpleNodeIdent(node));
+        if (key == null) {
+            new CdiMemConfigReader(node, iface, MemoryConfigurationService.SPACE_CDI)
+                    .startLoadReader(access);
+            return;
+        }
+        String xml;
+        synchronized (this) {
+            List<Waiter> waiters = downloads.get(key);
+            if (waiters != null) {
+                waiters.add(new Waiter(node, access));
+                return;
+            }
+            xml = get(key);
+            if (xml == null) {
+                downloads.put(key, new ArrayList<Waiter>());
+            }
+        }
+        if (xml != null) {
+            verify(iface, node, key, xml, access);
+        } else {
+            download(iface, node, key, access);
+        }
+    }
+
+    /// Serves a cached CDI if its beginning matches the CDI of the node.
+    private void verify(final OlcbInterface iface, final NodeID node, final String key, final
+            String xml, final CdiMemConfigReader.ReaderAccess access) {
+        final byte[] expected = toBytes(xml.substring(0, Math.min(VERIFY_LENGTH, xml.length())));
+        iface.getMemoryConfigurationService().requestRead(node, MemoryConfigurationService
+                .SPACE_CDI, 0, expected.length, new MemoryConfigurationService.McsReadHandler() {
+            @Override
+            public void handleReadData(NodeID dest, int space, long address, byte[] data) {
+                if (Arrays.equals(expected, data)) {
+                    access.progressNotify(xml.length(), xml.length());
+                    access.provideReader(new StringReader(xml));
+                    return;
+                }
+                logger.info("Cached CDI for " + key.replace('\t', ' ') + " does not match " +
+                        "node " + node + "; downloading.");
+                remove(key);
+                load(iface, node, access);
+            }
+
+            @Override
+            public void handleFailure(int errorCode) {
+                // Let the download report the error.
+                new CdiMemConfigReader(node, iface, MemoryConfigurationService.SPACE_CDI)
+                        .startLoadReader(access);
+            }
+        });
+    }
+
+    private void download(final OlcbInterface iface, final NodeID node, final String key, final
+            CdiMemConfigReader.ReaderAccess access) {
+        synchronized (this) {
+            ++downloadCount;
+        }
+        new CdiMemConfigReader(node, iface, MemoryConfigurationService.SPACE_CDI)
+                .startLoadReader(new CdiMemConfigReader.ReaderAccess() {
+            @Override
+            public void progressNotify(long bytesRead, long totalBytes) {
+                access.progressNotify(bytesRead, totalBytes);
+            }
+
+            @Override
+            public void provideReader(Reader r) {
+                String xml = readAll(r);
+                List<Waiter> waiters;
+                synchronized (CdiCache.this) {
+                    waiters = downloads.remove(key);
+                    // A failed read also ends the download, with the bytes read so far.
+                    if (xml != null && xml.trim().endsWith("</cdi>")) {
+                        put(key, xml);
+                    }
+                }
+                access.provideReader(new StringReader(xml != null ? xml : ""));
+                if (waiters == null) return;
+                for (Waiter w : waiters) {
+                    load(iface, w.node, w.access);
+                }
+            }
+        });
+    }
+
+    /**
+     * Parses a CDI, or returns the result of an earlier parse of an identical CDI.
+     *
+     * @param xml the CDI XML
+     * @return the layout of the CDI, shared by all callers with the same CDI.
+     * @throws Exception if the XML cannot be parsed
+     */
+    public CdiLayout getLayout(String xml) throws Exception {
+        String hash = hash(toBytes(xml));
+        synchronized (this) {
+            CdiLayout layout = layouts.get(hash);
+            if (layout != null) return layout;
+        }
+        CdiLayout layout = CdiLayout.create(new JdomCdiReader().getRep(XmlHelper
+                .parseXmlFromReader(new StringReader(xml))));
+        synchronized (this) {
+            CdiLayout old = layouts.get(hash);
+            if (old != null) return old;
+            layouts.put(hash, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * @param r reader of a CDI
+     * @return everything read, or null if reading failed.
+     */
+    @Nullable
+    static String readAll(Reader r) {
+        StringBuilder b = new StringBuilder();
+        char[] buf = new char[4096];
+        try {
+            int n;
+            while ((n = r.read(buf)) > 0) {
+                b.append(buf, 0, n);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to read CDI: " + e);
+            return null;
+        }
+        return b.toString();
+    }
+
+    /// Inverse of the byte to char conversion of CdiMemConfigReader.
+    private static byte[] toBytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+
+    /// Same byte to char conversion as CdiMemConfigReader.
+    private static String fromBytes(byte[] b) {
+        StringBuilder s = new StringBuilder(b.length);
+        for (byte c : b) {
+            s.append((char) c);
+        }
+        return s.toString();
+    }
+
+    private static String hash(byte[] b) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(b);
+            StringBuilder s = new StringBuilder();
+            for (byte c : d) {
+                s.append(String.format("%02x", c & 0xFF));
+            }
+            return s.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.openlcb.cdi.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openlcb.cdi.CdiRep;
+
+/**
+ * Immutable memory layout of a CDI: the offset, size and type of every segment, group and
+ * variable, and their string keys. Computed once per CDI and shared by the {@link
+ * ConfigRepresentation}s of all nodes with that CDI, which only add the data and the listeners.
+ * <p>
+ * A replicated group is stored once, with its repeat count and the size of one repeat. Entries
+ * that appear in several copies because of enclosing replicated groups are called instances; the
+ * instances are numbered in address order, and the key of each instance is computed when the
+ * layout is created, so that the nodes share the key strings.
+ */
+public final class CdiLayout {
+    private static final Logger logger = Logger.getLogger(CdiLayout.class.getName());
+
+    public static final int KIND_SEGMENT = 0;
+    public static final int KIND_GROUP = 1;
+    public static final int KIND_INT = 2;
+    public static final int KIND_EVENT = 3;
+    public static final int KIND_STRING = 4;
+
+    private final CdiRep rep;
+    private final List<Node> segments;
+
+    /**
+     * One segment, group or variable of the CDI.
+     */
+    public static final class Node {
+        private final int kind;
+        private final CdiRep.Segment segment;
+        private final CdiRep.Item item;
+        private final int space;
+        private final long offset;
+        private final int size;
+        private final int replication;
+        private final int repeatSize;
+        private final List<Node> children;
+        private final String[] keys;
+        private final String[] repeatKeys;
+
+        private Node(int kind, CdiRep.Segment segment, CdiRep.Item item, int space, long offset,
+                     int size, int replication, int repeatSize, List<Node> children, String[]
+                             keys, String[] repeatKeys) {
+            this.kind = kind;
+            this.segment = segment;
+            this.item = item;
+            this.space = space;
+            this.offset = offset;
+            this.size = size;
+            this.replication = replication;
+            this.repeatSize = repeatSize;
+            this.children = children;
+            this.keys = keys;
+            this.repeatKeys = repeatKeys;
+        }
+
+        /// @return one of the KIND_* constants.
+        public int getKind() {
+            return kind;
+        }
+
+        /// @return the CDI segment for a segment node, otherwise null.
+        public CdiRep.Segment getSegment() {
+            return segment;
+        }
+
+        /// @return the CDI item for a group or variable node, otherwise null.
+        public CdiRep.Item getItem() {
+            return item;
+        }
+
+        public int getSpace() {
+            return space;
+        }
+
+        /**
+         * @return for a segment its origin; otherwise the address of the node relative to the
+         * start of the parent segment or group repeat.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /// @return the number of bytes of the node, all repeats included.
+        public int getSize() {
+            return size;
+        }
+
+        /// @return the number of repeats of a group; 1 for all other nodes.
+        public int getReplication() {
+            return replication;
+        }
+
+        /// @return the number of bytes of one repeat of a group.
+        public int getRepeatSize() {
+            return repeatSize;
+        }
+
+        /// @return the children of a segment or of one repeat of a group.
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        /**
+         * @param instance index of the instance of this node
+         * @return the key of the instance.
+         */
+        public String getKey(int instance) {
+            return keys[instance];
+        }
+
+        /**
+         * @param repeatInstance index of the instance of one repeat of this group: the
+         *                       instance of the group times the replication plus the 0-based
+         *                       index of the repeat. This is also the instance of the children
+         *                       of that repeat.
+         * @return the key of the repeat.
+         */
+        public String getRepeatKey(int repeatInstance) {
+            return repeatKeys[repeatInstance];
+        }
+    }
+
+    private CdiLayout(CdiRep rep) {
+        this.rep = rep;
+        List<Node> l = new ArrayList<>();
+        for (CdiRep.Segment s : rep.getSegments()) {
+            l.add(createSegment(s));
+        }
+        segments = Collections.unmodifiableList(l);
+    }
+
+    /**
+     * Computes the layout of a CDI.
+     *
+     * @param rep parsed CDI
+     * @return the layout.
+     */
+    public static CdiLayout create(CdiRep rep) {
+        return new CdiLayout(rep);
+    }
+
+    /**
+     * Computes the layout of a single segment.
+     *
+     * @param segment CDI segment
+     * @return the segment node.
+     */
+    public static Node createSegment(CdiRep.Segment segment) {
+        String key = segment.getName();
+        if (key == null || key.trim().isEmpty()) {
+            key = "seg" + segment.getIndexInParent();
+        }
+        String[] keys = new String[]{key};
+        List<Node> children = new ArrayList<>();
+        long size = processGroup(keys, segment.getSpace(), segment.getItems(), children);
+        return new Node(KIND_SEGMENT, segment, null, segment.getSpace(), segment.getOrigin(),
+                (int) size, 1, (int) size, Collections.unmodifiableList(children), keys, keys);
+    }
+
+    public CdiRep getCdiRep() {
+        return rep;
+    }
+
+    public List<Node> getSegments() {
+        return segments;
+    }
+
+    /**
+     * Creates the nodes of the children of a segment or group repeat.
+     *
+     * @param parentKeys keys of the instances of the parent
+     * @param space      memory space number
+     * @param items      the CDI entries
+     * @param output     the list to append the nodes to
+     * @return the number of bytes (one repeat of) the parent covers in the address space
+     */
+    private static long processGroup(String[] parentKeys, int space, List<CdiRep.Item> items,
+                                     List<Node> output) {
+        if (items == null) return 0;
+        long origin = 0;
+        for (CdiRep.Item it : items) {
+            origin = origin + it.getOffset();
+            String entryName = it.getName();
+            if (entryName == null || entryName.trim().isEmpty()) {
+                entryName = "child" + it.getIndexInParent();
+            }
+            String[] keys = new String[parentKeys.length];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = parentKeys[i] + "." + entryName;
+            }
+            Node node;
+            if (it instanceof CdiRep.Group) {
+                node = createGroup(keys, space, (CdiRep.Group) it, origin);
+            } else if (it instanceof CdiRep.IntegerRep) {
+                node = new Node(KIND_INT, null, it, space, origin, ((CdiRep.IntegerRep) it)
+                        .getSize(), 1, 0, Collections.<Node>emptyList(), keys, null);
+            } else if (it instanceof CdiRep.EventID) {
+                node = new Node(KIND_EVENT, null, it, space, origin, 8, 1, 0, Collections
+                        .<Node>emptyList(), keys, null);
+            } else if (it instanceof CdiRep.StringRep) {
+                node = new Node(KIND_STRING, null, it, space, origin, ((CdiRep.StringRep) it)
+                        .getSize(), 1, 0, Collections.<Node>emptyList(), keys, null);
+            } else {
+                logger.log(Level.SEVERE, "could not process CDI entry type of {0}", it);
+                continue;
+            }
+            origin = origin + node.size;
+            output.add(node);
+        }
+        return origin;
+    }
+
+    private static Node createGroup(String[] keys, int space, CdiRep.Group group, long offset) {
+        int replication = Math.max(1, group.getReplication());
+        String[] repeatKeys = keys;
+        if (group.getReplication() > 1) {
+            repeatKeys = new String[keys.length * replication];
+            for (int i = 0; i < keys.length; i++) {
+                for (int r = 0; r < replication; r++) {
+                    repeatKeys[i * replication + r] = keys[i] + "(" + r + ")";
+                }
+            }
+        }
+        List<Node> children = new ArrayList<>();
+        int repeatSize = (int) processGroup(repeatKeys, space, group.getItems(), children);
+        return new Node(KIND_GROUP, null, group, space, offset, repeatSize * replication,
+                replication, repeatSize, Collections.unmodifiableList(children), keys,
+                repeatKeys);
+    }
+}
@@ -18,12 +18,10 @@ import org.openlcb.DefaultPropertyListenerSupport;
 import org.openlcb.EventID;
 import org.openlcb.NodeID;
 import org.openlcb.OlcbInterface;
+import org.openlcb.TimerService;
 import org.openlcb.Utilities;
 import org.openlcb.cdi.CdiRep;
 import org.openlcb.cdi.jdom.CdiMemConfigReader;
-import org.openlcb.cdi.jdom.JdomCdiReader;
-import org.openlcb.cdi.jdom.XmlHelper;
-import org.openlcb.implementations.MemoryConfigurationService;
 
 /**
  * Maintains a parsed cache of the CDI config of a remote node. Responsible for fetching the CDI,
@@ -51,6 +49,8 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
     private final NodeID remoteNodeID;
     private final ReadWriteAccess mockAccess;
     private CdiRep cdiRep;
+    /// Layout of the CDI, possibly shared with other nodes with the same CDI.
+    private CdiLayout layout;
     private String state = "Uninitialized";
     private CdiContainer root = null;
     private final Map<Integer, MemorySpaceCache> spaces = new TreeMap<>();
@@ -76,6 +76,7 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
         this.remoteNodeID = null;
         this.mockAccess = memoryAccess;
         cdiRep = xmlRep;
+        layout = CdiLayout.create(xmlRep);
         parseRep();
     }
 
@@ -83,11 +84,11 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
     public @Nullable NodeID getRemoteNodeID() { return remoteNodeID; }
 
     /**
-     * Retrieves the CDI from the remote node, and if successful, calls @link parseRep.
+     * Retrieves the CDI from the CDI cache of the interface or from the remote node, and if
+     * successful, calls @link parseRep.
      */
     private void triggerFetchCdi() {
-        new CdiMemConfigReader(remoteNodeID, connection,
-                MemoryConfigurationService.SPACE_CDI).startLoadReader(new CdiMemConfigReader
+        connection.getCdiCache().load(connection, remoteNodeID, new CdiMemConfigReader
                 .ReaderAccess() {
 
             @Override
@@ -104,7 +105,9 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
             @Override
             public void provideReader(Reader r) {
                 try {
-                    cdiRep = new JdomCdiReader().getRep(XmlHelper.parseXmlFromReader(r));
+                    // Nodes with the same CDI share the parsed representation and the layout.
+                    layout = connection.getCdiCache().getLayout(CdiCache.readAll(r));
+                    cdiRep = layout.getCdiRep();
                 } catch (Exception e) {
                     String error = "Failed to parse CDI output: " + e.toString();
                     logger.warning(error);
@@ -117,7 +120,7 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
     }
 
     private void parseRep() {
-        root = new Root(cdiRep);
+        root = new Root(layout);
         setState("Representation complete.");
         prefillCaches();
         firePropertyChange(UPDATE_REP, null, root);
@@ -127,6 +130,9 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
         return cdiRep;
     }
 
+    /// How long to wait for each capability query before filling the caches anyway.
+    static final long CAPABILITIES_TIMEOUT_MSEC = 3000;
+
     int pendingCacheFills = 0;
     PropertyChangeListener prefillListener = new PropertyChangeListener() {
         @Override
@@ -167,8 +173,62 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
         pendingCacheFills = spaces.size();
         for (MemorySpaceCache sp : spaces.values()) {
             sp.addPropertyChangeListener(prefillListener);
+        }
+        List<Map.Entry<Integer, MemorySpaceCache>> caches = new ArrayList<>(spaces.entrySet());
+        if (connection == null) {
+            fillCaches(caches);
+        } else {
+            requestCapabilities(caches, 0);
+        }
+    }
+
+    /**
+     * Queries the capabilities of the remote node for the spaces one after the other, so that
+     * the read planners know them, then fills the caches. A query that is not answered in
+     * {@value #CAPABILITIES_TIMEOUT_MSEC} msec keeps the default read sizes.
+     *
+     * @param caches the caches to fill, by space number
+     * @param index  the first cache whose space was not queried yet
+     */
+    private void requestCapabilities(final List<Map.Entry<Integer, MemorySpaceCache>> caches,
+                                     final int index) {
+        if (index >= caches.size()) {
+            fillCaches(caches);
+            return;
+        }
+        // Runs once, on the reply or on the timeout, whichever comes first.
+        class Next implements Runnable {
+            boolean done = false;
+            TimerService.Task timeout;
+
+            @Override
+            public void run() {
+                TimerService.Task t;
+                synchronized (this) {
+                    if (done) return;
+                    done = true;
+                    t = timeout;
+                }
+                if (t != null) {
+                    connection.getTimerService().cancel(t);
+                }
+                requestCapabilities(caches, index + 1);
+            }
+        }
+        Next next = new Next();
+        synchronized (next) {
+            next.timeout = connection.getTimerService().schedule(next,
+                    CAPABILITIES_TIMEOUT_MSEC);
+        }
+        Map.Entry<Integer, MemorySpaceCache> e = caches.get(index);
+        e.getValue().getReadPlanner().requestCapabilities(connection
+                .getMemoryConfigurationService(), remoteNodeID, e.getKey(), next);
+    }
+
+    private void fillCaches(List<Map.Entry<Integer, MemorySpaceCache>> caches) {
+        for (Map.Entry<Integer, MemorySpaceCache> e : caches) {
             // This will send off the first read, then continue asynchronously.
-            sp.fillCache();
+            e.getValue().fillCache();
         }
     }
 
@@ -221,47 +281,35 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
     }
 
     /**
-     * Processes the CdiRep entries of a children of a group and builds the internal representation
-     * for each entry.
+     * Builds the internal representation for the children of a segment or group repeat.
      *
-     * @param baseName name of the prefix of all these group entries
-     * @param segment  memory configuration segment number
-     * @param items    the list of CDI entries to render
+     * @param children the layout of the children
+     * @param origin   address of the beginning of the segment or group repeat
+     * @param instance index of the instance of the children in the layout
      * @param output   the list of output variables to append to
-     * @param origin   offset in the segment of the beginning of the group payload
-     * @return the number of bytes (one repeat of) this group covers in the address space
      */
-    private long processGroup(String baseName, int segment, List<CdiRep.Item> items,
-                             List<CdiEntry> output, long origin) {
-        if (items == null) return 0;
-        long base = origin;
-        for (int i = 0; i < items.size(); i++) {
-            CdiRep.Item it = (CdiRep.Item) items.get(i);
-
-            origin = origin + it.getOffset();
-            CdiEntry entry = null;
-            String entryName = it.getName();
-            if (entryName == null || entryName.trim().isEmpty()) {
-                entryName = "child" + it.getIndexInParent();
-            }
-            String name = baseName + "." + entryName;
-            if (it instanceof CdiRep.Group) {
-                entry = new GroupEntry(name, (CdiRep.Group) it, segment, origin);
-            } else if (it instanceof CdiRep.IntegerRep) {
-                entry = new IntegerEntry(name, (CdiRep.IntegerRep) it, segment, origin);
-            } else if (it instanceof CdiRep.EventID) {
-                entry = new EventEntry(name, (CdiRep.EventID) it, segment, origin);
-            } else if (it instanceof CdiRep.StringRep) {
-                entry = new StringEntry(name, (CdiRep.StringRep) it, segment, origin);
-            } else {
-                logger.log(Level.SEVERE, "could not process CDI entry type of {0}", it);
-            }
-            if (entry != null) {
-                origin = entry.origin + entry.size;
-                output.add(entry);
+    private void expand(List<CdiLayout.Node> children, long origin, int instance, List<CdiEntry>
+            output) {
+        for (CdiLayout.Node n : children) {
+            long o = origin + n.getOffset();
+            switch (n.getKind()) {
+                case CdiLayout.KIND_GROUP:
+                    output.add(new GroupEntry(n, o, instance));
+                    break;
+                case CdiLayout.KIND_INT:
+                    output.add(new IntegerEntry(n, o, instance));
+                    break;
+                case CdiLayout.KIND_EVENT:
+                    output.add(new EventEntry(n, o, instance));
+                    break;
+                case CdiLayout.KIND_STRING:
+                    output.add(new StringEntry(n, o, instance));
+                    break;
+                default:
+                    logger.log(Level.SEVERE, "could not process CDI layout entry {0}", n
+                            .getItem());
             }
         }
-        return origin - base;
     }
 
     private void setState(String state) {
@@ -397,10 +445,18 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
          * @param rep the CDI representation
          */
         public Root(CdiRep rep) {
+            this(CdiLayout.create(rep));
+        }
+
+        /**
+         * Creates the internal representation from a layout that may be shared with other nodes.
+         * @param layout the layout of the CDI
+         */
+        public Root(CdiLayout layout) {
             items = new ArrayList<>();
-            this.rep = rep;
-            for (CdiRep.Segment e : rep.getSegments()) {
-                items.add(new SegmentEntry(e));
+            this.rep = layout.getCdiRep();
+            for (CdiLayout.Node n : layout.getSegments()) {
+                items.add(new SegmentEntry(n));
             }
         }
 
@@ -419,16 +475,17 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
         public final List<CdiEntry> items;
 
         public SegmentEntry(CdiRep.Segment segment) {
-            this.segment = segment;
+            this(CdiLayout.createSegment(segment));
+        }
+
+        public SegmentEntry(CdiLayout.Node layout) {
+            this.segment = layout.getSegment();
             this.items = new ArrayList<>();
-            this.key = getName();
-            if (key == null || key.trim().isEmpty()) {
-                key = "seg" + segment.getIndexInParent();
-            }
-            this.origin = segment.getOrigin();
-            this.space = segment.getSpace();
-            this.size = (int)processGroup(key, this.space, segment.getItems(), this.items, this
-                    .origin);
+            this.key = layout.getKey(0);
+            this.origin = layout.getOffset();
+            this.space = layout.getSpace();
+            this.size = layout.getSize();
+            expand(layout.getChildren(), this.origin, 0, this.items);
         }
 
         @Override
@@ -486,6 +543,10 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
             this.items = new ArrayList<>();
         }
 
+        GroupBase(CdiLayout.Node layout, String key, long origin) {
+            this(key, (CdiRep.Group) layout.getItem(), layout.getSpace(), origin);
+        }
+
         @Override
         public List<CdiEntry> getEntries() {
             return items;
@@ -503,16 +564,16 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
     public class GroupRep extends GroupBase {
         /**
          *
-         * @param name is the string key of this group repeat
-         * @param group is the base CDI representation
-         * @param segment is the memory space number
+         * @param layout is the layout of the group
          * @param origin is the address of this repeat in that memory space (All skips are
          *               already performed)
+         * @param repeatInstance is the instance of this repeat in the layout
          * @param index is the 1-based index of this repeat of the given group
          */
-        GroupRep(String name, CdiRep.Group group, int segment, long origin, int index) {
-            super(name, group, segment, origin);
-            size = (int) processGroup(name, segment, group.getItems(), items, origin);
+        GroupRep(CdiLayout.Node layout, long origin, int repeatInstance, int index) {
+            super(layout, layout.getRepeatKey(repeatInstance), origin);
+            size = layout.getRepeatSize();
+            expand(layout.getChildren(), origin, repeatInstance, items);
             this.index = index;
         }
         // The 1-based index of this replica.
@@ -526,25 +587,21 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
      */
     public class GroupEntry extends GroupBase {
         /**
-         * @param baseName is the string key of this group (including the name of the current group)
-         * @param group is the CDI representation
-         * @param segment is the memory space number
+         * @param layout is the layout of the group
          * @param origin is the address of this repeat in that memory space (all skips are
          *               already performed)
+         * @param instance is the instance of this group in the layout
          */
-        GroupEntry(String baseName, CdiRep.Group group, int segment, long origin) {
-            super(baseName, group, segment, origin);
-            if (group.getReplication() <= 1) {
-                size = (int) processGroup(baseName, segment, group.getItems(), this.items, this
-                        .origin);
+        GroupEntry(CdiLayout.Node layout, long origin, int instance) {
+            super(layout, layout.getKey(instance), origin);
+            size = layout.getSize();
+            int replication = layout.getReplication();
+            if (replication <= 1) {
+                expand(layout.getChildren(), origin, instance, this.items);
             } else {
-                size = 0;
-                for (int i = 0; i < group.getReplication(); ++i) {
-                    CdiEntry e = new GroupRep(baseName + "(" + i + ")", group, segment, origin,
-                            i + 1);
-                    items.add(e);
-                    origin += e.size;
-                    size += e.size;
+                for (int i = 0; i < replication; ++i) {
+                    items.add(new GroupRep(layout, origin, instance * replication + i, i + 1));
+                    origin += layout.getRepeatSize();
                 }
             }
         }
@@ -556,12 +613,12 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
     public class IntegerEntry extends CdiEntry {
         public CdiRep.IntegerRep rep;
 
-        IntegerEntry(String name, CdiRep.IntegerRep rep, int segment, long origin) {
-            this.key = name;
-            this.space = segment;
+        IntegerEntry(CdiLayout.Node layout, long origin, int instance) {
+            this.key = layout.getKey(instance);
+            this.space = layout.getSpace();
             this.origin = origin;
-            this.rep = rep;
-            this.size = rep.getSize();
+            this.rep = (CdiRep.IntegerRep) layout.getItem();
+            this.size = layout.getSize();
         }
 
         @Override
@@ -610,12 +667,12 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
     public class EventEntry extends CdiEntry {
         public CdiRep.EventID rep;
 
-        EventEntry(String name, CdiRep.EventID rep, int segment, long origin) {
-            this.key = name;
-            this.space = segment;
+        EventEntry(CdiLayout.Node layout, long origin, int instance) {
+            this.key = layout.getKey(instance);
+            this.space = layout.getSpace();
             this.origin = origin;
-            this.rep = rep;
-            this.size = 8;
+            this.rep = (CdiRep.EventID) layout.getItem();
+            this.size = layout.getSize();
         }
 
         @Override
@@ -654,12 +711,12 @@ public class ConfigRepresentation extends DefaultPropertyListenerSupport {
     public class StringEntry extends CdiEntry {
         public CdiRep.StringRep rep;
 
-        StringEntry(String name, CdiRep.StringRep rep, int segment, long origin) {
-            this.key = name;
-            this.space = segment;
+        StringEntry(CdiLayout.Node layout, long origin, int instance) {
+            this.key = layout.getKey(instance);
+            this.space = layout.getSpace();
             this.origin = origin;
-            this.rep = rep;
-            this.size = rep.getSize();
+            this.rep = (CdiRep.StringRep) layout.getItem();
+            this.size = layout.getSize();
         }
 
         @Override
@@ -3,6 +3,8 @@ package org.openlcb.cdi.impl;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -28,10 +30,18 @@ public class MemorySpaceCache {
     public static final String UPDATE_DATA = "UPDATE_DATA";
     private static final Logger logger = Logger.getLogger(MemorySpaceCache.class.getName());
     private final int space;
-    private final RangeCacheUtil ranges = new RangeCacheUtil();
+    private final ReadPlanner planner = new ReadPlanner();
+    private final RangeCacheUtil ranges = new RangeCacheUtil(planner);
     private final NavigableMap<Range, byte[]> dataCache = new TreeMap<>();
+    /// Listeners by range, sorted by start address. Together with maxListenerLength this is an
+    /// interval index: a range [start, end) can only overlap listeners starting in
+    /// [start - maxListenerLength, end).
     private final NavigableMap<Range, ChangeEntry> dataChangeListeners = new
             TreeMap<>();
+    /// Length of the longest range in dataChangeListeners.
+    private long maxListenerLength = 0;
+    /// Incremented for every range loaded; used to notify each listener only once per load.
+    private int loadGeneration = 0;
     java.beans.PropertyChangeSupport pcs = new java.beans.PropertyChangeSupport(this);
     private Range nextRangeToLoad = null;
     private long currentRangeNextOffset;
@@ -54,7 +64,7 @@ public class MemorySpaceCache {
             @Override
             public void doRead(long address, int space, int length, MemoryConfigurationService
                     .McsReadHandler handler) {
-                mcs.requestRead(remoteNode, space, address, length, handler);
+                mcs.requestBulkRead(remoteNode, space, address, length, handler);
             }
         };
         this.space = space;
@@ -78,6 +88,14 @@ public class MemorySpaceCache {
         pcs.firePropertyChange(p, old, n);
     }
 
+    /**
+     * @return the planner deciding how the cached ranges are read. Adjust it before calling
+     * {@link #fillCache()}.
+     */
+    public ReadPlanner getReadPlanner() {
+        return planner;
+    }
+
     /**
      * Prepares for caching a given range.
      *
@@ -108,30 +126,51 @@ public class MemorySpaceCache {
             if (lt == null) {
                 lt = new ChangeEntry();
                 dataChangeListeners.put(r, lt);
+                maxListenerLength = Math.max(maxListenerLength, end - start);
             }
             lt.listeners.add(listener);
         }
     }
 
+    /**
+     * @param start offset (inclusive)
+     * @param end   offset (exclusive)
+     * @return the listener entries that may overlap the given range, in address order. The
+     * caller still has to check for overlap.
+     */
+    private synchronized Collection<Map.Entry<Range, ChangeEntry>> candidateListeners(long
+            start, long end) {
+        if (dataChangeListeners.isEmpty() || end <= start) {
+            return Collections.emptyList();
+        }
+        // Long.MIN_VALUE as end sorts these keys before every real range with the same start.
+        Range from = new Range(start - maxListenerLength, Long.MIN_VALUE, false);
+        Range to = new Range(end, Long.MIN_VALUE, false);
+        return new ArrayList<>(dataChangeListeners.subMap(from, true, to, false).entrySet());
+    }
+
     /**
      * Sends an data updated event to all listeners that are registered to be interested in
      * a given range. Skips those listeners that extend beyond 'end', given the assumption that
-     * the data is read from the beginning of the range.
+     * the data is read from the beginning of the range. Each listener is notified at most once
+     * while loading one range, even if the range arrives in several chunks.
      *  @param start offset (inclusive)
      * @param end   offset (exclusive)
      * @param hasZero true if the data payload loaded has a zero byte.
      */
     private void notifyPartialRead(long start, long end, boolean hasZero) {
         PropertyChangeEvent ev = null;
-        for (Map.Entry<Range, ChangeEntry> e : dataChangeListeners.entrySet()) {
+        for (Map.Entry<Range, ChangeEntry> e : candidateListeners(start, end)) {
             if (e.getKey().start < end && e.getKey().end > start) {
                 // There is overlap
+                if (e.getValue().notifiedGeneration == loadGeneration) continue;
                 boolean needNotify = false;
                 if (e.getKey().end <= end) needNotify = true; // Data is fully available
                 if ((start >= e.getKey().start) && e.getKey().nullTerminated && hasZero) {
                     needNotify = true;
                 }
                 if (needNotify) {
+                    e.getValue().notifiedGeneration = loadGeneration;
                     if (ev == null) ev = new PropertyChangeEvent(this, UPDATE_DATA, null, null);
                     for (PropertyChangeListener l : e.getValue().listeners) {
                         l.propertyChange(ev);
@@ -150,7 +189,7 @@ public class MemorySpaceCache {
      */
     private void notifyAfterWrite(long start, long end) {
         PropertyChangeEvent ev = null;
-        for (Map.Entry<Range, ChangeEntry> e : dataChangeListeners.entrySet()) {
+        for (Map.Entry<Range, ChangeEntry> e : candidateListeners(start, end)) {
             if (e.getKey().start < end && e.getKey().end > start) {
                 // There is overlap
                 if (ev == null) ev = new PropertyChangeEvent(this, UPDATE_DATA, null, null);
@@ -188,6 +227,7 @@ public class MemorySpaceCache {
             firePropertyChange(UPDATE_LOADING_COMPLETE, null, null);
             return;
         }
+        ++loadGeneration;
         currentRangeNextOffset = -1;
         loadRange();
     }
@@ -216,14 +256,11 @@ public class MemorySpaceCache {
                 }
             }
         }
-        int count = (int)(nextRangeToLoad.end - currentRangeNextOffset);
+        int count = planner.getReadSize(currentRangeNextOffset, nextRangeToLoad.end);
         if (count <= 0) {
             continueLoading();
             return;
         }
-        if (count > 64) {
-            count = 64;
-        }
         final int fcount = count;
         access.doRead(currentRangeNextOffset, space, count,
                 new MemoryConfigurationService.McsReadHandler() {
@@ -368,6 +405,8 @@ public class MemorySpaceCache {
     private class ChangeEntry {
         List<PropertyChangeListener> listeners = new ArrayList<>();
         int previousMax;
+        /// loadGeneration when the listeners were last notified of loaded data.
+        int notifiedGeneration = -1;
     }
 }
 
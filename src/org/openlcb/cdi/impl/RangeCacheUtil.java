@@ -3,7 +3,6 @@ package org.openlcb.cdi.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import javax.annotation.Nullable;
 
 /**
  * Helper class to get a sequence of ranges and merges them into larger chunks to read from the
@@ -13,7 +12,8 @@ import javax.annotation.Nullable;
  */
 public class RangeCacheUtil {
     /**
-     * Merge ranges that have less than this many bytes of gap between them.
+     * Merge ranges that have at most this many bytes of gap between them, unless a different
+     * read planner is given.
      */
     private static final int RANGE_MERGE_THRESHOLD = 8;
     /**
@@ -23,24 +23,18 @@ public class RangeCacheUtil {
 
     private ArrayList<Range> addedRanges = new ArrayList<>();
     private boolean isSimplified = true;
+    /// Decides which ranges to merge.
+    private final ReadPlanner planner;
+
+    public RangeCacheUtil() {
+        this(new ReadPlanner(RANGE_MERGE_THRESHOLD));
+    }
 
     /**
-     * Merges two ranges. Assumption: range 'next' &gt; range 'current'. The ranges will be merged
-     * if they overlap, touch or there is less than @link RANGE_MERGE_THRESHOLD sized gap
-     * between them.
-     *
-     * @param current earlier range
-     * @param next    newer range
-     * @return null if the ranges cannot be merged; otherwise a merged range.
+     * @param planner decides which ranges are merged
      */
-    private static
-    @Nullable
-    Range mergeRange(Range current, Range next) {
-        if (next.start > current.end + RANGE_MERGE_THRESHOLD || current.nullTerminated || next.nullTerminated) {
-            return null;
-        }
-        return new Range(Math.min(current.start, next.start), Math.max(current.end, next.end),
-                false);
+    public RangeCacheUtil(ReadPlanner planner) {
+        this.planner = planner;
     }
 
     public synchronized void addRange(long start, long end, boolean nullTerminated) {
@@ -58,7 +52,7 @@ public class RangeCacheUtil {
         ArrayList<Range> newRanges = new ArrayList<>(addedRanges.size());
         Range current = addedRanges.get(0);
         for (int i = 1; i < addedRanges.size(); ++i) {
-            Range mergedRange = mergeRange(current, addedRanges.get(i));
+            Range mergedRange = planner.merge(current, addedRanges.get(i));
             if (mergedRange == null) {
                 newRanges.add(current);
                 current = addedRanges.get(i);
@@ -0,0 +1,192 @@
+package org.openlcb.cdi.impl;
+
+import javax.annotation.Nullable;
+import org.openlcb.NodeID;
+import org.openlcb.cdi.impl.RangeCacheUtil.Range;
+import org.openlcb.implementations.MemoryConfigurationService;
+
+/**
+ * Decides how the ranges of a memory space cache are read from the remote node: which ranges
+ * are merged into one and how large each read request is.
+ * <p>
+ * The cost model counts every byte read as 1 and every read request as the request cost, in
+ * the same unit. Two ranges are merged when reading the gap between them is cheaper than the
+ * extra requests needed to read them separately. The default request cost approximates the
+ * bus time of a datagram read on CAN beyond the payload: four frames of framing overhead (the
+ * request, its acknowledgement, the reply and its acknowledgement) plus the request and reply
+ * headers. Waiting for the remote node makes a request even more expensive, so slow nodes
+ * benefit from a higher cost.
+ * <p>
+ * The capabilities of the remote node can be set from the configuration options and address
+ * space information replies; see {@link #requestCapabilities}. If the remote node supports
+ * stream reads, the reads are up to {@link #STREAM_READ_SIZE} bytes; these are served by {@link
+ * MemoryConfigurationService#requestBulkRead}.
+ */
+public class ReadPlanner {
+    /// Default cost of one read request, in bytes.
+    public static final int DEFAULT_REQUEST_COST = 40;
+    /// Largest read when the remote node supports stream reads.
+    public static final int STREAM_READ_SIZE = 1024;
+
+    private int requestCost;
+    private int maxReadSize = MemoryConfigurationService.MAX_DATAGRAM_PAYLOAD;
+    /// Highest valid address in the space, or -1 if not known.
+    private long highestAddress = -1;
+    private boolean streamReadSupported = false;
+
+    public ReadPlanner() {
+        this(DEFAULT_REQUEST_COST);
+    }
+
+    /**
+     * @param requestCost cost of one read request, counted in bytes read
+     */
+    public ReadPlanner(int requestCost) {
+        this.requestCost = requestCost;
+    }
+
+    public synchronized int getRequestCost() {
+        return requestCost;
+    }
+
+    /**
+     * Sets the cost of one read request. Has effect on the ranges merged after this call.
+     *
+     * @param requestCost cost of one read request, counted in bytes read
+     */
+    public synchronized void setRequestCost(int requestCost) {
+        this.requestCost = requestCost;
+    }
+
+    /**
+     * @return the largest number of bytes requested in one read.
+     */
+    public synchronized int getMaxReadSize() {
+        return maxReadSize;
+    }
+
+    /**
+     * @return the highest valid address of the space, or -1 if not known.
+     */
+    public synchronized long getHighestAddress() {
+        return highestAddress;
+    }
+
+    /**
+     * Limits the reads to the valid addresses of the space. Reads beyond the end of the space
+     * would fail anyway, after a full round trip.
+     *
+     * @param highestAddress the highest valid address of the space (inclusive), as reported
+     *                       by the address space information reply.
+     */
+    public synchronized void setHighestAddress(long highestAddress) {
+        this.highestAddress = highestAddress;
+    }
+
+    /**
+     * @return true if the remote node reported that it supports stream reads.
+     */
+    public synchronized boolean isStreamReadSupported() {
+        return streamReadSupported;
+    }
+
+    /**
+     * Takes the capabilities from the configuration options reply of the remote node. Has
+     * effect on the ranges merged after this call.
+     *
+     * @param commands available commands bits
+     */
+    public synchronized void setConfigOptions(int commands) {
+        streamReadSupported = (commands & MemoryConfigurationService.AVAILABLE_STREAM_READ) != 0;
+        maxReadSize = streamReadSupported ? STREAM_READ_SIZE : MemoryConfigurationService
+                .MAX_DATAGRAM_PAYLOAD;
+    }
+
+    /**
+     * @param length number of bytes
+     * @return the cost of reading this many contiguous bytes.
+     */
+    synchronized long cost(long length) {
+        long requests = (length + maxReadSize - 1) / maxReadSize;
+        return requests * requestCost + length;
+    }
+
+    /**
+     * Merges two ranges if that makes them cheaper to read. Assumption: range 'next' &gt;
+     * range 'current'. Overlapping or touching ranges are always merged; null-terminated
+     * ranges are never merged.
+     *
+     * @param current earlier range
+     * @param next    newer range
+     * @return null if the ranges should not be merged; otherwise a merged range.
+     */
+    @Nullable
+    Range merge(Range current, Range next) {
+        if (current.nullTerminated || next.nullTerminated) {
+            return null;
+        }
+        long end = Math.max(current.end, next.end);
+        if (next.start > current.end && cost(end - current.start) > cost(current.end - current
+                .start) + cost(next.end - next.start)) {
+            return null;
+        }
+        return new Range(current.start, end, false);
+    }
+
+    /**
+     * @param address first address to read
+     * @param end     address of the first byte after the range being loaded
+     * @return the number of bytes to request in the next read; zero or less if nothing is left
+     * to read.
+     */
+    public synchronized int getReadSize(long address, long end) {
+        if (highestAddress >= 0) {
+            end = Math.min(end, highestAddress + 1);
+        }
+        return (int) Math.min(end - address, maxReadSize);
+    }
+
+    /**
+     * Queries the configuration options of the remote node and the information of an address
+     * space, and updates the planner from the replies. Call this before filling the cache. The
+     * memory configuration service handles only one such query at a time, so queries for
+     * several spaces must be made one after the other.
+     *
+     * @param mcs    the memory configuration service to query with
+     * @param remote the node to query
+     * @param space  the address space to query
+     * @param done   called when the planner is updated or when a query failed; in the latter
+     *               case the defaults are kept.
+     */
+    public void requestCapabilities(final MemoryConfigurationService mcs, final NodeID remote,
+                                    final int space, final Runnable done) {
+        mcs.request(new MemoryConfigurationService.McsConfigMemo(remote) {
+            @Override
+            public void handleFailure(int code) {
+                done.run();
+            }
+
+            @Override
+            public void handleConfigData(NodeID dest, int commands, int options, int
+                    highSpace, int lowSpace, String name) {
+                setConfigOptions(commands);
+                mcs.setStreamReadSupported(remote, isStreamReadSupported());
+                mcs.request(new MemoryConfigurationService.McsAddrSpaceMemo(remote, space) {
+                    @Override
+                    public void handleWriteReply(int code) {
+                        done.run();
+                    }
+
+                    @Override
+                    public void handleAddrSpaceData(NodeID dest, int replySpace, long
+                            hiAddress, long lowAddress, int flags, String desc) {
+                        if (replySpace == space) {
+                            setHighestAddress(hiAddress);
+                        }
+                        done.run();
+                    }
+                });
+            }
+        });
+    }
+}
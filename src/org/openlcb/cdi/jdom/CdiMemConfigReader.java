@@ -21,6 +21,10 @@ public class CdiMemConfigReader  {
     private final static Logger logger = getLogger(CdiMemConfigReader.class.getName());
 
     final static int LENGTH = 64;
+    /// Bytes requested at a time when the node is known to support stream reads. Otherwise the
+    /// CDI is read with datagrams of LENGTH bytes, which stop at the terminating zero; a larger
+    /// read would fetch the whole block with datagrams if the node rejected the stream.
+    final static int STREAM_LENGTH = 4096;
 
     NodeID node;
     MimicNodeStore store;
@@ -81,11 +85,12 @@ public class CdiMemConfigReader  {
                         buf.append((char)data[i]);
                     }
                     // repeat if not done
-                    nextAddress = nextAddress + LENGTH;
+                    nextAddress = nextAddress + data.length;
                     nextRequest();
                 }
             };
-        service.requestRead(node, space, nextAddress, LENGTH, memo);
+        int length = service.isStreamReadSupported(node) ? STREAM_LENGTH : LENGTH;
+        service.requestBulkRead(node, space, nextAddress, length, memo);
     }
     
     private void done() {
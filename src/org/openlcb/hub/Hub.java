@@ -2,13 +2,17 @@ package org.openlcb.hub;
 
 import java.io.*;
 import java.net.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Simple multi-threaded OpenLCB hub implementation.
+ * Simple OpenLCB hub implementation.
  * <P>
  * Multiple connections send lines terminated by newline,
  * each of which is echoed to all other connections.
@@ -16,10 +20,14 @@ import java.util.logging.Logger;
  * <P>
  * main() directly invokes an object of the class.
  * <p>
- * Current threading model does all the sending from a
- * a single thread.  If this is observed to back up &amp;
- * halt all flow, individual transmit queues and threads
- * may be needed.
+ * Threading model: all socket I/O is done by a single selector thread (the one
+ * calling {@link #start()}) on non-blocking channels. Lines received are queued
+ * and handed to every {@link Forwarding} by the "openlcb-hub-output" thread. For
+ * network clients forwarding only copies the line into that client's bounded
+ * transmit buffer; the selector thread drains those buffers as the sockets
+ * become writable. A client that does not keep up fills its own buffer and is
+ * then handled according to the {@link SlowConsumerPolicy}, without delaying
+ * any other client.
  *
  * @author  Bob Jacobsen   Copyright 2012
  * @version $Revision: 17977 $
@@ -29,11 +37,27 @@ public class Hub {
     private final static Logger logger = Logger.getLogger(Hub.class.getName());
     public final static int DEFAULT_PORT = 12021;
     final static int CAPACITY = 20;  // not too long, to reduce delay
-    
+    /// Default size of the per-client transmit buffer in bytes.
+    public final static int DEFAULT_CLIENT_BUFFER_SIZE = 64 * 1024;
+    final static int READ_BUFFER_SIZE = 4096;
+    /// Longest line accepted from a client, in characters. Longer lines are dropped, so that a
+    /// peer that never sends a newline cannot make the hub buffer without limit.
+    public final static int MAX_LINE_LENGTH = 1024;
+
+    /**
+     * What to do with a client whose transmit buffer is full.
+     */
+    public enum SlowConsumerPolicy {
+        /// Lines that do not fit in the client's transmit buffer are dropped for that client.
+        DROP,
+        /// The client is disconnected when a line does not fit in its transmit buffer.
+        DISCONNECT
+    }
+
     public Hub() {
         this(Hub.DEFAULT_PORT);
     }
-    
+
     public Hub(int port) {
         this.port = port;
         // create array server thread
@@ -57,39 +81,140 @@ public class Hub {
         t.setDaemon(true);
         t.start();
     }
-    
+
     BlockingQueue<Memo> queue = new LinkedBlockingQueue<Memo>();
-    ArrayList<Forwarding> threads = new ArrayList<Forwarding>();
+    List<Forwarding> threads = new CopyOnWriteArrayList<Forwarding>();
     int port;
-    
-    ServerSocket service;
+    int clientBufferSize = DEFAULT_CLIENT_BUFFER_SIZE;
+    SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP;
+    private final AtomicLong droppedLines = new AtomicLong();
+
+    ServerSocketChannel service;
+    Selector selector;
+    /// Clients that have new data in their transmit buffer; serviced by the selector thread.
+    final Queue<ClientConnection> pendingWrites = new ConcurrentLinkedQueue<ClientConnection>();
+    private volatile boolean running;
 
+    /**
+     * Opens the listening socket and runs the selector loop. Does not return until the hub is
+     * stopped or a fatal error happens.
+     */
     public void start() {
         try {
-            service = new ServerSocket(port);
-            while (true) {
-                Socket clientSocket = service.accept();
-                ReaderThread r = new ReaderThread(clientSocket);
-                addForwarder(r);
-                r.start();
-                // not setting Daemon, so program will wait for thread to end before terminating
-                notifyOwner("Connection started with "+getRemoteSocketAddress(clientSocket));
+            selector = Selector.open();
+            service = ServerSocketChannel.open();
+            service.socket().setReuseAddress(true);
+            service.socket().bind(new InetSocketAddress(port));
+            port = service.socket().getLocalPort();
+            service.configureBlocking(false);
+            service.register(selector, SelectionKey.OP_ACCEPT);
+            running = true;
+            while (running) {
+                selector.select();
+                ClientConnection c;
+                while ((c = pendingWrites.poll()) != null) {
+                    c.updateInterest();
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    c = (ClientConnection) key.attachment();
+                    if (key.isReadable()) {
+                        c.handleRead();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        c.handleWrite();
+                    }
+                }
             }
+        } catch (ClosedSelectorException e) {
+            // stop() was called.
         } catch (IOException e) {
             logger.severe("Hub: Exception in main loop");
             logger.log(Level.SEVERE, "", e);
+        } finally {
+            running = false;
+            closeAll();
+        }
+    }
+
+    /**
+     * Stops the selector loop and disconnects all clients. May be called from any thread.
+     */
+    public void stop() {
+        running = false;
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = service.accept();
+        if (ch == null) return;
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        ClientConnection c = new ClientConnection(ch, clientBufferSize);
+        c.key = ch.register(selector, SelectionKey.OP_READ, c);
+        addForwarder(c);
+        notifyOwner("Connection started with "+getRemoteSocketAddress(ch.socket()));
+    }
+
+    private void closeAll() {
+        for (Forwarding f : threads) {
+            if (f instanceof ClientConnection) {
+                ((ClientConnection) f).close();
+            }
+        }
+        try {
+            if (service != null) service.close();
+            if (selector != null) selector.close();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Hub: Error while closing server socket", e);
         }
     }
-    
+
     public int getPort() { return port; }
     public void addForwarder(Forwarding f) {
         threads.add(f);
     }
-    
+
+    /**
+     * Sets the size of the transmit buffer allocated for each network client connecting
+     * after this call.
+     *
+     * @param bytes buffer size in bytes; must be large enough to hold the longest line.
+     */
+    public void setClientBufferSize(int bytes) {
+        clientBufferSize = bytes;
+    }
+
+    public void setSlowConsumerPolicy(SlowConsumerPolicy policy) {
+        slowConsumerPolicy = policy;
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    /**
+     * @return the number of lines not sent to slow clients under the DROP policy, summed
+     * over all clients.
+     */
+    public long getDroppedLineCount() {
+        return droppedLines.get();
+    }
+
     public void notifyOwner(String line) {
         logger.info(line);
     }
-    
+
     // from jmri.util.SocketUtil
     String getRemoteSocketAddress(Socket socket) {
         try {
@@ -100,7 +225,7 @@ public class Hub {
         }
         return "<unknown>";
     }
-    
+
     public void putLine(String line) {
         try {
             queue.put(new Memo(line, null));
@@ -108,71 +233,217 @@ public class Hub {
             logger.log(Level.SEVERE, "", e);
         }
     }
-    
+
     public interface Forwarding {
         public void forward(Memo m);
     }
-    
-    class ReaderThread extends Thread implements Forwarding {
-    
-        ReaderThread(Socket clientSocket) {
-            this.clientSocket = clientSocket;
-        }
-        
-        Socket clientSocket;
-        DataInputStream input;
-        PrintStream output;
-        
-        public void run() {
+
+    /**
+     * Fixed-size byte ring buffer holding the outgoing lines of one client.
+     * <p>
+     * Written by the forwarding thread, drained by the selector thread; all access is
+     * synchronized on the instance.
+     */
+    static class TransmitBuffer {
+        private final byte[] data;
+        /// View of data used for writing to the channel, to avoid allocation.
+        private final ByteBuffer view;
+        private int head = 0;
+        private int count = 0;
+
+        TransmitBuffer(int size) {
+            data = new byte[size];
+            view = ByteBuffer.wrap(data);
+        }
+
+        /**
+         * Appends a line and a newline terminator.
+         *
+         * @param line the line to append; characters are truncated to ISO-8859-1.
+         * @return false if there was not enough space; in this case nothing is appended.
+         */
+        synchronized boolean offer(String line) {
+            int len = line.length() + 1;
+            if (data.length - count < len) {
+                return false;
+            }
+            int pos = (head + count) % data.length;
+            for (int i = 0; i < line.length(); i++) {
+                data[pos] = (byte) line.charAt(i);
+                if (++pos == data.length) pos = 0;
+            }
+            data[pos] = '\n';
+            count += len;
+            return true;
+        }
+
+        synchronized boolean isEmpty() {
+            return count == 0;
+        }
+
+        synchronized int size() {
+            return count;
+        }
+
+        /**
+         * Writes as much of the buffered data to the channel as it accepts.
+         *
+         * @return true if the buffer is empty afterwards.
+         */
+        synchronized boolean drainTo(WritableByteChannel ch) throws IOException {
+            while (count > 0) {
+                int chunk = Math.min(count, data.length - head);
+                // Called through Buffer so that the class also runs on Java 8, where the
+                // ByteBuffer overrides returning ByteBuffer do not exist.
+                ((Buffer) view).limit(head + chunk);
+                ((Buffer) view).position(head);
+                int written = ch.write(view);
+                head = (head + written) % data.length;
+                count -= written;
+                if (written < chunk) break;
+            }
+            if (count == 0) head = 0;
+            return count == 0;
+        }
+    }
+
+    /**
+     * A network client connected to the hub. I/O is performed on the selector thread only.
+     */
+    class ClientConnection implements Forwarding {
+
+        ClientConnection(SocketChannel channel, int bufferSize) {
+            this.channel = channel;
+            this.output = new TransmitBuffer(bufferSize);
+        }
+
+        final SocketChannel channel;
+        final TransmitBuffer output;
+        SelectionKey key;
+        final ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final StringBuilder line = new StringBuilder();
+        boolean lastWasCr = false;
+        /// True while the rest of a too long line is being skipped.
+        boolean discardingLine = false;
+        volatile boolean closed = false;
+
+        void handleRead() {
+            int n;
             try {
-                input = new DataInputStream(clientSocket.getInputStream());
-                output = new PrintStream(clientSocket.getOutputStream(),true,"ISO-8859-1");
-        
-                while (true) {
-                    String line = input.readLine();
-                    if (line == null) break;  // socket ended
-                    queue.put(new Memo(line, this));
-                }
-     
+                ((Buffer) input).clear();
+                n = channel.read(input);
             } catch (IOException e) {
-                logger.log(Level.SEVERE, "Hub: Error while handling input from {0}", getRemoteSocketAddress(clientSocket));
-                logger.log(Level.SEVERE, "", e);
-            } catch (InterruptedException e) {
-                logger.log(Level.SEVERE, "Hub: Interrupted while handling input from {0}", getRemoteSocketAddress(clientSocket));
+                logger.log(Level.SEVERE, "Hub: Error while handling input from {0}", getRemoteSocketAddress(channel.socket()));
                 logger.log(Level.SEVERE, "", e);
+                n = -1;
+            }
+            if (n < 0) {
+                // socket ended
+                close();
+                return;
             }
-            threads.remove(this);
-            notifyOwner("Connection ended with "+getRemoteSocketAddress(clientSocket));
+            for (int i = 0; i < n; i++) {
+                char ch = (char) (input.get(i) & 0xff);
+                if (ch == '\n' && lastWasCr) {
+                    lastWasCr = false;
+                    continue;
+                }
+                lastWasCr = (ch == '\r');
+                if (ch == '\n' || ch == '\r') {
+                    if (discardingLine) {
+                        discardingLine = false;
+                    } else {
+                        queue.add(new Memo(line.toString(), this));
+                    }
+                    line.setLength(0);
+                } else if (discardingLine) {
+                    continue;
+                } else if (line.length() >= MAX_LINE_LENGTH) {
+                    logger.log(Level.WARNING, "Hub: Dropping too long line from {0}", getRemoteSocketAddress(channel.socket()));
+                    line.setLength(0);
+                    discardingLine = true;
+                } else {
+                    line.append(ch);
+                }
+            }
+        }
+
+        void handleWrite() {
             try {
-                clientSocket.close();
+                if (output.drainTo(channel)) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
             } catch (IOException e) {
-                logger.severe("Hub: Error while closing socket at end of connection");
+                logger.log(Level.SEVERE, "Hub: Error while sending to {0}", getRemoteSocketAddress(channel.socket()));
                 logger.log(Level.SEVERE, "", e);
+                close();
             }
         }
-        
+
+        /// Called on the selector thread after new data was buffered.
+        void updateInterest() {
+            if (closed) {
+                close();
+                return;
+            }
+            if (key.isValid() && !output.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
         public void forward(Memo m) {
-            if (! this.equals(m.source)) {
-                output.println(m.line); 
+            if (closed || this.equals(m.source)) {
+                return;
+            }
+            if (!output.offer(m.line)) {
+                if (slowConsumerPolicy == SlowConsumerPolicy.DISCONNECT) {
+                    logger.log(Level.WARNING, "Hub: Disconnecting slow client {0}", getRemoteSocketAddress(channel.socket()));
+                    closed = true;
+                } else {
+                    logger.log(Level.FINE, "Hub: Dropping line for slow client {0}", getRemoteSocketAddress(channel.socket()));
+                    droppedLines.incrementAndGet();
+                    return;
+                }
+            }
+            pendingWrites.add(this);
+            Selector s = selector;
+            if (s != null) {
+                s.wakeup();
+            }
+        }
+
+        void close() {
+            closed = true;
+            if (!threads.remove(this)) {
+                return;
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            notifyOwner("Connection ended with "+getRemoteSocketAddress(channel.socket()));
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.severe("Hub: Error while closing socket at end of connection");
+                logger.log(Level.SEVERE, "", e);
             }
         }
-        
     }
-    
+
     public class Memo {
         public String line;
         public Forwarding source;
-        
+
         Memo(String line, Forwarding source) {
             this.line = line;
             this.source = source;
         }
     }
-    
+
     static public void main(String[] args) {
         Hub h = new Hub();
-        
+
         h.start();
-        
+
     }
 }
@@ -9,6 +9,8 @@ import org.openlcb.IdentifyConsumersMessage;
 import org.openlcb.IdentifyEventsMessage;
 import org.openlcb.IdentifyProducersMessage;
 import org.openlcb.MessageDecoder;
+import org.openlcb.MessageFilter;
+import org.openlcb.MessageTypeIdentifier;
 import org.openlcb.OlcbInterface;
 import org.openlcb.ProducerConsumerEventReportMessage;
 import org.openlcb.ProducerIdentifiedMessage;
@@ -73,7 +75,10 @@ public class BitProducerConsumer extends MessageDecoder {
                         .getNodeId(), id));
             }
         };
-        iface.registerMessageListener(this);
+        // We only need to see messages about our two events, and event identification requests.
+        iface.registerMessageListener(this, new MessageFilter().addEvent(eventOn, eventOff)
+                .addType(MessageTypeIdentifier.IdentifyEventsAddressed, MessageTypeIdentifier
+                        .IdentifyEventsGlobal));
         iface.getOutputConnection().registerStartNotification(new ConnectionListener() {
             @Override
             public void connectionActive(Connection c) {
@@ -1,19 +1,22 @@
 package org.openlcb.implementations;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.openlcb.*;
 
 /**
  * Accepts Datagrams over a Connection from "upstream", and meters them out
- * to "downstream" nodes (e.g. on a CAN network), one at a time.
+ * to "downstream" nodes (e.g. on a CAN network), one at a time per
+ * destination node.
  * This is to ensure that e.g. simple CAN nodes that can't accept more
  * than one datagram at a time get a chance to reply before the next one
  * arrives.
@@ -21,8 +24,10 @@ import org.openlcb.*;
  * Datagram negative replies cause a local retransmission. Positive
  * replies are reflected upstream to original source of the datagram.
  *<ul>
- *<li>Does not parallelize Datagrams to separate nodes
- *<li>Needs to timeout and resume operation if no reply received
+ *<li>Datagrams to separate nodes are in flight in parallel, up to a
+ * global limit (see {@link #setMaxInFlight}); a destination that does not
+ * reply only delays the datagrams queued for that destination.
+ *<li>Times out and resumes operation if no reply received
  *</ul>
  *<p>
  *
@@ -33,46 +38,59 @@ public class DatagramMeteringBuffer extends MessageDecoder {
 
     //final static int TIMEOUT = 700;
     final static int TIMEOUT = 3000;
+    /// Default limit on the number of datagrams in flight to different destinations.
+    public final static int DEFAULT_MAX_IN_FLIGHT = 16;
     private final static Logger logger = Logger.getLogger(DatagramMeteringBuffer.class.getName());
-    private ThreadPoolExecutor threadPool = null;
-    final static int minThreads = 10;
-    final static int maxThreads = 10;
-    final static long threadTimeout = 10; // allowed idle time for threads, in seconds.
 
     /**
      * @param toDownstream connection object associated with the new buffer 
      *
-     * @deprecated since OlcbLibrary version 0.18.  Use {@link #DatagramMeteringBuffer(Connection,ThreadPoolExecutor)} instead.
+     * @deprecated since OlcbLibrary version 0.18.  Use {@link #DatagramMeteringBuffer(Connection,ExecutorService,TimerService)} instead.
      */
     @Deprecated
     public DatagramMeteringBuffer(Connection toDownstream ){
-          this(toDownstream,
-               new ThreadPoolExecutor(minThreads,maxThreads,
-                                      threadTimeout,TimeUnit.SECONDS,
-                                 new LinkedBlockingQueue<Runnable>(),
-                                 new OlcbThreadFactory()));
+          this(toDownstream, null, TimerService.getDefault());
     }
     
     /**
      * @param toDownstream Connection object associated with the new buffer 
-     * @param tpe Thread pool in which threads associated with the buffer run.
+     * @param tpe not used; the buffer runs on the caller threads and the timer service.
      */
     public DatagramMeteringBuffer(Connection toDownstream,ThreadPoolExecutor tpe) {
-        threadPool = tpe;
-        if(timer == null){
-           timer = new Timer("OpenLCB-datagram-timer");
-        }
+        this(toDownstream, (ExecutorService) tpe, TimerService.getDefault());
+    }
+
+    /**
+     * @param toDownstream Connection object associated with the new buffer
+     * @param executor not used; the buffer runs on the caller threads and the timer service.
+     *                 The executor stays owned by the caller.
+     * @param timerService runs the reply timeouts of the datagrams.
+     */
+    public DatagramMeteringBuffer(Connection toDownstream, ExecutorService executor,
+                                  TimerService timerService) {
+        this.timerService = timerService;
         this.toDownstream = toDownstream;
-        datagramComplete();
         
         fromDownstream = new ReplyHandler();
     }
     
     Connection toDownstream;
     Connection fromDownstream;
-    MessageMemo currentMemo;
-    private Timer timer = null;
+    private final TimerService timerService;
+    private volatile boolean disposed = false;
     int timeoutMillis = TIMEOUT;
+    int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private volatile OlcbMetrics metrics = new OlcbMetrics();
+
+    /// Destinations that have datagrams in flight or waiting. Guarded by this.
+    private final Map<NodeID, Destination> destinations = new HashMap<>();
+    /// Destinations with waiting datagrams but nothing in flight, blocked by the global limit.
+    /// Guarded by this.
+    private final Queue<Destination> readyDestinations = new ArrayDeque<>();
+    /// Number of datagrams in flight. Guarded by this.
+    private int inFlight = 0;
+    /// Datagrams in flight or waiting.
+    final QuiescenceLatch pendingEntries = new QuiescenceLatch();
 
     /**
      * This is where e.g. replies from the OpenLCB
@@ -83,31 +101,34 @@ public class DatagramMeteringBuffer extends MessageDecoder {
         return fromDownstream;
     }
     
-    BlockingQueue<MessageMemo> queue = new LinkedBlockingQueue<MessageMemo>();
-    int pendingEntries = 0;
-    int threadPending = 0;
+    /**
+     * @param metrics where to record the round trip times, retries and timeouts of the
+     *                datagrams; usually the registry of the interface.
+     */
+    public void setMetrics(OlcbMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     public void setTimeout(int timeoutMillis) {
         this.timeoutMillis = timeoutMillis;
     }
 
     /**
-     * Waits until all pending entries are sent or we are blocked on sending multiple requests to
-     * the same target node.
+     * Sets how many datagrams may be in flight at the same time (to different destination
+     * nodes). Datagrams to the same destination node are always sent one at a time.
+     * @param maxInFlight limit; 1 sends only one datagram at a time on the entire bus.
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Waits until all pending entries are sent or we are blocked on waiting for replies from the
+     * destination nodes.
      */
     public void waitForSendQueue() {
-        while(true) {
-            synchronized (this) {
-                if (pendingEntries == 0 || threadPending == 0) {
-                    break;
-                }
-            }
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                return;
-            }
-        }
+        // Datagrams are sent synchronously as soon as their destination and the in-flight limit
+        // allows, so there is nothing to wait for except pending timer callbacks.
         waitForTimer();
     }
 
@@ -116,33 +137,23 @@ public class DatagramMeteringBuffer extends MessageDecoder {
      * @throws java.lang.InterruptedException when interrupted.
      */
     public void waitForSendCallbacks() throws InterruptedException {
-        while(true) {
-            synchronized (this) {
-                if (pendingEntries == 0 && threadPending == 1) {
-                    break;
-                }
-            }
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                throw e;
-            }
-        }
+        pendingEntries.await();
         waitForTimer();
     }
 
+    /**
+     * @return a future that completes when all pending entries are sent and their callbacks
+     * are executed.
+     */
+    public CompletableFuture<Void> whenSendCallbacksComplete() {
+        return pendingEntries.whenIdle();
+    }
+
     private void waitForTimer() {
-        final Semaphore s = new Semaphore(0);
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                s.release();
-            }
-        }, 1);
         try {
-            s.acquire();
+            timerService.waitForTimer();
         } catch (InterruptedException e) {
-            return;
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -152,33 +163,109 @@ public class DatagramMeteringBuffer extends MessageDecoder {
     @Override
     public void put(Message msg, Connection toUpstream) {
         if (msg instanceof DatagramMessage) {
+            MessageMemo memo = new MessageMemo((DatagramMessage) msg, toUpstream, toDownstream);
+            List<MessageMemo> toSend;
+            pendingEntries.increment();
             synchronized (this) {
-                ++pendingEntries;
+                NodeID dst = memo.message.getDestNodeID();
+                Destination d = destinations.get(dst);
+                if (d == null) {
+                    d = new Destination(dst);
+                    destinations.put(dst, d);
+                }
+                d.waiting.add(memo);
+                if (d.active == null && d.waiting.size() == 1) {
+                    readyDestinations.add(d);
+                }
+                toSend = startReady();
             }
-            queue.add(new MessageMemo((DatagramMessage) msg, toUpstream, toDownstream));
+            sendAll(toSend);
         } else {
             toDownstream.put(msg, fromDownstream);
         }
     }
 
-    private void datagramComplete() {
-        currentMemo = null;
+    /**
+     * Activates the next datagram of the ready destinations while the in-flight limit allows.
+     * Must be called with the lock held.
+     * @return the datagrams to send, which has to be done after releasing the lock.
+     */
+    private List<MessageMemo> startReady() {
+        List<MessageMemo> l = null;
+        while (inFlight < maxInFlight && !readyDestinations.isEmpty()) {
+            Destination d = readyDestinations.poll();
+            d.active = d.waiting.poll();
+            ++inFlight;
+            if (l == null) l = new ArrayList<>(1);
+            l.add(d.active);
+        }
+        return l;
+    }
+
+    private void sendAll(List<MessageMemo> l) {
+        if (l == null) return;
+        for (MessageMemo m : l) {
+            m.forwardDownstream();
+        }
+    }
+
+    /// Called when a datagram is finished (acknowledged, failed or timed out).
+    private void datagramComplete(MessageMemo memo) {
+        List<MessageMemo> toSend;
         synchronized (this) {
-            threadPending++;
+            Destination d = destinations.get(memo.message.getDestNodeID());
+            if (d == null || d.active != memo) {
+                // Duplicate completion (e.g. a reply racing with the timeout).
+                return;
+            }
+            d.active = null;
+            --inFlight;
+            if (d.waiting.isEmpty()) {
+                destinations.remove(d.node);
+            } else {
+                readyDestinations.add(d);
+            }
+            toSend = startReady();
+        }
+        pendingEntries.decrement();
+        sendAll(toSend);
+    }
+
+    /**
+     * Per-destination node state.
+     */
+    private class Destination {
+        final NodeID node;
+        /// Datagram waiting for a reply, or null.
+        MessageMemo active;
+        final Queue<MessageMemo> waiting = new ArrayDeque<>();
+
+        Destination(NodeID node) {
+            this.node = node;
         }
-        threadPool.execute(new Consumer(queue));
     }
 
     class ReplyHandler extends AbstractConnection {
         /*
-         * Find the current handler and have it handle it
+         * Find the handler for the datagram sent to the replying node and have it handle it
          */
         @Override
         public void put(Message msg, Connection sender) {
-            if (currentMemo == null) {
+            if (!(msg instanceof DatagramAcknowledgedMessage) && !(msg instanceof
+                    DatagramRejectedMessage) && !(msg instanceof InitializationCompleteMessage)) {
+                return;
+            }
+            MessageMemo memo;
+            synchronized (DatagramMeteringBuffer.this) {
+                if (destinations.isEmpty()) return;
+                Destination d = destinations.get(msg.getSourceNodeID());
+                if (d == null) return;
+                memo = d.active;
+            }
+            if (memo == null) {
                 return;
             }
-            currentMemo.put(msg, sender);
+            memo.put(msg, sender);
         }
     }
         
@@ -186,7 +273,15 @@ public class DatagramMeteringBuffer extends MessageDecoder {
         DatagramMessage message;
         Connection toDownstream;
         Connection toUpstream;
-        TimerTask timerTask;
+        /// When the datagram was last sent, for the round trip time; 0 if not measured.
+        long sentNanos = 0;
+        /// Reply timeout; re-armed when the datagram is resent.
+        final TimerService.Task timerTask = new TimerService.Task() {
+            @Override
+            public void run() {
+                timerExpired();
+            }
+        };
 
         MessageMemo(DatagramMessage msg, Connection toUpstream, Connection toDownstream) {
             message = msg;
@@ -194,34 +289,22 @@ public class DatagramMeteringBuffer extends MessageDecoder {
             this.toDownstream = toDownstream;
         }
         
-        public void sendIt() {
-            currentMemo = this;
-            forwardDownstream();
-        }
-
         void forwardDownstream() {
             startTimeout();
+            sentNanos = metrics.startTimer();
             toDownstream.put(message, fromDownstream);
         }
         
         void startTimeout() {
-            timerTask = new TimerTask(){
-                public void run(){
-                    timerExpired();
-                }
-            };
-            try {
-                timer.schedule(timerTask, timeoutMillis);
-            } catch( java.lang.IllegalStateException ise) {
-                logger.log(Level.WARNING, "Timer already canceled when starting timeout for datagram {0}", message != null ? message : " == null");
-            } catch( java.util.concurrent.RejectedExecutionException ree) {
-                logger.log(Level.WARNING, "Timer rejected execution when starting timeout for datagram {0}", message != null ? message : " == null");
+            if (disposed) {
+                logger.log(Level.WARNING, "Buffer already disposed when starting timeout for datagram {0}", message != null ? message : " == null");
+                return;
             }
+            timerService.schedule(timerTask, timeoutMillis);
         }
 
         void endTimeout() {
-            if (timerTask != null) timerTask.cancel();
-            else logger.log(Level.INFO, "Found timer null for datagram {0}", message != null ? message : " == null");
+            timerTask.cancel();
         }
 
         void timerExpired() {
@@ -229,6 +312,7 @@ public class DatagramMeteringBuffer extends MessageDecoder {
             // fabricate a permanent error and forward up
             DatagramRejectedMessage msg = new DatagramRejectedMessage(message.getDestNodeID(), message.getSourceNodeID(), 0x0100);
             logger.log(Level.INFO, "Never received reply for datagram {0}", message);
+            metrics.datagramTimedOut();
             handleDatagramRejected(msg, null);
             // Inject message to upstream listener
             toUpstream.put(msg, toUpstream);
@@ -264,8 +348,9 @@ public class DatagramMeteringBuffer extends MessageDecoder {
                 return;
             }
             endTimeout();
+            metrics.datagramAcknowledged(sentNanos);
             // allow sending another
-            datagramComplete();
+            datagramComplete(this);
         }
         
         /**
@@ -281,10 +366,11 @@ public class DatagramMeteringBuffer extends MessageDecoder {
             endTimeout();
             // check if resend permitted
             if (msg.canResend()) {
+                metrics.datagramRetried();
                 forwardDownstream();
             } else {
                 // allow sending another
-                datagramComplete();
+                datagramComplete(this);
             }
         }
     }
@@ -293,55 +379,12 @@ public class DatagramMeteringBuffer extends MessageDecoder {
      * cleanup local resources
      */
     public void dispose(){
-        // shut down the thread pool
-        if(threadPool != null && !(threadPool.isShutdown())) {
-           // modified from the javadoc for ExecutorService 
-           threadPool.shutdown(); // Disable new tasks from being submitted
-           try {
-              // Wait a while for existing tasks to terminate
-              if (!threadPool.awaitTermination(10, TimeUnit.MILLISECONDS)) {
-                 threadPool.shutdownNow(); // Cancel currently executing tasks
-                 // Wait a while for tasks to respond to being cancelled
-                 if (!threadPool.awaitTermination(10, TimeUnit.SECONDS))
-                     logger.warning("Pool did not terminate");
-              }
-            } catch (InterruptedException ie) {
-                // (Re-)Cancel if current thread also interrupted
-                threadPool.shutdownNow();
-                // Preserve interrupt status
-                Thread.currentThread().interrupt();
-            }
-        }
-        threadPool = null;
-        // and cancel the timer
-        timer.cancel();
-        timer = null;
-    }    
-
-
-    class Consumer implements Runnable {
-        private final BlockingQueue<MessageMemo> queue;
-        Consumer(BlockingQueue<MessageMemo> q) { queue = q; }
-        @Override
-        public void run() {
-            if(threadPool == null || threadPool.isShutdown()) {
-               // the buffer has been disposed of, so just return
-               return;
-            }
-            try {
-                consume(queue.take());
-                synchronized (DatagramMeteringBuffer.this) {
-                    pendingEntries--;
-                }
-            } catch (InterruptedException ex) {
-                // interrupted while processing, but not in a loop.
-            } finally {
-                synchronized (DatagramMeteringBuffer.this) {
-                    threadPending--;
-                }
+        // cancel the pending timeouts
+        disposed = true;
+        synchronized (this) {
+            for (Destination d : destinations.values()) {
+                if (d.active != null) d.active.endTimeout();
             }
-            // and exits. Another has to be started with this item is done.
         }
-        void consume(MessageMemo x) { x.sendIt(); }
-    }    
+    }
 }
@@ -2,8 +2,6 @@ package org.openlcb.implementations;
 
 import org.openlcb.*;
 
-import java.util.HashSet;
-
 /**
  * Gateway that filters event messages that aren't needed.
  *<p>
@@ -40,8 +38,10 @@ public class EventFilterGateway extends Gateway {
         return westInputConnection;
     }
 
-    HashSet<EventID> idsGoingWest = new HashSet<EventID>();
-    HashSet<EventID> idsGoingEast = new HashSet<EventID>();
+    /// Event IDs (as long) that have consumers on the West side.
+    LongHashSet idsGoingWest = new LongHashSet();
+    /// Event IDs (as long) that have consumers on the East side.
+    LongHashSet idsGoingEast = new LongHashSet();
     
     class EastConnection extends MessageDecoder implements Connection {
         boolean forward;
@@ -56,14 +56,14 @@ public class EventFilterGateway extends Gateway {
         @Override
         public void handleProducerConsumerEventReport(ProducerConsumerEventReportMessage msg,
                                                         Connection sender){
-            if (! idsGoingWest.contains(msg.getEventID()))
+            if (! idsGoingWest.contains(msg.getEventID().toLong()))
                 forward = false;
         }
 
         @Override
         public void handleConsumerIdentified(ConsumerIdentifiedMessage msg,
                                                         Connection sender){
-            idsGoingEast.add(msg.getEventID());
+            idsGoingEast.add(msg.getEventID().toLong());
         }
     }    
 
@@ -80,14 +80,14 @@ public class EventFilterGateway extends Gateway {
         @Override
         public void handleProducerConsumerEventReport(ProducerConsumerEventReportMessage msg,
                                                         Connection sender){
-            if (! idsGoingEast.contains(msg.getEventID()))
+            if (! idsGoingEast.contains(msg.getEventID().toLong()))
                 forward = false;
         }
 
         @Override
         public void handleConsumerIdentified(ConsumerIdentifiedMessage msg,
                                                         Connection sender){
-            idsGoingWest.add(msg.getEventID());
+            idsGoingWest.add(msg.getEventID().toLong());
         }
     }    
 }
\ No newline at end of file
@@ -2,9 +2,9 @@ package org.openlcb.implementations;
 
 import org.openlcb.DefaultPropertyListenerSupport;
 import org.openlcb.EventID;
+import org.openlcb.LongHashMap;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.PriorityQueue;
@@ -25,7 +25,7 @@ import javax.annotation.concurrent.ThreadSafe;
 
 @ThreadSafe
 public class EventTable {
-    private final HashMap<Long, EventInfo> entries = new HashMap<>();
+    private final LongHashMap<EventInfo> entries = new LongHashMap<>();
 
     /// This property change notification is produced when the list of descriptions registered
     /// for a given event ID has changed (due to addition, removal or description change).
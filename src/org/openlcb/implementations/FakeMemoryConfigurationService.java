@@ -68,6 +68,9 @@ public class FakeMemoryConfigurationService extends MemoryConfigurationService {
     /// Records every read that happened through this fake.
     public List<ActualRead> actualReadList = new ArrayList<>();
 
+    /// Available commands bits reported in the configuration options reply.
+    public int availableCommands = 0;
+
     public void addSpace(NodeID remoteNode, int space, byte[] payload, boolean writeEnabled) {
         SpaceKey k = new SpaceKey();
         k.remoteNode = remoteNode;
@@ -142,6 +145,22 @@ public class FakeMemoryConfigurationService extends MemoryConfigurationService {
         cb.handleReadData(dest, space, address, ret);
     }
 
+    @Override
+    public void request(McsConfigMemo memo) {
+        memo.handleConfigData(memo.dest, availableCommands, 0, SPACE_CDI, SPACE_CONFIG, "");
+    }
+
+    @Override
+    public void request(McsAddrSpaceMemo memo) {
+        SpaceData d = findSpace(memo.dest, memo.space);
+        if (d == null || d.payload == null) {
+            memo.handleWriteReply(0x1000);
+            return;
+        }
+        memo.handleAddrSpaceData(memo.dest, memo.space, d.payload.length - 1, 0, d
+                .writeEnabled ? 0 : 1, "");
+    }
+
     private static final Logger logger = Logger.getLogger(FakeMemoryConfigurationService.class.getName());
 
 }
@@ -1,18 +1,22 @@
 package org.openlcb.implementations;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
 import net.jcip.annotations.Immutable;
 import net.jcip.annotations.ThreadSafe;
+import org.openlcb.Connection;
 import org.openlcb.FailureCallback;
+import org.openlcb.MessageDecoder;
 import org.openlcb.NoReturnCallback;
 import org.openlcb.NodeID;
+import org.openlcb.OlcbMetrics;
+import org.openlcb.StreamDataCompleteMessage;
+import org.openlcb.StreamDataSendMessage;
+import org.openlcb.StreamInitiateRequestMessage;
+import org.openlcb.TimerService;
 import org.openlcb.Utilities;
 
 /**
@@ -39,6 +43,11 @@ public class MemoryConfigurationService {
     public static final int SPACE_TRACTION_FDI = 0xFA;
     public static final int SPACE_TRACTION_FUNCTION = 0xF9;
 
+    /// Bit in the available commands of the configuration options reply: stream reads.
+    public static final int AVAILABLE_STREAM_READ = 0x0100;
+    /// Largest number of bytes in a datagram read or write.
+    public static final int MAX_DATAGRAM_PAYLOAD = 64;
+
     private static final int SUBCMD_REPLY = 0x10;
     private static final int SUBCMD_ERROR = 0x08;
 
@@ -49,13 +58,27 @@ public class MemoryConfigurationService {
     private final static long TIMEOUT = 3000;
     private long timeoutMillis = TIMEOUT;
     private final static long MAX_TRIES = 3;
+    /// Largest buffer we accept when receiving the stream of a stream read.
+    static final int STREAM_READ_BUFFER_SIZE = 4096;
+    /// Reported to the read handler when a request timed out.
+    private static final int ERROR_TIMEOUT = 0x1000;
 
     /**
      * @param here       our node ID
      * @param downstream Connection in the direction of the layout
      */
     public MemoryConfigurationService(NodeID here, DatagramService downstream) {
-        retryTimer = new Timer("OpenLCB Memory Configuration Service Retry Timer");
+        this(here, downstream, TimerService.getDefault());
+    }
+
+    /**
+     * @param here         our node ID
+     * @param downstream   Connection in the direction of the layout
+     * @param timerService runs the retry timeouts of the requests
+     */
+    public MemoryConfigurationService(NodeID here, DatagramService downstream,
+                                      TimerService timerService) {
+        this.timerService = timerService;
         this.here = here;
         this.downstream = downstream;   
         
@@ -64,17 +87,23 @@ public class MemoryConfigurationService {
                 (DATAGRAM_TYPE) {
             // Process a datagram received here; previous request state part of decoding
             //
-            // does not allow for overlapping operations, either to a single node nor or multiple
-            // types
-            // nor to multiple nodes
-            //
-            // doesn't check for match of reply to memo, but eventually should.
+            // Requests with reply datagrams are matched per source node and request type;
+            // the legacy stream/config/address space memos do not allow for overlapping
+            // operations. They only take the replies of their own command group from their
+            // own node, so that the other replies are not swallowed while they are waiting.
             @Override
             public synchronized void handleData(NodeID dest, int[] data, DatagramService.ReplyMemo
                     service) {
                 //log System.out.println("OLCB: handleData");
                 service.acceptData(0);
-                if (addrSpaceMemo != null) {
+                if ((data[1] & 0x80) == 0 && (data[1] & SUBCMD_REPLY) == 0) {
+                    // A read or write request from another node. This service only handles
+                    // the replies to its own requests; a memory space server may be listening
+                    // to the datagram messages directly.
+                    return;
+                }
+                if (addrSpaceMemo != null && (data[1] & 0xFC) == 0x84 && dest.equals
+                        (addrSpaceMemo.dest)) {
                     // doesn't handle decode of desc string, but should
                     int space = data[2] & 0xFF;
                     long highAddress = (((long) data[3] & 0xFF) << 24) | (((long) data[4] & 0xFF)
@@ -91,7 +120,8 @@ public class MemoryConfigurationService {
                     return;
                 }
                 // config memo may trigger address space read, so do second
-                if (configMemo != null) {
+                if (configMemo != null && (data[1] & 0xFC) == 0x80 && dest.equals(configMemo
+                        .dest)) {
                     // doesn't handle decode of name string, but should
                     int commands = (data[2] << 8) + data[3];
                     int options = data[4];
@@ -142,32 +172,34 @@ public class MemoryConfigurationService {
                 int requestCode = getRequestTypeFromResponseType(data[1]);
                 RequestWithReplyDatagram memo = null;
                 McsRequestMemo rqMemo = null;
-                synchronized (this) {
-                    if (pendingRequests.containsKey(requestCode)) {
-                        rqMemo = pendingRequests.get(requestCode);
-                        if (!rqMemo.getDest().equals(dest)) {
-                            logger.warning("Spurious MemCfg response datagram " + Utilities
-                                    .toHexSpaceString(data)+": expected source " + rqMemo.getDest()
-                                    + " actual source " + dest);
-                            delayRetryMemo(rqMemo);
-                            return;
+                McsRequestMemo retryMemo = null;
+                synchronized (MemoryConfigurationService.this) {
+                    ArrayDeque<McsRequestMemo> pending = pendingRequests.get(new RequestKey(dest,
+                            requestCode));
+                    if (pending != null && !pending.isEmpty()) {
+                        // With pipelining several requests may be outstanding; the node answers
+                        // them in order, but we match on the parameters to be safe.
+                        for (McsRequestMemo m : pending) {
+                            if (m instanceof RequestWithReplyDatagram && ((RequestWithReplyDatagram)
+                                    m).compareResponse(data)) {
+                                rqMemo = m;
+                                break;
+                            }
                         }
-                        if (!(rqMemo instanceof RequestWithReplyDatagram)) {
-                            logger.warning("Spurious MemCfg response datagram " + Utilities.toHexSpaceString(data)+
-                                    ": the request memo does not support response datagrams. " +
-                                    "Memo: " + rqMemo);
-                            delayRetryMemo(rqMemo);
-                            return;
-                        }
-                        memo = (RequestWithReplyDatagram) rqMemo;
-                        if (!memo.compareResponse(data)) {
-                            logger.warning("Unexpected MemCfg response datagram from " + dest
-                                    .toString() + ": " + memo + " payload " + Utilities
-                                    .toHexSpaceString(data));
-                            delayRetryMemo(rqMemo);
-                            return;
+                        if (rqMemo == null) {
+                            rqMemo = pending.peek();
+                            if (!(rqMemo instanceof RequestWithReplyDatagram)) {
+                                logger.warning("Spurious MemCfg response datagram " + Utilities.toHexSpaceString(data)+
+                                        ": the request memo does not support response datagrams. " +
+                                        "Memo: " + rqMemo);
+                            } else {
+                                logger.warning("Unexpected MemCfg response datagram from " + dest
+                                        .toString() + ": " + rqMemo + " payload " + Utilities
+                                        .toHexSpaceString(data));
+                            }
+                            retryMemo = rqMemo;
                         } else {
-                            checkAndPopMemo(rqMemo);
+                            memo = (RequestWithReplyDatagram) rqMemo;
                         }
                     } else {
                         logger.warning("Could not find a matching memo for MemCfg response " +
@@ -175,7 +207,12 @@ public class MemoryConfigurationService {
                                 .toHexSpaceString(data));
                     }
                 }
+                if (retryMemo != null) {
+                    delayRetryMemo(retryMemo);
+                    return;
+                }
                 if (memo != null) {
+                    checkAndPopMemo(rqMemo);
                     rqMemo.foundResponse = true;
                     memo.handleResponseDatagram(data);
                 }
@@ -186,10 +223,28 @@ public class MemoryConfigurationService {
     
     NodeID here;
     DatagramService downstream;
-    private Timer retryTimer;
+    /// Sends the replies to the streams of stream reads; null if stream reads are disabled.
+    private volatile Connection streamOutput = null;
+    /// Stream reads in progress by our stream ID. Must be synchronized(this) for all accesses.
+    private final Map<Integer, StreamRead> streamReads = new HashMap<>();
+    private int nextStreamId = 0;
+    /// Whether the nodes support stream reads; absent if not known yet. Must be
+    /// synchronized(this) for all accesses.
+    private final Map<NodeID, Boolean> streamReadSupport = new HashMap<>();
+    private final TimerService timerService;
+    private volatile boolean disposed = false;
+    private volatile OlcbMetrics metrics = new OlcbMetrics();
 
     public MemoryConfigurationService(MemoryConfigurationService mcs) {
-        this(mcs.here, mcs.downstream);
+        this(mcs.here, mcs.downstream, mcs.timerService);
+    }
+
+    /**
+     * @param metrics where to record the latencies and retries of the requests; usually the
+     *                registry of the interface.
+     */
+    public void setMetrics(OlcbMetrics metrics) {
+        this.metrics = metrics;
     }
 
     public void setTimeoutMillis(long t) {
@@ -202,14 +257,7 @@ public class MemoryConfigurationService {
      * @throws java.lang.InterruptedException if interrupted
      */
     public void waitForTimer() throws InterruptedException {
-        final Semaphore s = new Semaphore(0);
-        retryTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                s.release();
-            }
-        }, 1);
-        s.acquire();
+        timerService.waitForTimer();
     }
 
     private abstract static class McsRequestMemo {
@@ -220,6 +268,10 @@ public class MemoryConfigurationService {
         protected final FailureCallback failureCallback;
         boolean foundResponse = false;
         int numTries = 0;
+        /// When the request was issued, for the latency metric; 0 if not measured.
+        long startNanos = 0;
+        /// Retry timeout; created upon first use and re-armed for each try.
+        TimerService.Task retryTask;
 
         McsRequestMemo(NodeID dest, int requestCode, FailureCallback cb) {
             this.dest = dest;
@@ -231,6 +283,10 @@ public class MemoryConfigurationService {
             return requestCode;
         }
 
+        RequestKey getKey() {
+            return new RequestKey(dest, requestCode);
+        }
+
         protected NodeID getDest() { return dest; }
 
         @Override
@@ -248,6 +304,8 @@ public class MemoryConfigurationService {
          */
         protected abstract int[] renderTransmitDatagram();
 
+        /// Called each time the request datagram is sent, including the retries.
+        void handleSent() {}
     }
 
     /**
@@ -411,39 +469,115 @@ public class MemoryConfigurationService {
         }
     }
 
+    /**
+     * Identifies a queue of requests: requests of the same type to the same node are executed
+     * in order; requests to different nodes or of different types are independent.
+     */
+    static final class RequestKey {
+        final NodeID dest;
+        final int requestCode;
+
+        RequestKey(NodeID dest, int requestCode) {
+            this.dest = dest;
+            this.requestCode = requestCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RequestKey)) return false;
+            RequestKey k = (RequestKey) o;
+            return requestCode == k.requestCode && dest.equals(k.dest);
+        }
+
+        @Override
+        public int hashCode() { return dest.hashCode() * 31 + requestCode; }
+
+        @Override
+        public String toString() {
+            return dest + "/0x" + Integer.toHexString(requestCode);
+        }
+    }
+
     // Holds the memo pointers to all pending operations: datagrams that were sent out and are
-    // waiting a response. Must be synchronized(this) for all accesses.
-    final Map<Integer, McsRequestMemo> pendingRequests = new HashMap<>(5);
-    final Map<Integer, ArrayDeque<McsRequestMemo>> queuedRequests = new HashMap<>(5);
+    // waiting a response, oldest first. Must be synchronized(this) for all accesses.
+    final Map<RequestKey, ArrayDeque<McsRequestMemo>> pendingRequests = new HashMap<>();
+    final Map<RequestKey, ArrayDeque<McsRequestMemo>> queuedRequests = new HashMap<>();
+    /// Per-node limit on outstanding requests of the same type. Nodes not listed use 1.
+    private final Map<NodeID, Integer> pipelineDepth = new HashMap<>();
+
+    /**
+     * Allows more than one request of the same type to be outstanding to a given node. By
+     * default a request to a node is only sent after the previous request of the same type
+     * to that node was completed. Nodes that are known to process requests in order and buffer
+     * the replies can be configured with a larger depth to hide the round-trip latency.
+     *
+     * @param dest  node ID of the remote node
+     * @param depth maximum number of outstanding requests of the same type; 1 disables
+     *              pipelining.
+     */
+    public synchronized void setPipelineDepth(NodeID dest, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Pipeline depth must be at least 1: " + depth);
+        }
+        if (depth == 1) {
+            pipelineDepth.remove(dest);
+        } else {
+            pipelineDepth.put(dest, depth);
+        }
+    }
 
+    private int getPipelineDepth(NodeID dest) {
+        Integer d = pipelineDepth.get(dest);
+        return d == null ? 1 : d;
+    }
+
+    /**
+     * Moves requests from the queue to the pending list as long as the pipeline depth allows.
+     * Must be called with synchronized(this).
+     * @param key the request queue to advance
+     * @param toSend output: the memos that need to be sent now
+     */
+    private void fillPending(RequestKey key, ArrayDeque<McsRequestMemo> toSend) {
+        ArrayDeque<McsRequestMemo> queue = queuedRequests.get(key);
+        ArrayDeque<McsRequestMemo> pending = pendingRequests.get(key);
+        int depth = getPipelineDepth(key.dest);
+        while (queue != null && !queue.isEmpty() && (pending == null || pending.size() < depth)) {
+            if (pending == null) {
+                pending = new ArrayDeque<>();
+                pendingRequests.put(key, pending);
+            }
+            McsRequestMemo memo = queue.poll();
+            pending.add(memo);
+            toSend.add(memo);
+        }
+        if (queue != null && queue.isEmpty()) {
+            queuedRequests.remove(key);
+        }
+    }
 
     /**
-     * Tests if the given memo is in the top memo in pendingRequests for its request type. If so,
-     * pops it.
+     * Tests if the given memo is among the pending requests for its destination and request
+     * type. If so, removes it and sends the next queued request.
      * @param memo the memo to test.
      */
     private void checkAndPopMemo(McsRequestMemo memo) {
-        int rqCode = memo.getRequestCode();
+        RequestKey key = memo.getKey();
+        ArrayDeque<McsRequestMemo> toSend = new ArrayDeque<>();
         synchronized(this) {
-            if (pendingRequests.get(rqCode) == memo) {
-                pendingRequests.remove(memo.getRequestCode());
-                memo = null;
-                if (queuedRequests.containsKey(rqCode)) {
-                    Queue<McsRequestMemo> l = queuedRequests.get(rqCode);
-                    if (!l.isEmpty()) {
-                        memo = l.poll();
-                        pendingRequests.put(rqCode, memo);
-                    }
+            ArrayDeque<McsRequestMemo> pending = pendingRequests.get(key);
+            if (pending != null && pending.remove(memo)) {
+                metrics.memoryConfigRequestDone(memo.startNanos);
+                if (pending.isEmpty()) {
+                    pendingRequests.remove(key);
                 }
+                fillPending(key, toSend);
             } else {
-                logger.warning("Error checking the pending request memo for code " + rqCode + " " +
-                        "expected " + memo.toString() + " actual " +
-                        pendingRequests.get(memo.getRequestCode()));
-                memo = null;
+                logger.warning("Error checking the pending request memo for " + key + " " +
+                        "expected " + memo.toString() + " actual " + pending);
             }
         }
-        if (memo != null) {
-            sendRequest(memo);
+        for (McsRequestMemo m : toSend) {
+            sendRequest(m);
         }
     }
 
@@ -455,7 +589,27 @@ public class MemoryConfigurationService {
      */
     private boolean isBlockingPendingQueue(McsRequestMemo memo) {
         synchronized (this) {
-            return (pendingRequests.get(memo.getRequestCode()) == memo);
+            ArrayDeque<McsRequestMemo> pending = pendingRequests.get(memo.getKey());
+            return pending != null && pending.contains(memo);
+        }
+    }
+
+    /**
+     * Takes back a request that gets no more callbacks: from the pending requests if it was
+     * sent, otherwise from the queue, so that it is never sent.
+     * @param memo the request to withdraw.
+     */
+    private void withdrawMemo(McsRequestMemo memo) {
+        if (isBlockingPendingQueue(memo)) {
+            checkAndPopMemo(memo);
+            return;
+        }
+        synchronized (this) {
+            RequestKey key = memo.getKey();
+            ArrayDeque<McsRequestMemo> queue = queuedRequests.get(key);
+            if (queue != null && queue.remove(memo) && queue.isEmpty()) {
+                queuedRequests.remove(key);
+            }
         }
     }
 
@@ -469,19 +623,26 @@ public class MemoryConfigurationService {
             checkAndPopMemo(memo);
             memo.failureCallback.handleFailure(0x1000);
         }
-        TimerTask tt = new TimerTask() {
-            @Override
-            public void run() {
-                if (memo.foundResponse) return;
-                if (!isBlockingPendingQueue(memo)) return;
-                sendRequest(memo);
-            }
-        };
-        retryTimer.schedule(tt, timeoutMillis);
+        if (disposed) return;
+        if (memo.retryTask == null) {
+            memo.retryTask = new TimerService.Task() {
+                @Override
+                public void run() {
+                    if (disposed) return;
+                    if (memo.foundResponse) return;
+                    if (!isBlockingPendingQueue(memo)) return;
+                    sendRequest(memo);
+                }
+            };
+        }
+        timerService.schedule(memo.retryTask, timeoutMillis);
     }
 
     private void sendRequest(final McsRequestMemo memo) {
-        ++memo.numTries;
+        if (++memo.numTries > 1) {
+            metrics.memoryConfigRetried();
+        }
+        memo.handleSent();
         downstream.sendData(new DatagramService.DatagramServiceTransmitMemo(memo.getDest(), memo.renderTransmitDatagram()) {
             @Override
             public void handleSuccess(int flags) {
@@ -517,19 +678,21 @@ public class MemoryConfigurationService {
     }
 
     public void request(McsRequestMemo memo) {
+        memo.startNanos = metrics.startTimer();
+        RequestKey key = memo.getKey();
+        ArrayDeque<McsRequestMemo> toSend = new ArrayDeque<>();
         synchronized(this) {
-            int rqCode = memo.getRequestCode();
-            if (pendingRequests.containsKey(rqCode)) {
-                if (!queuedRequests.containsKey(rqCode)) {
-                    queuedRequests.put(rqCode, new ArrayDeque<>());
-                }
-                queuedRequests.get(rqCode).add(memo);
-                return;
-            } else {
-                pendingRequests.put(memo.getRequestCode(), memo);
+            ArrayDeque<McsRequestMemo> queue = queuedRequests.get(key);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queuedRequests.put(key, queue);
             }
+            queue.add(memo);
+            fillPending(key, toSend);
+        }
+        for (McsRequestMemo m : toSend) {
+            sendRequest(m);
         }
-        sendRequest(memo);
     }
 
     static class McsWriteMemo extends McsAddressedRequestMemo implements
@@ -642,6 +805,360 @@ public class MemoryConfigurationService {
         request(new McsReadMemo(dest, space, address, len, cb));
     }
 
+    static class McsReadStreamMemo extends McsAddressedRequestMemo {
+        public McsReadStreamMemo(NodeID dest, int space, long address, int len, int
+                destStreamId, NoReturnCallback cb) {
+            super(dest, SUBCMD_READ_STREAM, space, address, cb);
+            this.len = len;
+            this.destStreamId = destStreamId;
+            this.callback = cb;
+        }
+
+        final int len;
+        final int destStreamId;
+        final NoReturnCallback callback;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!super.equals(o)) return false;
+            if (! (o instanceof McsReadStreamMemo)) return false;
+            McsReadStreamMemo m = (McsReadStreamMemo) o;
+            return this.len == m.len && this.destStreamId == m.destStreamId;
+        }
+
+        @Override
+        protected int getPayloadLength() {
+            return 6;
+        }
+
+        @Override
+        protected void fillPayload(int[] data) {
+            int ofs = getPayloadOffset();
+            // The source stream ID is assigned by the remote node.
+            data[ofs] = 0xFF;
+            data[ofs + 1] = destStreamId;
+            DatagramUtils.renderLong(data, ofs + 2, len);
+        }
+
+        @Override
+        public void handleResponseDatagram(int[] data) {
+            if ((data[1] & SUBCMD_ERROR) != 0) {
+                // The error code follows the source and destination stream IDs.
+                int ofs = getPayloadOffset(data);
+                if (data.length >= ofs + 4) ofs += 2;
+                failureCallback.handleFailure(DatagramUtils.parseErrorCode(data, ofs));
+                return;
+            }
+            handleSuccessResponse(data);
+        }
+
+        @Override
+        protected void handleSuccessResponse(int[] data) {
+            callback.handleSuccess();
+        }
+    }
+
+    /**
+     * Enables stream reads in {@link #requestBulkRead}. The listener returned by {@link
+     * #getStreamInputConnection()} must also be registered for the incoming stream messages.
+     *
+     * @param output where to send the stream replies, usually the output connection of the
+     *               interface.
+     */
+    public void setStreamConnection(Connection output) {
+        streamOutput = output;
+    }
+
+    /**
+     * @return the listener for the Stream Initiate Request, Stream Data Send and Stream Data
+     * Complete messages addressed to us.
+     */
+    public Connection getStreamInputConnection() {
+        return streamInput;
+    }
+
+    /**
+     * Overrides whether stream reads are tried for a node, e.g. from its configuration options.
+     * By default they are tried until the node rejects one. A successful stream read sets this
+     * to true.
+     *
+     * @param dest      remote node
+     * @param supported false to read only with datagrams from this node
+     */
+    public synchronized void setStreamReadSupported(NodeID dest, boolean supported) {
+        streamReadSupport.put(dest, supported);
+    }
+
+    /**
+     * @param dest remote node
+     * @return true if {@link #requestBulkRead} would try a stream read from this node.
+     */
+    public synchronized boolean isStreamReadAllowed(NodeID dest) {
+        if (streamOutput == null) return false;
+        Boolean supported = streamReadSupport.get(dest);
+        return supported == null || supported;
+    }
+
+    /**
+     * @param dest remote node
+     * @return true if stream reads are enabled and the remote node is known to support them,
+     * from its configuration options or from an earlier stream read.
+     */
+    public synchronized boolean isStreamReadSupported(NodeID dest) {
+        return streamOutput != null && Boolean.TRUE.equals(streamReadSupport.get(dest));
+    }
+
+    /**
+     * Reads a block of any length. Uses a stream read if streams are enabled and the remote
+     * node does not reject them; otherwise, or if the stream read fails, reads with one datagram
+     * per 64 bytes.
+     *
+     * @param dest    remote node
+     * @param space   address space
+     * @param address address of the first byte
+     * @param len     number of bytes to read
+     * @param cb      called once with all the data; the data is shorter than len if the end of
+     *                the space was reached.
+     */
+    public void requestBulkRead(NodeID dest, int space, long address, int len, McsReadHandler
+            cb) {
+        if (len <= MAX_DATAGRAM_PAYLOAD) {
+            requestRead(dest, space, address, len, cb);
+        } else if (isStreamReadAllowed(dest)) {
+            new StreamRead(dest, space, address, len, cb).start();
+        } else {
+            readWithDatagrams(dest, space, address, len, cb);
+        }
+    }
+
+    private void readWithDatagrams(final NodeID dest, final int space, final long address,
+                                   final int len, final McsReadHandler cb) {
+        class DatagramRead implements McsReadHandler {
+            final byte[] buf = new byte[len];
+            int received = 0;
+            int requested;
+
+            void next() {
+                requested = Math.min(MAX_DATAGRAM_PAYLOAD, len - received);
+                requestRead(dest, space, address + received, requested, this);
+            }
+
+            @Override
+            public void handleReadData(NodeID d, int s, long a, byte[] data) {
+                int n = Math.min(data.length, len - received);
+                System.arraycopy(data, 0, buf, received, n);
+                received += n;
+                if (n < requested || received >= len) {
+                    // A short read means the end of the space.
+                    cb.handleReadData(dest, space, address, Arrays.copyOf(buf, received));
+                } else {
+                    next();
+                }
+            }
+
+            @Override
+            public void handleFailure(int errorCode) {
+                if (received > 0) {
+                    // Reading past the end of the space.
+                    cb.handleReadData(dest, space, address, Arrays.copyOf(buf, received));
+                } else {
+                    cb.handleFailure(errorCode);
+                }
+            }
+        }
+        new DatagramRead().next();
+    }
+
+    /**
+     * Picks a stream ID for an incoming stream. Must be called with synchronized(this).
+     * @return a stream ID that is not used by another stream read.
+     */
+    private int allocateStreamId() {
+        do {
+            nextStreamId = nextStreamId % 0xFE + 1;
+        } while (streamReads.containsKey(nextStreamId));
+        return nextStreamId;
+    }
+
+    /**
+     * A read with a stream: the read stream request datagram, and the stream the remote node
+     * opens to us. The reply datagram and the end of the stream can arrive in either order.
+     * If anything fails, the block is read again with datagrams.
+     * <p>
+     * The watchdog is armed when the request datagram is sent, not when it is queued behind
+     * other requests to the same node, and re-armed by each data message.
+     */
+    private class StreamRead extends TimerService.Task implements StreamReceiver.DataSink,
+            NoReturnCallback {
+        final NodeID dest;
+        final int space;
+        final long address;
+        final int len;
+        final McsReadHandler handler;
+        final byte[] buf;
+        int received = 0;
+        int streamId;
+        StreamReceiver receiver;
+        McsReadStreamMemo memo;
+        boolean replied = false;
+        boolean streamComplete = false;
+        boolean done = false;
+
+        StreamRead(NodeID dest, int space, long address, int len, McsReadHandler handler) {
+            this.dest = dest;
+            this.space = space;
+            this.address = address;
+            this.len = len;
+            this.handler = handler;
+            this.buf = new byte[len];
+        }
+
+        void start() {
+            synchronized (MemoryConfigurationService.this) {
+                streamId = allocateStreamId();
+                streamReads.put(streamId, this);
+            }
+            receiver = new StreamReceiver(here, dest, (byte) streamId, STREAM_READ_BUFFER_SIZE,
+                    streamOutput, this);
+            memo = new McsReadStreamMemo(dest, space, address, len, streamId, this) {
+                @Override
+                void handleSent() {
+                    armWatchdog();
+                }
+            };
+            request(memo);
+        }
+
+        private synchronized void armWatchdog() {
+            if (!done) {
+                timerService.schedule(this, timeoutMillis);
+            }
+        }
+
+        @Override
+        public synchronized void handleData(int[] data) {
+            int n = Math.min(data.length, len - received);
+            for (int i = 0; i < n; i++) {
+                buf[received + i] = (byte) data[i];
+            }
+            received += n;
+            armWatchdog();
+        }
+
+        @Override
+        public void handleComplete() {
+            synchronized (this) {
+                streamComplete = true;
+            }
+            maybeFinish();
+        }
+
+        @Override
+        public void handleSuccess() {
+            synchronized (this) {
+                replied = true;
+            }
+            maybeFinish();
+        }
+
+        @Override
+        public void handleFailure(int errorCode) {
+            // Not implemented: the remote node does not know the command.
+            abort(errorCode, (errorCode & 0xFFF0) == 0x1040);
+        }
+
+        /// Watchdog: no progress in the timeout. A timeout does not tell whether the node
+        /// supports stream reads, so streams are still tried next time.
+        @Override
+        public void run() {
+            withdrawMemo(memo);
+            abort(ERROR_TIMEOUT, false);
+        }
+
+        /// @return true if the read was not finished before.
+        private boolean finish() {
+            synchronized (this) {
+                if (done) return false;
+                done = true;
+            }
+            cancel();
+            synchronized (MemoryConfigurationService.this) {
+                streamReads.remove(streamId);
+            }
+            return true;
+        }
+
+        private void maybeFinish() {
+            synchronized (this) {
+                if (!replied || !streamComplete) return;
+            }
+            if (!finish()) return;
+            setStreamReadSupported(dest, true);
+            byte[] data;
+            synchronized (this) {
+                data = Arrays.copyOf(buf, received);
+            }
+            handler.handleReadData(dest, space, address, data);
+        }
+
+        private void abort(int errorCode, boolean unsupported) {
+            if (!finish()) return;
+            logger.info("Stream read from " + dest + " failed with error 0x" + Integer
+                    .toHexString(errorCode) + "; reading with datagrams.");
+            if (unsupported) {
+                setStreamReadSupported(dest, false);
+            }
+            readWithDatagrams(dest, space, address, len, handler);
+        }
+    }
+
+    /// Routes the incoming stream messages to the stream reads by our stream ID.
+    private final MessageDecoder streamInput = new MessageDecoder() {
+        @Override
+        public void handleStreamInitiateRequest(StreamInitiateRequestMessage msg, Connection
+                sender) {
+            if (!here.equals(msg.getDestNodeID())) return;
+            StreamRead r = findStreamRead(msg.getDestinationStreamID() & 0xFF);
+            if (r == null || !r.dest.equals(msg.getSourceNodeID())) {
+                // The remote node did not take our stream ID from the request.
+                r = findWaitingStreamRead(msg.getSourceNodeID());
+            }
+            if (r != null) {
+                r.receiver.put(msg, sender);
+            }
+        }
+
+        @Override
+        public void handleStreamDataSend(StreamDataSendMessage msg, Connection sender) {
+            if (!here.equals(msg.getDestNodeID())) return;
+            StreamRead r = findStreamRead(msg.getDestinationStreamID() & 0xFF);
+            if (r != null) {
+                r.receiver.put(msg, sender);
+            }
+        }
+
+        @Override
+        public void handleStreamDataComplete(StreamDataCompleteMessage msg, Connection sender) {
+            if (!here.equals(msg.getDestNodeID())) return;
+            StreamRead r = findStreamRead(msg.getDestinationStreamID() & 0xFF);
+            if (r != null) {
+                r.receiver.put(msg, sender);
+            }
+        }
+    };
+
+    private synchronized StreamRead findStreamRead(int streamId) {
+        return streamReads.get(streamId);
+    }
+
+    /// @return a stream read from the given node whose stream was not initiated yet.
+    private synchronized StreamRead findWaitingStreamRead(NodeID source) {
+        for (StreamRead r : streamReads.values()) {
+            if (r.dest.equals(source) && r.receiver.getBufferSize() == 0) return r;
+        }
+        return null;
+    }
+
 
 /*    McsReadMemo readMemo;
     Stack<McsReadMemo> pendingReads = new Stack<>();
@@ -924,7 +1441,7 @@ public class MemoryConfigurationService {
 
     @Immutable
     @ThreadSafe    
-    static public class AddrSpaceDatagramMemo extends DatagramService.DatagramServiceTransmitMemo {
+    public class AddrSpaceDatagramMemo extends DatagramService.DatagramServiceTransmitMemo {
         AddrSpaceDatagramMemo(NodeID dest, McsAddrSpaceMemo memo) {
             super(dest);
             this.data = new int[3];
@@ -942,7 +1459,8 @@ public class MemoryConfigurationService {
 
         @Override
         public void handleFailure(int errorCode) {
-
+            checkAndPopAddrspaceMemo(memo);
+            memo.handleWriteReply(errorCode);
         }
 
         public void handleReply(int code) {
@@ -954,6 +1472,6 @@ public class MemoryConfigurationService {
 
 
     public void dispose(){
-       retryTimer.cancel();
+       disposed = true;
     }
 }
@@ -3,35 +3,97 @@ package org.openlcb.implementations;
 import org.openlcb.*;
 
 /**
- * Example of receiving a OpenLCB stream.
- *<p>
+ * Receives an OpenLCB stream from one remote node.
+ * <p>
+ * Accepts the stream initiation with the smaller of the proposed buffer size and our maximum,
+ * then sends a Stream Data Proceed each time a full buffer of data arrived (windowed flow
+ * control). The data is handed to a {@link DataSink} as it arrives.
  *
  * @author  Bob Jacobsen   Copyright 2009
  * @version $Revision$
  */
 public class StreamReceiver extends MessageDecoder {
+    /// Largest buffer size that fits the stream initiation messages.
+    public static final int MAX_BUFFER_SIZE = 0xFFFF;
+
+    /**
+     * Consumer of the received stream data.
+     */
+    public interface DataSink {
+        /**
+         * @param data the next bytes of the stream, each 0..255
+         */
+        void handleData(int[] data);
+
+        /**
+         * Called when the sender reported the end of the stream.
+         */
+        void handleComplete();
+    }
+
     public StreamReceiver(NodeID here, NodeID far, Connection c) {
+        this(here, far, (byte) 3, MAX_BUFFER_SIZE, c, null);  //  notional stream ID
+    }
+
+    /**
+     * @param here          our node ID
+     * @param far           node ID of the stream source
+     * @param destStreamID  our stream ID
+     * @param maxBufferSize largest buffer size we accept
+     * @param c             connection to send the replies to
+     * @param sink          receives the data; may be null
+     */
+    public StreamReceiver(NodeID here, NodeID far, byte destStreamID, int maxBufferSize,
+                          Connection c, DataSink sink) {
         this.here = here;
         this.far = far;
+        this.destStreamID = destStreamID;
+        this.maxBufferSize = maxBufferSize;
         this.connection = c;
+        this.sink = sink;
     }
-    
+
     NodeID here;
     NodeID far;
     Connection connection;
+    final DataSink sink;
+    final int maxBufferSize;
 
     byte sourceStreamID;
-    byte destStreamID = 3;  //  notional value
+    byte destStreamID;
+    /// Negotiated buffer size; 0 until the stream is initiated.
+    int bufferSize = 0;
+    /// Bytes received since the last proceed message.
+    int windowReceived = 0;
+    long totalReceived = 0;
+    boolean complete = false;
+
+    /**
+     * @return the negotiated buffer size, or 0 if the stream was not initiated yet.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public long getBytesReceived() {
+        return totalReceived;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
 
     /**
      * Handle "Stream Init Request" message
      */
     public void handleStreamInitiateRequest(StreamInitiateRequestMessage msg, Connection sender){
-        // send reply with same length
-        int len = msg.getBufferSize();
+        if (!far.equals(msg.getSourceNodeID())) return;
+        bufferSize = Math.max(1, Math.min(msg.getBufferSize(), maxBufferSize));
         sourceStreamID = msg.getSourceStreamID();
+        windowReceived = 0;
 
-        Message m = new StreamInitiateReplyMessage(here, far, len, sourceStreamID, destStreamID);
+        Message m = new StreamInitiateReplyMessage(here, far, bufferSize, sourceStreamID,
+                destStreamID);
         connection.put(m, this);
     }
 
@@ -39,9 +101,34 @@ public class StreamReceiver extends MessageDecoder {
      * Handle "Stream Data Send" message
      */
     public void handleStreamDataSend(StreamDataSendMessage msg, Connection sender){
-        // send proceed reply
-        Message m = new StreamDataProceedMessage(here, far, sourceStreamID, destStreamID);
-        connection.put(m, this);
+        if (!far.equals(msg.getSourceNodeID()) || msg.getDestinationStreamID() != destStreamID
+                || bufferSize == 0) {
+            return;
+        }
+        int[] data = msg.getData();
+        totalReceived += data.length;
+        windowReceived += data.length;
+        if (sink != null) {
+            sink.handleData(data);
+        }
+        if (windowReceived >= bufferSize) {
+            windowReceived -= bufferSize;
+            Message m = new StreamDataProceedMessage(here, far, sourceStreamID, destStreamID);
+            connection.put(m, this);
+        }
     }
 
+    /**
+     * Handle "Stream Data Complete" message
+     */
+    public void handleStreamDataComplete(StreamDataCompleteMessage msg, Connection sender){
+        if (!far.equals(msg.getSourceNodeID()) || msg.getDestinationStreamID() != destStreamID
+                || complete) {
+            return;
+        }
+        complete = true;
+        if (sink != null) {
+            sink.handleComplete();
+        }
+    }
 }
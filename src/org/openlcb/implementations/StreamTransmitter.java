@@ -16,17 +16,31 @@ import org.openlcb.*;
 public class StreamTransmitter extends MessageDecoder {
 
     public StreamTransmitter(NodeID here, NodeID far, int bufferSize, int[] bytes, Connection c) {
+        this(here, far, bufferSize, bytes, (byte) 4, (byte) 0, c);  // notional values
+    }
+
+    /**
+     * Starts sending a stream.
+     *
+     * @param here           our node ID
+     * @param far            node ID of the stream destination
+     * @param bufferSize     proposed buffer size
+     * @param bytes          the data to send, each 0..255
+     * @param sourceStreamID our stream ID
+     * @param destStreamID   proposed stream ID of the destination, e.g. the one given in a read
+     *                       stream request; 0 if not known
+     * @param c              connection to send the messages to
+     */
+    public StreamTransmitter(NodeID here, NodeID far, int bufferSize, int[] bytes, byte
+            sourceStreamID, byte destStreamID, Connection c) {
         //System.out.println("StreamTransmitter");
         this.here = here;
         this.far = far;
         this.bufferSize = bufferSize;
         this.bytes = bytes;
         this.connection = c;
-        
-        // We need to set destStreamID before we set it,  Not setting it is
-        // a high priorty error identified by spotbugs.  The value here may 
-        // not be right, but we don't have a value passed to this method.
-        destStreamID = 0;
+        this.sourceStreamID = sourceStreamID;
+        this.destStreamID = destStreamID;
 
         // start negotiation
         StreamInitiateRequestMessage m = new StreamInitiateRequestMessage(here, far, bufferSize, sourceStreamID, destStreamID);
@@ -41,13 +55,22 @@ public class StreamTransmitter extends MessageDecoder {
     int nextIndex;
     
     byte destStreamID;
-    byte sourceStreamID = 4;  // notional value
+    byte sourceStreamID;
+    boolean complete = false;
+
+    /**
+     * @return true when all data was sent.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
     
     /**
      * Handle "Stream Init Reply" message
      */
     public void handleStreamInitiateReply(StreamInitiateReplyMessage msg, Connection sender){
         //System.out.println("StreamTransmitter handleStreamInitiateReply");
+        if (!isReply(msg.getSourceNodeID(), msg.getSourceStreamID())) return;
         // pick up buffer size to use
         this.bufferSize = msg.getBufferSize();
         this.destStreamID = msg.getDestinationStreamID();
@@ -76,15 +99,22 @@ public class StreamTransmitter extends MessageDecoder {
         if (nextIndex < bytes.length) return; // no, wait for Data Proceed message
         
         // yes, say we're done
+        complete = true;
         m = new StreamDataCompleteMessage(here, far, sourceStreamID, destStreamID);
         connection.put(m, this);
     }
+
+    /// @return true if a message with these IDs belongs to this stream.
+    private boolean isReply(NodeID source, byte streamID) {
+        return far.equals(source) && streamID == sourceStreamID;
+    }
     
     /**
      * Handle "Stream Data Proceed" message
      */
     public void handleStreamDataProceed(StreamDataProceedMessage msg, Connection sender){
         //System.out.println("StreamTransmitter handleStreamDataProceed");
+        if (!isReply(msg.getSourceNodeID(), msg.getSourceStreamID()) || complete) return;
         sendNext();
     }
     
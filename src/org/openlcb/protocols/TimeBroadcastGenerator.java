@@ -13,12 +13,11 @@ import org.openlcb.OlcbInterface;
 import org.openlcb.ProducerConsumerEventReportMessage;
 import org.openlcb.ProducerIdentifiedMessage;
 import org.openlcb.ProducerRangeIdentifiedMessage;
+import org.openlcb.TimerService;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.TimeZone;
-import java.util.TimerTask;
 
 import static org.openlcb.MessageTypeIdentifier.ConsumerRangeIdentified;
 import static org.openlcb.MessageTypeIdentifier.ProducerConsumerEventReport;
@@ -34,7 +33,17 @@ import static org.openlcb.MessageTypeIdentifier.ProducerRangeIdentified;
 public class TimeBroadcastGenerator extends DefaultPropertyListenerSupport implements TimeProtocol {
 
     public TimeBroadcastGenerator(OlcbInterface iface, NodeID clock) {
+        this(iface, clock, iface.getTimerService());
+    }
+
+    /**
+     * @param iface        interface to send and receive the clock events on
+     * @param clock        identifier of the clock being generated
+     * @param timerService runs the re-synchronization and date rollover timers
+     */
+    public TimeBroadcastGenerator(OlcbInterface iface, NodeID clock, TimerService timerService) {
         this.clock = clock;
+        this.timerService = timerService;
         this.timeKeeper = new TimeKeeper();
         this.fastDayLastAnnounced = timeKeeper.matchingFastTime;
         this.iface = iface;
@@ -55,6 +64,11 @@ public class TimeBroadcastGenerator extends DefaultPropertyListenerSupport imple
         if (delayedSyncTask != null) {
             delayedSyncTask.cancel();
         }
+        if (midnightTask != null) {
+            midnightTask.cancel();
+            midnightTask = null;
+            midnightScheduledTime = 0;
+        }
         iface.unRegisterMessageListener(messageHandler);
     }
 
@@ -152,20 +166,9 @@ public class TimeBroadcastGenerator extends DefaultPropertyListenerSupport imple
     }
 
     private synchronized void triggerClockSyncIn3Sec() {
-        if (delayedSyncTask != null) {
-            delayedSyncTask.cancel();
-            delayedSyncTask = null;
-        }
-        delayedSyncTask = new TimerTask() {
-            @Override
-            public void run() {
-                synchronized(TimeBroadcastGenerator.this) {
-                    delayedSyncTask = null;
-                }
-                triggerClockSyncNow();
-            }
-        };
-        iface.getTimer().schedule(delayedSyncTask, RESYNC_DELAY_MSEC);
+        // Re-arming an already scheduled sync moves it later.
+        delayedSyncTask = syncTask;
+        timerService.schedule(syncTask, RESYNC_DELAY_MSEC);
         // @todo.
     }
 
@@ -194,14 +197,25 @@ public class TimeBroadcastGenerator extends DefaultPropertyListenerSupport imple
     private TimeZone timeZone = TimeZone.getDefault();
     /// Interface we are registered to.
     private final OlcbInterface iface;
+    private final TimerService timerService;
     /// Stores the prefix of the event ID that represents our clock.
     private final NodeID clock;
     /// Internal implementation for the current (fast) time.
     TimeKeeper timeKeeper;
     /// Timer task used for delaying a sync.
-    TimerTask delayedSyncTask = null;
+    private final TimerService.Task syncTask = new TimerService.Task() {
+        @Override
+        public void run() {
+            synchronized(TimeBroadcastGenerator.this) {
+                delayedSyncTask = null;
+            }
+            triggerClockSyncNow();
+        }
+    };
+    /// Set to syncTask while a delayed sync is pending.
+    TimerService.Task delayedSyncTask = null;
     /// Timer task used to announce midnight
-    private TimerTask midnightTask = null;
+    private TimerService.Task midnightTask = null;
     /// Real-time at which the current midnight task is scheduled.
     private long midnightScheduledTime = 0;
     /// Current day (by fast time) for the purpose of midnight announcements. This changes exactly
@@ -281,14 +295,15 @@ public class TimeBroadcastGenerator extends DefaultPropertyListenerSupport imple
         }
         midnightScheduledTime = 0;
         if (desiredTime == 0) return;
-        midnightTask = new TimerTask() {
+        midnightTask = new TimerService.Task() {
             @Override
             public void run() {
                 announceMidnight(this);
             }
         };
         midnightScheduledTime = desiredTime;
-        iface.getTimer().schedule(midnightTask, new Date(midnightScheduledTime));
+        timerService.schedule(midnightTask, Math.max(0, midnightScheduledTime -
+                timeKeeper.currentTimeMillis()));
     }
 
     /// Updates internal state and property change listeners. Does not talk to the bus.
@@ -305,7 +320,7 @@ public class TimeBroadcastGenerator extends DefaultPropertyListenerSupport imple
         firePropertyChange(TimeProtocol.PROP_TIME_UPDATE, oldTime, newTime);
     }
 
-    private synchronized void announceMidnight(TimerTask self) {
+    private synchronized void announceMidnight(TimerService.Task self) {
         // We only run if the midnight task has not been changed from us. This is the
         // lock-protected synchronization we do to avoid outdated midnight tasks from executing.
         if (!timeKeeper.isRunning || midnightTask != self) {
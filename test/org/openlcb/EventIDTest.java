@@ -146,4 +146,22 @@ public class EventIDTest {
         Assert.assertEquals(-2L, new EventID(new byte[]{(byte)0xff,(byte)0xff,(byte)0xff,(byte)0xff,
                 (byte)0xff,(byte)0xff,(byte)0xff,(byte)0xfe}).toLong());
     }
+
+    @Test
+    public void testLongCtor() {
+        EventID e1 = new EventID(new byte[]{0,0,1,0x10,0x13,0x0D,(byte)0xD0,(byte)0xAB});
+        Assert.assertEquals(e1, new EventID(e1.toLong()));
+        Assert.assertEquals(-2L, new EventID(-2L).toLong());
+    }
+
+    @Test
+    public void testHashSpreadsEventsOfOneNode() {
+        NodeID node = new NodeID(new byte[]{5,1,1,1,3,0});
+        java.util.Set<Integer> buckets = new java.util.HashSet<>();
+        for (int i = 0; i < 1024; i++) {
+            buckets.add(new EventID(node, i >> 8, i).hashCode() & 1023);
+        }
+        // A random hash fills about 63% of the buckets.
+        Assert.assertTrue("buckets " + buckets.size(), buckets.size() > 550);
+    }
 }
@@ -15,4 +15,15 @@ public class FakeOlcbInterface extends OlcbInterface {
         super(new NodeID(new byte[]{1,2,0,0,1,1}), mock(Connection.class));
         mockOutputConnection = internalOutputConnection;
     }
+
+    /**
+     * Creates a testing interface with the given timer service, e.g. a virtual one.
+     *
+     * @param timerService schedules the timeouts of the interface
+     */
+    public FakeOlcbInterface(TimerService timerService) {
+        super(new NodeID(new byte[]{1,2,0,0,1,1}), mock(Connection.class), OlcbExecutors
+                .newThreadPool(), timerService);
+        mockOutputConnection = internalOutputConnection;
+    }
 }
@@ -0,0 +1,57 @@
+package org.openlcb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongHashMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        LongHashMap<String> m = new LongHashMap<>();
+        Assert.assertNull(m.get(0));
+        Assert.assertNull(m.put(0, "zero"));
+        Assert.assertNull(m.put(-1, "minus one"));
+        Assert.assertEquals("zero", m.put(0, "null"));
+        Assert.assertEquals("null", m.get(0));
+        Assert.assertEquals("minus one", m.get(-1));
+        Assert.assertTrue(m.containsKey(-1));
+        Assert.assertFalse(m.containsKey(1));
+        Assert.assertEquals(2, m.size());
+        Assert.assertEquals("minus one", m.remove(-1));
+        Assert.assertNull(m.remove(-1));
+        Assert.assertEquals(1, m.size());
+        m.clear();
+        Assert.assertTrue(m.isEmpty());
+        Assert.assertNull(m.get(0));
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        LongHashMap<Long> m = new LongHashMap<>();
+        Map<Long, Long> ref = new HashMap<>();
+        Random r = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            // small key space so that there are many collisions and removals
+            long k = 0x0501010100000000L + r.nextInt(5000);
+            if (r.nextInt(3) == 0) {
+                Assert.assertEquals(ref.remove(k), m.remove(k));
+            } else {
+                Assert.assertEquals(ref.put(k, (long) i), m.put(k, (long) i));
+            }
+        }
+        Assert.assertEquals(ref.size(), m.size());
+        int count = 0;
+        for (Long v : m.values()) {
+            ++count;
+            Assert.assertTrue(ref.containsValue(v));
+        }
+        Assert.assertEquals(ref.size(), count);
+        for (Map.Entry<Long, Long> e : ref.entrySet()) {
+            Assert.assertEquals(e.getValue(), m.get(e.getKey()));
+        }
+    }
+}
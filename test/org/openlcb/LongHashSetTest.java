@@ -0,0 +1,48 @@
+package org.openlcb;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongHashSetTest {
+
+    @Test
+    public void testAddRemove() {
+        LongHashSet s = new LongHashSet();
+        Assert.assertFalse(s.contains(0));
+        Assert.assertTrue(s.add(0));
+        Assert.assertFalse(s.add(0));
+        Assert.assertTrue(s.add(Long.MIN_VALUE));
+        Assert.assertTrue(s.contains(0));
+        Assert.assertTrue(s.contains(Long.MIN_VALUE));
+        Assert.assertEquals(2, s.size());
+        Assert.assertTrue(s.remove(0));
+        Assert.assertFalse(s.remove(0));
+        Assert.assertFalse(s.contains(0));
+        s.clear();
+        Assert.assertTrue(s.isEmpty());
+    }
+
+    @Test
+    public void testAgainstHashSet() {
+        LongHashSet s = new LongHashSet();
+        Set<Long> ref = new HashSet<>();
+        Random r = new Random(7);
+        for (int i = 0; i < 200000; i++) {
+            long k = 0x0501010100000000L + r.nextInt(5000);
+            if (r.nextInt(3) == 0) {
+                Assert.assertEquals(ref.remove(k), s.remove(k));
+            } else {
+                Assert.assertEquals(ref.add(k), s.add(k));
+            }
+        }
+        Assert.assertEquals(ref.size(), s.size());
+        for (int k = 0; k < 5000; k++) {
+            long key = 0x0501010100000000L + k;
+            Assert.assertEquals(ref.contains(key), s.contains(key));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.openlcb;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageRingBufferTest {
+    NodeID src = new NodeID(new byte[]{1, 2, 3, 4, 5, 6});
+    Message[] batch = new Message[16];
+    Connection[] senders = new Connection[16];
+
+    Message verify(int i) {
+        return new VerifyNodeIDNumberMessage(src, new NodeID(new byte[]{0, 0, 0, 0, 0, (byte) i}));
+    }
+
+    Message event(int i) {
+        return new ProducerConsumerEventReportMessage(src, new EventID(new byte[]{1, 0, 0, 0, 0,
+                0, 0, (byte) i}));
+    }
+
+    @Test
+    public void testFifoAndWrap() throws Exception {
+        MessageRingBuffer b = new MessageRingBuffer(4, MessageRingBuffer.OverflowPolicy.BLOCK);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 3; i++) {
+                b.put(verify(round * 3 + i), null);
+            }
+            Assert.assertEquals(3, b.getDepth());
+            Assert.assertEquals(3, b.take(batch, senders));
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(verify(round * 3 + i), batch[i]);
+            }
+            b.batchDone();
+        }
+        Assert.assertEquals(0, b.getDepth());
+        Assert.assertEquals(3, b.getMaxDepth());
+    }
+
+    @Test
+    public void testTakeLimitedByBatchSize() throws Exception {
+        MessageRingBuffer b = new MessageRingBuffer(8, MessageRingBuffer.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 5; i++) {
+            b.put(verify(i), null);
+        }
+        Message[] small = new Message[2];
+        Assert.assertEquals(2, b.take(small, new Connection[2]));
+        Assert.assertEquals(verify(1), small[1]);
+        Assert.assertEquals(3, b.getDepth());
+    }
+
+    @Test
+    public void testPollDoesNotBlock() throws Exception {
+        MessageRingBuffer b = new MessageRingBuffer(4, MessageRingBuffer.OverflowPolicy.BLOCK);
+        Assert.assertEquals(0, b.poll(batch, senders));
+        b.put(verify(0), null);
+        Assert.assertEquals(1, b.poll(batch, senders));
+        Assert.assertEquals(verify(0), batch[0]);
+        Assert.assertEquals(0, b.poll(batch, senders));
+    }
+
+    @Test
+    public void testGrow() throws Exception {
+        MessageRingBuffer b = new MessageRingBuffer(4, MessageRingBuffer.OverflowPolicy.GROW);
+        // Wraps the ring before it grows.
+        b.put(verify(0), null);
+        b.put(verify(1), null);
+        Assert.assertEquals(2, b.take(batch, senders));
+        for (int i = 0; i < 10; i++) {
+            b.put(verify(i), null);
+        }
+        Assert.assertEquals(16, b.getCapacity());
+        Assert.assertEquals(10, b.getDepth());
+        Assert.assertEquals(0, b.getBlockedCount());
+        Assert.assertEquals(10, b.take(batch, senders));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(verify(i), batch[i]);
+        }
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        MessageRingBuffer b = new MessageRingBuffer(2, MessageRingBuffer.OverflowPolicy.FAIL_FAST);
+        b.put(verify(0), null);
+        b.put(verify(1), null);
+        try {
+            b.put(verify(2), null);
+            Assert.fail("expected exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(1, b.getRejectedCount());
+        Assert.assertEquals(2, b.getDepth());
+    }
+
+    @Test
+    public void testDropOldestEventReport() throws Exception {
+        MessageRingBuffer b = new MessageRingBuffer(4,
+                MessageRingBuffer.OverflowPolicy.DROP_OLDEST_EVENT_REPORT);
+        b.put(verify(0), null);
+        b.put(event(1), null);
+        b.put(verify(2), null);
+        b.put(event(3), null);
+        b.put(verify(4), null);
+        Assert.assertEquals(1, b.getDroppedCount());
+        Assert.assertEquals(4, b.take(batch, senders));
+        Assert.assertEquals(verify(0), batch[0]);
+        Assert.assertEquals(verify(2), batch[1]);
+        Assert.assertEquals(event(3), batch[2]);
+        Assert.assertEquals(verify(4), batch[3]);
+    }
+
+    @Test
+    public void testDropOldestKeepsOverflowOrder() throws Exception {
+        MessageRingBuffer b = new MessageRingBuffer(4, MessageRingBuffer.OverflowPolicy
+                .DROP_OLDEST_EVENT_REPORT);
+        Message[] expected = new Message[]{event(1), event(2), event(3), verify(4), verify(5),
+                verify(6)};
+        // The delivering thread fills the ring and the overflow list.
+        b.setDeliveryThread(Thread.currentThread());
+        b.put(event(0), null);
+        for (int i = 0; i < 5; i++) {
+            b.put(expected[i], null);
+        }
+        b.setDeliveryThread(null);
+        // Another producer; drops event(0) but stays behind the overflow.
+        b.put(expected[5], null);
+        Assert.assertEquals(1, b.getDroppedCount());
+        Assert.assertEquals(6, b.getDepth());
+        int k = 0;
+        int n;
+        while ((n = b.poll(batch, senders)) > 0) {
+            for (int i = 0; i < n; i++) {
+                Assert.assertSame(expected[k++], batch[i]);
+            }
+        }
+        Assert.assertEquals(expected.length, k);
+    }
+
+    @Test(timeout = 10000)
+    public void testAbandon() throws Exception {
+        MessageRingBuffer b = new MessageRingBuffer(4, MessageRingBuffer.OverflowPolicy.BLOCK);
+        b.put(verify(0), null);
+        b.abandon();
+        b.awaitIdle();
+        Assert.assertEquals(0, b.getDepth());
+        // Messages put later are dropped.
+        b.put(verify(1), null);
+        Assert.assertEquals(0, b.getDepth());
+        b.awaitIdle();
+    }
+
+    @Test
+    public void testBlockUntilTaken() throws Exception {
+        final MessageRingBuffer b = new MessageRingBuffer(1,
+                MessageRingBuffer.OverflowPolicy.BLOCK);
+        b.put(verify(0), null);
+        final Semaphore done = new Semaphore(0);
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                b.put(verify(1), null);
+                done.release();
+            }
+        };
+        t.start();
+        Assert.assertFalse(done.tryAcquire(50, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, b.take(batch, senders));
+        Assert.assertTrue(done.tryAcquire(5, TimeUnit.SECONDS));
+        t.join();
+        Assert.assertEquals(1, b.getBlockedCount());
+        Assert.assertTrue(b.getBlockedNanos() > 0);
+        Assert.assertEquals(1, b.take(batch, senders));
+        Assert.assertEquals(verify(1), batch[0]);
+    }
+
+    @Test
+    public void testDeliveryThreadNeverBlocks() throws Exception {
+        MessageRingBuffer b = new MessageRingBuffer(1, MessageRingBuffer.OverflowPolicy.BLOCK);
+        b.put(verify(0), null);
+        b.setDeliveryThread(Thread.currentThread());
+        b.put(verify(1), null);
+        b.setDeliveryThread(null);
+        Assert.assertEquals(2, b.getDepth());
+        Assert.assertEquals(1, b.take(batch, senders));
+        Assert.assertEquals(verify(0), batch[0]);
+        Assert.assertEquals(1, b.take(batch, senders));
+        Assert.assertEquals(verify(1), batch[0]);
+    }
+
+    @Test
+    public void testIdle() throws Exception {
+        MessageRingBuffer b = new MessageRingBuffer(4, MessageRingBuffer.OverflowPolicy.BLOCK);
+        Assert.assertTrue(b.whenIdle().isDone());
+        b.put(verify(0), null);
+        CompletableFuture<Void> f = b.whenIdle();
+        Assert.assertFalse(f.isDone());
+        b.take(batch, senders);
+        Assert.assertFalse(f.isDone());
+        b.put(verify(1), null);
+        b.batchDone();
+        Assert.assertFalse(f.isDone());
+        b.take(batch, senders);
+        b.batchDone();
+        Assert.assertTrue(f.isDone());
+        b.awaitIdle();
+    }
+}
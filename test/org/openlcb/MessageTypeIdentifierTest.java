@@ -35,6 +35,17 @@ public class MessageTypeIdentifierTest  {
         
     }
     
+    @Test
+    public void testGet() {
+        for (MessageTypeIdentifier t : MessageTypeIdentifier.values()) {
+            Assert.assertSame(t, MessageTypeIdentifier.get(t.mti()));
+        }
+        Assert.assertEquals(0x1C48, MessageTypeIdentifier.Datagram.mti());
+        Assert.assertNull(MessageTypeIdentifier.get(0x0001));
+        Assert.assertNull(MessageTypeIdentifier.get(-1));
+        Assert.assertNull(MessageTypeIdentifier.get(0x10000));
+    }
+
     @Test
     public void testMtiValues() {
         MessageTypeIdentifier mti;
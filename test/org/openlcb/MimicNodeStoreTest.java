@@ -260,4 +260,137 @@ public class MimicNodeStoreTest {
         Assert.assertNull(store.findNode(nid2));
     }
 
+    @Test
+    public void testInteractionLimit() {
+        TimerService timer = TimerService.createVirtual();
+        store.dispose();
+        store = new MimicNodeStore(connection, src, timer);
+        store.setMaxActiveInteractions(1);
+        store.put(pim1, null);
+        store.put(pim2, null);
+
+        store.getSimpleNodeIdent(nid1);
+        Assert.assertEquals(new SimpleNodeIdentInfoRequestMessage(src, nid1), lastMessage);
+        lastMessage = null;
+        store.getSimpleNodeIdent(nid2);
+        // Second node has to wait for the first interaction to complete.
+        Assert.assertNull(lastMessage);
+        timer.advance(0);
+        Assert.assertNull(lastMessage);
+
+        store.put(new SimpleNodeIdentInfoReplyMessage(nid1, src,
+                new byte[]{1,'a',0,'b',0,'c',0,'d',0,2,'e',0,'f',0}), null);
+        Assert.assertNull(lastMessage);
+        timer.advance(0);
+        Assert.assertEquals(new SimpleNodeIdentInfoRequestMessage(src, nid2), lastMessage);
+    }
+
+    @Test
+    public void testInteractionLimitReleasedOnTimeout() {
+        TimerService timer = TimerService.createVirtual();
+        store.dispose();
+        store = new MimicNodeStore(connection, src, timer);
+        store.setMaxActiveInteractions(1);
+        store.put(pim1, null);
+        store.put(pim2, null);
+        store.getProtocolIdentification(nid1);
+        lastMessage = null;
+        store.getProtocolIdentification(nid2);
+        Assert.assertNull(lastMessage);
+        // No reply from nid1.
+        timer.advance(700);
+        // The timeout re-arms the task that starts the waiting nodes.
+        timer.advance(0);
+        Assert.assertEquals(new ProtocolIdentificationRequestMessage(src, nid2), lastMessage);
+    }
+
+    @Test
+    public void testStartupDelayDoesNotTakeSlot() {
+        TimerService timer = TimerService.createVirtual();
+        store.dispose();
+        store = new MimicNodeStore(connection, src, timer);
+        store.setMaxActiveInteractions(1);
+        store.put(pim2, null);
+        store.put(new InitializationCompleteMessage(nid1), null);
+        store.getSimpleNodeIdent(nid1);
+        // nid1 is still starting up, but that does not hold back nid2.
+        Assert.assertNull(lastMessage);
+        store.getSimpleNodeIdent(nid2);
+        Assert.assertEquals(new SimpleNodeIdentInfoRequestMessage(src, nid2), lastMessage);
+        store.put(new SimpleNodeIdentInfoReplyMessage(nid2, src,
+                new byte[]{1,'a',0,'b',0,'c',0,'d',0,2,'e',0,'f',0}), null);
+        lastMessage = null;
+        timer.advance(300);
+        Assert.assertEquals(new SimpleNodeIdentInfoRequestMessage(src, nid1), lastMessage);
+    }
+
+    @Test
+    public void testRefreshDropsWaitingNodes() {
+        TimerService timer = TimerService.createVirtual();
+        store.dispose();
+        store = new MimicNodeStore(connection, src, timer);
+        store.setMaxActiveInteractions(1);
+        store.put(pim1, null);
+        store.put(pim2, null);
+        store.getProtocolIdentification(nid1);
+        store.getProtocolIdentification(nid2);
+        store.refresh();
+        Assert.assertTrue(lastMessage instanceof VerifyNodeIDNumberMessage);
+        // nid1 times out and retries; neither node is queried any more.
+        for (int i = 0; i < 10; i++) {
+            timer.advance(700);
+        }
+        Assert.assertTrue(lastMessage instanceof VerifyNodeIDNumberMessage);
+
+        // The slot is free for the nodes found after the refresh.
+        store.put(pim2, null);
+        store.getProtocolIdentification(nid2);
+        Assert.assertEquals(new ProtocolIdentificationRequestMessage(src, nid2), lastMessage);
+    }
+
+    @Test
+    public void testCoalescedNotifications() {
+        TimerService timer = TimerService.createVirtual();
+        store.dispose();
+        store = new MimicNodeStore(connection, src, timer);
+        store.setNotificationDelay(20);
+        final java.util.List<String> events = new java.util.ArrayList<>();
+        final PropertyChangeListener nodeListener = new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent e) {
+                events.add(e.getPropertyName());
+            }
+        };
+        store.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent e) {
+                events.add(e.getPropertyName());
+                ((MimicNodeStore.NodeMemo) e.getNewValue()).addPropertyChangeListener(nodeListener);
+            }
+        });
+        store.put(pim1, null);
+        store.put(pim2, null);
+        Assert.assertEquals(2, store.getNodeMemos().size());
+        Assert.assertTrue(events.isEmpty());
+        timer.advance(20);
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals(MimicNodeStore.ADD_PROP_NODE, events.get(0));
+        Assert.assertEquals(MimicNodeStore.ADD_PROP_NODE, events.get(1));
+
+        events.clear();
+        store.put(new ProtocolIdentificationReplyMessage(nid1, src, 0xF00000000000L), null);
+        store.put(new ProtocolIdentificationReplyMessage(nid1, src, 0xF00000000000L), null);
+        Assert.assertTrue(events.isEmpty());
+        timer.advance(20);
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(MimicNodeStore.NodeMemo.UPDATE_PROP_PROTOCOL, events.get(0));
+    }
+
+    @Test
+    public void testIterateWhileAdding() {
+        store.put(pim1, null);
+        for (MimicNodeStore.NodeMemo memo : store.getNodeMemos()) {
+            store.put(pim2, null);
+        }
+        Assert.assertEquals(2, store.getNodeMemos().size());
+    }
+
 }
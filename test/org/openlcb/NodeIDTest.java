@@ -175,4 +175,12 @@ public class NodeIDTest {
         NodeID e1 = new NodeID(new byte[]{1,0x10,0x13,0x0D,(byte)0xD0,(byte)0xAB});
         Assert.assertEquals("01.10.13.0D.D0.AB", e1.toString());
     }
+
+    @Test
+    public void testLongCtor() {
+        NodeID e1 = new NodeID(new byte[]{1,0x10,0x13,0x0D,(byte)0xD0,(byte)0xAB});
+        Assert.assertEquals(0x0110130DD0ABL, e1.toLong());
+        Assert.assertEquals(e1, new NodeID(0x0110130DD0ABL));
+        Assert.assertEquals(e1.hashCode(), new NodeID(0x0110130DD0ABL).hashCode());
+    }
 }
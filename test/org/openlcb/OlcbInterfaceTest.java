@@ -26,6 +26,169 @@ public class OlcbInterfaceTest {
         t.dispose();
     }
 
+    @Test
+    public void testDispatchOrderAndRegistration() {
+        NodeID nodeID = new NodeID(new byte[]{1,2,3,4,5,6});
+        Connection testConnection = new AbstractConnection(){
+            public void put(Message msg, Connection node) {
+            }
+        };
+        final OlcbInterface t = new OlcbInterface(nodeID,testConnection);
+        // Other traffic (e.g. loopback of our own messages) is ignored by the listeners.
+        final Message m = new ProducerConsumerEventReportMessage(
+                new NodeID(new byte[]{1,1,1,1,1,1}), new EventID("01.02.03.04.05.06.07.08"));
+        final StringBuilder trace = new StringBuilder();
+        final Connection late = new AbstractConnection() {
+            public void put(Message msg, Connection node) {
+                if (msg != m) return;
+                trace.append('c');
+            }
+        };
+        Connection first = new AbstractConnection() {
+            public void put(Message msg, Connection node) {
+                if (msg != m) return;
+                trace.append('a');
+                // Registered during dispatch: only receives subsequent messages.
+                if (t.numMessageListeners() == base + 2) {
+                    t.registerMessageListener(late);
+                }
+            }
+        };
+        Connection second = new AbstractConnection() {
+            public void put(Message msg, Connection node) {
+                if (msg != m) return;
+                trace.append('b');
+            }
+        };
+        base = t.numMessageListeners();
+        t.registerMessageListener(first);
+        t.registerMessageListener(second);
+        Assert.assertEquals(base + 2, t.numMessageListeners());
+
+        t.getInputConnection().put(m, null);
+        Assert.assertEquals("ab", trace.toString());
+        Assert.assertEquals(base + 3, t.numMessageListeners());
+        t.getInputConnection().put(m, null);
+        Assert.assertEquals("ababc", trace.toString());
+
+        t.unRegisterMessageListener(first);
+        t.unRegisterMessageListener(first);
+        Assert.assertEquals(base + 2, t.numMessageListeners());
+        t.getInputConnection().put(m, null);
+        Assert.assertEquals("ababcbc", trace.toString());
+        t.dispose();
+    }
+
+    private int base;
+
+    private Connection tracer(final StringBuilder trace, final char c) {
+        return new AbstractConnection() {
+            public void put(Message msg, Connection node) {
+                if (!msg.getSourceNodeID().equals(src)) return;
+                trace.append(c);
+            }
+        };
+    }
+
+    private final NodeID src = new NodeID(new byte[]{1,1,1,1,1,1});
+
+    @Test
+    public void testFilteredDispatch() {
+        NodeID nodeID = new NodeID(new byte[]{1,2,3,4,5,6});
+        Connection testConnection = new AbstractConnection(){
+            public void put(Message msg, Connection node) {
+            }
+        };
+        OlcbInterface t = new OlcbInterface(nodeID,testConnection);
+        StringBuilder trace = new StringBuilder();
+        EventID e1 = new EventID("05.01.01.01.14.FF.00.01");
+        EventID e2 = new EventID("05.01.01.01.14.FF.00.02");
+        EventID e3 = new EventID("05.01.01.01.14.FF.01.00");
+
+        t.registerMessageListener(tracer(trace, 'a'), new MessageFilter().addEvent(e1));
+        t.registerMessageListener(tracer(trace, 'b'));
+        // Type and event both match some messages; must be delivered only once.
+        t.registerMessageListener(tracer(trace, 'c'), new MessageFilter().addEvent(e1, e2)
+                .addType(MessageTypeIdentifier.ProducerConsumerEventReport));
+        t.registerMessageListener(tracer(trace, 'd'), new MessageFilter().addEventRange(
+                new EventID("05.01.01.01.14.FF.01.00"), new EventID("05.01.01.01.14.FF.01.FF")));
+        Connection e = tracer(trace, 'e');
+        t.registerMessageListener(e, new MessageFilter().addType(MessageTypeIdentifier
+                .VerifyNodeIdGlobal));
+
+        Connection in = t.getInputConnection();
+        in.put(new ProducerConsumerEventReportMessage(src, e1), null);
+        Assert.assertEquals("abc", trace.toString());
+        trace.setLength(0);
+        in.put(new ProducerIdentifiedMessage(src, e2, EventState.Valid), null);
+        Assert.assertEquals("bc", trace.toString());
+        trace.setLength(0);
+        in.put(new ProducerConsumerEventReportMessage(src, e3), null);
+        Assert.assertEquals("bcd", trace.toString());
+        trace.setLength(0);
+        in.put(new VerifyNodeIDNumberMessage(src), null);
+        Assert.assertEquals("be", trace.toString());
+        trace.setLength(0);
+        // Range 05.01.01.01.14.FF.00.00 - 05.01.01.01.14.FF.00.FF
+        in.put(new ConsumerRangeIdentifiedMessage(src, new EventID("05.01.01.01.14.FF.00.FF")),
+                null);
+        Assert.assertEquals("abc", trace.toString());
+        trace.setLength(0);
+
+        t.unRegisterMessageListener(e);
+        in.put(new VerifyNodeIDNumberMessage(src), null);
+        Assert.assertEquals("b", trace.toString());
+        t.dispose();
+    }
+
+    @Test(timeout = 10000)
+    public void testOutputQueueDoesNotBlockByDefault() {
+        NodeID nodeID = new NodeID(new byte[]{1,2,3,4,5,6});
+        // Never becomes active, so nothing is taken from the queue.
+        Connection testConnection = new Connection() {
+            public void put(Message msg, Connection node) {
+            }
+
+            public void registerStartNotification(ConnectionListener c) {
+            }
+        };
+        OlcbInterface t = new OlcbInterface(nodeID, testConnection);
+        Message m = new VerifyNodeIDNumberMessage(nodeID);
+        for (int i = 0; i < 2 * OlcbInterface.OUTPUT_QUEUE_CAPACITY; i++) {
+            t.getOutputConnection().put(m, null);
+        }
+        Assert.assertEquals(2 * OlcbInterface.OUTPUT_QUEUE_CAPACITY,
+                t.getOutputQueue().getDepth());
+        Assert.assertEquals(0, t.getOutputQueue().getBlockedCount());
+        t.dispose();
+    }
+
+    @Test(timeout = 10000)
+    public void testFlushAfterOutputRejected() {
+        NodeID nodeID = new NodeID(new byte[]{1,2,3,4,5,6});
+        // Behaves like an output that is being shut down.
+        Connection testConnection = new AbstractConnection() {
+            public void put(Message msg, Connection node) {
+                throw new java.util.concurrent.RejectedExecutionException("test");
+            }
+        };
+        OlcbInterface t = new OlcbInterface(nodeID, testConnection);
+        t.getOutputConnection().put(new VerifyNodeIDNumberMessage(nodeID), null);
+        t.flushSendQueue();
+        Assert.assertEquals(0, t.getOutputQueue().getDepth());
+        t.dispose();
+    }
+
+    @Test
+    public void testDecodeRange() {
+        long[] r = MessageFilter.decodeRange(0x05010101FFFF00FFL);
+        Assert.assertEquals(0x05010101FFFF0000L, r[0]);
+        Assert.assertEquals(0x05010101FFFF00FFL, r[1]);
+        r = MessageFilter.decodeRange(0x05010101FFFF8000L);
+        Assert.assertEquals(0x05010101FFFF8000L, r[0]);
+        Assert.assertEquals(0x05010101FFFFFFFFL, r[1]);
+    }
+
     // The minimal setup for log4J
     @Before
     public void setUp() {
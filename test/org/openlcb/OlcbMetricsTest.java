@@ -0,0 +1,116 @@
+package org.openlcb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OlcbMetricsTest {
+    NodeID src = new NodeID(new byte[]{1, 2, 3, 4, 5, 6});
+
+    @Test
+    public void testHistogram() {
+        OlcbMetrics.Histogram h = new OlcbMetrics.Histogram();
+        Assert.assertEquals(0, h.getPercentile(0.5));
+        for (int i = 1; i <= 100; i++) {
+            h.record(i);
+        }
+        Assert.assertEquals(100, h.getCount());
+        Assert.assertEquals(5050, h.getSum());
+        Assert.assertEquals(100, h.getMax());
+        Assert.assertEquals(50.5, h.getMean(), 1e-9);
+        // 50 is in the bucket [32, 64).
+        Assert.assertEquals(63, h.getPercentile(0.5));
+        // The top bucket is limited by the maximum.
+        Assert.assertEquals(100, h.getPercentile(0.99));
+        h.record(-5);
+        Assert.assertEquals(0, h.getPercentile(0));
+        h.reset();
+        Assert.assertEquals(0, h.getCount());
+        Assert.assertEquals(0, h.getMax());
+    }
+
+    @Test
+    public void testDisabledRecordsNothing() {
+        OlcbMetrics m = new OlcbMetrics();
+        Assert.assertFalse(m.isEnabled());
+        Assert.assertEquals(0, m.startTimer());
+        m.frameReceived();
+        m.frameSent();
+        m.aliasConflict();
+        m.messageReceived(new InitializationCompleteMessage(src));
+        m.messageQueued(new InitializationCompleteMessage(src), 3);
+        m.datagramRetried();
+        m.datagramAcknowledged(System.nanoTime());
+        m.memoryConfigRequestDone(System.nanoTime());
+        Assert.assertEquals(0, m.getFramesIn());
+        Assert.assertEquals(0, m.getFramesOut());
+        Assert.assertEquals(0, m.getAliasConflicts());
+        Assert.assertEquals(0, m.getMessagesIn(MessageTypeIdentifier.InitializationComplete));
+        Assert.assertEquals(0, m.getOutputQueueDepth().getCount());
+        Assert.assertEquals(0, m.getDatagramRetries());
+        Assert.assertEquals(0, m.getDatagramRoundTrip().getCount());
+        Assert.assertEquals(0, m.getMemoryConfigLatency().getCount());
+    }
+
+    @Test
+    public void testEnabled() {
+        OlcbMetrics m = new OlcbMetrics();
+        m.setEnabled(true);
+        m.frameReceived();
+        m.frameSent();
+        m.frameSent();
+        m.messageReceived(new InitializationCompleteMessage(src));
+        m.messageQueued(new VerifyNodeIDNumberMessage(src), 3);
+        long start = m.startTimer();
+        Assert.assertNotEquals(0, start);
+        m.datagramAcknowledged(start);
+        // A measurement started while disabled is ignored.
+        m.memoryConfigRequestDone(0);
+        Assert.assertEquals(1, m.getFramesIn());
+        Assert.assertEquals(2, m.getFramesOut());
+        Assert.assertEquals(1, m.getMessagesIn(MessageTypeIdentifier.InitializationComplete));
+        Assert.assertEquals(0, m.getMessagesOut(MessageTypeIdentifier.InitializationComplete));
+        Assert.assertEquals(1, m.getMessagesOut(MessageTypeIdentifier.VerifyNodeIdGlobal));
+        Assert.assertEquals(3, m.getOutputQueueDepth().getMax());
+        Assert.assertEquals(1, m.getDatagramRoundTrip().getCount());
+        Assert.assertEquals(0, m.getMemoryConfigLatency().getCount());
+        Assert.assertTrue(m.report().contains("VerifyNodeIdGlobal in 0 out 1"));
+        m.reset();
+        Assert.assertEquals(0, m.getFramesOut());
+        Assert.assertEquals(0, m.getMessagesOut(MessageTypeIdentifier.VerifyNodeIdGlobal));
+    }
+
+    @Test
+    public void testDispatchTime() throws Exception {
+        OlcbInterface iface = new OlcbInterface(src, new AbstractConnection() {
+            @Override
+            public void put(Message msg, Connection sender) {
+            }
+        }, OlcbExecutors.newEventLoop("metrics-test"), TimerService.createVirtual());
+        Connection slow = new AbstractConnection() {
+            @Override
+            public void put(Message msg, Connection sender) {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        iface.registerMessageListener(slow);
+        NodeID other = new NodeID(new byte[]{1, 2, 3, 4, 5, 7});
+        iface.getInputConnection().put(new InitializationCompleteMessage(other), null);
+        Assert.assertTrue(iface.getMetrics().getDispatchTimes().isEmpty());
+
+        iface.getMetrics().setEnabled(true);
+        iface.getInputConnection().put(new InitializationCompleteMessage(other), null);
+        Assert.assertEquals(1, iface.getMetrics().getMessagesIn(MessageTypeIdentifier
+                .InitializationComplete));
+        OlcbMetrics.Histogram h = iface.getMetrics().getDispatchTimes().get(slow);
+        Assert.assertEquals(1, h.getCount());
+        Assert.assertTrue(h.getMax() >= 2000000);
+
+        iface.unRegisterMessageListener(slow);
+        Assert.assertNull(iface.getMetrics().getDispatchTimes().get(slow));
+        iface.dispose();
+    }
+}
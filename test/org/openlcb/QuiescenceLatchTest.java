@@ -0,0 +1,62 @@
+package org.openlcb;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QuiescenceLatchTest {
+
+    @Test
+    public void testIdleInitially() throws Exception {
+        QuiescenceLatch l = new QuiescenceLatch();
+        Assert.assertEquals(0, l.getCount());
+        l.await();
+        Assert.assertTrue(l.await(0, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(l.whenIdle().isDone());
+    }
+
+    @Test
+    public void testFutureCompletesOnLastDecrement() {
+        QuiescenceLatch l = new QuiescenceLatch();
+        l.increment();
+        l.increment();
+        CompletableFuture<Void> f = l.whenIdle();
+        Assert.assertFalse(f.isDone());
+        l.decrement();
+        Assert.assertFalse(f.isDone());
+        l.decrement();
+        Assert.assertTrue(f.isDone());
+        // A new round of work needs a new future.
+        l.increment();
+        Assert.assertFalse(l.whenIdle().isDone());
+    }
+
+    @Test
+    public void testAwaitTimeout() throws Exception {
+        QuiescenceLatch l = new QuiescenceLatch();
+        l.increment();
+        Assert.assertFalse(l.await(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAwaitWokenByOtherThread() throws Exception {
+        final QuiescenceLatch l = new QuiescenceLatch();
+        l.increment();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                l.decrement();
+            }
+        };
+        t.start();
+        Assert.assertTrue(l.await(5, TimeUnit.SECONDS));
+        t.join();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnbalancedDecrement() {
+        new QuiescenceLatch().decrement();
+    }
+}
@@ -0,0 +1,208 @@
+package org.openlcb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimerServiceTest {
+
+    private static class CountingTask extends TimerService.Task {
+        int count = 0;
+        long ranAt = -1;
+        TimerService service;
+
+        @Override
+        public void run() {
+            ++count;
+            if (service != null) ranAt = service.currentTimeMillis();
+        }
+    }
+
+    @Test
+    public void testVirtualClock() {
+        TimerService t = TimerService.createVirtual();
+        CountingTask task = new CountingTask();
+        task.service = t;
+        t.schedule(task, 100);
+        Assert.assertTrue(task.isScheduled());
+        t.advance(99);
+        Assert.assertEquals(0, task.count);
+        t.advance(1);
+        Assert.assertEquals(1, task.count);
+        Assert.assertEquals(100, task.ranAt);
+        Assert.assertFalse(task.isScheduled());
+        t.advance(1000);
+        Assert.assertEquals(1, task.count);
+    }
+
+    @Test
+    public void testCancel() {
+        TimerService t = TimerService.createVirtual();
+        CountingTask task = new CountingTask();
+        Assert.assertFalse(task.cancel());
+        t.schedule(task, 10);
+        Assert.assertTrue(task.cancel());
+        Assert.assertFalse(task.isScheduled());
+        t.advance(20);
+        Assert.assertEquals(0, task.count);
+    }
+
+    @Test
+    public void testCancelFromTaskInSameTick() {
+        TimerService t = TimerService.createVirtual();
+        final CountingTask cancelled = new CountingTask();
+        final CountingTask rearmed = new CountingTask();
+        rearmed.service = t;
+        t.schedule(cancelled, 5);
+        t.schedule(rearmed, 5);
+        // Buckets are LIFO, so this runs first within the tick.
+        t.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Assert.assertTrue(cancelled.cancel());
+                t.schedule(rearmed, 10);
+            }
+        }, 5);
+        t.advance(5);
+        Assert.assertEquals(0, cancelled.count);
+        Assert.assertEquals(0, rearmed.count);
+        Assert.assertTrue(rearmed.isScheduled());
+        t.advance(10);
+        Assert.assertEquals(0, cancelled.count);
+        Assert.assertEquals(1, rearmed.count);
+        Assert.assertEquals(15, rearmed.ranAt);
+    }
+
+    @Test
+    public void testRescheduleMovesTask() {
+        TimerService t = TimerService.createVirtual();
+        CountingTask task = new CountingTask();
+        task.service = t;
+        t.schedule(task, 10);
+        t.advance(5);
+        t.schedule(task, 10);
+        t.advance(5);
+        Assert.assertEquals(0, task.count);
+        t.advance(5);
+        Assert.assertEquals(1, task.count);
+        Assert.assertEquals(15, task.ranAt);
+        // Re-arming after run works without allocating a new task.
+        t.schedule(task, 0);
+        t.advance(1);
+        Assert.assertEquals(2, task.count);
+    }
+
+    @Test
+    public void testLongDelayWrapsWheel() {
+        TimerService t = TimerService.createVirtual();
+        CountingTask task = new CountingTask();
+        CountingTask sameBucket = new CountingTask();
+        t.schedule(task, 3 * TimerService.WHEEL_SIZE + 7);
+        t.schedule(sameBucket, 7);
+        t.advance(7);
+        Assert.assertEquals(0, task.count);
+        Assert.assertEquals(1, sameBucket.count);
+        t.advance(TimerService.WHEEL_SIZE);
+        t.advance(TimerService.WHEEL_SIZE);
+        Assert.assertEquals(0, task.count);
+        t.advance(TimerService.WHEEL_SIZE - 1);
+        Assert.assertEquals(0, task.count);
+        t.advance(1);
+        Assert.assertEquals(1, task.count);
+    }
+
+    @Test
+    public void testOrderAndReentrantSchedule() {
+        final TimerService t = TimerService.createVirtual();
+        final List<Integer> order = new ArrayList<>();
+        t.schedule(new Runnable() {
+            @Override
+            public void run() {
+                order.add(2);
+            }
+        }, 20);
+        t.schedule(new Runnable() {
+            @Override
+            public void run() {
+                order.add(1);
+                t.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        order.add(3);
+                    }
+                }, 15);
+            }
+        }, 10);
+        t.advance(100);
+        // The task scheduled from within a task is relative to the time it was scheduled at.
+        Assert.assertEquals(2, order.size());
+        t.advance(14);
+        Assert.assertEquals(2, order.size());
+        t.advance(1);
+        Assert.assertEquals(3, order.size());
+        Assert.assertEquals(Integer.valueOf(1), order.get(0));
+        Assert.assertEquals(Integer.valueOf(2), order.get(1));
+        Assert.assertEquals(Integer.valueOf(3), order.get(2));
+    }
+
+    @Test
+    public void testAdvanceFromTask() {
+        final TimerService t = TimerService.createVirtual();
+        final CountingTask later = new CountingTask();
+        final CountingTask same = new CountingTask();
+        class AdvancingTask extends CountingTask {
+            @Override
+            public void run() {
+                super.run();
+                if (count == 1) t.advance(10);
+            }
+        }
+        AdvancingTask first = new AdvancingTask();
+        t.schedule(first, 10);
+        t.schedule(same, 10);
+        t.schedule(later, 20);
+        t.advance(10);
+        Assert.assertEquals(1, first.count);
+        Assert.assertEquals(1, same.count);
+        Assert.assertEquals(1, later.count);
+    }
+
+    @Test
+    public void testExceptionDoesNotStopTimer() {
+        TimerService t = TimerService.createVirtual();
+        CountingTask task = new CountingTask();
+        t.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("expected in test");
+            }
+        }, 1);
+        t.schedule(task, 1);
+        t.advance(1);
+        Assert.assertEquals(1, task.count);
+    }
+
+    @Test
+    public void testRealThread() throws InterruptedException {
+        TimerService t = new TimerService("test-timer");
+        final Semaphore s = new Semaphore(0);
+        long start = System.nanoTime();
+        t.schedule(new Runnable() {
+            @Override
+            public void run() {
+                s.release();
+            }
+        }, 50);
+        Assert.assertTrue(s.tryAcquire(5, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        t.waitForTimer();
+        t.dispose();
+        CountingTask task = new CountingTask();
+        t.schedule(task, 0);
+        Assert.assertFalse(task.isScheduled());
+    }
+}
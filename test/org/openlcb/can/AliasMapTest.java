@@ -51,5 +51,67 @@ public class AliasMapTest  {
         Assert.assertEquals("get Alias", -1, map.getAlias(new NodeID(new byte[]{0,1,2,3,4,5})));
         Assert.assertEquals("get NodeID", new NodeID(), map.getNodeID(0));
     }
+
+    @Test
+    public void testUnknownAliasDoesNotAllocate() {
+        AliasMap map = new AliasMap();
+        Assert.assertSame(map.getNodeID(0x123), map.getNodeID(0x456));
+    }
+
+    @Test
+    public void testConflict() {
+        AliasMap map = new AliasMap();
+        NodeID n1 = new NodeID(new byte[]{0,1,2,3,4,5});
+        NodeID n2 = new NodeID(new byte[]{0,1,2,3,4,6});
+
+        map.insert(0x123, n1);
+        Assert.assertEquals(0, map.getConflictCount());
+        map.insert(0x123, n2);
+        Assert.assertEquals(1, map.getConflictCount());
+        Assert.assertEquals(n2, map.getNodeID(0x123));
+        Assert.assertEquals(0x123, map.getAlias(n2));
+        Assert.assertEquals(-1, map.getAlias(n1));
+
+        // Node changes its alias.
+        map.insert(0x456, n2);
+        Assert.assertEquals(1, map.getConflictCount());
+        Assert.assertEquals(0x456, map.getAlias(n2));
+        Assert.assertEquals(new NodeID(), map.getNodeID(0x123));
+        Assert.assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testManyNodes() {
+        AliasMap map = new AliasMap();
+        for (int i = 0; i < 4096; i++) {
+            map.insert(i, new NodeID(new byte[]{5,1,1,1,(byte)(i >> 8),(byte)i}));
+        }
+        Assert.assertEquals(4096, map.size());
+        for (int i = 0; i < 4096; i += 2) {
+            map.remove(i);
+        }
+        Assert.assertEquals(2048, map.size());
+        for (int i = 0; i < 4096; i++) {
+            NodeID n = new NodeID(new byte[]{5,1,1,1,(byte)(i >> 8),(byte)i});
+            if ((i & 1) == 0) {
+                Assert.assertEquals(-1, map.getAlias(n));
+                Assert.assertEquals(new NodeID(), map.getNodeID(i));
+            } else {
+                Assert.assertEquals(i, map.getAlias(n));
+                Assert.assertEquals(n, map.getNodeID(i));
+            }
+        }
+    }
+
+    @Test
+    public void testLastSeen() {
+        AliasMap map = new AliasMap();
+        Assert.assertEquals(0, map.getLastSeen(0x123));
+        OpenLcbCanFrame f = new OpenLcbCanFrame(0x123);
+        f.setPCEventReport(new EventID(new byte[]{1,2,3,4,5,6,7,8}));
+        map.processFrame(f);
+        Assert.assertTrue(map.getLastSeen(0x123) > 0);
+        Assert.assertEquals(new NodeID(), map.getNodeID(0x123));
+    }
     
 }
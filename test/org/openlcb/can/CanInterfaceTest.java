@@ -8,6 +8,10 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.openlcb.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 /**
  *
  * @author Paul Bender Copyright (C) 2017	
@@ -22,6 +26,103 @@ public class CanInterfaceTest {
         t.dispose();
     }
 
+    @Test
+    public void testInitializeOnEventLoop() throws Exception {
+        NodeID nodeID = new NodeID(new byte[]{1,2,3,4,5,6});
+        final List<CanFrame> frames = new ArrayList<>();
+        CanFrameListener output = new CanFrameListener() {
+            @Override
+            public void send(CanFrame frame) {
+                synchronized (frames) {
+                    frames.add(frame);
+                }
+            }
+        };
+        ExecutorService loop = OlcbExecutors.newEventLoop("test-loop");
+        TimerService timer = TimerService.createVirtual();
+        CanInterface t = new CanInterface(nodeID, output, loop, timer);
+        final List<Connection> active = new ArrayList<>();
+        t.addStartListener(new Connection.ConnectionListener() {
+            @Override
+            public void connectionActive(Connection c) {
+                active.add(c);
+            }
+        });
+        // Alias reservation: 4 CID frames at 100 msec, RID at 300 msec, followed by the AME and
+        // Verify Node ID frames.
+        advance(loop, timer, 300);
+        Assert.assertTrue(active.isEmpty());
+        synchronized (frames) {
+            Assert.assertEquals(7, frames.size());
+        }
+        // Waiting for replies to the alias queries.
+        advance(loop, timer, CanInterface.ALIAS_QUERY_DELAY_MSEC - 1);
+        Assert.assertTrue(active.isEmpty());
+        advance(loop, timer, 1);
+        Assert.assertEquals(1, active.size());
+        t.dispose();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        NodeID nodeID = new NodeID(new byte[]{1,2,3,4,5,6});
+        final List<CanFrame> frames = new ArrayList<>();
+        CanFrameListener output = new CanFrameListener() {
+            @Override
+            public void send(CanFrame frame) {
+                synchronized (frames) {
+                    frames.add(frame);
+                }
+            }
+        };
+        ExecutorService loop = OlcbExecutors.newEventLoop("test-loop");
+        TimerService timer = TimerService.createVirtual();
+        CanInterface t = new CanInterface(nodeID, output, loop, timer);
+        OlcbMetrics metrics = t.getMetrics();
+        Assert.assertSame(t.getInterface().getMetrics(), metrics);
+        metrics.setEnabled(true);
+        advance(loop, timer, 50);
+
+        // Another node uses our alias while we are reserving it.
+        final int alias = new NIDa(nodeID).getNIDa();
+        OpenLcbCanFrame conflict = new OpenLcbCanFrame(alias);
+        conflict.setCIM(0, 0x123, alias);
+        loop.submit(new Runnable() {
+            @Override
+            public void run() {
+                t.frameInput().send(conflict);
+            }
+        }).get();
+        Assert.assertEquals(1, metrics.getFramesIn());
+        Assert.assertEquals(1, metrics.getAliasConflicts());
+
+        advance(loop, timer, 600);
+        synchronized (frames) {
+            Assert.assertEquals(frames.size(), metrics.getFramesOut());
+        }
+        Assert.assertEquals(1, metrics.getMessagesOut(MessageTypeIdentifier
+                .InitializationComplete));
+        Assert.assertEquals(1, metrics.getMessagesIn(MessageTypeIdentifier
+                .InitializationComplete));
+        t.dispose();
+    }
+
+    /// Advances the virtual clock in 1 msec steps and waits for the event loop to run the
+    /// resulting tasks after each step.
+    private static void advance(ExecutorService loop, TimerService timer, long millis)
+            throws Exception {
+        Runnable nop = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        loop.submit(nop).get();
+        for (long i = 0; i < millis; i++) {
+            timer.advance(1);
+            loop.submit(nop).get();
+        }
+    }
+
     // The minimal setup for log4J
     @Before
     public void setUp() {
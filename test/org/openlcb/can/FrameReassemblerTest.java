@@ -0,0 +1,90 @@
+package org.openlcb.can;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the multi-frame reassembly buffers.
+ */
+public class FrameReassemblerTest {
+
+    OpenLcbCanFrame frame(int... data) {
+        byte[] b = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            b[i] = (byte) data[i];
+        }
+        OpenLcbCanFrame f = new OpenLcbCanFrame(0x123);
+        f.setData(b);
+        return f;
+    }
+
+    @Test
+    public void testAppendAndGrow() {
+        FrameReassembler r = new FrameReassembler();
+        long key = FrameReassembler.key(FrameReassembler.KIND_ADDRESSED, 0xA08, 0x123, 0x456);
+        FrameReassembler.Buffer b = r.start(key, 0);
+        for (int i = 0; i < 50; i++) {
+            r.get(key, i).append(frame(0x34, 0x56, i, 1, 2, 3, 4, 5), 2);
+        }
+        Assert.assertEquals(300, b.length);
+        Assert.assertEquals(49, b.data[294]);
+        Assert.assertEquals(1, r.getActiveCount());
+        r.release(b);
+        Assert.assertEquals(0, r.getActiveCount());
+        Assert.assertNull(r.get(key, 100));
+    }
+
+    @Test
+    public void testBuffersAreReused() {
+        FrameReassembler r = new FrameReassembler();
+        long key = FrameReassembler.key(FrameReassembler.KIND_DATAGRAM, 0, 0x123, 0x456);
+        FrameReassembler.Buffer b = r.start(key, 0);
+        b.append(frame(1, 2, 3), 0);
+        r.release(b);
+        FrameReassembler.Buffer b2 = r.start(key + 1, 0);
+        Assert.assertSame(b, b2);
+        Assert.assertEquals(0, b2.length);
+    }
+
+    @Test
+    public void testKeysAreDistinct() {
+        FrameReassembler r = new FrameReassembler();
+        long k1 = FrameReassembler.key(FrameReassembler.KIND_DATAGRAM, 0, 0x123, 0x456);
+        long k2 = FrameReassembler.key(FrameReassembler.KIND_DATAGRAM, 0, 0x456, 0x123);
+        long k3 = FrameReassembler.key(FrameReassembler.KIND_ADDRESSED, 0, 0x123, 0x456);
+        r.start(k1, 0).append(frame(1), 0);
+        r.start(k2, 0).append(frame(2, 2), 0);
+        r.start(k3, 0).append(frame(3, 3, 3), 0);
+        Assert.assertEquals(1, r.get(k1, 0).length);
+        Assert.assertEquals(2, r.get(k2, 0).length);
+        Assert.assertEquals(3, r.get(k3, 0).length);
+    }
+
+    @Test
+    public void testTimeout() {
+        FrameReassembler r = new FrameReassembler(4, 100);
+        long key = FrameReassembler.key(FrameReassembler.KIND_DATAGRAM, 0, 0x123, 0x456);
+        r.start(key, 1000);
+        Assert.assertNotNull(r.get(key, 1050));
+        Assert.assertNotNull(r.get(key, 1140));
+        Assert.assertNull(r.get(key, 1300));
+        Assert.assertEquals(0, r.getActiveCount());
+        Assert.assertEquals(1, r.getEvictionCount());
+    }
+
+    @Test
+    public void testLimit() {
+        FrameReassembler r = new FrameReassembler(2, 100);
+        r.start(1, 1000);
+        r.start(2, 1010);
+        // Table full, nothing stale: the oldest is dropped.
+        r.start(3, 1020);
+        Assert.assertEquals(2, r.getActiveCount());
+        Assert.assertNull(r.get(1, 1020));
+        Assert.assertNotNull(r.get(2, 1020));
+        // Everything stale: both are expired.
+        r.start(4, 1200);
+        Assert.assertEquals(1, r.getActiveCount());
+        Assert.assertEquals(3, r.getEvictionCount());
+    }
+}
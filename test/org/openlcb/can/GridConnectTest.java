@@ -21,6 +21,21 @@ public class GridConnectTest  {
         Assert.assertEquals(":X195B4123N0102030405060708;", getCanonical(":X195b4123N0102030405060708;"));
     }
 
+    @Test
+    public void testEncode() throws Exception {
+        byte[] buf = new byte[GridConnect.MAX_FRAME_LENGTH + 2];
+        CanFrame f = GridConnect.parse(":X195B4123N0102030405F6A7B8;").get(0);
+        Assert.assertEquals(GridConnect.MAX_FRAME_LENGTH, GridConnect.formattedLength(f));
+        int len = GridConnect.encode(f, buf, 2);
+        Assert.assertEquals(GridConnect.MAX_FRAME_LENGTH, len);
+        Assert.assertEquals(":X195B4123N0102030405F6A7B8;", new String(buf, 2, len, "ISO-8859-1"));
+
+        f = GridConnect.parse(":S7FFR;").get(0);
+        Assert.assertEquals(7, GridConnect.formattedLength(f));
+        len = GridConnect.encode(f, buf, 0);
+        Assert.assertEquals(":S7FFR;", new String(buf, 0, len, "ISO-8859-1"));
+    }
+
     private void assertFrame(CanFrame f, int header, boolean isExtended, boolean isRtr, byte[]
             data) {
         Assert.assertEquals("isExtended", isExtended, f.isExtended());
@@ -56,4 +71,42 @@ public class GridConnectTest  {
                 (byte) 255});
         assertParse(":S121Nffffff;", 0x121, false, false, new byte[]{-1, -1, -1});
     }
+
+    @Test
+    public void testChunkedInput() throws Exception {
+        final List<CanFrame> l = new java.util.ArrayList<>();
+        GridConnect.Input parser = new GridConnect.Input() {
+            @Override
+            public void onFrame(CanFrame f) {
+                l.add(f);
+            }
+        };
+        byte[] in = ":X195B4123N01020304;\n:S121Nff;\n".getBytes("ISO-8859-1");
+        // Splits the input in the middle of a data byte.
+        parser.send(java.nio.ByteBuffer.wrap(in, 0, 16));
+        Assert.assertEquals(0, l.size());
+        java.nio.ByteBuffer rest = java.nio.ByteBuffer.wrap(in, 16, in.length - 16);
+        parser.send(rest);
+        Assert.assertFalse(rest.hasRemaining());
+        Assert.assertEquals(2, l.size());
+        assertFrame(l.get(0), 0x195b4123, true, false, new byte[]{1, 2, 3, 4});
+        assertFrame(l.get(1), 0x121, false, false, new byte[]{-1});
+    }
+
+    @Test
+    public void testTooLongFrameDropped() throws Exception {
+        List<CanFrame> l = GridConnect.parse(":X195B4123N010203040506070809;:X123N;");
+        Assert.assertEquals(1, l.size());
+        assertFrame(l.get(0), 0x123, true, false, new byte[0]);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testRawCanFrameFromList() throws Exception {
+        java.util.ArrayList<Byte> data = new java.util.ArrayList<>();
+        data.add((byte) 1);
+        data.add((byte) 0xF6);
+        CanFrame f = new GridConnect.RawCanFrame(true, 0x195b4123, false, data);
+        assertFrame(f, 0x195b4123, true, false, new byte[]{1, (byte) 0xF6});
+    }
 }
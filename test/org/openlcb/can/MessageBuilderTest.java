@@ -22,6 +22,7 @@ import org.openlcb.ProtocolIdentificationReplyMessage;
 import org.openlcb.SimpleNodeIdentInfoReplyMessage;
 import org.openlcb.StreamDataCompleteMessage;
 import org.openlcb.StreamDataProceedMessage;
+import org.openlcb.StreamDataSendMessage;
 import org.openlcb.StreamInitiateReplyMessage;
 import org.openlcb.StreamInitiateRequestMessage;
 import org.openlcb.Utilities;
@@ -382,6 +383,29 @@ public class MessageBuilderTest  {
         Assert.assertEquals(new VerifyNodeIDNumberMessage(source, source), msg);
     }
 
+    @Test
+    public void testDecodeFrame() {
+        MessageBuilder b = new MessageBuilder(map);
+        OpenLcbCanFrame frame = new OpenLcbCanFrame(0x123);
+        frame.setHeader(0x195B4123);
+        frame.setData(new byte[]{1,2,3,4,5,6,7,8});
+        Assert.assertEquals(new ProducerConsumerEventReportMessage(source,
+                new EventID(new byte[]{1,2,3,4,5,6,7,8})), b.decodeFrame(frame));
+
+        // first frame of a two-frame datagram
+        frame = new OpenLcbCanFrame(0x123);
+        frame.setHeader(0x1B321123);
+        frame.setData(new byte[]{1,2});
+        Assert.assertNull(b.decodeFrame(frame));
+        frame.setHeader(0x1D321123);
+        Message msg = b.decodeFrame(frame);
+        Assert.assertArrayEquals(new int[]{1,2,1,2}, ((DatagramMessage)msg).getData());
+
+        // not an OpenLCB frame
+        frame.setHeader(0x10701123);
+        Assert.assertNull(b.decodeFrame(frame));
+    }
+
     @Test	
     public void testSingleFrameDatagram() {
         OpenLcbCanFrame frame = new OpenLcbCanFrame(0x123);
@@ -429,6 +453,66 @@ public class MessageBuilderTest  {
         Assert.assertEquals(13,data[4]);
     }
     
+    @Test
+    public void testInterleavedDatagrams() {
+        MessageBuilder b = new MessageBuilder(map);
+        OpenLcbCanFrame frame = new OpenLcbCanFrame(0x123);
+        // first frames from two sources to the same destination
+        frame.setHeader(0x1B321123);
+        frame.setData(new byte[]{1,2});
+        Assert.assertNull(b.processFrame(frame));
+        frame = new OpenLcbCanFrame(0x124);
+        frame.setHeader(0x1B321124);
+        frame.setData(new byte[]{3,4});
+        Assert.assertNull(b.processFrame(frame));
+
+        frame = new OpenLcbCanFrame(0x123);
+        frame.setHeader(0x1D321123);
+        frame.setData(new byte[]{11});
+        List<Message> list = b.processFrame(frame);
+        Assert.assertEquals("count", 1, list.size());
+        Assert.assertArrayEquals(new int[]{1,2,11}, ((DatagramMessage)list.get(0)).getData());
+
+        frame = new OpenLcbCanFrame(0x124);
+        frame.setHeader(0x1D321124);
+        frame.setData(new byte[]{13});
+        list = b.processFrame(frame);
+        Assert.assertEquals("count", 1, list.size());
+        Assert.assertArrayEquals(new int[]{3,4,13}, ((DatagramMessage)list.get(0)).getData());
+        Assert.assertEquals(0, b.reassembler.getActiveCount());
+    }
+
+    @Test
+    public void testTooLongDatagramDropped() {
+        MessageBuilder b = new MessageBuilder(map);
+        OpenLcbCanFrame frame = new OpenLcbCanFrame(0x123);
+        frame.setHeader(0x1B321123);
+        frame.setData(new byte[]{1,2,3,4,5,6,7,8});
+        Assert.assertNull(b.processFrame(frame));
+        frame.setHeader(0x1C321123);
+        for (int i = 0; i < 9; i++) {
+            Assert.assertNull(b.processFrame(frame));
+        }
+        // The tail of the datagram is ignored, also the last frame.
+        Assert.assertEquals(1, b.reassembler.getActiveCount());
+        frame.setHeader(0x1D321123);
+        Assert.assertNull(b.processFrame(frame));
+        Assert.assertEquals(0, b.reassembler.getActiveCount());
+
+        // The next datagram is received normally.
+        frame.setHeader(0x1B321123);
+        frame.setData(new byte[]{1,2});
+        Assert.assertNull(b.processFrame(frame));
+        frame.setHeader(0x1C321123);
+        frame.setData(new byte[]{3});
+        Assert.assertNull(b.processFrame(frame));
+        frame.setHeader(0x1D321123);
+        frame.setData(new byte[]{4,5});
+        List<Message> list = b.processFrame(frame);
+        Assert.assertEquals("count", 1, list.size());
+        Assert.assertArrayEquals(new int[]{1,2,3,4,5}, ((DatagramMessage)list.get(0)).getData());
+    }
+
     @Test	
     public void testPipReplyFrame() {
         OpenLcbCanFrame frame = new OpenLcbCanFrame(0x123);
@@ -564,6 +648,29 @@ public class MessageBuilderTest  {
         Assert.assertEquals(0x34, ((SimpleNodeIdentInfoReplyMessage)msg).getData()[1]);    
     }
 
+    @Test
+    public void testTooLongAddressedMessageDropped() {
+        MessageBuilder b = new MessageBuilder(map);
+        OpenLcbCanFrame frame = new OpenLcbCanFrame(0x123);
+        frame.setHeader(0x19A08071);
+        frame.setData(new byte[]{0x12, 0x02, 1, 2, 3, 4, 5, 6});
+        Assert.assertEquals("count", 0, b.processFrame(frame).size());
+        frame.setData(new byte[]{0x32, 0x02, 1, 2, 3, 4, 5, 6});
+        for (int i = 0; i < MessageBuilder.MAX_ADDRESSED_LENGTH / 6 + 10; i++) {
+            Assert.assertEquals("count", 0, b.processFrame(frame).size());
+        }
+        frame.setData(new byte[]{0x22, 0x02, 7});
+        Assert.assertEquals("count", 0, b.processFrame(frame).size());
+        Assert.assertEquals(0, b.reassembler.getActiveCount());
+
+        frame.setData(new byte[]{0x12, 0x02, 0x12, 0x34});
+        Assert.assertEquals("count", 0, b.processFrame(frame).size());
+        frame.setData(new byte[]{0x22, 0x02, 0x56});
+        List<Message> list = b.processFrame(frame);
+        Assert.assertEquals("count", 1, list.size());
+        Assert.assertEquals(3, ((SimpleNodeIdentInfoReplyMessage)list.get(0)).getData().length);
+    }
+
     @Test	
     public void testTractionControlRequestParseSingle() {
         OpenLcbCanFrame frame = new OpenLcbCanFrame(0x123);
@@ -767,6 +874,50 @@ public class MessageBuilderTest  {
         Assert.assertEquals(15,data[9]);
     }
  
+    @Test
+    public void testStreamDataFrames() {
+        NodeID high = new NodeID(new byte[]{11,12,13,14,15,16});
+        map.insert(0x0FFF, high);
+        MessageBuilder b = new MessageBuilder(map);
+        int[] payload = new int[]{1,2,3,4,5,6,7,8,9,10};
+        List<OpenLcbCanFrame> frames = b.processMessage(new StreamDataSendMessage(source, high,
+                (byte)6, payload));
+        Assert.assertEquals("count", 2, frames.size());
+
+        // Each frame is delivered as it arrives; a stream need not fill a 64-byte chunk.
+        List<Message> list = b.processFrame(frames.get(0));
+        Assert.assertEquals("count", 1, list.size());
+        StreamDataSendMessage msg = (StreamDataSendMessage) list.get(0);
+        Assert.assertEquals("source", source, msg.getSourceNodeID());
+        Assert.assertEquals("destination", high, msg.getDestNodeID());
+        Assert.assertEquals("destinationStreamID", 6, msg.getDestinationStreamID());
+        Assert.assertArrayEquals(new int[]{1,2,3,4,5,6,7}, msg.getData());
+
+        list = b.processFrame(frames.get(1));
+        Assert.assertEquals("count", 1, list.size());
+        msg = (StreamDataSendMessage) list.get(0);
+        Assert.assertArrayEquals(new int[]{8,9,10}, msg.getData());
+    }
+
+    @Test
+    public void testStreamControlRoundTrip() {
+        NodeID high = new NodeID(new byte[]{11,12,13,14,15,16});
+        map.insert(0x0FFF, high);
+        MessageBuilder b = new MessageBuilder(map);
+        Message[] messages = new Message[]{
+                new StreamInitiateRequestMessage(source, high, 1000, (byte)4, (byte)6),
+                new StreamInitiateReplyMessage(high, source, 500, (byte)4, (byte)6),
+                new StreamDataProceedMessage(high, source, (byte)4, (byte)6),
+                new StreamDataCompleteMessage(source, high, (byte)4, (byte)6)};
+        for (Message m : messages) {
+            List<OpenLcbCanFrame> frames = b.processMessage(m);
+            Assert.assertEquals("count", 1, frames.size());
+            List<Message> list = b.processFrame(frames.get(0));
+            Assert.assertEquals("count", 1, list.size());
+            Assert.assertEquals(m, list.get(0));
+        }
+    }
+
     @Test
     public void testStreamDataProceedMessage() {
         NodeID high = new NodeID(new byte[]{11,12,13,14,15,16});
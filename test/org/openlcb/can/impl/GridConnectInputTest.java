@@ -7,7 +7,15 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.openlcb.*;
+import org.openlcb.can.CanFrame;
+import org.openlcb.can.CanFrameListener;
 import org.openlcb.can.CanFrameListenerScaffold;
+import org.openlcb.can.GridConnect;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -25,6 +33,30 @@ public class GridConnectInputTest {
         Assert.assertNotNull("exists",t);
     }
 
+    @Test
+    public void testStreamInput() throws Exception {
+        final List<CanFrame> frames = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        java.io.InputStream is = new java.io.ByteArrayInputStream(
+                ":X195B4123N01020304;\n:S123R;garbage:X19170123N0102;".getBytes("ISO-8859-1"));
+        new GridConnectInput(is, new CanFrameListener() {
+            @Override
+            public void send(CanFrame frame) {
+                frames.add(frame);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        Assert.assertTrue("end of input reported", done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, frames.size());
+        Assert.assertEquals(":X195B4123N01020304;", GridConnect.format(frames.get(0)));
+        Assert.assertEquals(":S123R;", GridConnect.format(frames.get(1)));
+        Assert.assertEquals(":X19170123N0102;", GridConnect.format(frames.get(2)));
+    }
+
     // The minimal setup for log4J
     @Before
     public void setUp() {
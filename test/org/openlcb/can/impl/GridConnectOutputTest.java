@@ -7,6 +7,15 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.openlcb.*;
+import org.openlcb.can.CanFrame;
+import org.openlcb.can.GridConnect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
 
 /**
  *
@@ -23,6 +32,112 @@ public class GridConnectOutputTest {
         Assert.assertNotNull("exists",t);
     }
 
+    @Test
+    public void testSend() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        GridConnectOutput t = new GridConnectOutput(os, null);
+        t.send(GridConnect.parse(":X195B4123N01020304;").get(0));
+        Assert.assertEquals(":X195B4123N01020304;\n", os.toString("ISO-8859-1"));
+        t.send(GridConnect.parse(":S123N;").get(0));
+        Assert.assertEquals(":X195B4123N01020304;\n:S123N;\n", os.toString("ISO-8859-1"));
+    }
+
+    @Test
+    public void testFlushWhenIdle() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final int[] flushCount = new int[1];
+        OutputStream counting = new OutputStream() {
+            @Override
+            public void write(int b) {
+                os.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                os.write(b, off, len);
+            }
+
+            @Override
+            public void flush() {
+                flushCount[0]++;
+            }
+        };
+        GridConnectOutput t = new GridConnectOutput(counting, null, true);
+        t.send(GridConnect.parse(":X195B4123N01020304;").get(0));
+        Assert.assertEquals(":X195B4123N01020304;\n", os.toString("ISO-8859-1"));
+        Assert.assertEquals(1, flushCount[0]);
+        t.send(GridConnect.parse(":X19170123N;").get(0));
+        Assert.assertEquals(":X195B4123N01020304;\n:X19170123N;\n", os.toString("ISO-8859-1"));
+        Assert.assertEquals(2, flushCount[0]);
+    }
+
+    @Test(timeout = 10000)
+    public void testFlushWhenIdleBatchesFrames() throws Exception {
+        final Semaphore entered = new Semaphore(0);
+        final Semaphore release = new Semaphore(0);
+        final List<String> writes = new ArrayList<>();
+        // Blocks the first write, like a full socket buffer.
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                boolean first;
+                synchronized (writes) {
+                    first = writes.isEmpty();
+                    writes.add(new String(b, off, len, StandardCharsets.ISO_8859_1));
+                }
+                if (first) {
+                    entered.release();
+                    release.acquireUninterruptibly();
+                }
+            }
+        };
+        final GridConnectOutput t = new GridConnectOutput(sink, null, true);
+        final CanFrame f = GridConnect.parse(":X19170123N;").get(0);
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                t.send(f);
+            }
+        };
+        first.start();
+        entered.acquire();
+        // Becomes the next writer and waits for the first write to finish.
+        Thread second = new Thread() {
+            @Override
+            public void run() {
+                t.send(f);
+            }
+        };
+        second.start();
+        while (second.getState() != Thread.State.BLOCKED) {
+            Thread.sleep(1);
+        }
+        // These are left for the waiting writer and return right away.
+        for (int i = 0; i < 8; i++) {
+            t.send(f);
+        }
+        release.release();
+        first.join();
+        second.join();
+
+        Assert.assertEquals(2, writes.size());
+        Assert.assertEquals(1, countFrames(writes.get(0)));
+        Assert.assertEquals(9, countFrames(writes.get(1)));
+    }
+
+    private static int countFrames(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '\n') ++n;
+        }
+        return n;
+    }
+
     // The minimal setup for log4J
     @Before
     public void setUp() {
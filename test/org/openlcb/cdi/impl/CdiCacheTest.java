@@ -0,0 +1,196 @@
+package org.openlcb.cdi.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openlcb.FakeOlcbInterface;
+import org.openlcb.NodeID;
+import org.openlcb.SimpleNodeIdentInfoReplyMessage;
+import org.openlcb.cdi.jdom.CdiMemConfigReader;
+import org.openlcb.implementations.FakeMemoryConfigurationService;
+
+public class CdiCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    FakeOlcbInterface iface;
+    FakeMemoryConfigurationService mcs;
+
+    static NodeID nodeId(int i) {
+        return new NodeID(new byte[]{5, 1, 1, 1, 0x14, (byte) i});
+    }
+
+    static String cdi(String name) {
+        StringBuilder b = new StringBuilder("<?xml version=\"1.0\"?>\n<cdi><identification>");
+        b.append("<model>").append(name).append("</model></identification>");
+        for (int i = 0; i < 20; i++) {
+            b.append("<segment space=\"253\"><int size=\"1\"/></segment>");
+        }
+        return b.append("</cdi>").toString();
+    }
+
+    /// Adds a node with the given identification and CDI.
+    void addNode(NodeID node, String model, String softwareVersion, String xml) {
+        String ident = "\u0001Acme\u0000" + model + "\u0000rev A\u0000" + softwareVersion +
+                "\u0000\u0001\u0000\u0000";
+        iface.getNodeStore().put(new SimpleNodeIdentInfoReplyMessage(node, iface.getNodeId(),
+                ident.getBytes()), null);
+        mcs.addSpace(node, mcs.SPACE_CDI, (xml + "\0").getBytes(), false);
+    }
+
+    /// Records the CDI provided to a load.
+    static class Result implements CdiMemConfigReader.ReaderAccess {
+        String xml = null;
+
+        @Override
+        public void progressNotify(long bytesRead, long totalBytes) {
+        }
+
+        @Override
+        public void provideReader(Reader r) {
+            StringBuilder b = new StringBuilder();
+            try {
+                int c;
+                while ((c = r.read()) >= 0) {
+                    b.append((char) c);
+                }
+            } catch (IOException e) {
+                Assert.fail(e.toString());
+            }
+            xml = b.toString();
+        }
+    }
+
+    Result load(CdiCache cache, NodeID node) {
+        Result r = new Result();
+        cache.load(iface, node, r);
+        return r;
+    }
+
+    @Test
+    public void testIdenticalNodesDownloadOnce() {
+        String xml = cdi("Board");
+        for (int i = 0; i < 50; i++) {
+            addNode(nodeId(i), "Board", "1.0", xml);
+        }
+        CdiCache cache = new CdiCache();
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(xml, load(cache, nodeId(i)).xml);
+        }
+        Assert.assertEquals(1, cache.getDownloadCount());
+        // One full download and one verification read for each other node.
+        int downloadReads = xml.length() / 64 + 1;
+        Assert.assertEquals(downloadReads + 49, mcs.actualReadList.size());
+    }
+
+    @Test
+    public void testKeyIncludesVersion() {
+        addNode(nodeId(1), "Board", "1.0", cdi("Board"));
+        addNode(nodeId(2), "Board", "1.1", cdi("Board 1.1"));
+        CdiCache cache = new CdiCache();
+        load(cache, nodeId(1));
+        Assert.assertEquals(cdi("Board 1.1"), load(cache, nodeId(2)).xml);
+        Assert.assertEquals(2, cache.getDownloadCount());
+    }
+
+    @Test
+    public void testMismatchDownloadsAgain() {
+        addNode(nodeId(1), "Board", "1.0", cdi("Board"));
+        // Same identification, but the firmware was changed without a version bump.
+        addNode(nodeId(2), "Board", "1.0", cdi("Other"));
+        CdiCache cache = new CdiCache();
+        load(cache, nodeId(1));
+        Assert.assertEquals(cdi("Other"), load(cache, nodeId(2)).xml);
+        Assert.assertEquals(2, cache.getDownloadCount());
+        Assert.assertEquals(cdi("Other"), load(cache, nodeId(2)).xml);
+        Assert.assertEquals(2, cache.getDownloadCount());
+    }
+
+    @Test
+    public void testNoIdentificationIsNotCached() {
+        mcs.addSpace(nodeId(1), mcs.SPACE_CDI, (cdi("Board") + "\0").getBytes(), false);
+        CdiCache cache = new CdiCache();
+        Assert.assertEquals(cdi("Board"), load(cache, nodeId(1)).xml);
+        Assert.assertEquals(cdi("Board"), load(cache, nodeId(1)).xml);
+        Assert.assertEquals(0, cache.getDownloadCount());
+    }
+
+    @Test
+    public void testPersistent() throws IOException {
+        File dir = folder.newFolder("cdi");
+        addNode(nodeId(1), "Board", "1.0", cdi("Board"));
+        addNode(nodeId(2), "Board", "1.1", cdi("Board"));
+        CdiCache cache = new CdiCache(dir);
+        load(cache, nodeId(1));
+        load(cache, nodeId(2));
+        // Identical contents are stored once.
+        Assert.assertEquals(2, dir.list().length);
+
+        cache = new CdiCache(dir);
+        mcs.actualReadList.clear();
+        Assert.assertEquals(cdi("Board"), load(cache, nodeId(2)).xml);
+        Assert.assertEquals(0, cache.getDownloadCount());
+        Assert.assertEquals(1, mcs.actualReadList.size());
+    }
+
+    @Test
+    public void testConcurrentLoadsWait() {
+        final List<Runnable> pending = new ArrayList<>();
+        // Answers the reads only when asked to.
+        class DeferredMcs extends FakeMemoryConfigurationService {
+            DeferredMcs() {
+                super(iface);
+            }
+
+            @Override
+            public void requestRead(final NodeID dest, final int space, final long address,
+                                    final int len, final McsReadHandler cb) {
+                pending.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        DeferredMcs.super.requestRead(dest, space, address, len, cb);
+                    }
+                });
+            }
+        }
+        mcs.dispose();
+        mcs = new DeferredMcs();
+        String xml = cdi("Board");
+        for (int i = 0; i < 3; i++) {
+            addNode(nodeId(i), "Board", "1.0", xml);
+        }
+        CdiCache cache = new CdiCache();
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(load(cache, nodeId(i)));
+        }
+        Assert.assertEquals(1, pending.size());
+        while (!pending.isEmpty()) {
+            pending.remove(0).run();
+        }
+        for (Result r : results) {
+            Assert.assertEquals(xml, r.xml);
+        }
+        Assert.assertEquals(1, cache.getDownloadCount());
+    }
+
+    @Before
+    public void setUp() {
+        iface = new FakeOlcbInterface();
+        mcs = new FakeMemoryConfigurationService(iface);
+    }
+
+    @After
+    public void tearDown() {
+        iface.dispose();
+        mcs.dispose();
+    }
+}
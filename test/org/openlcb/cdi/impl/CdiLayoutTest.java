@@ -0,0 +1,96 @@
+package org.openlcb.cdi.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jdom2.Document;
+import org.jdom2.output.XMLOutputter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openlcb.FakeOlcbInterface;
+import org.openlcb.NodeID;
+import org.openlcb.cdi.jdom.JdomCdiRep;
+import org.openlcb.cdi.jdom.SampleFactory;
+import org.openlcb.implementations.FakeMemoryConfigurationService;
+
+public class CdiLayoutTest {
+    FakeOlcbInterface iface;
+    FakeMemoryConfigurationService mcs;
+
+    @Test
+    public void testReplicatedGroupStoredOnce() {
+        CdiLayout layout = CdiLayout.create(new JdomCdiRep(SampleFactory.getOffsetSample()));
+        Assert.assertEquals(2, layout.getSegments().size());
+        CdiLayout.Node seg = layout.getSegments().get(0);
+        Assert.assertEquals(CdiLayout.KIND_SEGMENT, seg.getKind());
+        Assert.assertEquals(132, seg.getOffset());
+        Assert.assertEquals(6, seg.getChildren().size());
+
+        CdiLayout.Node group = seg.getChildren().get(4);
+        Assert.assertEquals(CdiLayout.KIND_GROUP, group.getKind());
+        Assert.assertEquals(47, group.getOffset());
+        Assert.assertEquals(2, group.getReplication());
+        Assert.assertEquals(27, group.getRepeatSize());
+        Assert.assertEquals(54, group.getSize());
+        // The children of one repeat only.
+        Assert.assertEquals(3, group.getChildren().size());
+
+        CdiLayout.Node inner = group.getChildren().get(2);
+        Assert.assertEquals(3, inner.getReplication());
+        CdiLayout.Node string = inner.getChildren().get(0);
+        Assert.assertEquals(CdiLayout.KIND_STRING, string.getKind());
+        Assert.assertEquals(9, string.getSize());
+        Assert.assertEquals("seg0.child4(1).child2(2).child0", string.getKey(5));
+        Assert.assertEquals("seg0.child4(1)", group.getRepeatKey(1));
+    }
+
+    @Test
+    public void testMatchesRepresentation() {
+        ConfigRepresentation rep = DemoReadWriteAccess.demoRepFromSample(SampleFactory
+                .getOffsetSample());
+        final List<String> keys = new ArrayList<>();
+        final List<Long> origins = new ArrayList<>();
+        rep.visit(new ConfigRepresentation.Visitor() {
+            @Override
+            public void visitLeaf(ConfigRepresentation.CdiEntry e) {
+                keys.add(e.key);
+                origins.add(e.origin);
+            }
+        });
+        Assert.assertEquals(13, keys.size());
+        Assert.assertEquals("seg0.child4(1).child2(2).child0", keys.get(10));
+        Assert.assertEquals(224L, (long) origins.get(10));
+    }
+
+    @Test
+    public void testNodesShareLayout() throws Exception {
+        String xml = new XMLOutputter().outputString(new Document(SampleFactory
+                .getOffsetSample()));
+        NodeID a = new NodeID("05.01.01.01.14.01");
+        NodeID b = new NodeID("05.01.01.01.14.02");
+        mcs.addSpace(a, mcs.SPACE_CDI, (xml + "\0").getBytes(), false);
+        mcs.addSpace(b, mcs.SPACE_CDI, (xml + "\0").getBytes(), false);
+        ConfigRepresentation repA = new ConfigRepresentation(iface, a);
+        ConfigRepresentation repB = new ConfigRepresentation(iface, b);
+        Assert.assertNotNull(repA.getRoot());
+        Assert.assertSame(repA.getCdiRep(), repB.getCdiRep());
+
+        ConfigRepresentation.CdiEntry first = repA.getRoot().getEntries().get(0);
+        ConfigRepresentation.CdiEntry second = repB.getRoot().getEntries().get(0);
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(first.key, second.key);
+    }
+
+    @Before
+    public void setUp() {
+        iface = new FakeOlcbInterface();
+        mcs = new FakeMemoryConfigurationService(iface);
+    }
+
+    @After
+    public void tearDown() {
+        iface.dispose();
+        mcs.dispose();
+    }
+}
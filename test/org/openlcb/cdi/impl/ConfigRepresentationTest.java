@@ -6,6 +6,7 @@ import org.jdom2.Document;
 import org.jdom2.Element;
 import org.openlcb.FakeOlcbInterface;
 import org.openlcb.NodeID;
+import org.openlcb.TimerService;
 import org.openlcb.cdi.jdom.SampleFactory;
 import org.openlcb.implementations.FakeMemoryConfigurationService;
 
@@ -243,6 +244,58 @@ public class ConfigRepresentationTest {
         Assert.assertEquals(trail.get(2).size, 64);
     }
 
+    @Test
+    public void testReadsLimitedToAddressSpace() throws Exception {
+        addCdiData(SampleFactory.getOffsetSample());
+        // The CDI has variables in space 13 up to address 256.
+        mcs.addSpace(remoteNode, 13, new byte[200], true);
+        mcs.addSpace(remoteNode, 14, new byte[1000], true);
+        ConfigRepresentation rep = new ConfigRepresentation(iface, remoteNode);
+        Assert.assertNotNull(rep.getRoot());
+
+        int reads = 0;
+        for (FakeMemoryConfigurationService.ActualRead r : mcs.actualReadList) {
+            if (r.space != 13) continue;
+            ++reads;
+            Assert.assertTrue("read at " + r.address, r.address + r.size <= 200);
+        }
+        Assert.assertTrue(reads > 0);
+    }
+
+    @Test
+    public void testCachesFilledWhenCapabilitiesTimeOut() throws Exception {
+        iface.dispose();
+        mcs.dispose();
+        TimerService timer = TimerService.createVirtual();
+        iface = new FakeOlcbInterface(timer);
+        // Never answers the capability queries.
+        mcs = new FakeMemoryConfigurationService(iface) {
+            @Override
+            public void request(McsConfigMemo memo) {
+            }
+        };
+        addCdiData(SampleFactory.getOffsetSample());
+        mcs.addSpace(remoteNode, 13, new byte[1000], true);
+        mcs.addSpace(remoteNode, 14, new byte[1000], true);
+        ConfigRepresentation rep = new ConfigRepresentation(iface, remoteNode);
+        Assert.assertNotNull(rep.getRoot());
+        Assert.assertFalse(hasReads(14));
+
+        // One query for each space.
+        timer.advance(ConfigRepresentation.CAPABILITIES_TIMEOUT_MSEC);
+        Assert.assertFalse(hasReads(13));
+        timer.advance(ConfigRepresentation.CAPABILITIES_TIMEOUT_MSEC);
+        Assert.assertTrue(hasReads(13));
+        Assert.assertTrue(hasReads(14));
+    }
+
+    private boolean hasReads(int space) {
+        for (FakeMemoryConfigurationService.ActualRead r : mcs.actualReadList) {
+            if (r.space == space) return true;
+        }
+        return false;
+    }
+
     @Before
     public void setUp() {
         iface = new FakeOlcbInterface();
@@ -7,6 +7,10 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.openlcb.*;
+import org.openlcb.implementations.MemoryConfigurationService;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 
 /**
  *
@@ -23,6 +27,98 @@ public class MemorySpaceCacheTest {
         Assert.assertNotNull("exists",t);
     }
 
+    /// Answers reads synchronously from an array of 1000 bytes.
+    static class ArrayAccess extends ReadWriteAccess {
+        byte[] contents = new byte[1000];
+        int reads = 0;
+
+        @Override
+        public void doRead(long address, int space, int length, MemoryConfigurationService
+                .McsReadHandler handler) {
+            ++reads;
+            byte[] d = new byte[length];
+            System.arraycopy(contents, (int) address, d, 0, length);
+            handler.handleReadData(null, space, address, d);
+        }
+    }
+
+    /// Counts the notifications.
+    static class CountingListener implements PropertyChangeListener {
+        int count = 0;
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            ++count;
+        }
+    }
+
+    @Test
+    public void testFillNotifiesEachListenerOnce() {
+        ArrayAccess access = new ArrayAccess();
+        java.util.Arrays.fill(access.contents, (byte) 1);
+        MemorySpaceCache t = new MemorySpaceCache(access, 253);
+        CountingListener[] small = new CountingListener[250];
+        for (int i = 0; i < small.length; i++) {
+            small[i] = new CountingListener();
+            t.addRangeToCache(i * 4, i * 4 + 4, false);
+            t.addRangeListener(i * 4, i * 4 + 4, false, small[i]);
+        }
+        // Spans several 64-byte chunks.
+        CountingListener large = new CountingListener();
+        t.addRangeListener(100, 300, false, large);
+        t.fillCache();
+        Assert.assertEquals(16, access.reads);
+        for (CountingListener l : small) {
+            Assert.assertEquals(1, l.count);
+        }
+        Assert.assertEquals(1, large.count);
+        Assert.assertArrayEquals(new byte[]{1, 1}, t.read(998, 2));
+    }
+
+    @Test
+    public void testSparseFillWithReadPlanner() {
+        ArrayAccess access = new ArrayAccess();
+        MemorySpaceCache t = new MemorySpaceCache(access, 253);
+        t.getReadPlanner().setHighestAddress(899);
+        CountingListener[] fields = new CountingListener[50];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new CountingListener();
+            t.addRangeToCache(i * 20, i * 20 + 2, false);
+            t.addRangeListener(i * 20, i * 20 + 2, false, fields[i]);
+        }
+        t.fillCache();
+        // Four fields per read instead of one; the reads beyond the end of the space are
+        // skipped.
+        Assert.assertEquals(12, access.reads);
+        Assert.assertEquals(1, fields[44].count);
+        Assert.assertEquals(0, fields[45].count);
+    }
+
+    @Test
+    public void testWriteNotifiesOverlappingListeners() {
+        ArrayAccess access = new ArrayAccess();
+        MemorySpaceCache t = new MemorySpaceCache(access, 253);
+        t.addRangeToCache(0, 1000, false);
+        CountingListener before = new CountingListener();
+        CountingListener large = new CountingListener();
+        CountingListener inside = new CountingListener();
+        CountingListener after = new CountingListener();
+        t.addRangeListener(0, 10, false, before);
+        t.addRangeListener(5, 500, false, large);
+        t.addRangeListener(400, 404, false, inside);
+        t.addRangeListener(404, 410, false, after);
+        t.fillCache();
+        before.count = large.count = inside.count = after.count = 0;
+
+        // The write is never acknowledged, so the entry is not needed.
+        t.write(400, new byte[]{1, 2, 3, 4}, null);
+        Assert.assertEquals(0, before.count);
+        Assert.assertEquals(1, large.count);
+        Assert.assertEquals(1, inside.count);
+        Assert.assertEquals(0, after.count);
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4}, t.read(400, 4));
+    }
+
     // The minimal setup for log4J
     @Before
     public void setUp() {
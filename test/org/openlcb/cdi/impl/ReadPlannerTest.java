@@ -0,0 +1,109 @@
+package org.openlcb.cdi.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openlcb.AbstractConnection;
+import org.openlcb.Connection;
+import org.openlcb.DatagramAcknowledgedMessage;
+import org.openlcb.DatagramMessage;
+import org.openlcb.Message;
+import org.openlcb.NodeID;
+import org.openlcb.cdi.impl.RangeCacheUtil.Range;
+import org.openlcb.implementations.DatagramService;
+import org.openlcb.implementations.MemoryConfigurationService;
+
+public class ReadPlannerTest {
+    NodeID hereID = new NodeID(new byte[]{1, 2, 3, 4, 5, 6});
+    NodeID farID = new NodeID(new byte[]{1, 2, 3, 4, 5, 7});
+
+    @Test
+    public void testCost() {
+        ReadPlanner p = new ReadPlanner(10);
+        Assert.assertEquals(11, p.cost(1));
+        Assert.assertEquals(74, p.cost(64));
+        Assert.assertEquals(85, p.cost(65));
+    }
+
+    @Test
+    public void testMerge() {
+        ReadPlanner p = new ReadPlanner(10);
+        Assert.assertEquals(new Range(0, 14, false), p.merge(new Range(0, 4, false), new Range
+                (10, 14, false)));
+        Assert.assertNull(p.merge(new Range(0, 4, false), new Range(15, 19, false)));
+        // Overlapping ranges are merged regardless of cost.
+        Assert.assertEquals(new Range(0, 100, false), p.merge(new Range(0, 100, false), new
+                Range(20, 30, false)));
+        Assert.assertNull(p.merge(new Range(0, 4, false), new Range(4, 8, true)));
+        Assert.assertNull(p.merge(new Range(0, 4, false), new Range(60, 64, false)));
+        // Merging does not save a request if the result needs one more.
+        Assert.assertNull(p.merge(new Range(0, 60, false), new Range(62, 66, false)));
+        p.setRequestCost(100);
+        Assert.assertNull(p.merge(new Range(0, 60, false), new Range(62, 66, false)));
+        Assert.assertEquals(new Range(0, 64, false), p.merge(new Range(0, 4, false), new Range
+                (60, 64, false)));
+    }
+
+    @Test
+    public void testSparseRanges() {
+        RangeCacheUtil util = new RangeCacheUtil(new ReadPlanner());
+        for (int i = 0; i < 16; i++) {
+            util.addRange(i * 16, i * 16 + 2);
+        }
+        // One read for each 64 bytes instead of one for each range.
+        List<Range> rng = util.getRanges();
+        Assert.assertEquals(4, rng.size());
+        Assert.assertEquals(new Range(0, 50, false), rng.get(0));
+        Assert.assertEquals(new Range(64, 114, false), rng.get(1));
+        Assert.assertEquals(new Range(192, 242, false), rng.get(3));
+    }
+
+    @Test
+    public void testReadSize() {
+        ReadPlanner p = new ReadPlanner();
+        Assert.assertEquals(64, p.getReadSize(0, 100));
+        Assert.assertEquals(36, p.getReadSize(64, 100));
+        Assert.assertEquals(0, p.getReadSize(100, 100));
+        p.setHighestAddress(79);
+        Assert.assertEquals(16, p.getReadSize(64, 100));
+        Assert.assertTrue(p.getReadSize(80, 100) <= 0);
+    }
+
+    @Test
+    public void testRequestCapabilities() {
+        final List<Message> sent = new ArrayList<>();
+        Connection conn = new AbstractConnection() {
+            @Override
+            public void put(Message msg, Connection sender) {
+                sent.add(msg);
+            }
+        };
+        DatagramService ds = new DatagramService(hereID, conn);
+        MemoryConfigurationService mcs = new MemoryConfigurationService(hereID, ds);
+        ReadPlanner p = new ReadPlanner();
+        final int[] done = new int[1];
+        p.requestCapabilities(mcs, farID, 0xFD, new Runnable() {
+            @Override
+            public void run() {
+                ++done[0];
+            }
+        });
+        Assert.assertEquals(1, sent.size());
+        ds.put(new DatagramAcknowledgedMessage(farID, hereID), null);
+        ds.put(new DatagramMessage(farID, hereID, new int[]{0x20, 0x82, 0x41, 0x00, 0x80, 0xFF,
+                0xFD}), null);
+        Assert.assertTrue(p.isStreamReadSupported());
+        Assert.assertEquals(0, done[0]);
+
+        Assert.assertEquals(3, sent.size());
+        Assert.assertArrayEquals(new int[]{0x20, 0x84, 0xFD}, ((DatagramMessage) sent.get(2))
+                .getData());
+        ds.put(new DatagramAcknowledgedMessage(farID, hereID), null);
+        ds.put(new DatagramMessage(farID, hereID, new int[]{0x20, 0x87, 0xFD, 0, 0, 0, 0xFF, 0}),
+                null);
+        Assert.assertEquals(1, done[0]);
+        Assert.assertEquals(255, p.getHighestAddress());
+        mcs.dispose();
+    }
+}
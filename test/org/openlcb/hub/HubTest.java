@@ -7,6 +7,19 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import java.awt.GraphicsEnvironment;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import org.openlcb.*;
 
 /**
@@ -22,13 +35,228 @@ public class HubTest {
         Assert.assertNotNull("exists",t);
     }
 
+    @Test
+    public void testTransmitBufferWrapAround() throws Exception {
+        Hub.TransmitBuffer b = new Hub.TransmitBuffer(10);
+        Assert.assertTrue(b.isEmpty());
+        Assert.assertTrue(b.offer("abcd"));
+        Assert.assertTrue(b.offer("efgh"));
+        Assert.assertEquals(10, b.size());
+        Assert.assertFalse("full", b.offer(""));
+
+        // Channel accepting only five bytes, as a slow socket would.
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        WritableByteChannel slow = new WritableByteChannel() {
+            public int write(ByteBuffer src) {
+                int n = Math.min(5, src.remaining());
+                for (int i = 0; i < n; i++) os.write(src.get());
+                return n;
+            }
+            public boolean isOpen() { return true; }
+            public void close() {}
+        };
+        Assert.assertFalse(b.drainTo(slow));
+        Assert.assertEquals("abcd\n", os.toString("ISO-8859-1"));
+        Assert.assertEquals(5, b.size());
+
+        Assert.assertTrue(b.offer("ijkl"));
+        Assert.assertFalse("too long", b.offer("m"));
+        os.reset();
+        Assert.assertTrue(b.drainTo(Channels.newChannel(os)));
+        Assert.assertEquals("efgh\nijkl\n", os.toString("ISO-8859-1"));
+        Assert.assertTrue(b.isEmpty());
+    }
+
+    @Test
+    public void testForwardBetweenClients() throws Exception {
+        final Hub h = new Hub(0);
+        final java.util.List<String> seen = new java.util.concurrent.CopyOnWriteArrayList<>();
+        h.addForwarder(new Hub.Forwarding() {
+            @Override
+            public void forward(Hub.Memo m) {
+                seen.add(m.line);
+            }
+        });
+        Thread t = new Thread() {
+            public void run() {
+                h.start();
+            }
+        };
+        t.start();
+        while (h.getPort() == 0 || h.selector == null) {
+            Thread.sleep(5);
+        }
+        Socket s1 = new Socket("localhost", h.getPort());
+        Socket s2 = new Socket("localhost", h.getPort());
+        BufferedReader r2 = new BufferedReader(new InputStreamReader(s2.getInputStream(), "ISO-8859-1"));
+        // waits for both connections to be registered
+        while (h.threads.size() < 3) {
+            Thread.sleep(5);
+        }
+        PrintStream p1 = new PrintStream(s1.getOutputStream(), true, "ISO-8859-1");
+        p1.print(":X195B4123N0102030405060708;\r\n");
+        p1.flush();
+        Assert.assertEquals(":X195B4123N0102030405060708;", r2.readLine());
+
+        h.putLine(":X19170123N;");
+        Assert.assertEquals(":X19170123N;", r2.readLine());
+        while (seen.size() < 2) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(":X195B4123N0102030405060708;", seen.get(0));
+        Assert.assertEquals(":X19170123N;", seen.get(1));
+
+        s1.close();
+        s2.close();
+        h.stop();
+        t.join();
+    }
+
+    /// Starts the selector loop of a hub on a new thread.
+    private Thread startHub(final Hub h) throws InterruptedException {
+        Thread t = new Thread() {
+            public void run() {
+                h.start();
+            }
+        };
+        t.start();
+        while (h.getPort() == 0 || h.selector == null) {
+            Thread.sleep(5);
+        }
+        return t;
+    }
+
+    /// Peer sockets of the stalled clients; never read.
+    private final java.util.List<SocketChannel> stalledPeers = new java.util.ArrayList<>();
+    private Selector idleSelector;
+
+    /**
+     * Adds a client whose socket is never written to: its key belongs to a selector that is
+     * never selected, so everything forwarded to it stays in its transmit buffer.
+     */
+    private Hub.ClientConnection addStalledClient(Hub h, int bufferSize) throws Exception {
+        if (idleSelector == null) idleSelector = Selector.open();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("localhost", 0));
+        stalledPeers.add(SocketChannel.open(server.socket().getLocalSocketAddress()));
+        SocketChannel ch = server.accept();
+        server.close();
+        ch.configureBlocking(false);
+        Hub.ClientConnection c = h.new ClientConnection(ch, bufferSize);
+        c.key = ch.register(idleSelector, SelectionKey.OP_READ, c);
+        h.addForwarder(c);
+        return c;
+    }
+
+    /// Lines of 28 characters; with the newline 29 bytes each.
+    private static String line(int i) {
+        return String.format(":X195B4123N%016X;", i);
+    }
+
+    /// Sends 50 lines through the hub and checks that the fast client gets all of them.
+    private void sendLinesToFastClient(Hub h, BufferedReader fast) throws Exception {
+        for (int i = 0; i < 50; i++) {
+            h.putLine(line(i));
+        }
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(line(i), fast.readLine());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testSlowClientDrop() throws Exception {
+        Hub h = new Hub(0);
+        Thread t = startHub(h);
+        // Added before the fast client, so every line reaches it first.
+        Hub.ClientConnection stalled = addStalledClient(h, 100);
+        Socket fast = new Socket("localhost", h.getPort());
+        BufferedReader r = new BufferedReader(new InputStreamReader(fast.getInputStream(), "ISO-8859-1"));
+        while (h.threads.size() < 2) {
+            Thread.sleep(5);
+        }
+
+        sendLinesToFastClient(h, r);
+        // Three lines fit into the buffer of the stalled client.
+        Assert.assertEquals(87, stalled.output.size());
+        Assert.assertEquals(47, h.getDroppedLineCount());
+        Assert.assertTrue(h.threads.contains(stalled));
+
+        fast.close();
+        h.stop();
+        t.join();
+    }
+
+    @Test(timeout = 20000)
+    public void testSlowClientDisconnect() throws Exception {
+        Hub h = new Hub(0);
+        h.setSlowConsumerPolicy(Hub.SlowConsumerPolicy.DISCONNECT);
+        Thread t = startHub(h);
+        Hub.ClientConnection stalled = addStalledClient(h, 100);
+        Socket fast = new Socket("localhost", h.getPort());
+        BufferedReader r = new BufferedReader(new InputStreamReader(fast.getInputStream(), "ISO-8859-1"));
+        while (h.threads.size() < 2) {
+            Thread.sleep(5);
+        }
+
+        sendLinesToFastClient(h, r);
+        while (h.threads.contains(stalled)) {
+            Thread.sleep(5);
+        }
+        Assert.assertFalse(stalled.channel.isOpen());
+        Assert.assertEquals(0, h.getDroppedLineCount());
+        // The peer of the stalled client sees the end of the connection.
+        Assert.assertEquals(-1, stalledPeers.get(0).read(ByteBuffer.allocate(16)));
+
+        // The fast client is still served.
+        Assert.assertEquals(1, h.threads.size());
+        h.putLine(":X19170123N;");
+        Assert.assertEquals(":X19170123N;", r.readLine());
+
+        fast.close();
+        h.stop();
+        t.join();
+    }
+
+    @Test(timeout = 20000)
+    public void testTooLongLineDropped() throws Exception {
+        Hub h = new Hub(0);
+        Thread t = startHub(h);
+        Socket s1 = new Socket("localhost", h.getPort());
+        Socket s2 = new Socket("localhost", h.getPort());
+        BufferedReader r2 = new BufferedReader(new InputStreamReader(s2.getInputStream(), "ISO-8859-1"));
+        while (h.threads.size() < 2) {
+            Thread.sleep(5);
+        }
+        PrintStream p1 = new PrintStream(s1.getOutputStream(), true, "ISO-8859-1");
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < Hub.MAX_LINE_LENGTH * 3; i++) {
+            longLine.append('x');
+        }
+        p1.print(longLine + "\n:X19170123N;\n");
+        p1.flush();
+        Assert.assertEquals(":X19170123N;", r2.readLine());
+        // The client that sent the long line stays connected.
+        Assert.assertEquals(2, h.threads.size());
+
+        s1.close();
+        s2.close();
+        h.stop();
+        t.join();
+    }
+
     // The minimal setup for log4J
     @Before
     public void setUp() {
     }
 
     @After
-    public void tearDown() {
+    public void tearDown() throws Exception {
+        for (SocketChannel c : stalledPeers) {
+            c.close();
+        }
+        if (idleSelector != null) {
+            idleSelector.close();
+        }
     }
 
 }
@@ -137,6 +137,21 @@ public class DatagramMeteringBufferTest {
         assertSendReady();
     }
 
+    @Test
+    public void testMetrics() {
+        OlcbMetrics metrics = new OlcbMetrics();
+        metrics.setEnabled(true);
+        buffer.setMetrics(metrics);
+        buffer.put(datagram1, replyConnection1);
+        buffer.waitForSendQueue();
+        returnConnection.put(replyNAKresend, null);
+        returnConnection.put(replyOK, null);
+
+        Assert.assertEquals(1, metrics.getDatagramRetries());
+        Assert.assertEquals(1, metrics.getDatagramRoundTrip().getCount());
+        Assert.assertEquals(0, metrics.getDatagramTimeouts());
+    }
+
     private void assertSendReady() {
         int pastSendMsg = messagesForwarded.size();
         buffer.put(datagram2, replyConnection1);
@@ -215,6 +230,79 @@ public class DatagramMeteringBufferTest {
         Assert.assertTrue(messagesForwarded.get(1).equals(datagram2));        
     }
 
+    @Test
+    public void testParallelDestinations() {
+        NodeID otherID = new NodeID(new byte[]{1,1,1,1,1,2});
+        DatagramMessage datagram3 = new DatagramMessage(hereID, otherID, data);
+        buffer.put(datagram1, replyConnection1);
+        buffer.put(datagram2, replyConnection1);
+        buffer.put(datagram3, replyConnection1);
+
+        buffer.waitForSendQueue();
+
+        // The second datagram to farID waits, but the one to otherID is not blocked by it.
+        Assert.assertEquals("forwarded messages", 2, messagesForwarded.size());
+        Assert.assertEquals(datagram1, messagesForwarded.get(0));
+        Assert.assertEquals(datagram3, messagesForwarded.get(1));
+
+        // Reply from otherID does not release farID's queue.
+        returnConnection.put(new DatagramAcknowledgedMessage(otherID, hereID), null);
+        Assert.assertEquals("forwarded messages", 2, messagesForwarded.size());
+
+        returnConnection.put(replyOK, null);
+        Assert.assertEquals("forwarded messages", 3, messagesForwarded.size());
+        Assert.assertEquals(datagram2, messagesForwarded.get(2));
+    }
+
+    @Test
+    public void testMaxInFlight() {
+        buffer.setMaxInFlight(1);
+        NodeID otherID = new NodeID(new byte[]{1,1,1,1,1,2});
+        DatagramMessage datagram3 = new DatagramMessage(hereID, otherID, data);
+        buffer.put(datagram1, replyConnection1);
+        buffer.put(datagram3, replyConnection1);
+        buffer.put(datagram2, replyConnection1);
+
+        buffer.waitForSendQueue();
+        Assert.assertEquals("forwarded messages", 1, messagesForwarded.size());
+
+        returnConnection.put(replyOK, null);
+        Assert.assertEquals("forwarded messages", 2, messagesForwarded.size());
+        Assert.assertEquals(datagram3, messagesForwarded.get(1));
+
+        returnConnection.put(new DatagramAcknowledgedMessage(otherID, hereID), null);
+        Assert.assertEquals("forwarded messages", 3, messagesForwarded.size());
+        Assert.assertEquals(datagram2, messagesForwarded.get(2));
+    }
+
+    @Test
+    public void testTimeoutReleasesDestinationOnly() throws Exception {
+        buffer.setTimeout(30);
+        final java.util.List<Message> rejects = new java.util.concurrent.CopyOnWriteArrayList<>();
+        Connection upstream = new AbstractConnection() {
+            public void put(Message msg, Connection sender) {
+                rejects.add(msg);
+            }
+        };
+        buffer.put(datagram1, upstream);
+        buffer.put(datagram2, upstream);
+        buffer.waitForSendCallbacks();
+        // Both timed out one after the other.
+        Assert.assertEquals(2, rejects.size());
+        Assert.assertTrue(rejects.get(0) instanceof DatagramRejectedMessage);
+        Assert.assertEquals("forwarded messages", 2, messagesForwarded.size());
+    }
+
+    @Test
+    public void testDisposeKeepsCallerExecutor() {
+        java.util.concurrent.ExecutorService executor = OlcbExecutors.newThreadPool();
+        DatagramMeteringBuffer b = new DatagramMeteringBuffer(forwardConnection, executor,
+                TimerService.createVirtual());
+        b.dispose();
+        Assert.assertFalse(executor.isShutdown());
+        executor.shutdown();
+    }
+
     @After
     public void tearDown() {
         buffer.dispose(); 
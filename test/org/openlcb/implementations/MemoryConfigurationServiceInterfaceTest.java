@@ -159,6 +159,8 @@ public class MemoryConfigurationServiceInterfaceTest extends InterfaceTestBase {
         int count = 6;
 
         List<MemoryConfigurationService.McsWriteHandler> hnds = new ArrayList<>();
+        MemoryConfigurationService.RequestKey writeKey = new MemoryConfigurationService
+                .RequestKey(farID, 0x00);
 
         // queues up a bunch of requests.
         for (int i = 0; i < count; ++i) {
@@ -170,15 +172,15 @@ public class MemoryConfigurationServiceInterfaceTest extends InterfaceTestBase {
                     new byte[]{(byte) i, 2}, mock);
 
             if (i > 0) {
-                Assert.assertEquals(i, iface.getMemoryConfigurationService().queuedRequests.get(0).size());
+                Assert.assertEquals(i, iface.getMemoryConfigurationService().queuedRequests.get(writeKey).size());
                 MemoryConfigurationService.McsWriteMemo m = (MemoryConfigurationService
                         .McsWriteMemo) iface.getMemoryConfigurationService().queuedRequests.get
-                        (0).getLast();
+                        (writeKey).getLast();
                Assert.assertEquals(address + i * 256, m.address);
             }
         }
 
-        Assert.assertEquals(count - 1, iface.getMemoryConfigurationService().queuedRequests.get(0).size());
+        Assert.assertEquals(count - 1, iface.getMemoryConfigurationService().queuedRequests.get(writeKey).size());
 
         for (int i = 0; i < count; ++i) {
             MemoryConfigurationService.McsWriteHandler hnd = hnds.get(i);
@@ -708,6 +710,94 @@ public class MemoryConfigurationServiceInterfaceTest extends InterfaceTestBase {
         verifyNoMoreInteractions(hnd2);
     }
 
+    @Test
+    public void testReadsToTwoNodesInParallel() {
+        int space = 0xFD;
+        long address = 0x12345678;
+        NodeID otherID = new NodeID(new byte[]{1,2,3,4,5,8});
+        aliasMap.insert(0x988, otherID);
+        MemoryConfigurationService.McsReadHandler hnd1 = mock(MemoryConfigurationService
+                .McsReadHandler.class);
+        MemoryConfigurationService.McsReadHandler hnd2 = mock(MemoryConfigurationService
+                .McsReadHandler.class);
+
+        iface.getMemoryConfigurationService().requestRead(farID, space, address, 4, hnd1);
+        iface.getMemoryConfigurationService().requestRead(otherID, space, address, 2, hnd2);
+
+        // Both requests go out without waiting for the first one to complete.
+        expectMessage(new DatagramMessage(hereID, farID, new int[]{
+                0x20, 0x41, 0x12, 0x34, 0x56, 0x78, 4}));
+        expectMessageAndNoMore(new DatagramMessage(hereID, otherID, new int[]{
+                0x20, 0x41, 0x12, 0x34, 0x56, 0x78, 2}));
+
+        sendMessage(new DatagramAcknowledgedMessage(farID, hereID, 0x80));
+        sendMessage(new DatagramAcknowledgedMessage(otherID, hereID, 0x80));
+
+        // Responses come back in the opposite order.
+        sendMessageAndExpectResult(new DatagramMessage(otherID, hereID, new int[]{
+                        0x20, 0x51, 0x12, 0x34, 0x56, 0x78, 0xbb}),
+                new DatagramAcknowledgedMessage(hereID, otherID));
+        verify(hnd2).handleReadData(otherID, space, address, new byte[]{(byte) 0xbb});
+        verifyNoMoreInteractions(hnd1);
+
+        sendMessageAndExpectResult(new DatagramMessage(farID, hereID, new int[]{
+                        0x20, 0x51, 0x12, 0x34, 0x56, 0x78, 0xaa}),
+                new DatagramAcknowledgedMessage(hereID, farID));
+        verify(hnd1).handleReadData(farID, space, address, new byte[]{(byte) 0xaa});
+        verifyNoMoreInteractions(hnd1);
+        verifyNoMoreInteractions(hnd2);
+    }
+
+    @Test
+    public void testPipelinedReads() {
+        int space = 0xFD;
+        long address = 0x12345678;
+        MemoryConfigurationService.McsReadHandler hnd1 = mock(MemoryConfigurationService
+                .McsReadHandler.class);
+        MemoryConfigurationService.McsReadHandler hnd2 = mock(MemoryConfigurationService
+                .McsReadHandler.class);
+        MemoryConfigurationService.McsReadHandler hnd3 = mock(MemoryConfigurationService
+                .McsReadHandler.class);
+        iface.getMemoryConfigurationService().setPipelineDepth(farID, 2);
+
+        iface.getMemoryConfigurationService().requestRead(farID, space, address, 4, hnd1);
+        iface.getMemoryConfigurationService().requestRead(farID, space, address + 4, 4, hnd2);
+        iface.getMemoryConfigurationService().requestRead(farID, space, address + 8, 4, hnd3);
+
+        expectMessageAndNoMore(new DatagramMessage(hereID, farID, new int[]{
+                0x20, 0x41, 0x12, 0x34, 0x56, 0x78, 4}));
+        // The second request is sent as soon as the first datagram is acknowledged, without
+        // waiting for the response.
+        sendMessage(new DatagramAcknowledgedMessage(farID, hereID, 0x80));
+        expectMessageAndNoMore(new DatagramMessage(hereID, farID, new int[]{
+                0x20, 0x41, 0x12, 0x34, 0x56, 0x7C, 4}));
+        sendMessage(new DatagramAcknowledgedMessage(farID, hereID, 0x80));
+        // The third one has to wait for a free slot.
+        expectNoMessages();
+
+        sendMessageAndExpectResult(new DatagramMessage(farID, hereID, new int[]{
+                        0x20, 0x51, 0x12, 0x34, 0x56, 0x78, 0xaa}),
+                new DatagramAcknowledgedMessage(hereID, farID));
+        verify(hnd1).handleReadData(farID, space, address, new byte[]{(byte) 0xaa});
+        expectMessageAndNoMore(new DatagramMessage(hereID, farID, new int[]{
+                0x20, 0x41, 0x12, 0x34, 0x56, 0x80, 4}));
+        sendMessage(new DatagramAcknowledgedMessage(farID, hereID, 0x80));
+
+        sendMessageAndExpectResult(new DatagramMessage(farID, hereID, new int[]{
+                        0x20, 0x51, 0x12, 0x34, 0x56, 0x7C, 0xbb}),
+                new DatagramAcknowledgedMessage(hereID, farID));
+        verify(hnd2).handleReadData(farID, space, address + 4, new byte[]{(byte) 0xbb});
+        expectNoMessages();
+        sendMessageAndExpectResult(new DatagramMessage(farID, hereID, new int[]{
+                        0x20, 0x51, 0x12, 0x34, 0x56, 0x80, 0xcc}),
+                new DatagramAcknowledgedMessage(hereID, farID));
+        verify(hnd3).handleReadData(farID, space, address + 8, new byte[]{(byte) 0xcc});
+        verifyNoMoreInteractions(hnd1);
+        verifyNoMoreInteractions(hnd2);
+        verifyNoMoreInteractions(hnd3);
+        expectNoMessages();
+    }
+
     /*
     @Test
     @Ignore("commented out prior to JUnit 4")
@@ -171,6 +171,29 @@ public class MemoryConfigurationServiceTest {
         
     }
 
+
+    @Test
+    public void testWriteMetrics() {
+        OlcbMetrics metrics = new OlcbMetrics();
+        metrics.setEnabled(true);
+        service.setMetrics(metrics);
+        service.requestWrite(farID, 0xFD, 0, new byte[]{1, 2}, new MemoryConfigurationService
+                .McsWriteHandler() {
+            @Override
+            public void handleFailure(int errorCode) {
+            }
+
+            @Override
+            public void handleSuccess() {
+                flag = true;
+            }
+        });
+        Assert.assertEquals(0, metrics.getMemoryConfigLatency().getCount());
+        datagramService.put(new DatagramAcknowledgedMessage(farID, hereID), null);
+        Assert.assertTrue(flag);
+        Assert.assertEquals(1, metrics.getMemoryConfigLatency().getCount());
+        Assert.assertEquals(0, metrics.getMemoryConfigRetries());
+    }
     
     /*
     @Test
@@ -501,6 +524,139 @@ public class MemoryConfigurationServiceTest {
     }
     */
 
+    /// Records the result of a bulk read.
+    class BulkReadHandler implements MemoryConfigurationService.McsReadHandler {
+        byte[] data = null;
+        int errorCode = 0;
+
+        @Override
+        public void handleFailure(int code) {
+            flag = true;
+            errorCode = code;
+        }
+
+        @Override
+        public void handleReadData(NodeID dest, int space, long address, byte[] data) {
+            flag = true;
+            this.data = data;
+        }
+    }
+
+    @Test
+    public void testStreamRead() {
+        service.setStreamConnection(testConnection);
+        Assert.assertTrue(service.isStreamReadAllowed(farID));
+        BulkReadHandler hnd = new BulkReadHandler();
+        service.requestBulkRead(farID, 0xFD, 0x100, 200, hnd);
+
+        Assert.assertEquals(1, messagesReceived.size());
+        int[] content = ((DatagramMessage) messagesReceived.get(0)).getData();
+        Assert.assertEquals("read stream command", 0x61, content[1]);
+        Assert.assertEquals("source stream", 0xFF, content[6]);
+        int streamId = content[7];
+        Assert.assertEquals("length", 200, content[11]);
+        datagramService.put(new DatagramAcknowledgedMessage(farID, hereID), null);
+
+        Connection input = service.getStreamInputConnection();
+        input.put(new StreamInitiateRequestMessage(farID, hereID, 128, (byte) 5, (byte)
+                streamId), null);
+        Assert.assertEquals(2, messagesReceived.size());
+        StreamInitiateReplyMessage reply = (StreamInitiateReplyMessage) messagesReceived.get(1);
+        Assert.assertEquals(128, reply.getBufferSize());
+        Assert.assertEquals(streamId, reply.getDestinationStreamID());
+
+        int[] chunk = new int[100];
+        for (int i = 0; i < 2; i++) {
+            java.util.Arrays.fill(chunk, 0x10 + i);
+            input.put(new StreamDataSendMessage(farID, hereID, (byte) streamId, chunk), null);
+        }
+        // One window is full.
+        Assert.assertTrue(messagesReceived.get(2) instanceof StreamDataProceedMessage);
+        input.put(new StreamDataCompleteMessage(farID, hereID, (byte) 5, (byte) streamId), null);
+        Assert.assertFalse(flag);
+
+        // The reply datagram arrives after the stream.
+        datagramService.put(new DatagramMessage(farID, hereID, new int[]{0x20, 0x71, 0, 0, 1, 0,
+                5, streamId, 0, 0, 0, 200}), null);
+        Assert.assertTrue(flag);
+        Assert.assertEquals(200, hnd.data.length);
+        Assert.assertEquals(0x10, hnd.data[99]);
+        Assert.assertEquals(0x11, hnd.data[100]);
+    }
+
+    @Test
+    public void testStreamReadFallsBackToDatagrams() {
+        service.setStreamConnection(testConnection);
+        BulkReadHandler hnd = new BulkReadHandler();
+        service.requestBulkRead(farID, 0xFD, 0, 100, hnd);
+        Assert.assertEquals(1, messagesReceived.size());
+        int[] content = ((DatagramMessage) messagesReceived.get(0)).getData();
+        datagramService.put(new DatagramAcknowledgedMessage(farID, hereID), null);
+        messagesReceived.clear();
+        // Command not implemented.
+        datagramService.put(new DatagramMessage(farID, hereID, new int[]{0x20, 0x79, 0, 0, 0,
+                0, 0xFF, content[7], 0x10, 0x43}), null);
+        Assert.assertFalse(service.isStreamReadAllowed(farID));
+
+        // The ack of the reply and the first datagram read.
+        Assert.assertEquals(2, messagesReceived.size());
+        content = ((DatagramMessage) messagesReceived.get(1)).getData();
+        Assert.assertArrayEquals(new int[]{0x20, 0x41, 0, 0, 0, 0, 64}, content);
+        datagramService.put(new DatagramAcknowledgedMessage(farID, hereID), null);
+        int[] data = new int[6 + 64];
+        System.arraycopy(content, 0, data, 0, 6);
+        data[1] = 0x51;
+        data[6] = 0x33;
+        datagramService.put(new DatagramMessage(farID, hereID, data), null);
+
+        Assert.assertEquals(4, messagesReceived.size());
+        content = ((DatagramMessage) messagesReceived.get(3)).getData();
+        Assert.assertArrayEquals(new int[]{0x20, 0x41, 0, 0, 0, 64, 36}, content);
+        datagramService.put(new DatagramAcknowledgedMessage(farID, hereID), null);
+        data = new int[6 + 36];
+        System.arraycopy(content, 0, data, 0, 6);
+        data[1] = 0x51;
+        Assert.assertFalse(flag);
+        datagramService.put(new DatagramMessage(farID, hereID, data), null);
+        Assert.assertTrue(flag);
+        Assert.assertEquals(100, hnd.data.length);
+        Assert.assertEquals(0x33, hnd.data[0]);
+    }
+
+    @Test
+    public void testQueuedStreamReadDoesNotTimeOut() {
+        TimerService timer = TimerService.createVirtual();
+        service.dispose();
+        service = new MemoryConfigurationService(hereID, datagramService, timer);
+        service.setStreamConnection(testConnection);
+        BulkReadHandler first = new BulkReadHandler();
+        BulkReadHandler second = new BulkReadHandler();
+        service.requestBulkRead(farID, 0xFD, 0, 100, first);
+        service.requestBulkRead(farID, 0xFD, 0x1000, 100, second);
+        // The second read waits for the first one.
+        Assert.assertEquals(1, messagesReceived.size());
+        datagramService.put(new DatagramAcknowledgedMessage(farID, hereID), null);
+
+        timer.advance(2000);
+        Assert.assertEquals(1, messagesReceived.size());
+        // The first read times out; the second one is sent now.
+        timer.advance(1500);
+        Assert.assertTrue(service.isStreamReadAllowed(farID));
+        Assert.assertEquals(3, messagesReceived.size());
+        int[] content = ((DatagramMessage) messagesReceived.get(1)).getData();
+        Assert.assertEquals("read stream command", 0x61, content[1]);
+        Assert.assertEquals("address", 0x10, content[4]);
+        // The fallback of the first read.
+        content = ((DatagramMessage) messagesReceived.get(2)).getData();
+        Assert.assertArrayEquals(new int[]{0x20, 0x41, 0, 0, 0, 0, 64}, content);
+
+        // The second read has its own timeout from when it was sent.
+        timer.advance(2000);
+        Assert.assertNull(second.data);
+        Assert.assertEquals(0, second.errorCode);
+        Assert.assertEquals(3, messagesReceived.size());
+    }
+
     @Test 
     public void testConfigMemoIsRealClass() {
         class TestMemo extends MemoryConfigurationService.McsConfigMemo {
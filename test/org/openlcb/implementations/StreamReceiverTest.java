@@ -73,4 +73,55 @@ public class StreamReceiverTest {
         Assert.assertTrue(messagesReceived.get(0)
                            .equals(new StreamDataProceedMessage(hereID, farID, (byte)12, (byte)3)));
     }
+
+    @Test
+    public void testWindowAndSink() {
+        messagesReceived = new java.util.ArrayList<Message>();
+        Connection testConnection = new AbstractConnection(){
+            public void put(Message msg, Connection sender) {
+                messagesReceived.add(msg);
+            }
+        };
+        final java.util.ArrayList<Integer> received = new java.util.ArrayList<Integer>();
+        final boolean[] complete = new boolean[1];
+        StreamReceiver rcv = new StreamReceiver(hereID, farID, (byte)7, 20, testConnection,
+                new StreamReceiver.DataSink() {
+                    @Override
+                    public void handleData(int[] data) {
+                        for (int d : data) received.add(d);
+                    }
+
+                    @Override
+                    public void handleComplete() {
+                        complete[0] = true;
+                    }
+                });
+
+        // The proposed buffer is larger than our maximum.
+        rcv.put(new StreamInitiateRequestMessage(farID, hereID, 1000, (byte)12, (byte)7), null);
+        Assert.assertEquals(1, messagesReceived.size());
+        Assert.assertTrue(messagesReceived.get(0)
+                           .equals(new StreamInitiateReplyMessage(hereID, farID, 20, (byte)12, (byte)7)));
+        Assert.assertEquals(20, rcv.getBufferSize());
+
+        // Data for another stream is ignored.
+        rcv.put(new StreamDataSendMessage(farID, hereID, (byte)3, new int[7]), null);
+        Assert.assertEquals(0, received.size());
+
+        for (int i = 0; i < 3; i++) {
+            rcv.put(new StreamDataSendMessage(farID, hereID, (byte)7, new int[]{i,i,i,i,i,i,i}), null);
+        }
+        // Proceed only after a full window.
+        Assert.assertEquals(2, messagesReceived.size());
+        Assert.assertTrue(messagesReceived.get(1)
+                           .equals(new StreamDataProceedMessage(hereID, farID, (byte)12, (byte)7)));
+        Assert.assertEquals(21, received.size());
+        Assert.assertEquals(21, rcv.getBytesReceived());
+
+        Assert.assertFalse(complete[0]);
+        rcv.put(new StreamDataCompleteMessage(farID, hereID, (byte)12, (byte)7), null);
+        Assert.assertTrue(complete[0]);
+        Assert.assertTrue(rcv.isComplete());
+        Assert.assertEquals(2, messagesReceived.size());
+    }
 }
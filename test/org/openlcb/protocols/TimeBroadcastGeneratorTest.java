@@ -6,10 +6,9 @@ import org.junit.Test;
 import org.openlcb.FakeConnection;
 import org.openlcb.InterfaceTestBase;
 import org.openlcb.MockPropertyChangeListener;
+import org.openlcb.TimerService;
 
-import java.util.Date;
 import java.util.TimeZone;
-import java.util.TimerTask;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -62,12 +61,12 @@ public class TimeBroadcastGeneratorTest extends InterfaceTestBase {
             boolean b = false;
         };
         final Holder h = new Holder();
-        iface.getTimer().schedule(new TimerTask() {
+        iface.getTimerService().schedule(new Runnable() {
             @Override
             public void run() {
                 h.b = true;
             }
-        }, new Date(System.currentTimeMillis() + 100));
+        }, 100);
         while (!h.b) {
             try {
                 Thread.sleep(10);
@@ -266,7 +265,23 @@ public class TimeBroadcastGeneratorTest extends InterfaceTestBase {
 
     @Test
     public void testMidnightRolloverAfterStart() throws Exception {
-        //printAllSentMessages();
+        // Runs on a virtual clock, so that the rollover time does not depend on how fast the
+        // timer thread gets scheduled.
+        final TimerService timer = TimerService.createVirtual();
+        timer.advance(1000);
+        tgmaster.dispose();
+        tgmaster = new TimeBroadcastGenerator(iface, TimeProtocol.ALT_CLOCK_1, timer);
+        tgmaster.setTimeZone(TimeZone.getTimeZone("GMT"));
+        tgmaster.timeKeeper = new TimeKeeper() {
+            @Override
+            protected long currentTimeMillis() {
+                return timer.currentTimeMillis();
+            }
+        };
+        expectFrame(":X19524333N010100000102FFFF;");
+        expectFrame(":X194A4333N0101000001028000;");
+        expectNoFrames();
+
         tgmaster.timeKeeper.setRate(500.0);
         long midnight = -513129600L * 1000;
         tgmaster.requestSetTime(midnight - 100*100);
@@ -276,15 +291,17 @@ public class TimeBroadcastGeneratorTest extends InterfaceTestBase {
         tgmaster.requestStop();
         expectFrame(":X195B4333N010100000102F001;"); // stop
 
-        Thread.sleep(50);
+        timer.advance(50);
         expectNoFrames();
         tgmaster.requestStart();
         expectFrame(":X195B4333N010100000102F002;"); // start
-        // because the clock is running, whether or not we see no 
-        // additional frames here is execution speed dependent.
-        //expectNoFrames();
-        Thread.sleep(50);
-        expectFrame(":X195B4333N010100000102F003;"); // start
+        expectNoFrames();
+        // Midnight is 20 msec of real time after the start.
+        timer.advance(18);
+        expectNoFrames();
+        timer.advance(2);
+        expectFrame(":X195B4333N010100000102F003;"); // date rollover
+        expectNoFrames();
     }
 
     TimeBroadcastGenerator tgmaster;
@@ -0,0 +1,91 @@
+package tools.netsim;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor without threads: submitted tasks are queued and only run when {@link #runPending()}
+ * is called. Used by the {@link NetworkSimulator} so that the interleaving of all simulated
+ * nodes depends only on the order of the simulation steps.
+ */
+public class DeterministicExecutor extends AbstractExecutorService {
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean shutdown = false;
+    private long executedCount = 0;
+
+    @Override
+    public synchronized void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+        tasks.add(command);
+    }
+
+    /**
+     * Runs queued tasks in FIFO order, including the ones queued by the tasks themselves, until
+     * the queue is empty.
+     * @return the number of tasks run.
+     */
+    public int runPending() {
+        int n = 0;
+        while (true) {
+            Runnable r;
+            synchronized (this) {
+                r = tasks.poll();
+            }
+            if (r == null) return n;
+            ++n;
+            r.run();
+            synchronized (this) {
+                ++executedCount;
+            }
+        }
+    }
+
+    /**
+     * @return true if there are tasks waiting to run.
+     */
+    public synchronized boolean hasPending() {
+        return !tasks.isEmpty();
+    }
+
+    /**
+     * @return how many tasks were run so far.
+     */
+    public synchronized long getExecutedCount() {
+        return executedCount;
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> l = new ArrayList<>(tasks);
+        tasks.clear();
+        return l;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown && tasks.isEmpty();
+    }
+
+    /// Does not wait: the tasks can only run when the simulator calls runPending().
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return isTerminated();
+    }
+}
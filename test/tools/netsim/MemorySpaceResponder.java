@@ -0,0 +1,251 @@
+package tools.netsim;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openlcb.AbstractConnection;
+import org.openlcb.AddressedMessage;
+import org.openlcb.Connection;
+import org.openlcb.DatagramMessage;
+import org.openlcb.Message;
+import org.openlcb.MessageFilter;
+import org.openlcb.MessageTypeIdentifier;
+import org.openlcb.NodeID;
+import org.openlcb.OlcbInterface;
+import org.openlcb.implementations.StreamTransmitter;
+
+/**
+ * Answers Memory Configuration read and write datagrams addressed to a simulated node from a set
+ * of byte arrays, one per address space (e.g. the CDI in space 0xFF).
+ * <p>
+ * The library has no memory configuration server; the {@link
+ * org.openlcb.implementations.MemoryConfigurationService} of the node acknowledges the request
+ * datagrams, and this class sends the read reply datagrams after an optional delay that models
+ * the processing time of a real node. Writes are stored without a reply datagram. If enabled
+ * with {@link #setStreamReadSupported}, read stream requests are answered with a reply datagram
+ * followed by a stream; otherwise they are rejected as not implemented.
+ */
+public class MemorySpaceResponder extends AbstractConnection {
+    /// Error code for a space that does not exist.
+    public static final int ERROR_SPACE_NOT_KNOWN = 0x1081;
+    /// Error code for a read starting past the end of the space.
+    public static final int ERROR_OUT_OF_BOUNDS = 0x1082;
+    /// Error code for a command that is not implemented.
+    public static final int ERROR_NOT_IMPLEMENTED = 0x1043;
+
+    private static final int DATAGRAM_TYPE = 0x20;
+    private static final int CMD_WRITE = 0x00;
+    private static final int CMD_READ = 0x40;
+    private static final int CMD_READ_STREAM = 0x60;
+    private static final int REPLY = 0x10;
+    private static final int ERROR = 0x08;
+    /// Buffer size proposed for the streams we send.
+    private static final int STREAM_BUFFER_SIZE = 256;
+
+    private final OlcbInterface iface;
+    private final Map<Integer, byte[]> spaces = new HashMap<>();
+    private int replyDelayMillis = 0;
+    private long readCount = 0;
+    private long writeCount = 0;
+    private boolean streamReadSupported = false;
+    /// Stream being sent, or null.
+    private StreamTransmitter transmitter = null;
+    private byte nextStreamId = 0;
+
+    /**
+     * Creates the responder and registers it with the interface.
+     * @param iface interface of the simulated node
+     */
+    public MemorySpaceResponder(OlcbInterface iface) {
+        this.iface = iface;
+        iface.registerMessageListener(this, new MessageFilter().addType(MessageTypeIdentifier
+                .Datagram, MessageTypeIdentifier.StreamInitiateReply, MessageTypeIdentifier
+                .StreamDataProceed));
+    }
+
+    /**
+     * Adds or replaces an address space. Writes modify the array in place.
+     * @param space    address space number
+     * @param contents bytes of the space, starting at address 0
+     */
+    public synchronized void setSpace(int space, byte[] contents) {
+        spaces.put(space, contents);
+    }
+
+    /**
+     * @param space address space number
+     * @return the bytes of the space, or null if it does not exist.
+     */
+    public synchronized byte[] getSpace(int space) {
+        return spaces.get(space);
+    }
+
+    /**
+     * @param millis how long the node takes to answer a read request
+     */
+    public void setReplyDelayMillis(int millis) {
+        replyDelayMillis = millis;
+    }
+
+    /**
+     * @param supported true to serve read stream requests
+     */
+    public void setStreamReadSupported(boolean supported) {
+        streamReadSupported = supported;
+    }
+
+    public synchronized long getReadCount() {
+        return readCount;
+    }
+
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    @Override
+    public void put(Message msg, Connection sender) {
+        if (!(msg instanceof DatagramMessage)) {
+            StreamTransmitter t;
+            synchronized (this) {
+                t = transmitter;
+            }
+            if (t != null && msg instanceof AddressedMessage && iface.getNodeId().equals((
+                    (AddressedMessage) msg).getDestNodeID())) {
+                t.put(msg, sender);
+            }
+            return;
+        }
+        DatagramMessage dg = (DatagramMessage) msg;
+        if (!iface.getNodeId().equals(dg.getDestNodeID())) return;
+        int[] data = dg.getData();
+        if (data.length < 6 || data[0] != DATAGRAM_TYPE) return;
+        int cmd = data[1] & 0xFC;
+        if (cmd == CMD_READ_STREAM) {
+            if (streamReadSupported) {
+                readStream(dg.getSourceNodeID(), data);
+            } else {
+                rejectStream(dg.getSourceNodeID(), data);
+            }
+            return;
+        }
+        if (cmd != CMD_READ && cmd != CMD_WRITE) return;
+        int spaceOfs = (data[1] & 3) == 0 ? 1 : 0;
+        if (data.length < 6 + spaceOfs) return;
+        int space = spaceOfs != 0 ? data[6] : 0xFC + (data[1] & 3);
+        long address = ((long) data[2] << 24) | (data[3] << 16) | (data[4] << 8) | data[5];
+        int payload = 6 + spaceOfs;
+        if (cmd == CMD_WRITE) {
+            write(space, address, data, payload);
+            return;
+        }
+        if (data.length <= payload) return;
+        final int[] reply = read(data, space, address, data[payload], payload);
+        final NodeID dest = dg.getSourceNodeID();
+        if (replyDelayMillis <= 0) {
+            iface.getDatagramService().sendData(dest, reply);
+            return;
+        }
+        iface.getTimerService().schedule(new Runnable() {
+            @Override
+            public void run() {
+                iface.getDatagramService().sendData(dest, reply);
+            }
+        }, replyDelayMillis);
+    }
+
+    private synchronized void write(int space, long address, int[] data, int payload) {
+        ++writeCount;
+        byte[] contents = spaces.get(space);
+        if (contents == null) return;
+        for (int i = payload; i < data.length && address + i - payload < contents.length; i++) {
+            contents[(int) address + i - payload] = (byte) data[i];
+        }
+    }
+
+    /// @return the reply datagram.
+    private synchronized int[] read(int[] request, int space, long address, int count,
+                                    int payload) {
+        ++readCount;
+        byte[] contents = spaces.get(space);
+        int error = 0;
+        if (contents == null) {
+            error = ERROR_SPACE_NOT_KNOWN;
+        } else if (address >= contents.length) {
+            error = ERROR_OUT_OF_BOUNDS;
+        }
+        int len = error != 0 ? 2 : (int) Math.min(count, contents.length - address);
+        int[] reply = new int[payload + len];
+        System.arraycopy(request, 0, reply, 0, payload);
+        reply[1] = request[1] | REPLY;
+        if (error != 0) {
+            reply[1] |= ERROR;
+            reply[payload] = error >> 8;
+            reply[payload + 1] = error & 0xFF;
+            return reply;
+        }
+        for (int i = 0; i < len; i++) {
+            reply[payload + i] = contents[(int) address + i] & 0xFF;
+        }
+        return reply;
+    }
+
+    /// Answers a read stream request with a failure reply datagram.
+    private void rejectStream(NodeID dest, int[] request) {
+        int payload = 6 + ((request[1] & 3) == 0 ? 1 : 0);
+        if (request.length < payload + 2) return;
+        int[] reply = new int[payload + 4];
+        System.arraycopy(request, 0, reply, 0, payload + 2);
+        reply[1] = request[1] | REPLY | ERROR;
+        reply[payload + 2] = ERROR_NOT_IMPLEMENTED >> 8;
+        reply[payload + 3] = ERROR_NOT_IMPLEMENTED & 0xFF;
+        iface.getDatagramService().sendData(dest, reply);
+    }
+
+    /// Answers a read stream request: the reply datagram, then the data in a stream.
+    private void readStream(final NodeID dest, int[] request) {
+        int spaceOfs = (request[1] & 3) == 0 ? 1 : 0;
+        int payload = 6 + spaceOfs;
+        if (request.length < payload + 6) return;
+        int space = spaceOfs != 0 ? request[6] : 0xFC + (request[1] & 3);
+        long address = ((long) request[2] << 24) | (request[3] << 16) | (request[4] << 8) |
+                request[5];
+        int count = (request[payload + 2] << 24) | (request[payload + 3] << 16) |
+                (request[payload + 4] << 8) | request[payload + 5];
+        final byte destStreamId = (byte) request[payload + 1];
+        final int[] bytes;
+        final byte sourceStreamId;
+        synchronized (this) {
+            ++readCount;
+            byte[] contents = spaces.get(space);
+            if (contents == null || address >= contents.length) return;
+            int len = (int) Math.min(count, contents.length - address);
+            bytes = new int[len];
+            for (int i = 0; i < len; i++) {
+                bytes[i] = contents[(int) address + i] & 0xFF;
+            }
+            sourceStreamId = ++nextStreamId;
+        }
+        final int[] reply = new int[payload + 2];
+        System.arraycopy(request, 0, reply, 0, payload);
+        reply[1] = request[1] | REPLY;
+        reply[payload] = sourceStreamId & 0xFF;
+        reply[payload + 1] = destStreamId & 0xFF;
+        Runnable send = new Runnable() {
+            @Override
+            public void run() {
+                iface.getDatagramService().sendData(dest, reply);
+                StreamTransmitter t = new StreamTransmitter(iface.getNodeId(), dest,
+                        STREAM_BUFFER_SIZE, bytes, sourceStreamId, destStreamId, iface
+                        .getOutputConnection());
+                synchronized (MemorySpaceResponder.this) {
+                    transmitter = t;
+                }
+            }
+        };
+        if (replyDelayMillis <= 0) {
+            send.run();
+        } else {
+            iface.getTimerService().schedule(send, replyDelayMillis);
+        }
+    }
+}
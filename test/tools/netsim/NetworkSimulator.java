@@ -0,0 +1,162 @@
+package tools.netsim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.openlcb.NodeID;
+
+/**
+ * Deterministic discrete-event simulator of an OpenLCB network: any number of {@link
+ * SimulatedNode}s, each running a real CAN interface stack, on {@link SimulatedSegment}s with
+ * bitrate and arbitration modeling.
+ * <p>
+ * Nothing runs on a thread of its own. Simulated time only moves inside {@link #runUntil} and
+ * {@link #runFor}, which alternate between three kinds of steps:
+ * <ul>
+ * <li>running the queued tasks of all nodes until every node is idle, then starting the
+ * transmission of the frames that won arbitration on idle segments;
+ * <li>ending the transmission of the next frame on the wire, in microsecond resolution;
+ * <li>advancing the virtual timers of all nodes by one millisecond.
+ * </ul>
+ * Nodes are always visited in the order they were added, so a simulation with the same inputs
+ * gives the same results every time, independent of the speed of the host.
+ * <p>
+ * Typical use:
+ * <pre>
+ *     NetworkSimulator sim = new NetworkSimulator();
+ *     SimulatedSegment bus = sim.addSegment("bus", SimulatedSegment.DEFAULT_BITRATE);
+ *     for (int i = 0; i &lt; 200; i++) {
+ *         sim.addNode(bus, new NodeID(0x050101010000L + i));
+ *     }
+ *     sim.runUntil(sim::allInitialized, 60000);
+ * </pre>
+ * Timeouts of the nodes have one millisecond resolution. The reassembly timeouts of multi-frame
+ * messages use the wall clock, so they never trigger in a simulation that runs faster than real
+ * time.
+ */
+public class NetworkSimulator {
+    private final List<SimulatedSegment> segments = new ArrayList<>();
+    private final List<SimulatedNode> nodes = new ArrayList<>();
+    /// Current simulation time in usec.
+    private long nowMicros = 0;
+
+    /**
+     * @return the current simulation time, in usec since the start of the simulation.
+     */
+    public long currentTimeMicros() {
+        return nowMicros;
+    }
+
+    /**
+     * @return the current simulation time, in msec since the start of the simulation.
+     */
+    public long currentTimeMillis() {
+        return nowMicros / 1000;
+    }
+
+    /**
+     * Creates a new CAN segment.
+     * @param name    name for diagnostics
+     * @param bitrate bitrate in bits per second
+     * @return the new segment.
+     */
+    public SimulatedSegment addSegment(String name, int bitrate) {
+        SimulatedSegment s = new SimulatedSegment(this, name, bitrate);
+        segments.add(s);
+        return s;
+    }
+
+    /**
+     * Creates a new node on a segment. The node starts its alias allocation when the simulation
+     * runs.
+     * @param segment where the node is connected
+     * @param nodeId  node ID of the node
+     * @return the new node.
+     */
+    public SimulatedNode addNode(SimulatedSegment segment, NodeID nodeId) {
+        SimulatedNode n = new SimulatedNode(this, segment, nodeId);
+        nodes.add(n);
+        return n;
+    }
+
+    public List<SimulatedNode> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public List<SimulatedSegment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * @return true if every node finished its alias allocation.
+     */
+    public boolean allInitialized() {
+        for (SimulatedNode n : nodes) {
+            if (!n.isInitialized()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs the simulation for a given time.
+     * @param millis how much simulated time to run
+     */
+    public void runFor(long millis) {
+        runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return false;
+            }
+        }, millis);
+    }
+
+    /**
+     * Runs the simulation until a condition becomes true. The condition is checked after every
+     * step.
+     * @param condition when to stop
+     * @param maxMillis upper limit of the simulated time to run
+     * @return true if the condition became true, false if the time limit was reached.
+     */
+    public boolean runUntil(BooleanSupplier condition, long maxMillis) {
+        long end = (nowMicros / 1000 + maxMillis) * 1000;
+        settle();
+        while (!condition.getAsBoolean()) {
+            if (nowMicros >= end) return false;
+            long nextTick = (nowMicros / 1000 + 1) * 1000;
+            SimulatedSegment next = null;
+            for (SimulatedSegment s : segments) {
+                if (s.isTransmitting() && (next == null || s.getTransmissionEnd() < next
+                        .getTransmissionEnd())) {
+                    next = s;
+                }
+            }
+            if (next != null && next.getTransmissionEnd() <= nextTick) {
+                nowMicros = next.getTransmissionEnd();
+                next.finishTransmission();
+            } else {
+                nowMicros = nextTick;
+                for (SimulatedNode n : nodes) {
+                    n.getTimerService().advance(1);
+                }
+            }
+            settle();
+        }
+        return true;
+    }
+
+    /// Runs all nodes until they are idle, then starts the transmissions on idle segments.
+    private void settle() {
+        boolean busy = true;
+        while (busy) {
+            busy = false;
+            for (SimulatedNode n : nodes) {
+                if (n.getExecutor().runPending() > 0) busy = true;
+            }
+        }
+        for (SimulatedSegment s : segments) {
+            s.startTransmission(nowMicros);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package tools.netsim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openlcb.EventID;
+import org.openlcb.NodeID;
+import org.openlcb.can.CanFrame;
+import org.openlcb.can.CanFrameListener;
+import org.openlcb.can.OpenLcbCanFrame;
+import org.openlcb.implementations.BitProducerConsumer;
+import org.openlcb.implementations.MemoryConfigurationService;
+
+public class NetworkSimulatorTest {
+    NetworkSimulator sim = new NetworkSimulator();
+    SimulatedSegment bus = sim.addSegment("bus", SimulatedSegment.DEFAULT_BITRATE);
+
+    static NodeID nodeId(int i) {
+        return new NodeID(new byte[]{5, 1, 1, 1, (byte) (i >> 8), (byte) i});
+    }
+
+    static EventID eventId(int i) {
+        return new EventID(new byte[]{5, 1, 1, 1, 0, 0, 0, (byte) i});
+    }
+
+    @Test
+    public void testFrameTiming() {
+        // 67 + 64 bits at 8 usec each.
+        Assert.assertEquals(1048, bus.frameMicros(8));
+        Assert.assertEquals(536, bus.frameMicros(0));
+        bus.setWorstCaseStuffing(true);
+        Assert.assertEquals(1048 + 29 * 8, bus.frameMicros(8));
+    }
+
+    @Test
+    public void testArbitration() {
+        final List<Integer> seen = new ArrayList<>();
+        CanFrameListener recorder = new CanFrameListener() {
+            @Override
+            public void send(CanFrame frame) {
+                seen.add(frame.getHeader());
+            }
+        };
+        CanFrameListener a = bus.attach(recorder);
+        CanFrameListener b = bus.attach(recorder);
+        a.send(frame(0x19170123));
+        a.send(frame(0x19170124));
+        b.send(frame(0x10700555));
+        sim.runFor(5);
+        Assert.assertEquals(3, seen.size());
+        Assert.assertEquals(0x10700555, (int) seen.get(0));
+        Assert.assertEquals(0x19170123, (int) seen.get(1));
+        Assert.assertEquals(3, bus.getFramesTransmitted());
+        Assert.assertEquals(1, bus.getArbitrationLosses());
+        Assert.assertEquals(3 * bus.frameMicros(0), bus.getBusyMicros());
+        Assert.assertEquals(2 * bus.frameMicros(0), bus.getMaxQueueMicros());
+    }
+
+    static OpenLcbCanFrame frame(int header) {
+        OpenLcbCanFrame f = new OpenLcbCanFrame(0);
+        f.setHeader(header);
+        return f;
+    }
+
+    @Test
+    public void testAliasAllocation() {
+        for (int i = 0; i < 20; i++) {
+            sim.addNode(bus, nodeId(i));
+        }
+        Assert.assertTrue(sim.runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return sim.allInitialized();
+            }
+        }, 5000));
+        for (SimulatedNode n : sim.getNodes()) {
+            // Alias reservation and alias query delays.
+            Assert.assertTrue(n.getInitializedMicros() >= 400000);
+            Assert.assertTrue(n.getFramesReceived() > 0);
+        }
+        // Four CID frames, RID, AME and Verify Node ID from each node.
+        Assert.assertEquals(20 * 7, bus.getFramesTransmitted());
+        // Then every node answers the AME and Verify Node ID frames of all the others.
+        Assert.assertTrue(bus.getQueuedFrames() > 0);
+        sim.runFor(2000);
+        Assert.assertEquals(0, bus.getQueuedFrames());
+        Assert.assertTrue(bus.getFramesTransmitted() >= 20 * 7 + 20 * 20);
+        Assert.assertTrue(bus.getUtilization() > 0);
+        Assert.assertTrue(bus.getMaxQueueMicros() > 100000);
+    }
+
+    @Test
+    public void testDeterministic() {
+        long[] first = runStorm();
+        sim = new NetworkSimulator();
+        bus = sim.addSegment("bus", SimulatedSegment.DEFAULT_BITRATE);
+        Assert.assertArrayEquals(first, runStorm());
+    }
+
+    long[] runStorm() {
+        for (int i = 0; i < 10; i++) {
+            sim.addNode(bus, nodeId(i));
+        }
+        sim.runFor(1000);
+        long[] r = new long[12];
+        r[0] = bus.getFramesTransmitted();
+        r[1] = bus.getBusyMicros();
+        for (int i = 0; i < 10; i++) {
+            r[i + 2] = sim.getNodes().get(i).getInitializedMicros();
+        }
+        return r;
+    }
+
+    @Test
+    public void testEventLatency() {
+        SimulatedNode producerNode = sim.addNode(bus, nodeId(1));
+        SimulatedNode consumerNode = sim.addNode(bus, nodeId(2));
+        BitProducerConsumer producer = producerNode.addProducer(eventId(1), eventId(2));
+        final BitProducerConsumer consumer = consumerNode.addConsumer(eventId(1), eventId(2));
+        sim.runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return sim.allInitialized();
+            }
+        }, 2000);
+        sim.runFor(100);
+        Assert.assertEquals(0, bus.getQueuedFrames());
+
+        long start = sim.currentTimeMicros();
+        producer.getValue().set(true);
+        Assert.assertTrue(sim.runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return consumer.getValue().getLatestData();
+            }
+        }, 100));
+        // One 8-byte frame on an idle bus.
+        Assert.assertEquals(bus.frameMicros(8), sim.currentTimeMicros() - start);
+    }
+
+    @Test
+    public void testMemoryRead() {
+        SimulatedNode client = sim.addNode(bus, nodeId(1));
+        SimulatedNode server = sim.addNode(bus, nodeId(2));
+        byte[] cdi = new byte[100];
+        for (int i = 0; i < cdi.length; i++) {
+            cdi[i] = (byte) i;
+        }
+        server.addMemorySpace(MemoryConfigurationService.SPACE_CDI, cdi).setReplyDelayMillis(20);
+        sim.runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return sim.allInitialized();
+            }
+        }, 2000);
+        sim.runFor(100);
+
+        final List<byte[]> result = new ArrayList<>();
+        final int[] error = new int[1];
+        MemoryConfigurationService.McsReadHandler handler = new MemoryConfigurationService
+                .McsReadHandler() {
+            @Override
+            public void handleReadData(NodeID dest, int space, long address, byte[] data) {
+                result.add(data);
+            }
+
+            @Override
+            public void handleFailure(int errorCode) {
+                error[0] = errorCode;
+            }
+        };
+        long start = sim.currentTimeMillis();
+        client.getInterface().getMemoryConfigurationService().requestRead(server.getNodeId(),
+                MemoryConfigurationService.SPACE_CDI, 64, 64, handler);
+        Assert.assertTrue(sim.runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return !result.isEmpty();
+            }
+        }, 1000));
+        Assert.assertEquals(36, result.get(0).length);
+        Assert.assertEquals(64, result.get(0)[0]);
+        Assert.assertTrue(sim.currentTimeMillis() - start >= 20);
+        Assert.assertEquals(1, server.getMemorySpaces().getReadCount());
+
+        client.getInterface().getMemoryConfigurationService().requestRead(server.getNodeId(),
+                MemoryConfigurationService.SPACE_CDI, 100, 64, handler);
+        Assert.assertTrue(sim.runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return error[0] != 0;
+            }
+        }, 1000));
+        Assert.assertEquals(MemorySpaceResponder.ERROR_OUT_OF_BOUNDS, error[0]);
+    }
+
+    /// Reads a block with requestBulkRead. @return the data and the time taken in ms.
+    Object[] bulkRead(SimulatedNode client, SimulatedNode server, int len) {
+        final List<byte[]> result = new ArrayList<>();
+        long start = sim.currentTimeMillis();
+        client.getInterface().getMemoryConfigurationService().requestBulkRead(server
+                .getNodeId(), MemoryConfigurationService.SPACE_CDI, 0, len, new
+                MemoryConfigurationService.McsReadHandler() {
+            @Override
+            public void handleReadData(NodeID dest, int space, long address, byte[] data) {
+                result.add(data);
+            }
+
+            @Override
+            public void handleFailure(int errorCode) {
+                result.add(null);
+            }
+        });
+        Assert.assertTrue(sim.runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return !result.isEmpty();
+            }
+        }, 30000));
+        return new Object[]{result.get(0), sim.currentTimeMillis() - start};
+    }
+
+    @Test
+    public void testStreamRead() {
+        SimulatedNode client = sim.addNode(bus, nodeId(1));
+        SimulatedNode streamServer = sim.addNode(bus, nodeId(2));
+        SimulatedNode datagramServer = sim.addNode(bus, nodeId(3));
+        byte[] cdi = new byte[2000];
+        for (int i = 0; i < cdi.length; i++) {
+            cdi[i] = (byte) (i * 7);
+        }
+        // Each request waits for the processing time of the node.
+        MemorySpaceResponder streamSpaces = streamServer.addMemorySpace(MemoryConfigurationService
+                .SPACE_CDI, cdi);
+        streamSpaces.setStreamReadSupported(true);
+        streamSpaces.setReplyDelayMillis(20);
+        datagramServer.addMemorySpace(MemoryConfigurationService.SPACE_CDI, cdi)
+                .setReplyDelayMillis(20);
+        sim.runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return sim.allInitialized();
+            }
+        }, 2000);
+        sim.runFor(100);
+
+        Object[] stream = bulkRead(client, streamServer, 3000);
+        Assert.assertArrayEquals(cdi, (byte[]) stream[0]);
+        Assert.assertEquals(1, streamServer.getMemorySpaces().getReadCount());
+        MemoryConfigurationService mcs = client.getInterface().getMemoryConfigurationService();
+        Assert.assertTrue(mcs.isStreamReadSupported(streamServer.getNodeId()));
+
+        // The first read falls back after the stream read was rejected.
+        Assert.assertTrue(mcs.isStreamReadAllowed(datagramServer.getNodeId()));
+        Assert.assertArrayEquals(cdi, (byte[]) bulkRead(client, datagramServer, 3000)[0]);
+        Assert.assertFalse(mcs.isStreamReadAllowed(datagramServer.getNodeId()));
+        Object[] datagrams = bulkRead(client, datagramServer, 3000);
+        Assert.assertArrayEquals(cdi, (byte[]) datagrams[0]);
+        Assert.assertTrue("stream " + stream[1] + " ms, datagrams " + datagrams[1] + " ms",
+                (Long) stream[1] * 2 < (Long) datagrams[1]);
+    }
+}
@@ -0,0 +1,159 @@
+package tools.netsim;
+
+import org.openlcb.Connection;
+import org.openlcb.EventID;
+import org.openlcb.NodeID;
+import org.openlcb.OlcbInterface;
+import org.openlcb.TimerService;
+import org.openlcb.can.CanFrame;
+import org.openlcb.can.CanFrameListener;
+import org.openlcb.can.CanInterface;
+import org.openlcb.implementations.BitProducerConsumer;
+
+/**
+ * A virtual node of the {@link NetworkSimulator}: a complete {@link CanInterface} stack attached
+ * to a {@link SimulatedSegment}, running on its own {@link DeterministicExecutor} and virtual
+ * {@link TimerService}.
+ * <p>
+ * The alias allocation starts when the node is created; {@link #isInitialized()} turns true
+ * when the interface is ready to send messages.
+ */
+public class SimulatedNode {
+    private final NetworkSimulator simulator;
+    private final SimulatedSegment segment;
+    private final NodeID nodeId;
+    private final DeterministicExecutor executor = new DeterministicExecutor();
+    private final TimerService timerService = TimerService.createVirtual();
+    private final CanInterface canInterface;
+    private MemorySpaceResponder memorySpaces = null;
+    private long framesReceived = 0;
+    /// Simulation time when the alias allocation finished, in usec; -1 until then.
+    private long initializedMicros = -1;
+
+    SimulatedNode(NetworkSimulator simulator, SimulatedSegment segment, NodeID nodeId) {
+        this.simulator = simulator;
+        this.segment = segment;
+        this.nodeId = nodeId;
+        final Receiver receiver = new Receiver();
+        CanFrameListener output = segment.attach(receiver);
+        canInterface = new CanInterface(nodeId, output, executor, timerService);
+        receiver.input = canInterface.frameInput();
+        canInterface.addStartListener(new Connection.ConnectionListener() {
+            @Override
+            public void connectionActive(Connection c) {
+                initializedMicros = SimulatedNode.this.simulator.currentTimeMicros();
+            }
+        });
+    }
+
+    /// Counts the incoming frames before handing them to the interface.
+    private class Receiver implements CanFrameListener {
+        CanFrameListener input;
+
+        @Override
+        public void send(CanFrame frame) {
+            ++framesReceived;
+            input.send(frame);
+        }
+    }
+
+    public NodeID getNodeId() {
+        return nodeId;
+    }
+
+    public SimulatedSegment getSegment() {
+        return segment;
+    }
+
+    public CanInterface getCanInterface() {
+        return canInterface;
+    }
+
+    public OlcbInterface getInterface() {
+        return canInterface.getInterface();
+    }
+
+    DeterministicExecutor getExecutor() {
+        return executor;
+    }
+
+    TimerService getTimerService() {
+        return timerService;
+    }
+
+    /**
+     * @return true if the alias allocation finished.
+     */
+    public boolean isInitialized() {
+        return initializedMicros >= 0;
+    }
+
+    /**
+     * @return simulation time when the alias allocation finished, in usec; -1 if it did not
+     * finish yet.
+     */
+    public long getInitializedMicros() {
+        return initializedMicros;
+    }
+
+    /**
+     * @return the number of CAN frames this node received from the segment.
+     */
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    /**
+     * Adds a producer and/or consumer of an event pair.
+     * @param eventOn  event for the true state
+     * @param eventOff event for the false state
+     * @param flags    flags of {@link BitProducerConsumer}
+     * @return the created object; setting its value sends the event report.
+     */
+    public BitProducerConsumer addBit(EventID eventOn, EventID eventOff, int flags) {
+        return new BitProducerConsumer(getInterface(), eventOn, eventOff, flags);
+    }
+
+    /**
+     * Adds a producer of an event pair, which does not query the state at startup.
+     * @param eventOn  event for the true state
+     * @param eventOff event for the false state
+     * @return the created object; setting its value sends the event report.
+     */
+    public BitProducerConsumer addProducer(EventID eventOn, EventID eventOff) {
+        return addBit(eventOn, eventOff, BitProducerConsumer.IS_PRODUCER);
+    }
+
+    /**
+     * Adds a consumer of an event pair, which does not query the state at startup.
+     * @param eventOn  event for the true state
+     * @param eventOff event for the false state
+     * @return the created object; its value follows the received event reports.
+     */
+    public BitProducerConsumer addConsumer(EventID eventOn, EventID eventOff) {
+        return addBit(eventOn, eventOff, BitProducerConsumer.IS_CONSUMER);
+    }
+
+    /**
+     * Adds an address space that other nodes can read and write with the Memory Configuration
+     * protocol.
+     * @param space    address space number, e.g. 0xFF for the CDI
+     * @param contents bytes of the space
+     * @return the responder serving all spaces of this node, e.g. to set the reply delay.
+     */
+    public MemorySpaceResponder addMemorySpace(int space, byte[] contents) {
+        if (memorySpaces == null) {
+            memorySpaces = new MemorySpaceResponder(getInterface());
+        }
+        memorySpaces.setSpace(space, contents);
+        return memorySpaces;
+    }
+
+    /**
+     * @return the responder serving the address spaces of this node, or null if none were
+     * added.
+     */
+    public MemorySpaceResponder getMemorySpaces() {
+        return memorySpaces;
+    }
+}
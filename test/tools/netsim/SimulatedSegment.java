@@ -0,0 +1,271 @@
+package tools.netsim;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openlcb.can.CanFrame;
+import org.openlcb.can.CanFrameListener;
+
+/**
+ * A simulated CAN bus segment with bandwidth and arbitration modeling.
+ * <p>
+ * Each attached node has a transmit FIFO, like the transmit buffer of a CAN controller. Whenever
+ * the bus is idle, the frames at the heads of the FIFOs arbitrate and the one with the lowest
+ * header wins, as on a real bus. The winner occupies the bus for the time it takes to transmit
+ * its bits at the segment bitrate; at the end of that time the frame is delivered to every other
+ * node on the segment.
+ * <p>
+ * Two nodes sending the same header at the same time (e.g. colliding alias reservations) would
+ * cause an error frame on a real bus; here the node attached first wins and the other one sends
+ * afterwards.
+ * <p>
+ * Time is kept by the owning {@link NetworkSimulator}, in microseconds.
+ */
+public class SimulatedSegment {
+    /// Default bitrate of OpenLCB CAN segments, in bits per second.
+    public static final int DEFAULT_BITRATE = 125000;
+
+    /**
+     * One node's connection to the segment.
+     */
+    private static final class Port implements CanFrameListener {
+        final SimulatedSegment segment;
+        final CanFrameListener receiver;
+        final ArrayDeque<CanFrame> txQueue = new ArrayDeque<>();
+        /// Simulation time when each frame of txQueue was queued, in usec.
+        final ArrayDeque<Long> txQueuedAt = new ArrayDeque<>();
+
+        Port(SimulatedSegment segment, CanFrameListener receiver) {
+            this.segment = segment;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void send(CanFrame frame) {
+            segment.enqueue(this, frame);
+        }
+    }
+
+    private final NetworkSimulator simulator;
+    private final String name;
+    private final int bitrate;
+    private final List<Port> ports = new ArrayList<>();
+    private final List<CanFrameListener> monitors = new ArrayList<>();
+    private boolean worstCaseStuffing = false;
+
+    /// Frame on the wire, or null if the bus is idle.
+    private CanFrame inFlight = null;
+    private Port transmitter = null;
+    /// When the frame on the wire is completely transmitted, in usec.
+    private long txEnd = 0;
+
+    // Statistics.
+    private long framesTransmitted = 0;
+    private long busyMicros = 0;
+    private long arbitrationLosses = 0;
+    private long totalQueueMicros = 0;
+    private long maxQueueMicros = 0;
+    private int maxQueueDepth = 0;
+
+    SimulatedSegment(NetworkSimulator simulator, String name, int bitrate) {
+        this.simulator = simulator;
+        this.name = name;
+        this.bitrate = bitrate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * Selects whether frame lengths include the worst-case number of stuff bits. The default is
+     * to count the nominal frame length only.
+     * @param worstCase true to add the maximum number of stuff bits to each frame
+     */
+    public void setWorstCaseStuffing(boolean worstCase) {
+        worstCaseStuffing = worstCase;
+    }
+
+    /**
+     * Attaches a node to the segment.
+     * @param receiver gets the frames sent by the other nodes
+     * @return where the node sends its frames.
+     */
+    public CanFrameListener attach(CanFrameListener receiver) {
+        Port p = new Port(this, receiver);
+        ports.add(p);
+        return p;
+    }
+
+    /**
+     * Adds a listener that sees every frame at the time its transmission ends, e.g. for tracing.
+     * @param monitor listener
+     */
+    public void addMonitor(CanFrameListener monitor) {
+        monitors.add(monitor);
+    }
+
+    /**
+     * @param dataLength number of data bytes of an extended frame
+     * @return the number of bit times the frame occupies the bus, including the interframe
+     * space.
+     */
+    int frameBits(int dataLength) {
+        // SOF, 29-bit ID with SRR and IDE, RTR, r1, r0, DLC, CRC with delimiter, ACK with
+        // delimiter, EOF and interframe space.
+        int bits = 67 + 8 * dataLength;
+        if (worstCaseStuffing) {
+            // Stuffing applies from SOF to the end of the CRC.
+            bits += (54 + 8 * dataLength - 1) / 4;
+        }
+        return bits;
+    }
+
+    /**
+     * @param dataLength number of data bytes of an extended frame
+     * @return how long the frame occupies the bus, in usec.
+     */
+    public long frameMicros(int dataLength) {
+        return (frameBits(dataLength) * 1000000L + bitrate - 1) / bitrate;
+    }
+
+    private void enqueue(Port p, CanFrame frame) {
+        p.txQueue.add(frame);
+        p.txQueuedAt.add(simulator.currentTimeMicros());
+        if (p.txQueue.size() > maxQueueDepth) {
+            maxQueueDepth = p.txQueue.size();
+        }
+    }
+
+    /**
+     * @return true if a frame is on the wire.
+     */
+    boolean isTransmitting() {
+        return inFlight != null;
+    }
+
+    /**
+     * @return when the frame on the wire is completely transmitted, in usec.
+     */
+    long getTransmissionEnd() {
+        return txEnd;
+    }
+
+    /**
+     * If the bus is idle, lets the queued frames arbitrate and starts transmitting the winner.
+     * @param now current simulation time in usec
+     */
+    void startTransmission(long now) {
+        if (inFlight != null) return;
+        Port winner = null;
+        int contenders = 0;
+        for (Port p : ports) {
+            CanFrame f = p.txQueue.peek();
+            if (f == null) continue;
+            ++contenders;
+            if (winner == null || f.getHeader() < winner.txQueue.peek().getHeader()) {
+                winner = p;
+            }
+        }
+        if (winner == null) return;
+        arbitrationLosses += contenders - 1;
+        inFlight = winner.txQueue.poll();
+        long wait = now - winner.txQueuedAt.poll();
+        totalQueueMicros += wait;
+        if (wait > maxQueueMicros) maxQueueMicros = wait;
+        transmitter = winner;
+        long duration = frameMicros(inFlight.getNumDataElements());
+        txEnd = now + duration;
+        busyMicros += duration;
+    }
+
+    /**
+     * Ends the transmission of the frame on the wire and delivers it to the other nodes and the
+     * monitors.
+     */
+    void finishTransmission() {
+        CanFrame f = inFlight;
+        Port sender = transmitter;
+        inFlight = null;
+        transmitter = null;
+        ++framesTransmitted;
+        for (Port p : ports) {
+            if (p != sender) {
+                p.receiver.send(f);
+            }
+        }
+        for (CanFrameListener m : monitors) {
+            m.send(f);
+        }
+    }
+
+    /**
+     * @return the number of frames completely transmitted.
+     */
+    public long getFramesTransmitted() {
+        return framesTransmitted;
+    }
+
+    /**
+     * @return the total time the bus was occupied, in usec.
+     */
+    public long getBusyMicros() {
+        return busyMicros;
+    }
+
+    /**
+     * @return the fraction of the simulated time the bus was occupied, between 0 and 1.
+     */
+    public double getUtilization() {
+        long now = simulator.currentTimeMicros();
+        if (now == 0) return 0;
+        return Math.min(1.0, (double) busyMicros / now);
+    }
+
+    /**
+     * @return how many times a queued frame lost arbitration to another node's frame.
+     */
+    public long getArbitrationLosses() {
+        return arbitrationLosses;
+    }
+
+    /**
+     * @return the longest time a frame waited in a transmit queue before getting the bus, in
+     * usec.
+     */
+    public long getMaxQueueMicros() {
+        return maxQueueMicros;
+    }
+
+    /**
+     * @return the average time a frame waited in a transmit queue before getting the bus, in
+     * usec.
+     */
+    public double getAverageQueueMicros() {
+        long n = framesTransmitted + (inFlight != null ? 1 : 0);
+        return n == 0 ? 0 : (double) totalQueueMicros / n;
+    }
+
+    /**
+     * @return the largest number of frames that were waiting in a single node's transmit queue.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return the number of frames currently waiting in transmit queues.
+     */
+    public int getQueuedFrames() {
+        int n = 0;
+        for (Port p : ports) {
+            n += p.txQueue.size();
+        }
+        return n;
+    }
+}
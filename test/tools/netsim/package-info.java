@@ -0,0 +1,13 @@
+/**
+
+Provides a deterministic discrete-event simulator of OpenLCB CAN networks, for load tests with
+many nodes running the real CAN interface stack on a virtual clock.
+
+<p>
+Start with {@link tools.netsim.NetworkSimulator}.
+
+@see org.openlcb.can
+@see tools.cansim
+
+*/
+package tools.netsim;